@@ -1,77 +1,230 @@
 package org.kairosdb.congestion;
 
 /**
+ Limits the number of concurrent processes using additive increase and
+ multiplicative decrease driven by how long processes take.
+
+ Two moving averages of process latency are kept, a short one that follows
+ the current latency and a long one that acts as the baseline.  While the
+ short average stays under baseline * tolerance the limit grows, by one per
+ finished process during slow start and by roughly one per limit's worth of
+ finished processes after that.  Once the short average goes over the target
+ the limit is multiplied by 0.9, failed processes multiply it by 0.5.  Only
+ processes started after the last decrease can decrease the limit again, so a
+ slow period is answered once and not by every process that was already
+ running, and the limit always stays between the min and max limits.
+
  Created by bhawkins on 3/19/16.
  */
 public class AdaptiveCongestionController implements CongestionController
 {
+	private static final double SHORT_ALPHA = 0.2;
+	private static final double LONG_ALPHA = 0.01;
+	private static final double LATENCY_BACKOFF = 0.9;
+	private static final double FAILURE_BACKOFF = 0.5;
+
 	private int m_processCounter;
-	private int m_maxProcesses;
+	private double m_limit;
+	private int m_minLimit;
+	private int m_maxLimit;
+	private double m_tolerance = 2.0;
 
-	private Object m_processLock = new Object();
+	private final Object m_processLock = new Object();
 	private boolean m_shuttingDown = false;
 	private boolean m_inSlowStart = true;
 
-	private void processReturned()
+	private double m_shortLatency = -1.0;
+	private double m_longLatency = -1.0;
+	private long m_startedVersion;
+	private long m_lastDecreaseVersion;
+
+	/**
+	 @param initialLimit number of processes allowed at start
+	 @param minLimit limit is never decreased below this
+	 @param maxLimit limit is never increased above this, a max equal to the
+	 min keeps the limit fixed
+	 */
+	public AdaptiveCongestionController(int initialLimit, int minLimit, int maxLimit)
+	{
+		setLimits(minLimit, maxLimit);
+		m_limit = clamp(initialLimit);
+	}
+
+	public void setLimits(int minLimit, int maxLimit)
 	{
+		if (minLimit < 1 || maxLimit < minLimit)
+			throw new IllegalArgumentException("Invalid congestion limits " + minLimit + " - " + maxLimit);
+
 		synchronized (m_processLock)
 		{
-			m_processCounter --;
-			m_processLock.notify();
+			m_minLimit = minLimit;
+			m_maxLimit = maxLimit;
+			m_limit = clamp(m_limit);
+			m_processLock.notifyAll();
 		}
 	}
 
-	public AdaptiveCongestionController()
+	/**
+	 @param tolerance how many times the baseline latency the current latency
+	 can reach before the limit is decreased
+	 */
+	public void setTolerance(double tolerance)
 	{
+		synchronized (m_processLock)
+		{
+			m_tolerance = tolerance;
+		}
+	}
+
+	private double clamp(double limit)
+	{
+		return Math.max(m_minLimit, Math.min(m_maxLimit, limit));
 	}
 
 	public void shutdown()
 	{
-		m_shuttingDown = true;
-		m_processLock.notifyAll();
+		synchronized (m_processLock)
+		{
+			m_shuttingDown = true;
+			m_processLock.notifyAll();
+		}
 	}
 
+	/**
+	 Blocks until another process is allowed to run.  The returned tracker
+	 must be told when the process finishes or fails.
+	 @return null if the controller is shutting down
+	 */
 	@Override
 	public ProcessTracker getProcessTracker()
 	{
+		long version;
 		synchronized (m_processLock)
 		{
-			while (m_processCounter >= m_maxProcesses)
+			while (m_processCounter >= (int) m_limit)
 			{
+				if (m_shuttingDown)
+					return null;
+
 				try
 				{
 					m_processLock.wait();
 				}
 				catch (InterruptedException e)
 				{
-					e.printStackTrace();
-				}
-
-				if (m_shuttingDown)
+					Thread.currentThread().interrupt();
 					return null;
+				}
 			}
 
 			m_processCounter ++;
+			version = ++m_startedVersion;
 		}
 
-		ProcessTimer pt = new ProcessTimer(this);
+		ProcessTimer pt = new ProcessTimer(this, version);
 		pt.start();
 
-		//Need an ability to mark certain timings with a version.
-		//Do this durring slow start to track the new processes
-
 		return pt;
 	}
 
-	public void finishedProcess(long microseconds)
+	/**
+	 @param version version the process was given when it started
+	 */
+	public void finishedProcess(long microseconds, long version)
+	{
+		synchronized (m_processLock)
+		{
+			int inFlight = m_processCounter;
+			m_processCounter --;
+
+			if (m_shortLatency < 0)
+			{
+				m_shortLatency = microseconds;
+				m_longLatency = microseconds;
+			}
+			else
+			{
+				m_shortLatency += SHORT_ALPHA * (microseconds - m_shortLatency);
+				m_longLatency += LONG_ALPHA * (microseconds - m_longLatency);
+			}
+
+			if (m_shortLatency > m_longLatency * m_tolerance)
+			{
+				m_inSlowStart = false;
+				decrease(LATENCY_BACKOFF, version);
+			}
+			else if (inFlight >= (int) m_limit / 2)
+			{
+				//Only grow when the current limit is being used
+				if (m_inSlowStart)
+					m_limit = clamp(m_limit + 1);
+				else
+					m_limit = clamp(m_limit + 1.0 / m_limit);
+			}
+
+			m_processLock.notifyAll();
+		}
+	}
+
+	public void failedProcess(long version)
 	{
-		processReturned();
-		//Add microseconds to stats
+		synchronized (m_processLock)
+		{
+			m_processCounter --;
+			m_inSlowStart = false;
+			decrease(FAILURE_BACKOFF, version);
+
+			m_processLock.notifyAll();
+		}
 	}
 
-	public void failedProcess()
+	/**
+	 Called with m_processLock held.
+	 */
+	private void decrease(double backoff, long version)
 	{
-		processReturned();
-		//Initiate slow start
+		if (version <= m_lastDecreaseVersion)
+			return;
+
+		m_limit = clamp(m_limit * backoff);
+		m_lastDecreaseVersion = m_startedVersion;
+	}
+
+	public int getLimit()
+	{
+		synchronized (m_processLock)
+		{
+			return (int) m_limit;
+		}
+	}
+
+	public int getInFlight()
+	{
+		synchronized (m_processLock)
+		{
+			return m_processCounter;
+		}
+	}
+
+	/**
+	 @return short moving average of process latency in microseconds
+	 */
+	public long getLatency()
+	{
+		synchronized (m_processLock)
+		{
+			return Math.max(0L, (long) m_shortLatency);
+		}
+	}
+
+	/**
+	 @return latency in microseconds above which the limit is decreased
+	 */
+	public long getTargetLatency()
+	{
+		synchronized (m_processLock)
+		{
+			return Math.max(0L, (long) (m_longLatency * m_tolerance));
+		}
 	}
 }
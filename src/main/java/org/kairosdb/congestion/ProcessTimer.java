@@ -11,11 +11,18 @@ public class ProcessTimer implements ProcessTracker
 {
 	private Stopwatch m_timer;
 	private AdaptiveCongestionController m_adaptiveCongestionController;
+	private final long m_version;
 
-	public ProcessTimer(AdaptiveCongestionController congestionController)
+	public ProcessTimer(AdaptiveCongestionController congestionController, long version)
 	{
 		m_timer = Stopwatch.createUnstarted();
 		m_adaptiveCongestionController = congestionController;
+		m_version = version;
+	}
+
+	public long getVersion()
+	{
+		return m_version;
 	}
 
 	public void start()
@@ -30,13 +37,13 @@ public class ProcessTimer implements ProcessTracker
 	{
 		m_timer.stop();
 		long microseconds = m_timer.elapsed(TimeUnit.MICROSECONDS);
-		m_adaptiveCongestionController.finishedProcess(microseconds);
+		m_adaptiveCongestionController.finishedProcess(microseconds, m_version);
 	}
 
 
 	@Override
 	public void failed()
 	{
-		m_adaptiveCongestionController.failedProcess();
+		m_adaptiveCongestionController.failedProcess(m_version);
 	}
 }
@@ -36,6 +36,7 @@ import org.kairosdb.core.configuration.ConfigurationTypeListener;
 import org.kairosdb.core.datapoints.*;
 import org.kairosdb.core.datastore.GuiceQueryPluginFactory;
 import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.datastore.QueryMemoryCache;
 import org.kairosdb.core.datastore.QueryPluginFactory;
 import org.kairosdb.core.datastore.QueryQueuingManager;
 import org.kairosdb.core.groupby.*;
@@ -46,6 +47,7 @@ import org.kairosdb.core.jobs.CacheFileCleaner;
 import org.kairosdb.core.processingstage.FeatureProcessingFactory;
 import org.kairosdb.core.processingstage.FeatureProcessor;
 import org.kairosdb.core.queue.DataPointEventSerializer;
+import org.kairosdb.core.queue.EventDictionary;
 import org.kairosdb.core.queue.QueueProcessor;
 import org.kairosdb.core.scheduler.KairosDBScheduler;
 import org.kairosdb.core.scheduler.KairosDBSchedulerImpl;
@@ -193,6 +195,7 @@ public class CoreModule extends AbstractModule
 
 		bind(QueryQueuingManager.class).in(Singleton.class);
 		bind(KairosDatastore.class).in(Singleton.class);
+		bind(QueryMemoryCache.class).in(Singleton.class);
 
 		bind(new TypeLiteral<FeatureProcessingFactory<Aggregator>>() {}).to(AggregatorFactory.class).in(Singleton.class);
 		bind(new TypeLiteral<FeatureProcessingFactory<GroupBy>>() {}).to(GroupByFactory.class).in(Singleton.class);
@@ -206,6 +209,7 @@ public class CoreModule extends AbstractModule
 		bind(KairosDBSchedulerImpl.class).in(Singleton.class);
 		bind(MemoryMonitor.class).in(Singleton.class);
 		bind(DataPointEventSerializer.class).in(Singleton.class);
+		bind(EventDictionary.class).in(Singleton.class);
 		bind(SimpleStatsReporter.class);
 
 		bind(SumAggregator.class);
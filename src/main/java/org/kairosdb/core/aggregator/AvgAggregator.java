@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.exception.KairosDBException;
 
 import java.util.Collections;
@@ -48,6 +49,12 @@ public class AvgAggregator extends RangeAggregator
 		return (new AvgDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new AvgBlockAggregator());
+	}
+
 	@Override
 	public boolean canAggregate(String groupType)
 	{
@@ -82,4 +89,34 @@ public class AvgAggregator extends RangeAggregator
 		}
 	}
 
-}
\ No newline at end of file
+	private class AvgBlockAggregator implements BlockRangeSubAggregator
+	{
+		private int m_count = 0;
+		private double m_sum = 0;
+
+		@Override
+		public void addValues(double[] values, int from, int to)
+		{
+			double sum = m_sum;
+			for (int i = from; i < to; i++)
+				sum += values[i];
+			m_sum = sum;
+			m_count += to - from;
+		}
+
+		@Override
+		public void writeResult(long returnTime, DataPointBlock output)
+		{
+			output.add(returnTime, m_sum / m_count);
+			m_sum = 0;
+			m_count = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
+
+}
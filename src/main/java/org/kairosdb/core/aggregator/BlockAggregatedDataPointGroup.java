@@ -0,0 +1,142 @@
+package org.kairosdb.core.aggregator;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
+import org.kairosdb.core.groupby.GroupByResult;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ Base for aggregated groups that read their input in blocks and produce their
+ output in blocks.  The iterator methods are an adapter over
+ {@link #nextBlock(DataPointBlock)} for consumers that want data point objects,
+ those are only created as they are read.
+ */
+public abstract class BlockAggregatedDataPointGroup implements BlockDataPointGroup
+{
+	private final BlockDataPointGroup m_innerDataPointGroup;
+	private final DataPointBlock m_input;
+	private int m_inputPosition;
+	private boolean m_inputDone;
+
+	//Only used by the iterator methods
+	private DataPointBlock m_output;
+	private int m_outputPosition;
+
+	public BlockAggregatedDataPointGroup(BlockDataPointGroup innerDataPointGroup)
+	{
+		m_innerDataPointGroup = innerDataPointGroup;
+		m_input = new DataPointBlock();
+	}
+
+	/**
+	 Makes sure there is unread input, reading the next block from the inner
+	 group when the current one is used up.
+
+	 @return false once the inner group has no data points left
+	 */
+	protected boolean readInput()
+	{
+		if (m_inputPosition < m_input.size())
+			return true;
+
+		if (m_inputDone)
+			return false;
+
+		m_inputPosition = 0;
+		if (!m_innerDataPointGroup.nextBlock(m_input))
+		{
+			m_inputDone = true;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 Current input block, only valid after {@link #readInput()} returned true.
+	 */
+	protected DataPointBlock getInput()
+	{
+		return m_input;
+	}
+
+	/**
+	 @return index of the next unread entry in the input block
+	 */
+	protected int getInputPosition()
+	{
+		return m_inputPosition;
+	}
+
+	protected void setInputPosition(int inputPosition)
+	{
+		m_inputPosition = inputPosition;
+	}
+
+	/**
+	 Creates the data point object for an entry in a block filled by this group.
+	 */
+	protected abstract DataPoint createDataPoint(DataPointBlock block, int index);
+
+	@Override
+	public boolean hasNext()
+	{
+		if (m_output == null)
+			m_output = new DataPointBlock();
+
+		if (m_outputPosition < m_output.size())
+			return true;
+
+		m_outputPosition = 0;
+		return nextBlock(m_output);
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		return createDataPoint(m_output, m_outputPosition++);
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String getName()
+	{
+		return (m_innerDataPointGroup.getName());
+	}
+
+	@Override
+	public Set<String> getTagNames()
+	{
+		return (m_innerDataPointGroup.getTagNames());
+	}
+
+	@Override
+	public Set<String> getTagValues(String tag)
+	{
+		return (m_innerDataPointGroup.getTagValues(tag));
+	}
+
+	@Override
+	public List<GroupByResult> getGroupByResult()
+	{
+		return m_innerDataPointGroup.getGroupByResult();
+	}
+
+	@Override
+	public void close()
+	{
+		m_innerDataPointGroup.close();
+	}
+}
@@ -0,0 +1,19 @@
+package org.kairosdb.core.aggregator;
+
+/**
+ Finds the range a timestamp falls in for a RangeAggregator.  Ranges are a
+ whole number of samplings away from the start time.
+ */
+public interface BucketCalculator
+{
+	/**
+	 @return start of the range containing timestamp
+	 */
+	long getStartRange(long timestamp);
+
+	/**
+	 @return end of the range containing timestamp, this is also the start of
+	 the next range
+	 */
+	long getEndRange(long timestamp);
+}
@@ -0,0 +1,41 @@
+package org.kairosdb.core.aggregator;
+
+import org.joda.time.DateTimeField;
+
+/**
+ Ranges measured in calendar units of the query time zone, used for months
+ and years and for days and weeks in zones where a day is not always 24
+ hours long.
+ */
+class CalendarBucketCalculator implements BucketCalculator
+{
+	private final long m_startTime;
+	private final DateTimeField m_unitField;
+	private final long m_samplingValue;
+
+	/**
+	 @param startTime start of the first range
+	 @param unitField field of the zoned chronology for the sampling unit
+	 @param samplingValue number of units in each range
+	 */
+	public CalendarBucketCalculator(long startTime, DateTimeField unitField, long samplingValue)
+	{
+		m_startTime = startTime;
+		m_unitField = unitField;
+		m_samplingValue = samplingValue;
+	}
+
+	@Override
+	public long getStartRange(long timestamp)
+	{
+		long numberOfPastPeriods = m_unitField.getDifferenceAsLong(timestamp, m_startTime) / m_samplingValue;
+		return m_unitField.add(m_startTime, numberOfPastPeriods * m_samplingValue);
+	}
+
+	@Override
+	public long getEndRange(long timestamp)
+	{
+		long numberOfPastPeriods = m_unitField.getDifferenceAsLong(timestamp, m_startTime) / m_samplingValue;
+		return m_unitField.add(m_startTime, (numberOfPastPeriods + 1) * m_samplingValue);
+	}
+}
@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 
 import java.util.Collections;
 import java.util.Iterator;
@@ -43,6 +44,12 @@ public class CountAggregator extends RangeAggregator
 		return (new CountDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new CountBlockAggregator());
+	}
+
 	@Override
 	public boolean canAggregate(String groupType)
 	{
@@ -71,4 +78,28 @@ public class CountAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, count));
 		}
 	}
-}
\ No newline at end of file
+
+	private class CountBlockAggregator implements BlockRangeSubAggregator
+	{
+		private long m_count = 0;
+
+		@Override
+		public void addValues(double[] values, int from, int to)
+		{
+			m_count += to - from;
+		}
+
+		@Override
+		public void writeResult(long returnTime, DataPointBlock output)
+		{
+			output.addLong(returnTime, m_count);
+			m_count = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getLongValues()[index]);
+		}
+	}
+}
@@ -4,6 +4,8 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.plugin.Aggregator;
 
@@ -27,6 +29,9 @@ public class DiffAggregator implements Aggregator
 	@Override
 	public DataPointGroup aggregate(DataPointGroup dataPointGroup)
 	{
+		if (dataPointGroup instanceof BlockDataPointGroup)
+			return new BlockDiffDataPointGroup((BlockDataPointGroup) dataPointGroup);
+
 		return new DiffDataPointGroup(dataPointGroup);
 	}
 
@@ -82,4 +87,53 @@ public class DiffAggregator implements Aggregator
 			return (m_dataPointFactory.createDataPoint(currentDataPoint.getTimestamp(), diff));
 		}
 	}
+
+	private class BlockDiffDataPointGroup extends BlockAggregatedDataPointGroup
+	{
+		private boolean m_started = false;
+		private double m_lastValue;
+
+		BlockDiffDataPointGroup(BlockDataPointGroup innerDataPointGroup)
+		{
+			super(innerDataPointGroup);
+		}
+
+		@Override
+		public boolean nextBlock(DataPointBlock output)
+		{
+			output.clear();
+			while (!output.isFull() && readInput())
+			{
+				DataPointBlock input = getInput();
+				long[] timestamps = input.getTimestamps();
+				double[] values = input.getValues();
+				int position = getInputPosition();
+
+				if (!m_started)
+				{
+					m_lastValue = values[position];
+					m_started = true;
+					position++;
+				}
+
+				int end = Math.min(input.size(), position + output.capacity() - output.size());
+				for (; position < end; position++)
+				{
+					double newValue = values[position];
+					output.add(timestamps[position], newValue - m_lastValue);
+					m_lastValue = newValue;
+				}
+
+				setInputPosition(position);
+			}
+
+			return output.size() != 0;
+		}
+
+		@Override
+		protected DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
 }
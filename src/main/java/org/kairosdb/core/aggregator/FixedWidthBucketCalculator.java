@@ -0,0 +1,43 @@
+package org.kairosdb.core.aggregator;
+
+/**
+ Ranges that are always the same number of milliseconds long.  This is true
+ of milliseconds through hours in every time zone as well as days and weeks in
+ zones without daylight savings, so the range is found with integer math
+ instead of going through the calendar.
+
+ Gives the same results as {@link CalendarBucketCalculator}, including
+ timestamps before the start time rounding towards it.
+ */
+class FixedWidthBucketCalculator implements BucketCalculator
+{
+	private final long m_startTime;
+	private final long m_width;
+
+	/**
+	 @param startTime start of the first range
+	 @param width length of each range in milliseconds
+	 */
+	public FixedWidthBucketCalculator(long startTime, long width)
+	{
+		if (width <= 0)
+			throw new IllegalArgumentException("Range width must be positive " + width);
+
+		m_startTime = startTime;
+		m_width = width;
+	}
+
+	@Override
+	public long getStartRange(long timestamp)
+	{
+		long numberOfPastPeriods = Math.subtractExact(timestamp, m_startTime) / m_width;
+		return Math.addExact(m_startTime, Math.multiplyExact(numberOfPastPeriods, m_width));
+	}
+
+	@Override
+	public long getEndRange(long timestamp)
+	{
+		long numberOfPastPeriods = Math.subtractExact(timestamp, m_startTime) / m_width;
+		return Math.addExact(m_startTime, Math.multiplyExact(numberOfPastPeriods + 1, m_width));
+	}
+}
@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 
 import java.util.Collections;
 import java.util.Iterator;
@@ -58,6 +59,12 @@ public class MaxAggregator extends RangeAggregator
 		return (new MaxDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new MaxBlockAggregator());
+	}
+
 	private class MaxDataPointAggregator implements RangeSubAggregator
 	{
 		@Override
@@ -72,4 +79,31 @@ public class MaxAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, max));
 		}
 	}
-}
\ No newline at end of file
+
+	private class MaxBlockAggregator implements BlockRangeSubAggregator
+	{
+		private double m_max = -Double.MAX_VALUE;
+
+		@Override
+		public void addValues(double[] values, int from, int to)
+		{
+			double max = m_max;
+			for (int i = from; i < to; i++)
+				max = Math.max(max, values[i]);
+			m_max = max;
+		}
+
+		@Override
+		public void writeResult(long returnTime, DataPointBlock output)
+		{
+			output.add(returnTime, m_max);
+			m_max = -Double.MAX_VALUE;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
+}
@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 
 import java.util.Collections;
 import java.util.Iterator;
@@ -58,6 +59,12 @@ public class MinAggregator extends RangeAggregator
 		return (new MinDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new MinBlockAggregator());
+	}
+
 	private class MinDataPointAggregator implements RangeSubAggregator
 	{
 
@@ -75,4 +82,31 @@ public class MinAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, min));
 		}
 	}
-}
\ No newline at end of file
+
+	private class MinBlockAggregator implements BlockRangeSubAggregator
+	{
+		private double m_min = Double.MAX_VALUE;
+
+		@Override
+		public void addValues(double[] values, int from, int to)
+		{
+			double min = m_min;
+			for (int i = from; i < to; i++)
+				min = Math.min(min, values[i]);
+			m_min = min;
+		}
+
+		@Override
+		public void writeResult(long returnTime, DataPointBlock output)
+		{
+			output.add(returnTime, m_min);
+			m_min = Double.MAX_VALUE;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
+}
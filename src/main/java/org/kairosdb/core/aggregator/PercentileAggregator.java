@@ -24,6 +24,7 @@ import org.kairosdb.core.annotation.ValidationProperty;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.http.rest.validation.NonZero;
 import org.kairosdb.util.Reservoir;
+import org.kairosdb.util.TDigest;
 import org.kairosdb.util.UniformReservoir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +43,18 @@ public class PercentileAggregator extends RangeAggregator
 {
 	public static final Logger logger = LoggerFactory.getLogger(PercentileAggregator.class);
 
+	public enum Estimator
+	{
+		/**
+		 Sorts a random sample of up to 1028 values from each range.
+		 */
+		RESERVOIR,
+		/**
+		 Builds a t-digest of every value in the range.
+		 */
+		TDIGEST
+	}
+
 	private DoubleDataPointFactory m_dataPointFactory;
 
 	@Inject
@@ -80,17 +93,75 @@ public class PercentileAggregator extends RangeAggregator
 	)
 	private double percentile;
 
+	@FeatureProperty(
+			label = "Estimator",
+			description = "How the percentile is estimated. Reservoir samples up to 1028 values from the range, tdigest summarizes every value in bounded memory.",
+			type = "enum",
+			options = {"reservoir", "tdigest"},
+			default_value = "reservoir"
+	)
+	private Estimator estimator = Estimator.RESERVOIR;
+
+	@FeatureProperty(
+			label = "Compression",
+			description = "Accuracy of the tdigest estimator, higher values are more accurate and use more memory.",
+			default_value = "100",
+			validations =  {
+					@ValidationProperty(
+							expression = "value >= 10",
+							message = "Compression must be at least 10."
+					)
+			}
+	)
+	private double compression = TDigest.DEFAULT_COMPRESSION;
+
 	public void setPercentile(double percentile)
 	{
 		this.percentile = percentile;
 	}
 
+	public void setEstimator(Estimator estimator)
+	{
+		this.estimator = estimator;
+	}
+
+	public void setCompression(double compression)
+	{
+		this.compression = compression;
+	}
+
 	@Override
 	protected RangeSubAggregator getSubAggregator()
 	{
+		if (estimator == Estimator.TDIGEST)
+			return new DigestDataPointAggregator();
+
 		return (new PercentileDataPointAggregator());
 	}
 
+	/**
+	 One digest is reused for every range of a group.
+	 */
+	private class DigestDataPointAggregator implements RangeSubAggregator
+	{
+		private final TDigest digest = new TDigest(compression);
+
+		@Override
+		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange)
+		{
+			digest.reset();
+
+			while (dataPointRange.hasNext())
+			{
+				digest.add(dataPointRange.next().getDoubleValue());
+			}
+
+			double percentileValue = digest.size() == 0 ? 0.0 : digest.quantile(percentile);
+
+			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, percentileValue));
+		}
+	}
+
 	private class PercentileDataPointAggregator implements RangeSubAggregator
 	{
 		private double[] values;
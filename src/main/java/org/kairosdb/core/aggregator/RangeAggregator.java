@@ -16,12 +16,16 @@ package org.kairosdb.core.aggregator;
 
 import org.joda.time.Chronology;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeField;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 import org.joda.time.chrono.GregorianChronology;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureCompoundProperty;
 import org.kairosdb.core.annotation.FeatureProperty;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.plugin.Aggregator;
@@ -46,7 +50,7 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 	private boolean m_alignSampling = true;
 
 	/* used for generic range computations */
-	private DateTimeField m_unitField;
+	private BucketCalculator m_bucketCalculator;
 
 
 	@NotNull
@@ -106,39 +110,67 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 
 	public void init()
 	{
-		Chronology chronology = GregorianChronology.getInstance(m_timeZone);
+		if (m_alignSampling)
+			m_startTime = alignRangeBoundary(m_startTime);
 
+		m_bucketCalculator = createBucketCalculator();
+	}
+
+	private BucketCalculator createBucketCalculator()
+	{
 		TimeUnit tu = m_sampling.getUnit();
+		long unitMillis = getFixedUnitMillis(tu);
+		if (unitMillis != 0)
+			return new FixedWidthBucketCalculator(m_startTime, m_sampling.getValue() * unitMillis);
+
+		Chronology chronology = GregorianChronology.getInstance(m_timeZone);
+		DateTimeField unitField;
 		switch (tu)
 		{
 			case YEARS:
-				m_unitField = chronology.year();
+				unitField = chronology.year();
 				break;
 			case MONTHS:
-				m_unitField = chronology.monthOfYear();
+				unitField = chronology.monthOfYear();
 				break;
 			case WEEKS:
-				m_unitField = chronology.weekOfWeekyear();
+				unitField = chronology.weekOfWeekyear();
 				break;
-			case DAYS:
-				m_unitField = chronology.dayOfMonth();
+			default:
+				unitField = chronology.dayOfMonth();
 				break;
+		}
+
+		return new CalendarBucketCalculator(m_startTime, unitField, m_sampling.getValue());
+	}
+
+	/**
+	 Milliseconds through hours are the same length in every time zone, days
+	 and weeks only when the zone has no daylight savings.
+
+	 @return length of the unit in milliseconds or 0 if it varies in the
+	 current time zone
+	 */
+	private long getFixedUnitMillis(TimeUnit tu)
+	{
+		switch (tu)
+		{
+			case YEARS:
+			case MONTHS:
+				return 0L;
+			case WEEKS:
+				return m_timeZone.isFixed() ? DateTimeConstants.MILLIS_PER_WEEK : 0L;
+			case DAYS:
+				return m_timeZone.isFixed() ? DateTimeConstants.MILLIS_PER_DAY : 0L;
 			case HOURS:
-				m_unitField = chronology.hourOfDay();
-				break;
+				return DateTimeConstants.MILLIS_PER_HOUR;
 			case MINUTES:
-				m_unitField = chronology.minuteOfHour();
-				break;
+				return DateTimeConstants.MILLIS_PER_MINUTE;
 			case SECONDS:
-				m_unitField = chronology.secondOfDay();
-				break;
+				return DateTimeConstants.MILLIS_PER_SECOND;
 			default:
-				m_unitField = chronology.millisOfSecond();
-				break;
+				return 1L;
 		}
-
-		if (m_alignSampling)
-			m_startTime = alignRangeBoundary(m_startTime);
 	}
 
 	public DataPointGroup aggregate(DataPointGroup dataPointGroup)
@@ -147,8 +179,15 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 
 		if (m_exhaustive)
 			return (new ExhaustiveRangeDataPointAggregator(dataPointGroup, getSubAggregator()));
-		else
-			return (new RangeDataPointAggregator(dataPointGroup, getSubAggregator()));
+
+		if (dataPointGroup instanceof BlockDataPointGroup)
+		{
+			BlockRangeSubAggregator blockSubAggregator = getBlockSubAggregator();
+			if (blockSubAggregator != null)
+				return (new BlockRangeDataPointAggregator((BlockDataPointGroup) dataPointGroup, blockSubAggregator));
+		}
+
+		return (new RangeDataPointAggregator(dataPointGroup, getSubAggregator()));
 	}
 
 	/**
@@ -170,8 +209,39 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 	 @param timestamp
 	 @return
 	 */
-	@SuppressWarnings("fallthrough")
 	private long alignRangeBoundary(long timestamp)
+	{
+		if (m_timeZone.isFixed())
+		{
+			//No daylight savings so everything but months and years can be
+			//aligned on the local time
+			int offset = m_timeZone.getOffset(timestamp);
+			long localTime = timestamp + offset;
+			switch (m_sampling.getUnit())
+			{
+				case YEARS:
+				case MONTHS:
+					break;
+				case WEEKS:
+					//The epoch was a thursday, weeks start on monday
+					long day = Math.floorDiv(localTime, DateTimeConstants.MILLIS_PER_DAY);
+					long monday = day - Math.floorMod(day + 3, 7);
+					return monday * DateTimeConstants.MILLIS_PER_DAY - offset;
+				case DAYS:
+				case HOURS:
+				case MINUTES:
+				case SECONDS:
+					return localTime - Math.floorMod(localTime, (long) DateTimeConstants.MILLIS_PER_DAY) - offset;
+				default:
+					return localTime - Math.floorMod(localTime, (long) DateTimeConstants.MILLIS_PER_SECOND) - offset;
+			}
+		}
+
+		return alignCalendarBoundary(timestamp);
+	}
+
+	@SuppressWarnings("fallthrough")
+	private long alignCalendarBoundary(long timestamp)
 	{
 		DateTime dt = new DateTime(timestamp, m_timeZone);
 		TimeUnit tu = m_sampling.getUnit();
@@ -294,14 +364,27 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 	 */
 	protected abstract RangeSubAggregator getSubAggregator();
 
+	/**
+	 Return a BlockRangeSubAggregator that aggregates ranges a block of values
+	 at a time.  It is used in place of the RangeSubAggregator when the data
+	 can be read in blocks and the aggregator is not exhaustive.  Both must
+	 compute the same values.
+
+	 @return null if the aggregator can only work on data point objects
+	 */
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return null;
+	}
+
 	/**
 	 Sets the time zone to use for range calculations
 
-	 @param timeZone
+	 @param timeZone null uses the default time zone
 	 */
 	public void setTimeZone(DateTimeZone timeZone)
 	{
-		m_timeZone = timeZone;
+		m_timeZone = DateTimeUtils.getZone(timeZone);
 	}
 
 	public Sampling getSampling()
@@ -311,16 +394,12 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 
 	public long getStartRange(long timestamp)
 	{
-		long samplingValue = m_sampling.getValue();
-		long numberOfPastPeriods = m_unitField.getDifferenceAsLong(timestamp/*getDataPointTime()*/, m_startTime) / samplingValue;
-		return m_unitField.add(m_startTime, numberOfPastPeriods * samplingValue);
+		return m_bucketCalculator.getStartRange(timestamp);
 	}
 
 	public long getEndRange(long timestamp)
 	{
-		long samplingValue = m_sampling.getValue();
-		long numberOfPastPeriods = m_unitField.getDifferenceAsLong(timestamp/*getDataPointTime()*/, m_startTime) / samplingValue;
-		return m_unitField.add(m_startTime, (numberOfPastPeriods + 1) * samplingValue);
+		return m_bucketCalculator.getEndRange(timestamp);
 	}
 
 	//===========================================================================
@@ -438,6 +517,68 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		}
 	}
 
+	//========================================================================
+
+	/**
+	 Same ranges and data point times as RangeDataPointAggregator but values
+	 are handed to the sub aggregator as runs of a block.
+	 */
+	private class BlockRangeDataPointAggregator extends BlockAggregatedDataPointGroup
+	{
+		private final BlockRangeSubAggregator m_subAggregator;
+
+		public BlockRangeDataPointAggregator(BlockDataPointGroup innerDataPointGroup,
+				BlockRangeSubAggregator subAggregator)
+		{
+			super(innerDataPointGroup);
+			m_subAggregator = subAggregator;
+		}
+
+		@Override
+		public boolean nextBlock(DataPointBlock output)
+		{
+			output.clear();
+			while (!output.isFull() && readInput())
+			{
+				long firstTimestamp = getInput().getTimestamps()[getInputPosition()];
+				long endRange = getEndRange(firstTimestamp);
+				long returnTime = firstTimestamp;
+				if (m_alignStartTime)
+					returnTime = getStartRange(firstTimestamp);
+				else if (m_alignEndTime)
+					returnTime = endRange;
+
+				//The range can carry on into the following blocks
+				while (readInput())
+				{
+					DataPointBlock input = getInput();
+					long[] timestamps = input.getTimestamps();
+					int start = getInputPosition();
+					int end = start;
+					while (end < input.size() && timestamps[end] < endRange)
+						end++;
+
+					if (end != start)
+						m_subAggregator.addValues(input.getValues(), start, end);
+					setInputPosition(end);
+
+					if (end != input.size())
+						break;
+				}
+
+				m_subAggregator.writeResult(returnTime, output);
+			}
+
+			return output.size() != 0;
+		}
+
+		@Override
+		protected DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_subAggregator.createDataPoint(block, index);
+		}
+	}
+
 	//========================================================================
 	private class ExhaustiveRangeDataPointAggregator extends RangeDataPointAggregator
 	{
@@ -521,4 +662,30 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		 */
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange);
 	}
+
+	/**
+	 Block version of RangeSubAggregator, values of a range are added in one or
+	 more runs and then the result for the range is written out.
+	 */
+	public interface BlockRangeSubAggregator
+	{
+		/**
+		 Adds values from index from up to but not including index to to the
+		 current range.
+		 */
+		public void addValues(double[] values, int from, int to);
+
+		/**
+		 Adds the aggregated value for the current range to output and starts
+		 a new range.
+
+		 @param returnTime Timestamp to use for the aggregated value.
+		 */
+		public void writeResult(long returnTime, DataPointBlock output);
+
+		/**
+		 Creates the data point object for a value written by writeResult.
+		 */
+		public DataPoint createDataPoint(DataPointBlock block, int index);
+	}
 }
@@ -22,6 +22,8 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.annotation.FeatureCompoundProperty;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.plugin.Aggregator;
@@ -69,6 +71,9 @@ public class RateAggregator implements Aggregator, TimezoneAware
 
 	public DataPointGroup aggregate(DataPointGroup dataPointGroup)
 	{
+		if (dataPointGroup instanceof BlockDataPointGroup)
+			return (new BlockRateDataPointAggregator((BlockDataPointGroup) dataPointGroup));
+
 		return (new RateDataPointAggregator(dataPointGroup));
 	}
 
@@ -89,6 +94,16 @@ public class RateAggregator implements Aggregator, TimezoneAware
 	}
 
 
+	private void checkTimestamps(long y0, long y1)
+	{
+		if (y1 == y0)
+		{
+			throw new IllegalStateException(
+					"The rate aggregator cannot compute rate for data points with the same time stamp.  "+
+					"You must precede rate with another aggregator.");
+		}
+	}
+
 	private class RateDataPointAggregator extends AggregatedDataPointGroupWrapper
 	{
 		RateDataPointAggregator(DataPointGroup innerDataPointGroup)
@@ -120,12 +135,7 @@ public class RateAggregator implements Aggregator, TimezoneAware
 				x1 = currentDataPoint.getDoubleValue();
 				y1 = currentDataPoint.getTimestamp();
 
-				if (y1 == y0)
-				{
-					throw new IllegalStateException(
-							"The rate aggregator cannot compute rate for data points with the same time stamp.  "+
-							"You must precede rate with another aggregator.");
-				}
+				checkTimestamps(y0, y1);
 			}
 
 			double rate = (x1 - x0) / (y1 - y0) * Util.getSamplingDuration(y0, m_sampling, m_timeZone);
@@ -133,4 +143,62 @@ public class RateAggregator implements Aggregator, TimezoneAware
 			return (m_dataPointFactory.createDataPoint(y1, rate));
 		}
 	}
+
+	private class BlockRateDataPointAggregator extends BlockAggregatedDataPointGroup
+	{
+		private boolean m_started = false;
+		private long m_lastTimestamp;
+		private double m_lastValue;
+
+		BlockRateDataPointAggregator(BlockDataPointGroup innerDataPointGroup)
+		{
+			super(innerDataPointGroup);
+		}
+
+		@Override
+		public boolean nextBlock(DataPointBlock output)
+		{
+			output.clear();
+			while (!output.isFull() && readInput())
+			{
+				DataPointBlock input = getInput();
+				long[] timestamps = input.getTimestamps();
+				double[] values = input.getValues();
+				int position = getInputPosition();
+
+				if (!m_started)
+				{
+					m_lastTimestamp = timestamps[position];
+					m_lastValue = values[position];
+					m_started = true;
+					position++;
+				}
+
+				int end = Math.min(input.size(), position + output.capacity() - output.size());
+				for (; position < end; position++)
+				{
+					long y1 = timestamps[position];
+					double x1 = values[position];
+					checkTimestamps(m_lastTimestamp, y1);
+
+					double rate = (x1 - m_lastValue) / (y1 - m_lastTimestamp) *
+							Util.getSamplingDuration(m_lastTimestamp, m_sampling, m_timeZone);
+					output.add(y1, rate);
+
+					m_lastTimestamp = y1;
+					m_lastValue = x1;
+				}
+
+				setInputPosition(position);
+			}
+
+			return output.size() != 0;
+		}
+
+		@Override
+		protected DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
 }
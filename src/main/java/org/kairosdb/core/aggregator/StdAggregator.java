@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 
 import java.util.Collections;
 import java.util.Iterator;
@@ -88,6 +89,12 @@ public class StdAggregator extends RangeAggregator
 		return (new StdDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new StdBlockAggregator());
+	}
+
 	private class StdDataPointAggregator implements RangeSubAggregator
 	{
 		@Override
@@ -123,4 +130,60 @@ public class StdAggregator extends RangeAggregator
 		}
 	}
 
-}
\ No newline at end of file
+	private class StdBlockAggregator implements BlockRangeSubAggregator
+	{
+		private int m_count = 0;
+		private double m_average = 0;
+		private double m_pwrSumAvg = 0;
+
+		@Override
+		public void addValues(double[] values, int from, int to)
+		{
+			int count = m_count;
+			double average = m_average;
+			double pwrSumAvg = m_pwrSumAvg;
+			for (int i = from; i < to; i++)
+			{
+				count++;
+				double value = values[i];
+				average += (value - average) / count;
+				pwrSumAvg += (value * value - pwrSumAvg) / count;
+			}
+
+			m_count = count;
+			m_average = average;
+			m_pwrSumAvg = pwrSumAvg;
+		}
+
+		@Override
+		public void writeResult(long returnTime, DataPointBlock output)
+		{
+			double stdDev = 0;
+			if (m_count != 0)
+				stdDev = Math.sqrt((m_pwrSumAvg * m_count - m_count * m_average * m_average) / (m_count - 1));
+
+			if (Double.isNaN(stdDev))
+				stdDev = 0;
+
+			double ret;
+			if (m_dev == Dev.POS_SD)
+				ret = m_average + (stdDev * m_devCount);
+			else if (m_dev == Dev.NEG_SD)
+				ret = m_average - (stdDev * m_devCount);
+			else
+				ret = stdDev;
+
+			output.add(returnTime, ret);
+			m_count = 0;
+			m_average = 0;
+			m_pwrSumAvg = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
+
+}
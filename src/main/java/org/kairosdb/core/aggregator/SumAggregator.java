@@ -19,6 +19,7 @@ import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,6 +63,12 @@ public class SumAggregator extends RangeAggregator
 		return (new SumDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new SumBlockAggregator());
+	}
+
 	private class SumDataPointAggregator implements RangeSubAggregator
 	{
 
@@ -84,4 +91,31 @@ public class SumAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, sum));
 		}
 	}
+
+	private class SumBlockAggregator implements BlockRangeSubAggregator
+	{
+		private double m_sum = 0;
+
+		@Override
+		public void addValues(double[] values, int from, int to)
+		{
+			double sum = m_sum;
+			for (int i = from; i < to; i++)
+				sum += values[i];
+			m_sum = sum;
+		}
+
+		@Override
+		public void writeResult(long returnTime, DataPointBlock output)
+		{
+			output.add(returnTime, m_sum);
+			m_sum = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock block, int index)
+		{
+			return m_dataPointFactory.createDataPoint(block.getTimestamps()[index], block.getValues()[index]);
+		}
+	}
 }
@@ -0,0 +1,18 @@
+package org.kairosdb.core.datastore;
+
+/**
+ A numeric DataPointGroup that can also be read a block at a time.  A group
+ is read either with {@link #nextBlock(DataPointBlock)} or with the iterator
+ methods, never both.
+ */
+public interface BlockDataPointGroup extends DataPointGroup
+{
+	/**
+	 Clears block and fills it with as many of the following data points as
+	 fit.
+
+	 @param block block to fill, it is owned by the caller
+	 @return false if there were no data points left
+	 */
+	public boolean nextBlock(DataPointBlock block);
+}
@@ -18,27 +18,26 @@ package org.kairosdb.core.datastore;
 
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
-import org.kairosdb.util.BufferedDataInputStream;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.util.BufferedDataOutputStream;
-import org.kairosdb.util.KDataInputStream;
+import org.kairosdb.util.ByteBufferDataInput;
+import org.kairosdb.util.KDataInput;
 import org.kairosdb.util.MemoryMonitor;
 import org.kairosdb.util.StringPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Externalizable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,40 +45,58 @@ import java.util.SortedMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static org.kairosdb.util.Util.packLong;
+import static org.kairosdb.util.Util.packUnsignedLong;
+import static org.kairosdb.util.Util.unpackLong;
+import static org.kairosdb.util.Util.unpackUnsignedLong;
+
+/**
+ Query results written to a single memory mapped cache file.
+
+ The file starts with a small header (magic, version and the position of the
+ index).  Each row is stored as a block of delta encoded timestamps followed by
+ a block of values.  Rows of kairos_long and kairos_double are stored as typed
+ value blocks that are decoded directly, all other types are stored using the
+ data point's own serialization.  The index of rows is written to the end of
+ the file when the result is closed and the header is updated to point at it.
+ Reads are done from slices of the mapped file so no data is copied on a
+ cache hit.  The same image can be held by {@link QueryMemoryCache} and read
+ without touching the file.
+ */
 public class CachedSearchResult implements SearchResult
 {
 	public static final Logger logger = LoggerFactory.getLogger(CachedSearchResult.class);
 
 	public static final int WRITE_BUFFER_SIZE = 500;
 
+	public static final int FILE_MAGIC = 0x4B435352; //KCSR
+	public static final int FILE_VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	private static final int INDEX_POSITION_OFFSET = 8;
+
+	public static final byte GENERIC_FLAG = 0x0;
 	public static final byte LONG_FLAG = 0x1;
 	public static final byte DOUBLE_FLAG = 0x2;
 
 	private final String m_metricName;
 	private final List<FilePositionMarker> m_dataPointSets;
 	private final MemoryMonitor m_memoryMonitor;
-	private FilePositionMarker m_currentFilePositionMarker;
 	private final File m_dataFile;
 	private RandomAccessFile m_randomAccessFile;
 	private BufferedDataOutputStream m_dataOutputStream;
+	private volatile ByteBuffer m_mappedFile;
 
-	private final File m_indexFile;
 	private final AtomicInteger m_closeCounter = new AtomicInteger(1);
 	private boolean m_readFromCache = false;
 	private final KairosDataPointFactory m_dataPointFactory;
 	private final StringPool m_stringPool;
-	private int m_maxReadBufferSize = 8192;  //Default value in BufferedInputStream
 	private boolean m_keepCacheFiles;
+	private QueryMemoryCache m_memoryCache;
+	private String m_memoryCacheKey;
+	private int m_memoryCacheTime;
 	private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
 
 
-	private static File getIndexFile(String baseFileName)
-	{
-		String indexFileName = baseFileName + ".index";
-
-		return (new File(indexFileName));
-	}
-
 	private static File getDataFile(String baseFileName)
 	{
 		String dataFileName = baseFileName+".data";
@@ -87,12 +104,10 @@ public class CachedSearchResult implements SearchResult
 		return (new File(dataFileName));
 	}
 
-	private CachedSearchResult(String metricName, File dataFile, File indexFile,
+	private CachedSearchResult(String metricName, File dataFile,
 			KairosDataPointFactory datatPointFactory, boolean keepCacheFiles)
-			throws FileNotFoundException
 	{
 		m_metricName = metricName;
-		m_indexFile = indexFile;
 		m_dataPointSets = new ArrayList<FilePositionMarker>();
 		m_dataFile = dataFile;
 		m_dataPointFactory = datatPointFactory;
@@ -101,85 +116,150 @@ public class CachedSearchResult implements SearchResult
 		m_memoryMonitor = new MemoryMonitor(1000);
 	}
 
-	private void openCacheFile() throws FileNotFoundException
+	private void openCacheFile() throws IOException
 	{
 		//Cache cleanup could have removed the folders
 		m_dataFile.getParentFile().mkdirs();
 		m_randomAccessFile = new RandomAccessFile(m_dataFile, "rw");
 		m_dataOutputStream = BufferedDataOutputStream.create(m_randomAccessFile, 0L);
+
+		//Index position is filled in when the index is saved
+		m_dataOutputStream.writeInt(FILE_MAGIC);
+		m_dataOutputStream.writeInt(FILE_VERSION);
+		m_dataOutputStream.writeLong(0L);
+		m_dataOutputStream.flush();
 	}
 
-	private void calculateMaxReadBufferSize()
+	/**
+	 Returns a read only view of the file between start and end.  The file is
+	 mapped once and shared by all rows, files too large for a single mapping
+	 are mapped a region at a time.
+	 */
+	private ByteBuffer getFileRegion(long start, long end) throws IOException
 	{
-		//Reduce the max buffer size when we have a lot of rows to conserve memory
-		if (m_dataPointSets.size() > 100000)
-			m_maxReadBufferSize = 1024;
-		else if (m_dataPointSets.size() > 75000)
-			m_maxReadBufferSize = 1024 * 2;
-		else if (m_dataPointSets.size() > 50000)
-			m_maxReadBufferSize = 1024 * 4;
+		if (end > Integer.MAX_VALUE)
+			return m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, start, end - start);
+
+		ByteBuffer mappedFile = m_mappedFile;
+		if (mappedFile == null || mappedFile.capacity() < end)
+			mappedFile = mapFile(end);
+
+		ByteBuffer region = mappedFile.duplicate();
+		region.limit((int)end).position((int)start);
+		return region.slice();
 	}
 
+	private synchronized ByteBuffer mapFile(long end) throws IOException
+	{
+		//Another row may have already mapped the file
+		if (m_mappedFile == null || m_mappedFile.capacity() < end)
+		{
+			FileChannel channel = m_randomAccessFile.getChannel();
+			long size = Math.min(channel.size(), Integer.MAX_VALUE);
+			m_mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+		}
+
+		return m_mappedFile;
+	}
 
 	/**
-	 Reads the index file into memory
+	 Reads the index from the end of the cache file into memory
+	 @return false if the file is not a complete cache file
 	 */
-	private void loadIndex() throws IOException, ClassNotFoundException
+	private boolean loadIndex(long fileSize) throws IOException
 	{
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(m_indexFile));
-		int size = in.readInt();
+		if (fileSize < HEADER_SIZE)
+			return false;
+
+		ByteBuffer header = getFileRegion(0L, HEADER_SIZE);
+		if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION)
+			return false;
+
+		long indexPosition = header.getLong();
+		if (indexPosition < HEADER_SIZE || indexPosition >= fileSize)
+			return false;
+
+		KDataInput in = new ByteBufferDataInput(getFileRegion(indexPosition, fileSize));
+
+		int stringCount = (int)unpackUnsignedLong(in);
+		String[] strings = new String[stringCount];
+		for (int I = 0; I < stringCount; I++)
+			strings[I] = m_stringPool.getString(in.readUTF());
+
+		int size = (int)unpackUnsignedLong(in);
 		for (int I = 0; I < size; I++)
 		{
-			//open the cache file only if there will be data point groups returned
-			if (m_randomAccessFile == null)
-				openCacheFile();
-
 			FilePositionMarker marker = new FilePositionMarker();
-			marker.readExternal(in);
+			marker.readIndex(in, strings);
 			m_dataPointSets.add(marker);
 		}
 
-
 		m_readFromCache = true;
-		in.close();
-
-		calculateMaxReadBufferSize();
+		return true;
 	}
 
 	private void saveIndex() throws IOException
 	{
-		if (m_readFromCache)
+		if (m_readFromCache || m_randomAccessFile == null)
 			return; //No need to save if we read it from the file
 
-		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(m_indexFile));
+		//Tags and types are repeated on most rows so they are written once
+		Map<String, Integer> stringTable = new LinkedHashMap<>();
+		for (FilePositionMarker marker : m_dataPointSets)
+		{
+			stringTable.putIfAbsent(marker.m_dataType, stringTable.size());
+			for (Map.Entry<String, String> tag : marker.m_tags.entrySet())
+			{
+				stringTable.putIfAbsent(tag.getKey(), stringTable.size());
+				stringTable.putIfAbsent(tag.getValue(), stringTable.size());
+			}
+		}
+
+		long indexPosition = m_dataOutputStream.getPosition();
 
-		//todo: write out a type lookup table
+		packUnsignedLong(stringTable.size(), m_dataOutputStream);
+		for (String s : stringTable.keySet())
+			m_dataOutputStream.writeUTF(s);
 
-		out.writeInt(m_dataPointSets.size());
+		packUnsignedLong(m_dataPointSets.size(), m_dataOutputStream);
 		for (FilePositionMarker marker : m_dataPointSets)
 		{
-			marker.writeExternal(out);
+			marker.writeIndex(m_dataOutputStream, stringTable);
 		}
 
-		out.flush();
-		out.close();
+		m_dataOutputStream.flush();
+
+		//The header is updated last so a partially written file is never used
+		m_randomAccessFile.seek(INDEX_POSITION_OFFSET);
+		m_randomAccessFile.writeLong(indexPosition);
 	}
 
 
+	/**
+	 Adds the result to the memory cache once it is complete
+	 @param memoryCache cache to add the result to
+	 @param key query hash the result is stored under
+	 @param cacheTime number of seconds the result is good for
+	 */
+	public void setMemoryCache(QueryMemoryCache memoryCache, String key, int cacheTime)
+	{
+		m_memoryCache = memoryCache;
+		m_memoryCacheKey = key;
+		m_memoryCacheTime = cacheTime;
+	}
+
 	public static CachedSearchResult createCachedSearchResult(String metricName,
 			String baseFileName, KairosDataPointFactory dataPointFactory,
 			boolean keepCacheFiles)
 			throws IOException
 	{
 		File dataFile = getDataFile(baseFileName);
-		File indexFile = getIndexFile(baseFileName);
 
 		//Just in case the file are there.
 		dataFile.delete();
-		indexFile.delete();
 
 		CachedSearchResult ret = new CachedSearchResult(metricName, dataFile,
-				indexFile, dataPointFactory, keepCacheFiles);
+				dataPointFactory, keepCacheFiles);
 
 		return (ret);
 	}
@@ -196,20 +276,26 @@ public class CachedSearchResult implements SearchResult
 	{
 		CachedSearchResult ret = null;
 		File dataFile = getDataFile(baseFileName);
-		File indexFile = getIndexFile(baseFileName);
 		long now = System.currentTimeMillis();
 
-		if (dataFile.exists() && indexFile.exists() && ((now - dataFile.lastModified()) < ((long)cacheTime * 1000)))
+		if (dataFile.exists() && ((now - dataFile.lastModified()) < ((long)cacheTime * 1000)))
 		{
-
-			ret = new CachedSearchResult(metricName, dataFile, indexFile, dataPointFactory, keepCacheFiles);
+			ret = new CachedSearchResult(metricName, dataFile, dataPointFactory, keepCacheFiles);
 			try
 			{
-				ret.loadIndex();
+				ret.m_randomAccessFile = new RandomAccessFile(dataFile, "r");
+				if (!ret.loadIndex(ret.m_randomAccessFile.length()))
+				{
+					logger.warn("Ignoring incomplete cache file "+dataFile.getAbsolutePath());
+					ret.m_randomAccessFile.close();
+					ret = null;
+				}
 			}
-			catch (ClassNotFoundException e)
+			catch (IOException | RuntimeException e)
 			{
 				logger.error("Unable to load cache file", e);
+				if (ret.m_randomAccessFile != null)
+					ret.m_randomAccessFile.close();
 				ret = null;
 			}
 		}
@@ -217,6 +303,26 @@ public class CachedSearchResult implements SearchResult
 		return (ret);
 	}
 
+	/**
+	 Opens a result from an image held by {@link QueryMemoryCache}
+	 @param cacheImage complete contents of a cache file
+	 @return The CachedSearchResult or null if the image is not valid
+	 */
+	public static CachedSearchResult openCachedSearchResult(String metricName,
+			ByteBuffer cacheImage, KairosDataPointFactory dataPointFactory) throws IOException
+	{
+		CachedSearchResult ret = new CachedSearchResult(metricName, null, dataPointFactory, true);
+		ret.m_mappedFile = cacheImage;
+
+		if (!ret.loadIndex(cacheImage.capacity()))
+		{
+			logger.error("Unable to load query memory cache entry");
+			ret = null;
+		}
+
+		return (ret);
+	}
+
 
 
 	/**
@@ -224,14 +330,31 @@ public class CachedSearchResult implements SearchResult
 	 */
 	private void internalClose()
 	{
+		try
+		{
+			boolean memoryCache = (m_memoryCache != null && m_randomAccessFile != null && !m_readFromCache);
+
+			if (m_keepCacheFiles || memoryCache)
+				saveIndex();
+
+			if (memoryCache)
+				m_memoryCache.put(m_memoryCacheKey, m_memoryCacheTime, System.currentTimeMillis(),
+						m_randomAccessFile.getChannel());
+		}
+		catch (IOException e)
+		{
+			logger.error("Failure saving cache file", e);
+		}
+
 		try
 		{
 			if (m_randomAccessFile != null)
 				m_randomAccessFile.close();
 
-			if (m_keepCacheFiles)
-				saveIndex();
-			else
+			//Mapped regions are released when the buffers are collected
+			m_mappedFile = null;
+
+			if (!m_keepCacheFiles && m_dataFile != null)
 				m_dataFile.delete();
 		}
 		catch (IOException e)
@@ -240,6 +363,23 @@ public class CachedSearchResult implements SearchResult
 		}
 	}
 
+	/**
+	 Keeps the result open for another reader, must be matched with a call to close
+	 @return false if the result has already been closed
+	 */
+	protected boolean retain()
+	{
+		int count;
+		do
+		{
+			count = m_closeCounter.get();
+			if (count == 0)
+				return false;
+		} while (!m_closeCounter.compareAndSet(count, count + 1));
+
+		return true;
+	}
+
 	protected void decrementClose()
 	{
 		if (m_closeCounter.decrementAndGet() == 0)
@@ -299,12 +439,33 @@ public class CachedSearchResult implements SearchResult
 			m_memoryMonitor.checkMemoryAndThrowException();
 		}
 
+		private byte getValueEncoding()
+		{
+			boolean allLongs = LongDataPointFactoryImpl.DST_LONG.equals(m_dataType);
+			boolean allDoubles = DoubleDataPointFactoryImpl.DST_DOUBLE.equals(m_dataType);
+
+			for (DataPoint dataPoint : m_dataPoints)
+			{
+				allLongs &= dataPoint.isLong();
+				allDoubles &= dataPoint.isDouble();
+			}
+
+			if (allLongs)
+				return LONG_FLAG;
+			else if (allDoubles)
+				return DOUBLE_FLAG;
+			else
+				return GENERIC_FLAG;
+		}
+
 		/**
 		 Call when finished adding datapoints to the cache file
 		 */
 		@Override
 		public void close() throws IOException
 		{
+			byte valueEncoding = getValueEncoding();
+
 			try
 			{
 				m_lock.writeLock().lock();
@@ -312,28 +473,34 @@ public class CachedSearchResult implements SearchResult
 				if (m_randomAccessFile == null)
 					openCacheFile();
 
-				long curPosition = m_dataOutputStream.getPosition();
-				m_currentFilePositionMarker = new FilePositionMarker(curPosition, m_tags, m_dataType);
-				m_dataPointSets.add(m_currentFilePositionMarker);
-
+				long startPosition = m_dataOutputStream.getPosition();
 
+				long lastTimestamp = 0L;
 				for (DataPoint dataPoint : m_dataPoints)
 				{
-					m_dataOutputStream.writeLong(dataPoint.getTimestamp());
-					dataPoint.writeValueToBuffer(m_dataOutputStream);
-
-					m_currentFilePositionMarker.incrementDataPointCount();
+					packLong(dataPoint.getTimestamp() - lastTimestamp, m_dataOutputStream);
+					lastTimestamp = dataPoint.getTimestamp();
 				}
 
-
-				//flushWriteBuffer();
+				//Position is only accurate once the buffer is flushed
 				m_dataOutputStream.flush();
+				long valuesPosition = m_dataOutputStream.getPosition();
+
+				for (DataPoint dataPoint : m_dataPoints)
+				{
+					if (valueEncoding == LONG_FLAG)
+						packLong(dataPoint.getLongValue(), m_dataOutputStream);
+					else if (valueEncoding == DOUBLE_FLAG)
+						m_dataOutputStream.writeDouble(dataPoint.getDoubleValue());
+					else
+						dataPoint.writeValueToBuffer(m_dataOutputStream);
+				}
 
-				curPosition = m_dataOutputStream.getPosition();
-				if (m_dataPointSets.size() != 0)
-					m_dataPointSets.get(m_dataPointSets.size() - 1).setEndPosition(curPosition);
+				m_dataOutputStream.flush();
 
-				calculateMaxReadBufferSize();
+				m_dataPointSets.add(new FilePositionMarker(startPosition, valuesPosition,
+						m_dataOutputStream.getPosition(), m_dataPoints.size(), valueEncoding,
+						m_tags, m_dataType));
 			}
 			finally
 			{
@@ -344,47 +511,39 @@ public class CachedSearchResult implements SearchResult
 	}
 
 	//===========================================================================
-	private class FilePositionMarker implements Iterable<DataPoint>, Externalizable
+	private class FilePositionMarker implements Iterable<DataPoint>
 	{
 		private long m_startPosition;
+		private long m_valuesPosition;
 		private long m_endPosition;
 		private Map<String, String> m_tags;
 		private String m_dataType;
 		private int m_dataPointCount;
+		private byte m_valueEncoding;
 
 
 		public FilePositionMarker()
 		{
-			m_startPosition = 0L;
-			m_endPosition = 0L;
 			m_tags = new HashMap<String, String>();
-			m_dataType = null;
-			m_dataPointCount = 0;
 		}
 
-		public FilePositionMarker(long startPosition, Map<String, String> tags,
-				String dataType)
+		public FilePositionMarker(long startPosition, long valuesPosition, long endPosition,
+				int dataPointCount, byte valueEncoding, Map<String, String> tags, String dataType)
 		{
 			m_startPosition = startPosition;
+			m_valuesPosition = valuesPosition;
+			m_endPosition = endPosition;
+			m_dataPointCount = dataPointCount;
+			m_valueEncoding = valueEncoding;
 			m_tags = tags;
 			m_dataType = dataType;
 		}
 
-		public void setEndPosition(long endPosition)
-		{
-			m_endPosition = endPosition;
-		}
-
 		public Map<String, String> getTags()
 		{
 			return m_tags;
 		}
 
-		public void incrementDataPointCount()
-		{
-			m_dataPointCount ++;
-		}
-
 		public int getDataPointCount()
 		{
 			return m_dataPointCount;
@@ -393,39 +552,39 @@ public class CachedSearchResult implements SearchResult
 		@Override
 		public CachedDataPointRow iterator()
 		{
-			return (new CachedDataPointRow(m_tags, m_startPosition, m_endPosition,
-					m_dataType, m_dataPointCount));
+			return (new CachedDataPointRow(this));
 		}
 
-		@Override
-		public void writeExternal(ObjectOutput out) throws IOException
-		{
-			out.writeLong(m_startPosition);
-			out.writeLong(m_endPosition);
-			out.writeInt(m_dataPointCount);
-			out.writeObject(m_dataType);
-			out.writeInt(m_tags.size());
-			for (String s : m_tags.keySet())
+		public void writeIndex(BufferedDataOutputStream out, Map<String, Integer> stringTable) throws IOException
+		{
+			packUnsignedLong(m_startPosition, out);
+			packUnsignedLong(m_valuesPosition - m_startPosition, out);
+			packUnsignedLong(m_endPosition - m_valuesPosition, out);
+			packUnsignedLong(m_dataPointCount, out);
+			out.writeByte(m_valueEncoding);
+			packUnsignedLong(stringTable.get(m_dataType), out);
+			packUnsignedLong(m_tags.size(), out);
+			for (Map.Entry<String, String> tag : m_tags.entrySet())
 			{
-				out.writeObject(s);
-				out.writeObject(m_tags.get(s));
+				packUnsignedLong(stringTable.get(tag.getKey()), out);
+				packUnsignedLong(stringTable.get(tag.getValue()), out);
 			}
 		}
 
-		@Override
-		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+		public void readIndex(KDataInput in, String[] strings) throws IOException
 		{
-			m_startPosition = in.readLong();
-			m_endPosition = in.readLong();
-			m_dataPointCount = in.readInt();
-			m_dataType = (String)in.readObject();
-			//m_dataPointCount = (int)((m_endPosition - m_startPosition) / DATA_POINT_SIZE);
-
-			int tagCount = in.readInt();
+			m_startPosition = unpackUnsignedLong(in);
+			m_valuesPosition = m_startPosition + unpackUnsignedLong(in);
+			m_endPosition = m_valuesPosition + unpackUnsignedLong(in);
+			m_dataPointCount = (int)unpackUnsignedLong(in);
+			m_valueEncoding = in.readByte();
+			m_dataType = strings[(int)unpackUnsignedLong(in)];
+
+			int tagCount = (int)unpackUnsignedLong(in);
 			for (int I = 0; I < tagCount; I++)
 			{
-				String key = m_stringPool.getString((String)in.readObject());
-				String value = m_stringPool.getString((String)in.readObject());
+				String key = strings[(int)unpackUnsignedLong(in)];
+				String value = strings[(int)unpackUnsignedLong(in)];
 				m_tags.put(key, value);
 			}
 		}
@@ -434,31 +593,30 @@ public class CachedSearchResult implements SearchResult
 	//===========================================================================
 	private class CachedDataPointRow implements DataPointRow
 	{
-		private long m_currentPosition;
-		private long m_endPostition;
-		private KDataInputStream m_readBuffer = null;
+		private final FilePositionMarker m_marker;
+		private KDataInput m_timestampBuffer = null;
+		private ByteBuffer m_valueBuffer = null;
+		private KDataInput m_valueInput = null;
+		private long m_lastTimestamp = 0L;
 		private Map<String, String> m_tags;
 		private final String m_dataType;
 		private final int m_dataPointCount;
 		private int m_dataPointsRead = 0;
 
-		public CachedDataPointRow(Map<String, String> tags,
-				long startPosition, long endPostition, String dataType, int dataPointCount)
+		public CachedDataPointRow(FilePositionMarker marker)
 		{
-			m_currentPosition = startPosition;
-			m_endPostition = endPostition;
-
-			m_tags = tags;
-			m_dataType = dataType;
-			m_dataPointCount = dataPointCount;
+			m_marker = marker;
+			m_tags = marker.m_tags;
+			m_dataType = marker.m_dataType;
+			m_dataPointCount = marker.m_dataPointCount;
 		}
 
-		private void allocateReadBuffer()
+		private void mapBuffers() throws IOException
 		{
-			int rowSize = (int) (m_endPostition - m_currentPosition);
-			int bufferSize = (rowSize < m_maxReadBufferSize ? rowSize : m_maxReadBufferSize);
-
-			m_readBuffer = new BufferedDataInputStream(m_randomAccessFile, m_currentPosition, bufferSize);
+			m_timestampBuffer = new ByteBufferDataInput(getFileRegion(
+					m_marker.m_startPosition, m_marker.m_valuesPosition));
+			m_valueBuffer = getFileRegion(m_marker.m_valuesPosition, m_marker.m_endPosition);
+			m_valueInput = new ByteBufferDataInput(m_valueBuffer);
 		}
 
 
@@ -466,7 +624,6 @@ public class CachedSearchResult implements SearchResult
 		public boolean hasNext()
 		{
 			return (m_dataPointsRead < m_dataPointCount);
-			//return (m_readBuffer.hasRemaining() || m_currentPosition < m_endPostition);
 		}
 
 		@Override
@@ -476,14 +633,18 @@ public class CachedSearchResult implements SearchResult
 
 			try
 			{
-				//Lazy allocation of buffer to conserve memory when using group by's
-				if (m_readBuffer == null)
-					allocateReadBuffer();
-
-				long timestamp = m_readBuffer.readLong();
-
-				ret = m_dataPointFactory.createDataPoint(m_dataType, timestamp, m_readBuffer);
-
+				//Lazy mapping of buffers to conserve memory when using group by's
+				if (m_timestampBuffer == null)
+					mapBuffers();
+
+				m_lastTimestamp += unpackLong(m_timestampBuffer);
+
+				if (m_marker.m_valueEncoding == LONG_FLAG)
+					ret = new LongDataPoint(m_lastTimestamp, unpackLong(m_valueInput));
+				else if (m_marker.m_valueEncoding == DOUBLE_FLAG)
+					ret = new DoubleDataPoint(m_lastTimestamp, m_valueBuffer.getDouble());
+				else
+					ret = m_dataPointFactory.createDataPoint(m_dataType, m_lastTimestamp, m_valueInput);
 			}
 			catch (IOException ioe)
 			{
@@ -492,19 +653,13 @@ public class CachedSearchResult implements SearchResult
 
 			m_dataPointsRead ++;
 
-			//Clean up buffer.  In cases where we are grouping not all rows are read
+			//Clean up buffers.  In cases where we are grouping not all rows are read
 			//at once so this will save memory
 			if (m_dataPointsRead == m_dataPointCount)
 			{
-				try
-				{
-					m_readBuffer.close();
-					m_readBuffer = null;
-				}
-				catch (IOException e)
-				{
-					e.printStackTrace();
-				}
+				m_timestampBuffer = null;
+				m_valueBuffer = null;
+				m_valueInput = null;
 			}
 
 			return (ret);
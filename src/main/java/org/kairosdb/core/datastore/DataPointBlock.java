@@ -0,0 +1,106 @@
+package org.kairosdb.core.datastore;
+
+/**
+ A chunk of numeric data points held in parallel primitive arrays.  Blocks are
+ owned by whoever reads them and refilled on every call to
+ {@link BlockDataPointGroup#nextBlock(DataPointBlock)} so reading a group does
+ not allocate per data point.
+
+ Every value is available as a double, when all values in the block were
+ added as longs they are also available from {@link #getLongValues()}.
+ */
+public class DataPointBlock
+{
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final long[] m_timestamps;
+	private final double[] m_values;
+	private final long[] m_longValues;
+	private int m_size;
+	private boolean m_longs;
+
+	public DataPointBlock()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public DataPointBlock(int capacity)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Invalid block capacity " + capacity);
+
+		m_timestamps = new long[capacity];
+		m_values = new double[capacity];
+		m_longValues = new long[capacity];
+		clear();
+	}
+
+	public void clear()
+	{
+		m_size = 0;
+		m_longs = true;
+	}
+
+	public int size()
+	{
+		return m_size;
+	}
+
+	public int capacity()
+	{
+		return m_timestamps.length;
+	}
+
+	public boolean isFull()
+	{
+		return m_size == m_timestamps.length;
+	}
+
+	public void add(long timestamp, double value)
+	{
+		m_timestamps[m_size] = timestamp;
+		m_values[m_size] = value;
+		m_longs = false;
+		m_size++;
+	}
+
+	public void addLong(long timestamp, long value)
+	{
+		m_timestamps[m_size] = timestamp;
+		m_values[m_size] = value;
+		m_longValues[m_size] = value;
+		m_size++;
+	}
+
+	/**
+	 @return true if every value in the block was added as a long
+	 */
+	public boolean hasLongValues()
+	{
+		return m_longs;
+	}
+
+	/**
+	 Only the first {@link #size()} entries are valid.
+	 */
+	public long[] getTimestamps()
+	{
+		return m_timestamps;
+	}
+
+	/**
+	 Only the first {@link #size()} entries are valid.
+	 */
+	public double[] getValues()
+	{
+		return m_values;
+	}
+
+	/**
+	 Only valid when {@link #hasLongValues()} is true.
+	 */
+	public long[] getLongValues()
+	{
+		return m_longValues;
+	}
+}
@@ -0,0 +1,101 @@
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.groupby.GroupByResult;
+
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ Lets a group that is read one data point at a time be read in blocks.  The
+ iterator methods pass straight through to the wrapped group so aggregators
+ without a block implementation see the original data points.  Only wrap
+ groups of numeric data points, each value is read with getDoubleValue or
+ getLongValue.
+ */
+public class DataPointGroupBlockAdapter implements BlockDataPointGroup
+{
+	private final DataPointGroup m_group;
+
+	public DataPointGroupBlockAdapter(DataPointGroup group)
+	{
+		m_group = requireNonNull(group);
+	}
+
+	/**
+	 @return group unchanged if it can already be read in blocks
+	 */
+	public static BlockDataPointGroup wrap(DataPointGroup group)
+	{
+		if (group instanceof BlockDataPointGroup)
+			return (BlockDataPointGroup) group;
+
+		return new DataPointGroupBlockAdapter(group);
+	}
+
+	@Override
+	public boolean nextBlock(DataPointBlock block)
+	{
+		block.clear();
+		while (!block.isFull() && m_group.hasNext())
+		{
+			DataPoint dataPoint = m_group.next();
+			if (dataPoint.isLong())
+				block.addLong(dataPoint.getTimestamp(), dataPoint.getLongValue());
+			else
+				block.add(dataPoint.getTimestamp(), dataPoint.getDoubleValue());
+		}
+
+		return block.size() != 0;
+	}
+
+	@Override
+	public String getName()
+	{
+		return m_group.getName();
+	}
+
+	@Override
+	public List<GroupByResult> getGroupByResult()
+	{
+		return m_group.getGroupByResult();
+	}
+
+	@Override
+	public void close()
+	{
+		m_group.close();
+	}
+
+	@Override
+	public Set<String> getTagNames()
+	{
+		return m_group.getTagNames();
+	}
+
+	@Override
+	public Set<String> getTagValues(String tag)
+	{
+		return m_group.getTagValues(tag);
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return m_group.hasNext();
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		return m_group.next();
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -17,8 +17,6 @@ package org.kairosdb.core.datastore;
 
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.kairosdb.core.DataPoint;
@@ -29,7 +27,6 @@ import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.groupby.GroupByResult;
 import org.kairosdb.core.groupby.Grouper;
 import org.kairosdb.core.groupby.TagGroupBy;
-import org.kairosdb.core.groupby.TagGroupByResult;
 import org.kairosdb.core.groupby.TypeGroupByResult;
 import org.kairosdb.core.reporting.ThreadReporter;
 import org.kairosdb.plugin.Aggregator;
@@ -42,16 +39,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
@@ -66,6 +62,10 @@ public class KairosDatastore implements KairosPostConstructInit
 	public static final String QUERIES_WAITING_METRIC_NAME = "kairosdb.datastore.queries_waiting";
 	public static final String QUERY_SAMPLE_SIZE = "kairosdb.datastore.query_sample_size";
 	public static final String QUERY_ROW_COUNT = "kairosdb.datastore.query_row_count";
+	public static final String GROUPER_MEMORY_LIMIT = "kairosdb.datastore.grouper_memory_limit";
+	public static final String QUERY_COMPUTE_THREADS = "kairosdb.datastore.query_compute_threads";
+	public static final String QUERY_COMPUTE_WINDOW = "kairosdb.datastore.query_compute_window";
+	public static final String QUERY_COMPUTE_MAX_BUFFERED_POINTS = "kairosdb.datastore.query_compute_max_buffered_points";
 
 	private final Datastore m_datastore;
 	private final QueryQueuingManager m_queuingManager;
@@ -74,6 +74,12 @@ public class KairosDatastore implements KairosPostConstructInit
 	private String m_baseCacheDir;
 	private volatile String m_cacheDir;
 	private final boolean m_keepCacheFiles;
+	private QueryMemoryCache m_memoryCache = new QueryMemoryCache();
+	private long m_grouperMemoryLimit = Grouper.DEFAULT_MEMORY_LIMIT;
+	private int m_queryComputeThreads = 0;
+	private int m_queryComputeWindow = 0;
+	private int m_queryComputeMaxBufferedPoints = QueryComputeExecutor.DEFAULT_MAX_BUFFERED_POINTS;
+	private volatile QueryComputeExecutor m_queryComputeExecutor;
 
 	@SuppressWarnings("ResultOfMethodCallIgnored")
 	@Inject
@@ -94,6 +100,13 @@ public class KairosDatastore implements KairosPostConstructInit
 	public void init()
 	{
 		setupCacheDirectory();
+
+		if (m_queryComputeThreads > 0)
+		{
+			int window = m_queryComputeWindow > 0 ? m_queryComputeWindow : m_queryComputeThreads * 2;
+			m_queryComputeExecutor = new QueryComputeExecutor(m_queryComputeThreads, window,
+					m_queryComputeMaxBufferedPoints);
+		}
 	}
 
 	@SuppressWarnings("UnusedDeclaration")
@@ -106,6 +119,53 @@ public class KairosDatastore implements KairosPostConstructInit
 		}
 	}
 
+	/**
+	 Bytes of data points a query can hold in memory while grouping by value,
+	 time or bin before the groups are written to disk.
+	 */
+	@Inject(optional = true)
+	public void setGrouperMemoryLimit(@Named(GROUPER_MEMORY_LIMIT) long grouperMemoryLimit)
+	{
+		m_grouperMemoryLimit = grouperMemoryLimit;
+	}
+
+	/**
+	 Threads shared by all queries to evaluate the aggregators of different
+	 groups in parallel, 0 evaluates them on the request thread as the
+	 results are written.
+	 */
+	@Inject(optional = true)
+	public void setQueryComputeThreads(@Named(QUERY_COMPUTE_THREADS) int queryComputeThreads)
+	{
+		m_queryComputeThreads = queryComputeThreads;
+	}
+
+	/**
+	 Number of groups of a query evaluated ahead of the one being written,
+	 0 uses twice the number of query compute threads.
+	 */
+	@Inject(optional = true)
+	public void setQueryComputeWindow(@Named(QUERY_COMPUTE_WINDOW) int queryComputeWindow)
+	{
+		m_queryComputeWindow = queryComputeWindow;
+	}
+
+	/**
+	 Data points of a group read ahead by the query compute threads, the rest
+	 of a larger group is read as the results are written.
+	 */
+	@Inject(optional = true)
+	public void setQueryComputeMaxBufferedPoints(@Named(QUERY_COMPUTE_MAX_BUFFERED_POINTS) int maxBufferedPoints)
+	{
+		m_queryComputeMaxBufferedPoints = maxBufferedPoints;
+	}
+
+	@Inject(optional = true)
+	public void setMemoryCache(QueryMemoryCache memoryCache)
+	{
+		m_memoryCache = memoryCache;
+	}
+
 	@SuppressWarnings("ResultOfMethodCallIgnored")
 	private void setupCacheDirectory()
 	{
@@ -167,6 +227,7 @@ public class KairosDatastore implements KairosPostConstructInit
 	{
 		String oldCacheDir = m_cacheDir;
 		newCacheDirectory();
+		m_memoryCache.clear();
 
 		if (wait)
 		{
@@ -197,6 +258,10 @@ public class KairosDatastore implements KairosPostConstructInit
 	 */
 	public void close() throws InterruptedException, DatastoreException
 	{
+		QueryComputeExecutor computeExecutor = m_queryComputeExecutor;
+		if (computeExecutor != null)
+			computeExecutor.shutdown();
+
 		m_datastore.close();
 	}
 
@@ -317,105 +382,16 @@ public class KairosDatastore implements KairosPostConstructInit
 	protected List<DataPointGroup> groupByTypeAndTag(String metricName,
 			List<DataPointRow> rows, TagGroupBy tagGroupBy, Order order)
 	{
-		List<DataPointGroup> ret = new ArrayList<DataPointGroup>();
 		MemoryMonitor mm = new MemoryMonitor(20);
+		RowGrouper rowGrouper = new RowGrouper(metricName, tagGroupBy, order, m_dataPointFactory);
 
-		if (rows.isEmpty())
+		for (DataPointRow row : rows)
 		{
-			ret.add(new SortingDataPointGroup(metricName, order));
+			rowGrouper.addRow(row);
+			mm.checkMemoryAndThrowException();
 		}
-		else
-		{
-			ListMultimap<String, DataPointGroup> typeGroups = ArrayListMultimap.create();
 
-			//Go through each row grouping them by type
-			for (DataPointRow row : rows)
-			{
-				String groupType = m_dataPointFactory.getGroupType(row.getDatastoreType());
-
-				typeGroups.put(groupType, new DataPointGroupRowWrapper(row));
-				mm.checkMemoryAndThrowException();
-			}
-
-			//Sort the types for predictable results
-			TreeSet<String> sortedTypes = new TreeSet<String>(typeGroups.keySet());
-
-			//Now go through each type group and group by tag if needed.
-			for (String type : sortedTypes)
-			{
-				if (tagGroupBy != null)
-				{
-					ListMultimap<String, DataPointGroup> groups = ArrayListMultimap.create();
-					Map<String, TagGroupByResult> groupByResults = new HashMap<String, TagGroupByResult>();
-
-					for (DataPointGroup dataPointGroup : typeGroups.get(type))
-					{
-						//Todo: Add code to datastore implementations to filter by the group by tag
-
-						LinkedHashMap<String, String> matchingTags = getMatchingTags(dataPointGroup, tagGroupBy.getTagNames());
-						String tagsKey = getTagsKey(matchingTags);
-						groups.put(tagsKey, dataPointGroup);
-						groupByResults.put(tagsKey, new TagGroupByResult(tagGroupBy, matchingTags));
-						mm.checkMemoryAndThrowException();
-					}
-
-					//Sort groups by tags
-					TreeSet<String> sortedGroups = new TreeSet<String>(groups.keySet());
-
-					for (String key : sortedGroups)
-					{
-						SortingDataPointGroup sdpGroup = new SortingDataPointGroup(groups.get(key), groupByResults.get(key), order);
-						sdpGroup.addGroupByResult(new TypeGroupByResult(type));
-						ret.add(sdpGroup);
-					}
-				}
-				else
-				{
-					ret.add(new SortingDataPointGroup(typeGroups.get(type), new TypeGroupByResult(type), order));
-				}
-			}
-		}
-
-		return ret;
-	}
-
-
-	/**
-	 * Create a unique identifier for this combination of tags to be used as the key of a hash map.
-	 */
-	private static String getTagsKey(LinkedHashMap<String, String> tags)
-	{
-		StringBuilder builder = new StringBuilder();
-		for (Map.Entry<String,String> entry : tags.entrySet())
-		{
-			builder.append(entry.getKey()).append(entry.getValue());
-		}
-
-		return builder.toString();
-	}
-
-	/**
-	 Tags are inserted in the order specified in tagNames which is the order
-	 from the query.  We use a linked hashmap so that order is preserved and
-	 the group by responses are sorted in the order specified in the query.
-	 @param datapointGroup
-	 @param tagNames
-	 @return
-	 */
-	private static LinkedHashMap<String, String> getMatchingTags(DataPointGroup datapointGroup, List<String> tagNames)
-	{
-		LinkedHashMap<String, String> matchingTags = new LinkedHashMap<String, String>();
-		for (String tagName : tagNames)
-		{
-			Set<String> tagValues = datapointGroup.getTagValues(tagName);
-			if (tagValues != null)
-			{
-				String tagValue = tagValues.iterator().next();
-				matchingTags.put(tagName, tagValue != null ? tagValue : "");
-			}
-		}
-
-		return matchingTags;
+		return rowGrouper.getGroups();
 	}
 
 
@@ -439,7 +415,9 @@ public class KairosDatastore implements KairosPostConstructInit
 		private List<DataPointGroup> m_results;
 		private int m_dataPointCount;
 		private int m_rowCount;
-		
+		//Set when this query is attached to an identical running query
+		private CompletableFuture<CachedSearchResult> m_runningQuery;
+
 		public DatastoreQueryImpl(QueryMetric metric)
 				throws UnsupportedEncodingException, NoSuchAlgorithmException,
 				InterruptedException, DatastoreException
@@ -453,7 +431,7 @@ public class KairosDatastore implements KairosPostConstructInit
 
 			m_metric = metric;
 			m_cacheFilename = calculateFilenameHash(metric);
-			m_queuingManager.waitForTimeToRun(m_cacheFilename, metric);
+			m_runningQuery = m_queuingManager.joinOrWaitForTimeToRun(m_cacheFilename, metric);
 		}
 
 		public int getSampleSize()
@@ -462,12 +440,45 @@ public class KairosDatastore implements KairosPostConstructInit
 		}
 		public int getRowCount() { return m_rowCount; }
 
+		/**
+		 Waits for the identical query this query is attached to.
+		 @return the shared result or null if this query has to be run
+		 */
+		private CachedSearchResult getSharedSearchResult() throws InterruptedException, DatastoreException
+		{
+			while (m_runningQuery != null)
+			{
+				CachedSearchResult result;
+				try
+				{
+					result = m_runningQuery.get();
+				}
+				catch (ExecutionException e)
+				{
+					throw new DatastoreException(e.getCause());
+				}
+				catch (CancellationException e)
+				{
+					//The running query was closed without publishing a result
+					result = null;
+				}
+
+				if (result != null && result.retain())
+					return result;
+
+				//The running query finished before we could read its result
+				m_runningQuery = m_queuingManager.joinOrWaitForTimeToRun(m_cacheFilename, m_metric);
+			}
+
+			return null;
+		}
+
 		@Override
 		public List<DataPointGroup> execute() throws DatastoreException
 		{
 			Stopwatch stopwatch = Stopwatch.createStarted();
 
-			SearchResult searchResult = null;
+			CachedSearchResult searchResult = null;
 
 			List<DataPointRow> returnedRows = null;
 
@@ -475,14 +486,32 @@ public class KairosDatastore implements KairosPostConstructInit
 			{
 				String tempFile = m_cacheDir + m_cacheFilename;
 
+				searchResult = getSharedSearchResult();
+				if (searchResult != null)
+				{
+					returnedRows = searchResult.getRows();
+					logger.debug("Joined running query");
+				}
+
 				/*searchResult = new MemorySearchResult(m_metric.getName());
 				m_datastore.queryDatabase(m_metric, searchResult);
 				returnedRows = searchResult.getRows();*/
 
-				if (m_metric.getCacheTime() > 0)
+				if (searchResult == null && m_metric.getCacheTime() > 0)
 				{
-					searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
-							tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
+					ByteBuffer cacheImage = m_memoryCache.get(m_cacheFilename, m_metric.getCacheTime());
+					if (cacheImage != null)
+					{
+						searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
+								cacheImage, m_dataPointFactory);
+					}
+
+					if (searchResult == null)
+					{
+						searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
+								tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
+					}
+
 					if (searchResult != null)
 					{
 						returnedRows = searchResult.getRows();
@@ -493,21 +522,30 @@ public class KairosDatastore implements KairosPostConstructInit
 				if (searchResult == null)
 				{
 					logger.debug("Cache MISS!");
-					searchResult = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
+					CachedSearchResult cachedSearchResult = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
 							tempFile, m_dataPointFactory, m_keepCacheFiles);
+					if (m_metric.getCacheTime() > 0 && m_memoryCache.isEnabled())
+						cachedSearchResult.setMemoryCache(m_memoryCache, m_cacheFilename, m_metric.getCacheTime());
+
+					searchResult = cachedSearchResult;
 					m_datastore.queryDatabase(m_metric, searchResult);
 					returnedRows = searchResult.getRows();
 				}
 
+				if (m_runningQuery == null)
+					m_queuingManager.publishResult(m_cacheFilename, searchResult);
 			}
 			catch (Exception e)
 			{
 				logger.error("Query Error", e);
+				if (m_runningQuery == null)
+					m_queuingManager.publishFailure(m_cacheFilename, e);
 				throw new DatastoreException(e);
 			}
 			finally
 			{
-				searchResult.close();
+				if (searchResult != null)
+					searchResult.close();
 			}
 
 			//Get data point count
@@ -526,7 +564,7 @@ public class KairosDatastore implements KairosPostConstructInit
 
 
 			// Now group for all other types of group bys.
-			Grouper grouper = new Grouper(m_dataPointFactory);
+			Grouper grouper = new Grouper(m_dataPointFactory, m_grouperMemoryLimit);
 			try
 			{
 				queryResults = grouper.group(removeTagGroupBy(m_metric.getGroupBys()), queryResults);
@@ -558,6 +596,10 @@ public class KairosDatastore implements KairosPostConstructInit
 					aggregatedGroup = new LimitAggregator(m_metric.getLimit()).aggregate(aggregatedGroup);
 				}
 
+				//Numeric data can be aggregated a block at a time
+				if (!aggregators.isEmpty() && DataPoint.GROUP_NUMBER.equals(groupType))
+					aggregatedGroup = DataPointGroupBlockAdapter.wrap(aggregatedGroup);
+
 				//This will pipe the aggregators together.
 				for (Aggregator aggregator : aggregators)
 				{
@@ -571,6 +613,11 @@ public class KairosDatastore implements KairosPostConstructInit
 				m_results.add(aggregatedGroup);
 			}
 
+			//Groups only worth handing to other threads when there is aggregating to do
+			QueryComputeExecutor computeExecutor = m_queryComputeExecutor;
+			if (computeExecutor != null && m_results.size() > 1 && !m_metric.getAggregators().isEmpty())
+				m_results = computeExecutor.computeAhead(m_results);
+
 
 			//Report how long query took
 			ThreadReporter.addDataPoint(QUERY_METRIC_TIME, stopwatch.elapsed(java.util.concurrent.TimeUnit.MILLISECONDS));
@@ -593,7 +640,8 @@ public class KairosDatastore implements KairosPostConstructInit
 			}
 			finally
 			{  //This must get done
-				m_queuingManager.done(m_cacheFilename);
+				if (m_runningQuery == null)
+					m_queuingManager.done(m_cacheFilename);
 			}
 		}
 	}
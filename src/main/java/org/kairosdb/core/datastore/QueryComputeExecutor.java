@@ -0,0 +1,272 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.groupby.GroupByResult;
+import org.kairosdb.util.MemoryMonitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Process wide pool of threads used to evaluate the aggregators of a query's
+ groups in parallel.
+
+ Groups are independent so each one is read on a pool thread and its data
+ points are buffered until the request thread gets to it.  Groups are handed
+ out in order and only a window of groups ahead of the one being read is
+ submitted at a time.  At most maxBufferedPoints of a group are read ahead,
+ the rest of a larger group is read on the request thread as it is written,
+ so a query holds no more than window * maxBufferedPoints buffered points.  A
+ group the pool has not started yet when it is needed is evaluated on the
+ request thread, so a busy pool never makes a query wait.
+ */
+public class QueryComputeExecutor
+{
+	public static final int DEFAULT_MAX_BUFFERED_POINTS = 10000;
+
+	private final ExecutorService m_executor;
+	private final int m_windowSize;
+	private final int m_maxBufferedPoints;
+
+	public QueryComputeExecutor(int threadCount, int window)
+	{
+		this(threadCount, window, DEFAULT_MAX_BUFFERED_POINTS);
+	}
+
+	/**
+	 @param threadCount number of threads shared by all queries
+	 @param window number of groups of a single query that are evaluated ahead
+	 of the group being read
+	 @param maxBufferedPoints data points of a group read ahead on the pool
+	 */
+	public QueryComputeExecutor(int threadCount, int window, int maxBufferedPoints)
+	{
+		checkArgument(threadCount > 0, "Query compute thread count must be greater than 0");
+		checkArgument(window > 0, "Query compute window must be greater than 0");
+		checkArgument(maxBufferedPoints > 0, "Query compute max buffered points must be greater than 0");
+
+		m_windowSize = window;
+		m_maxBufferedPoints = maxBufferedPoints;
+		m_executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory()
+		{
+			private int m_count = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				m_count ++;
+				Thread t = new Thread(r, "query_compute-"+m_count);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public void shutdown()
+	{
+		m_executor.shutdownNow();
+	}
+
+	/**
+	 Wraps the groups of a query so they are evaluated on the pool.  The
+	 returned groups should be read in order for the window to move along,
+	 closing a group skips it if it has not been started.
+
+	 @return groups in the same order with the same data points
+	 */
+	public List<DataPointGroup> computeAhead(List<DataPointGroup> groups)
+	{
+		List<ComputedDataPointGroup> computedGroups = new ArrayList<>(groups.size());
+		for (DataPointGroup group : groups)
+			computedGroups.add(new ComputedDataPointGroup(group, computedGroups.size()));
+
+		new ComputeWindow(computedGroups).submitThrough(m_windowSize - 1);
+
+		return new ArrayList<>(computedGroups);
+	}
+
+	//===========================================================================
+	private class ComputeWindow
+	{
+		private final List<ComputedDataPointGroup> m_groups;
+		private int m_submitted = 0;
+
+		private ComputeWindow(List<ComputedDataPointGroup> groups)
+		{
+			m_groups = groups;
+			for (ComputedDataPointGroup group : groups)
+				group.m_computeWindow = this;
+		}
+
+		/**
+		 Submits every group up to and including index that has not been
+		 submitted yet.
+		 */
+		private synchronized void submitThrough(int index)
+		{
+			int last = Math.min(index, m_groups.size() - 1);
+			try
+			{
+				for (; m_submitted <= last; m_submitted++)
+					m_executor.execute(m_groups.get(m_submitted).m_task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				//Shutting down, the rest are run by the request thread
+				m_submitted = m_groups.size();
+			}
+		}
+	}
+
+	//===========================================================================
+	private class ComputedDataPointGroup implements DataPointGroup
+	{
+		private final DataPointGroup m_group;
+		private final int m_index;
+		private final FutureTask<List<DataPoint>> m_task;
+		private ComputeWindow m_computeWindow;
+		private volatile boolean m_closed;
+
+		private List<DataPoint> m_dataPoints;
+		private int m_position;
+
+		private ComputedDataPointGroup(DataPointGroup group, int index)
+		{
+			m_group = group;
+			m_index = index;
+			m_task = new FutureTask<>(() ->
+			{
+				List<DataPoint> dataPoints = new ArrayList<>();
+				if (m_closed)
+					return dataPoints;
+
+				MemoryMonitor memoryMonitor = new MemoryMonitor(1000);
+				while (dataPoints.size() < m_maxBufferedPoints && m_group.hasNext())
+				{
+					dataPoints.add(m_group.next());
+					memoryMonitor.checkMemoryAndThrowException();
+				}
+
+				return dataPoints;
+			});
+		}
+
+		/**
+		 Waits for the group to be evaluated, moving the window along the first
+		 time the group is used.
+		 */
+		private DataPointGroup await()
+		{
+			if (m_dataPoints == null)
+			{
+				m_computeWindow.submitThrough(m_index + m_windowSize);
+				//Runs the group here unless a pool thread already started it
+				m_task.run();
+
+				try
+				{
+					m_dataPoints = Uninterruptibles.getUninterruptibly(m_task);
+				}
+				catch (ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IllegalStateException(cause);
+				}
+			}
+
+			return m_group;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			await();
+			if (m_position < m_dataPoints.size())
+				return true;
+
+			//Let the buffer go once it has been read
+			m_dataPoints = Collections.emptyList();
+			m_position = 0;
+
+			//The pool stops at the buffer limit, the rest is read here
+			return m_group.hasNext();
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			if (m_position < m_dataPoints.size())
+				return m_dataPoints.get(m_position++);
+			else
+				return m_group.next();
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getName()
+		{
+			return await().getName();
+		}
+
+		@Override
+		public List<GroupByResult> getGroupByResult()
+		{
+			return await().getGroupByResult();
+		}
+
+		@Override
+		public Set<String> getTagNames()
+		{
+			return await().getTagNames();
+		}
+
+		@Override
+		public Set<String> getTagValues(String tag)
+		{
+			return await().getTagValues(tag);
+		}
+
+		@Override
+		public void close()
+		{
+			//A group that has not started is skipped, a running group has to
+			//finish before its resources are closed
+			m_closed = true;
+			m_task.run();
+			try
+			{
+				Uninterruptibles.getUninterruptibly(m_task);
+			}
+			catch (ExecutionException e)
+			{
+				//Already reported to whoever read the group
+			}
+
+			m_dataPoints = null;
+			m_group.close();
+		}
+	}
+}
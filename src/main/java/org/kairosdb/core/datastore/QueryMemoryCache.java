@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.kairosdb.core.datastore;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ In memory tier of the query cache.  Holds complete cache file images, as
+ written by {@link CachedSearchResult}, in direct buffers outside of the heap.
+ Entries are keyed by the same hash used for the cache file name and are
+ evicted least recently used first once the byte budget is exceeded.  An entry
+ is only returned while it is younger than the cache time of the query asking
+ for it.
+ */
+public class QueryMemoryCache implements KairosMetricReporter
+{
+	public static final Logger logger = LoggerFactory.getLogger(QueryMemoryCache.class);
+
+	public static final String MEMORY_CACHE_SIZE = "kairosdb.query_cache.memory_cache_size";
+	public static final String MEMORY_CACHE_MAX_ENTRY_SIZE = "kairosdb.query_cache.memory_cache_max_entry_size";
+
+	public static final String SIZE_METRIC = "kairosdb.datastore.query_memory_cache.size";
+	public static final String ENTRY_COUNT_METRIC = "kairosdb.datastore.query_memory_cache.entry_count";
+	public static final String HIT_METRIC = "kairosdb.datastore.query_memory_cache.hit";
+	public static final String MISS_METRIC = "kairosdb.datastore.query_memory_cache.miss";
+
+	//Access ordered so iteration starts with the least recently used entry
+	private final LinkedHashMap<String, CacheEntry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long m_size = 0L;
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+
+	@Inject(optional = true)
+	@Named(MEMORY_CACHE_SIZE)
+	private long m_maxSize = 0L;
+
+	@Inject(optional = true)
+	@Named(MEMORY_CACHE_MAX_ENTRY_SIZE)
+	private long m_maxEntrySize = 0L;
+
+	@Inject
+	@Named("HOSTNAME")
+	private String m_hostName = "localhost";
+
+	public QueryMemoryCache()
+	{
+	}
+
+	/**
+	 @param maxSize total bytes the cache can hold, 0 disables the cache
+	 @param maxEntrySize largest single entry that will be cached, 0 or less means
+	 an entry can use the whole budget.
+	 */
+	public QueryMemoryCache(long maxSize, long maxEntrySize)
+	{
+		m_maxSize = maxSize;
+		m_maxEntrySize = maxEntrySize;
+	}
+
+	public boolean isEnabled()
+	{
+		return m_maxSize > 0;
+	}
+
+	/**
+	 Entries are held in a single ByteBuffer so they can never be larger
+	 than Integer.MAX_VALUE, even when the budget is.
+	 */
+	private long getMaxEntrySize()
+	{
+		long maxEntrySize = m_maxSize;
+		if (m_maxEntrySize > 0 && m_maxEntrySize < m_maxSize)
+			maxEntrySize = m_maxEntrySize;
+
+		return Math.min(maxEntrySize, Integer.MAX_VALUE);
+	}
+
+	/**
+	 Returns a read only view of the cached image or null if there is no entry
+	 younger than cacheTime.
+	 @param key query hash
+	 @param cacheTime number of seconds the cached result can be used for
+	 */
+	public ByteBuffer get(String key, int cacheTime)
+	{
+		if (!isEnabled())
+			return null;
+
+		ByteBuffer ret = null;
+		long now = System.currentTimeMillis();
+
+		synchronized (this)
+		{
+			CacheEntry entry = m_entries.get(key);
+			if (entry != null)
+			{
+				if ((now - entry.m_createTime) < ((long)cacheTime * 1000))
+					ret = entry.m_buffer.asReadOnlyBuffer();
+				else
+					removeEntry(key);
+			}
+		}
+
+		if (ret != null)
+			m_hits.incrementAndGet();
+		else
+			m_misses.incrementAndGet();
+
+		return ret;
+	}
+
+	/**
+	 Copies the contents of the channel off heap and adds it to the cache.
+	 Results larger than the max entry size are not cached.
+	 @param key query hash
+	 @param cacheTime number of seconds the entry is good for
+	 @param createTime time the result was created
+	 @param channel channel to read the image from, it is read from position 0
+	 */
+	public void put(String key, int cacheTime, long createTime, FileChannel channel) throws IOException
+	{
+		if (!isEnabled())
+			return;
+
+		long size = channel.size();
+		if (size == 0 || size > getMaxEntrySize())
+			return;
+
+		ByteBuffer buffer;
+		try
+		{
+			buffer = ByteBuffer.allocateDirect((int)size);
+		}
+		catch (OutOfMemoryError e)
+		{
+			logger.warn("Unable to allocate "+size+" bytes for query memory cache, increase -XX:MaxDirectMemorySize");
+			return;
+		}
+
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, buffer.position()) < 0)
+				return; //File was truncated
+		}
+		buffer.flip();
+
+		CacheEntry entry = new CacheEntry(buffer, createTime, createTime + ((long)cacheTime * 1000));
+
+		synchronized (this)
+		{
+			removeEntry(key);
+			m_entries.put(key, entry);
+			m_size += size;
+
+			evictEntries(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 Removes all entries from the cache
+	 */
+	public synchronized void clear()
+	{
+		m_entries.clear();
+		m_size = 0L;
+	}
+
+	public synchronized long getSize()
+	{
+		return m_size;
+	}
+
+	public synchronized int getEntryCount()
+	{
+		return m_entries.size();
+	}
+
+	private void removeEntry(String key)
+	{
+		CacheEntry entry = m_entries.remove(key);
+		if (entry != null)
+			m_size -= entry.m_buffer.capacity();
+	}
+
+	/**
+	 Drops expired entries and then the least recently used entries until the
+	 cache is within budget.  Direct buffers are released once the last query
+	 reading them is done.
+	 */
+	private void evictEntries(long now)
+	{
+		Iterator<Map.Entry<String, CacheEntry>> it = m_entries.entrySet().iterator();
+		while (it.hasNext())
+		{
+			CacheEntry entry = it.next().getValue();
+			if (entry.m_expireTime <= now || m_size > m_maxSize)
+			{
+				it.remove();
+				m_size -= entry.m_buffer.capacity();
+			}
+		}
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+
+		if (!isEnabled())
+			return ret;
+
+		ret.add(newDataPointSet(SIZE_METRIC, now, getSize()));
+		ret.add(newDataPointSet(ENTRY_COUNT_METRIC, now, getEntryCount()));
+		ret.add(newDataPointSet(HIT_METRIC, now, m_hits.getAndSet(0)));
+		ret.add(newDataPointSet(MISS_METRIC, now, m_misses.getAndSet(0)));
+
+		return ret;
+	}
+
+	private DataPointSet newDataPointSet(String metricName, long now, long value)
+	{
+		DataPointSet dps = new DataPointSet(metricName);
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(new LongDataPoint(now, value));
+		return dps;
+	}
+
+	private static class CacheEntry
+	{
+		private final ByteBuffer m_buffer;
+		private final long m_createTime;
+		private final long m_expireTime;
+
+		private CacheEntry(ByteBuffer buffer, long createTime, long expireTime)
+		{
+			m_buffer = buffer;
+			m_createTime = createTime;
+			m_expireTime = expireTime;
+		}
+	}
+}
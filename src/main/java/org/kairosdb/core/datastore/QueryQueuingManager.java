@@ -29,21 +29,31 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
 
+/**
+ Limits the number of queries running at once and keeps identical queries
+ (same query hash) from running at the same time.  When an identical query is
+ already running a new query attaches to it and shares its result instead of
+ reading the same data again.
+ */
 public class QueryQueuingManager implements KairosMetricReporter
 {
 	public static final Logger logger = LoggerFactory.getLogger(QueryQueuingManager.class);
 	public static final String CONCURRENT_QUERY_THREAD = "kairosdb.datastore.concurrentQueryThreads";
 	public static final String QUERY_COLLISIONS_METRIC_NAME = "kairosdb.datastore.query_collisions";
 
-	private final Map<String, Pair<QueryMetric, Thread>> runningQueries = new HashMap<>();
+	private final Map<String, RunningQuery> runningQueries = new HashMap<>();
 	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition queryDone = lock.newCondition();
 	private final Semaphore semaphore;
 	private final String hostname;
 
@@ -57,60 +67,149 @@ public class QueryQueuingManager implements KairosMetricReporter
 		semaphore = new Semaphore(concurrentQueryThreads, true);
 	}
 
+	/**
+	 Waits until no other query with the same hash is running and a permit is
+	 available.  {@link #done(String)} must be called when the query is finished.
+	 */
 	public void waitForTimeToRun(String queryHash, QueryMetric metric) throws InterruptedException
 	{
-		boolean firstTime = true;
-		while(!acquireSemaphore(queryHash, metric))
+		register(queryHash, metric, false);
+	}
+
+	/**
+	 Attaches to an identical query that is already running or waits for time to
+	 run like {@link #waitForTimeToRun(String, QueryMetric)}.
+	 @return null if the caller is to run the query and call {@link #done(String)},
+	 otherwise a future for the result the running query publishes.
+	 */
+	public CompletableFuture<CachedSearchResult> joinOrWaitForTimeToRun(String queryHash, QueryMetric metric)
+			throws InterruptedException
+	{
+		return register(queryHash, metric, true);
+	}
+
+	private CompletableFuture<CachedSearchResult> register(String queryHash, QueryMetric metric,
+			boolean join) throws InterruptedException
+	{
+		lock.lock();
+		try
 		{
-			if (firstTime)
+			boolean firstTime = true;
+			RunningQuery running;
+			while ((running = runningQueries.get(queryHash)) != null)
 			{
-				collisions.incrementAndGet();
-				firstTime = false;
+				if (firstTime)
+				{
+					collisions.incrementAndGet();
+					firstTime = false;
+				}
+
+				if (join && canShareResult(running.metric, metric))
+					return running.result;
+
+				queryDone.await();
 			}
-			Thread.sleep(100);
+
+			runningQueries.put(queryHash, new RunningQuery(metric, Thread.currentThread()));
 		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		try
+		{
+			semaphore.acquire();
+		}
+		catch (InterruptedException e)
+		{
+			removeRunningQuery(queryHash);
+			throw e;
+		}
+
+		return null;
 	}
 
-	public void done(String queryHash)
+	/**
+	 Queries that hash the same can still read different data when they use
+	 limits, order or query plugins.
+	 */
+	private static boolean canShareResult(QueryMetric running, QueryMetric metric)
+	{
+		return (running != null && metric != null &&
+				metric.getCacheString() != null &&
+				metric.getCacheString().equals(running.getCacheString()) &&
+				metric.getLimit() == running.getLimit() &&
+				metric.getOrder() == running.getOrder() &&
+				metric.getPlugins().isEmpty() && running.getPlugins().isEmpty());
+	}
+
+	/**
+	 Makes the result of a running query available to identical queries.  The
+	 result is kept open until {@link #done(String)} is called.
+	 */
+	public void publishResult(String queryHash, CachedSearchResult result)
 	{
 		lock.lock();
 		try
 		{
-			runningQueries.remove(queryHash);
+			RunningQuery running = runningQueries.get(queryHash);
+			if (running != null && !running.result.isDone() && result.retain())
+			{
+				running.sharedResult = result;
+				running.result.complete(result);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 Fails identical queries waiting on the result of a running query
+	 */
+	public void publishFailure(String queryHash, Throwable cause)
+	{
+		lock.lock();
+		try
+		{
+			RunningQuery running = runningQueries.get(queryHash);
+			if (running != null)
+				running.result.completeExceptionally(cause);
 		}
 		finally
 		{
 			lock.unlock();
 		}
-		semaphore.release();
 	}
 
-	private boolean acquireSemaphore(String queryHash, QueryMetric metric) throws InterruptedException
+	public void done(String queryHash)
 	{
-		semaphore.acquire();
+		removeRunningQuery(queryHash);
+		semaphore.release();
+	}
 
-		boolean hashConflict = false;
+	private void removeRunningQuery(String queryHash)
+	{
+		RunningQuery running;
 		lock.lock();
 		try
 		{
-			hashConflict = runningQueries.containsKey(queryHash);
-			if (!hashConflict)
-			{
-				runningQueries.put(queryHash, new Pair<>(metric, Thread.currentThread()));
-			}
+			running = runningQueries.remove(queryHash);
+			queryDone.signalAll();
 		}
 		finally
 		{
 			lock.unlock();
 		}
 
-		if (hashConflict)
+		if (running != null)
 		{
-			semaphore.release();
-			return false;
+			running.result.completeExceptionally(new CancellationException("Query finished without a result"));
+			if (running.sharedResult != null)
+				running.sharedResult.close();
 		}
-		else
-			return true;
 	}
 
 	public ArrayList<Pair<String, QueryMetric>> getRunningQueries()
@@ -121,7 +220,7 @@ public class QueryQueuingManager implements KairosMetricReporter
 		{
 			for (String key : runningQueries.keySet())
 			{
-				runningQueriesList.add(new Pair<String, QueryMetric>(key, runningQueries.get(key).getFirst()));
+				runningQueriesList.add(new Pair<String, QueryMetric>(key, runningQueries.get(key).metric));
 			}
 		}
 		finally
@@ -138,7 +237,7 @@ public class QueryQueuingManager implements KairosMetricReporter
 		{
 			if (runningQueries.get(queryHash) != null)
 			{
-				runningQueries.get(queryHash).getSecond().interrupt();    // Call interrupt on Thread associated with provided query hash
+				runningQueries.get(queryHash).thread.interrupt();    // Call interrupt on Thread associated with provided query hash
 			}
 		}
 		finally
@@ -166,4 +265,18 @@ public class QueryQueuingManager implements KairosMetricReporter
 
 		return Collections.singletonList(collisionSet);
 	}
-}
\ No newline at end of file
+
+	private static class RunningQuery
+	{
+		private final QueryMetric metric;
+		private final Thread thread;
+		private final CompletableFuture<CachedSearchResult> result = new CompletableFuture<>();
+		private CachedSearchResult sharedResult;
+
+		private RunningQuery(QueryMetric metric, Thread thread)
+		{
+			this.metric = metric;
+			this.thread = thread;
+		}
+	}
+}
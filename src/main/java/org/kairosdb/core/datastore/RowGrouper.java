@@ -0,0 +1,176 @@
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.groupby.TagGroupBy;
+import org.kairosdb.core.groupby.TagGroupByResult;
+import org.kairosdb.core.groupby.TypeGroupByResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Groups rows by data point type and by the values of the group by tags as
+ rows are added.  Each distinct combination of tag values gets one key with
+ its hash computed up front, rows only allocate the array of their values to
+ look it up.  Sorting happens once per group instead of once per row.
+ */
+class RowGrouper
+{
+	private final String m_metricName;
+	private final TagGroupBy m_tagGroupBy;
+	private final String[] m_tagNames;
+	private final Order m_order;
+	private final KairosDataPointFactory m_dataPointFactory;
+
+	private final Map<String, Map<TagGroupKey, List<DataPointGroup>>> m_typeGroups = new HashMap<>();
+
+	/**
+	 @param tagGroupBy null to only group by type
+	 */
+	public RowGrouper(String metricName, TagGroupBy tagGroupBy, Order order,
+			KairosDataPointFactory dataPointFactory)
+	{
+		m_metricName = metricName;
+		m_tagGroupBy = tagGroupBy;
+		m_tagNames = tagGroupBy == null ? new String[0] : tagGroupBy.getTagNames().toArray(new String[0]);
+		m_order = order;
+		m_dataPointFactory = dataPointFactory;
+	}
+
+	public void addRow(DataPointRow row)
+	{
+		String groupType = m_dataPointFactory.getGroupType(row.getDatastoreType());
+
+		Map<TagGroupKey, List<DataPointGroup>> groups = m_typeGroups.get(groupType);
+		if (groups == null)
+		{
+			groups = new HashMap<>();
+			m_typeGroups.put(groupType, groups);
+		}
+
+		String[] values = new String[m_tagNames.length];
+		for (int i = 0; i < m_tagNames.length; i++)
+		{
+			String value = row.getTagValue(m_tagNames[i]);
+			values[i] = value != null ? value : "";
+		}
+
+		TagGroupKey key = new TagGroupKey(values);
+		List<DataPointGroup> rows = groups.get(key);
+		if (rows == null)
+		{
+			rows = new ArrayList<>();
+			groups.put(key, rows);
+		}
+
+		rows.add(new DataPointGroupRowWrapper(row));
+	}
+
+	/**
+	 @return groups sorted by type and then by tag values in the order the tags
+	 are listed in the group by
+	 */
+	public List<DataPointGroup> getGroups()
+	{
+		List<DataPointGroup> ret = new ArrayList<>();
+
+		if (m_typeGroups.isEmpty())
+		{
+			ret.add(new SortingDataPointGroup(m_metricName, m_order));
+			return ret;
+		}
+
+		//Sort the types for predictable results
+		List<String> sortedTypes = new ArrayList<>(m_typeGroups.keySet());
+		Collections.sort(sortedTypes);
+
+		for (String type : sortedTypes)
+		{
+			Map<TagGroupKey, List<DataPointGroup>> groups = m_typeGroups.get(type);
+
+			if (m_tagGroupBy == null)
+			{
+				for (List<DataPointGroup> rows : groups.values())
+					ret.add(new SortingDataPointGroup(rows, new TypeGroupByResult(type), m_order));
+				continue;
+			}
+
+			List<TagGroupKey> sortedKeys = new ArrayList<>(groups.keySet());
+			Collections.sort(sortedKeys);
+
+			for (TagGroupKey key : sortedKeys)
+			{
+				SortingDataPointGroup sdpGroup = new SortingDataPointGroup(groups.get(key),
+						new TagGroupByResult(m_tagGroupBy, key.getTags(m_tagNames)), m_order);
+				sdpGroup.addGroupByResult(new TypeGroupByResult(type));
+				ret.add(sdpGroup);
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 Values of the group by tags of a row, missing tags are empty strings.
+	 */
+	static class TagGroupKey implements Comparable<TagGroupKey>
+	{
+		private final String[] m_values;
+		private final int m_hash;
+
+		TagGroupKey(String[] values)
+		{
+			m_values = values;
+			m_hash = Arrays.hashCode(values);
+		}
+
+		/**
+		 Tags are inserted in the order of the group by so the group by
+		 response lists them in the order given in the query.
+		 */
+		Map<String, String> getTags(String[] tagNames)
+		{
+			Map<String, String> tags = new LinkedHashMap<>();
+			for (int i = 0; i < tagNames.length; i++)
+				tags.put(tagNames[i], m_values[i]);
+
+			return tags;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+				return true;
+			if (!(o instanceof TagGroupKey))
+				return false;
+
+			TagGroupKey that = (TagGroupKey) o;
+			return m_hash == that.m_hash && Arrays.equals(m_values, that.m_values);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return m_hash;
+		}
+
+		@Override
+		public int compareTo(TagGroupKey other)
+		{
+			for (int i = 0; i < m_values.length; i++)
+			{
+				int resp = m_values[i].compareTo(other.m_values[i]);
+				if (resp != 0)
+					return resp;
+			}
+
+			return 0;
+		}
+	}
+}
@@ -33,7 +33,7 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 	public SortingDataPointGroup(String name, Order order)
 	{
 		super(name);
-		m_tree = new TournamentTree<>(new DataPointComparator(), order);
+		m_tree = new TournamentTree<>(DataPoint::getTimestamp, new ValueComparator(), order);
 	}
 
 	public SortingDataPointGroup(List<DataPointGroup> listDataPointGroup, Order order)
@@ -85,22 +85,15 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 	}
 
 
-	private static class DataPointComparator implements Comparator<DataPoint>
+	/**
+	 Orders data points with the same timestamp by value.
+	 */
+	private static class ValueComparator implements Comparator<DataPoint>
 	{
 		@Override
 		public int compare(DataPoint point1, DataPoint point2)
 		{
-			long ret = point1.getTimestamp() - point2.getTimestamp();
-
-			if (ret == 0L)
-				ret = Double.compare(point1.getDoubleValue(), point2.getDoubleValue());
-
-			if (ret == 0L)
-			{  //Simple hack to break a tie.
-				ret = System.identityHashCode(point1) - System.identityHashCode(point2);
-			}
-
-			return (ret < 0L ? -1 : 1);
+			return Double.compare(point1.getDoubleValue(), point2.getDoubleValue());
 		}
 	}
 }
@@ -19,6 +19,12 @@ import com.google.common.collect.HashMultimap;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.util.KDataInputStream;
 import org.slf4j.Logger;
@@ -32,7 +38,9 @@ import static org.kairosdb.util.Util.packLong;
 import static org.kairosdb.util.Util.unpackLong;
 
 /**
- *  A grouping of data points. The group is written to disk.
+ *  A grouping of data points.  Long and double data points are kept in memory
+ *  while the query's memory budget allows, once it runs out or a data point of
+ *  another type shows up the group is written to disk.
  */
 public class Group
 {
@@ -45,21 +53,31 @@ public class Group
 	public static final byte LONG_FLAG = 0x1;
 	public static final byte DOUBLE_FLAG = 0x2;
 
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final String m_fileName;
 	private File m_groupCacheFile;
 	private DataOutputStream m_dataOutputStream;
 	private List<GroupByResult> groupByResults;
 	private String name;
 	private HashMultimap<String, String> tags = HashMultimap.create();
-	private int m_dataPointCount; //Number of datapoints written to file
+	private int m_dataPointCount; //Number of datapoints in the group
+
+	//Data points held in memory until the group spills, doubles are kept as raw bits
+	private final GroupMemoryBudget m_memoryBudget;
+	private long[] m_timestamps;
+	private long[] m_values;
+	private byte[] m_types;
+	private long m_reservedBytes;
 
 	private final KairosDataPointFactory dataPointFactory;
 	private final Map<String, Integer> storageTypeIdMap;
 	private final List<DataPointFactory> dataPointFactories;
 
-	private Group(File file, DataPointGroup dataPointGroup, List<GroupByResult> groupByResults,
-			KairosDataPointFactory dataPointFactory) throws FileNotFoundException
+	private Group(String fileName, DataPointGroup dataPointGroup, List<GroupByResult> groupByResults,
+			KairosDataPointFactory dataPointFactory, GroupMemoryBudget memoryBudget)
 	{
-		requireNonNull(file);
+		requireNonNull(fileName);
 		requireNonNull(groupByResults);
 		requireNonNull(dataPointGroup);
 
@@ -67,10 +85,8 @@ public class Group
 		storageTypeIdMap = new HashMap<String, Integer>();
 		dataPointFactories = new ArrayList<DataPointFactory>();
 
-		m_groupCacheFile = file;
-
-		m_dataOutputStream = new DataOutputStream(new BufferedOutputStream(
-				new FileOutputStream(m_groupCacheFile)));
+		m_fileName = fileName;
+		m_memoryBudget = requireNonNull(memoryBudget);
 
 		this.groupByResults = groupByResults;
 		this.name = dataPointGroup.getName();
@@ -78,17 +94,27 @@ public class Group
 		addTags(dataPointGroup);
 	}
 
+	/**
+	 * Creates a group that is written straight to disk.
+	 */
 	public static Group createGroup(DataPointGroup dataPointGroup, List<Integer> groupIds,
 			List<GroupByResult> groupByResults, KairosDataPointFactory dataPointFactory) throws IOException
+	{
+		return createGroup(dataPointGroup, groupIds, groupByResults, dataPointFactory, new GroupMemoryBudget(0));
+	}
+
+	static Group createGroup(DataPointGroup dataPointGroup, List<Integer> groupIds,
+			List<GroupByResult> groupByResults, KairosDataPointFactory dataPointFactory,
+			GroupMemoryBudget memoryBudget) throws IOException
 	{
 		requireNonNull(dataPointGroup);
 		requireNonNull(groupIds);
 		requireNonNull(groupByResults);
 
-		return new Group(getFile(groupIds), dataPointGroup, groupByResults, dataPointFactory);
+		return new Group(getFileName(groupIds), dataPointGroup, groupByResults, dataPointFactory, memoryBudget);
 	}
 
-	private static File getFile(List<Integer> groupIds) throws IOException
+	private static String getFileName(List<Integer> groupIds)
 	{
 		StringBuilder builder = new StringBuilder();
 		for (Integer groupId : groupIds)
@@ -96,7 +122,7 @@ public class Group
 			builder.append(groupId);
 		}
 
-		return File.createTempFile("grouper-" + builder.toString(), ".cache");
+		return "grouper-" + builder.toString();
 	}
 
 	private int getStorageTypeId(String storageType)
@@ -112,15 +138,120 @@ public class Group
 		return id;
 	}
 
+	/**
+	 * @return LONG_FLAG or DOUBLE_FLAG if the data point can be kept in memory, 0 otherwise
+	 */
+	private static byte getMemoryType(DataPoint dataPoint)
+	{
+		String dataStoreType = dataPoint.getDataStoreDataType();
+		if (dataStoreType.equals(LongDataPointFactoryImpl.DST_LONG) && dataPoint.isLong())
+			return LONG_FLAG;
+		else if (dataStoreType.equals(DoubleDataPointFactoryImpl.DST_DOUBLE) && dataPoint.isDouble())
+			return DOUBLE_FLAG;
+		else
+			return 0;
+	}
+
 	public void addDataPoint(DataPoint dataPoint) throws IOException
 	{
+		if (m_dataOutputStream == null)
+		{
+			byte type = getMemoryType(dataPoint);
+			if (type != 0 && ensureCapacity())
+			{
+				m_timestamps[m_dataPointCount] = dataPoint.getTimestamp();
+				m_types[m_dataPointCount] = type;
+				if (type == LONG_FLAG)
+					m_values[m_dataPointCount] = dataPoint.getLongValue();
+				else
+					m_values[m_dataPointCount] = Double.doubleToRawLongBits(dataPoint.getDoubleValue());
+
+				m_dataPointCount ++;
+				return;
+			}
+
+			spill();
+		}
+
 		m_dataPointCount ++;
+		writeDataPoint(dataPoint);
+	}
+
+	/**
+	 * @return false if the memory budget does not have room for another data point
+	 */
+	private boolean ensureCapacity()
+	{
+		int capacity = m_timestamps == null ? 0 : m_timestamps.length;
+		if (m_dataPointCount < capacity)
+			return true;
+
+		int newCapacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+		long bytes = (long) (newCapacity - capacity) * DATA_POINT_SIZE;
+		if (!m_memoryBudget.reserve(bytes))
+			return false;
+
+		m_reservedBytes += bytes;
+		if (capacity == 0)
+		{
+			m_timestamps = new long[newCapacity];
+			m_values = new long[newCapacity];
+			m_types = new byte[newCapacity];
+		}
+		else
+		{
+			m_timestamps = Arrays.copyOf(m_timestamps, newCapacity);
+			m_values = Arrays.copyOf(m_values, newCapacity);
+			m_types = Arrays.copyOf(m_types, newCapacity);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Moves the data points held in memory to the group file and hands their
+	 * memory back to the budget.
+	 */
+	private void spill() throws IOException
+	{
+		m_groupCacheFile = File.createTempFile(m_fileName, ".cache");
+		m_dataOutputStream = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(m_groupCacheFile)));
+
+		for (int i = 0; i < m_dataPointCount; i++)
+			writeDataPoint(getMemoryDataPoint(i));
+
+		m_timestamps = null;
+		m_values = null;
+		m_types = null;
+		m_memoryBudget.release(m_reservedBytes);
+		m_reservedBytes = 0;
+	}
+
+	private DataPoint getMemoryDataPoint(int index)
+	{
+		if (m_types[index] == LONG_FLAG)
+			return new LongDataPoint(m_timestamps[index], m_values[index]);
+		else
+			return new DoubleDataPoint(m_timestamps[index], Double.longBitsToDouble(m_values[index]));
+	}
+
+	private void writeDataPoint(DataPoint dataPoint) throws IOException
+	{
 		packLong(dataPoint.getTimestamp(), m_dataOutputStream);
 		int id = getStorageTypeId(dataPoint.getDataStoreDataType());
 		packLong(id, m_dataOutputStream);
 		dataPoint.writeValueToBuffer(m_dataOutputStream);
 	}
 
+	/**
+	 * @return true if the group has been written to disk
+	 */
+	public boolean isSpilled()
+	{
+		return m_groupCacheFile != null;
+	}
+
 	public void addGroupByResults(List<GroupByResult> results)
 	{
 		groupByResults.addAll(requireNonNull(results));
@@ -128,6 +259,9 @@ public class Group
 
 	public DataPointGroup getDataPointGroup() throws IOException
 	{
+		if (m_dataOutputStream == null)
+			return (new MemoryDataPointGroup());
+
 		m_dataOutputStream.flush();
 		m_dataOutputStream.close();
 
@@ -146,16 +280,9 @@ public class Group
 		}
 	}
 
-	private class CachedDataPointGroup implements DataPointGroup
+	private abstract class GroupDataPointGroup implements DataPointGroup
 	{
-		private int m_readCount = 0; //number of datapoints read from file
-		private KDataInputStream m_dataInputStream;
-
-		private CachedDataPointGroup() throws IOException
-		{
-			m_dataInputStream = new KDataInputStream(new BufferedInputStream(
-					new FileInputStream(m_groupCacheFile)));
-		}
+		protected int m_readCount = 0; //number of datapoints read
 
 		@Override
 		public String getName()
@@ -181,6 +308,66 @@ public class Group
 			return groupByResults;
 		}
 
+		@Override
+		public boolean hasNext()
+		{
+			return (m_readCount < m_dataPointCount);
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private class MemoryDataPointGroup extends GroupDataPointGroup implements BlockDataPointGroup
+	{
+		@Override
+		public boolean nextBlock(DataPointBlock block)
+		{
+			block.clear();
+			int end = Math.min(m_dataPointCount, m_readCount + block.capacity());
+			for (int i = m_readCount; i < end; i++)
+			{
+				if (m_types[i] == LONG_FLAG)
+					block.addLong(m_timestamps[i], m_values[i]);
+				else
+					block.add(m_timestamps[i], Double.longBitsToDouble(m_values[i]));
+			}
+
+			m_readCount = end;
+			return block.size() != 0;
+		}
+
+		@Override
+		public void close()
+		{
+			m_timestamps = null;
+			m_values = null;
+			m_types = null;
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			if (m_readCount == m_dataPointCount)
+				return null;
+
+			return getMemoryDataPoint(m_readCount ++);
+		}
+	}
+
+	private class CachedDataPointGroup extends GroupDataPointGroup
+	{
+		private KDataInputStream m_dataInputStream;
+
+		private CachedDataPointGroup() throws IOException
+		{
+			m_dataInputStream = new KDataInputStream(new BufferedInputStream(
+					new FileInputStream(m_groupCacheFile)));
+		}
+
 		@Override
 		public void close()
 		{
@@ -199,12 +386,6 @@ public class Group
 			}
 		}
 
-		@Override
-		public boolean hasNext()
-		{
-			return (m_readCount < m_dataPointCount);
-		}
-
 		@Override
 		public DataPoint next()
 		{
@@ -231,11 +412,5 @@ public class Group
 
 			return (dataPoint);
 		}
-
-		@Override
-		public void remove()
-		{
-			throw new UnsupportedOperationException();
-		}
 	}
-}
\ No newline at end of file
+}
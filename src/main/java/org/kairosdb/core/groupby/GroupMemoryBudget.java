@@ -0,0 +1,39 @@
+package org.kairosdb.core.groupby;
+
+/**
+ Bytes the groups of one query can hold in memory before they are written
+ to disk.  Only used by the thread doing the grouping.
+ */
+class GroupMemoryBudget
+{
+	private final long m_limit;
+	private long m_used;
+
+	GroupMemoryBudget(long limit)
+	{
+		m_limit = limit;
+	}
+
+	/**
+	 @return false if reserving bytes would go over the limit, nothing is
+	 reserved in that case
+	 */
+	boolean reserve(long bytes)
+	{
+		if (m_used + bytes > m_limit)
+			return false;
+
+		m_used += bytes;
+		return true;
+	}
+
+	void release(long bytes)
+	{
+		m_used -= bytes;
+	}
+
+	long getUsed()
+	{
+		return m_used;
+	}
+}
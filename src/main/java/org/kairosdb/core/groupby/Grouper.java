@@ -31,11 +31,25 @@ import java.util.Map;
  */
 public class Grouper
 {
+	public static final long DEFAULT_MEMORY_LIMIT = 16L * 1024 * 1024;
+
 	private final KairosDataPointFactory m_dataPointFactory;
+	private final long m_memoryLimit;
 
 	public Grouper(KairosDataPointFactory dataPointFactory)
+	{
+		this(dataPointFactory, DEFAULT_MEMORY_LIMIT);
+	}
+
+	/**
+	 * @param dataPointFactory factory used to read back groups written to disk
+	 * @param memoryLimit bytes of data points each call to group can keep in
+	 *                    memory, groups are written to disk once it is used up
+	 */
+	public Grouper(KairosDataPointFactory dataPointFactory, long memoryLimit)
 	{
 		m_dataPointFactory = dataPointFactory;
+		m_memoryLimit = memoryLimit;
 	}
 
 	/**
@@ -50,6 +64,7 @@ public class Grouper
 		if (groupBys.size() < 1)
 			return dataPointGroupList;
 
+		GroupMemoryBudget memoryBudget = new GroupMemoryBudget(m_memoryLimit);
 		List<DataPointGroup> dataPointGroups = new ArrayList<DataPointGroup>();
 		for (DataPointGroup dataPointGroup : dataPointGroupList)
 		{
@@ -70,7 +85,7 @@ public class Grouper
 				}
 
 				// add to group
-				Group group = getGroup(groupIdsToGroup, dataPointGroup, groupIds, results);
+				Group group = getGroup(groupIdsToGroup, dataPointGroup, groupIds, results, memoryBudget);
 				group.addDataPoint(dataPoint);
 			}
 
@@ -90,12 +105,13 @@ public class Grouper
 		return dataPointGroups;
 	}
 
-	private Group getGroup(Map<List<Integer>, Group> groupIdsToGroup, DataPointGroup dataPointGroup, List<Integer> groupIds, List<GroupByResult> results) throws IOException
+	private Group getGroup(Map<List<Integer>, Group> groupIdsToGroup, DataPointGroup dataPointGroup,
+			List<Integer> groupIds, List<GroupByResult> results, GroupMemoryBudget memoryBudget) throws IOException
 	{
 		Group group = groupIdsToGroup.get(groupIds);
 		if (group == null)
 		{
-			group = Group.createGroup(dataPointGroup, groupIds, results, m_dataPointFactory);
+			group = Group.createGroup(dataPointGroup, groupIds, results, m_dataPointFactory, memoryBudget);
 			groupIdsToGroup.put(groupIds, group);
 		}
 		return group;
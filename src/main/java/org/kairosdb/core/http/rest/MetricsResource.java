@@ -42,7 +42,9 @@ import org.kairosdb.core.reporting.KairosMetricReporter;
 import org.kairosdb.core.reporting.ThreadReporter;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.eventbus.Subscribe;
 import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.events.ShutdownEvent;
 import org.kairosdb.util.MemoryMonitorException;
 import org.kairosdb.util.SimpleStats;
 import org.kairosdb.util.SimpleStatsReporter;
@@ -56,6 +58,16 @@ import javax.ws.rs.core.*;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
@@ -86,6 +98,11 @@ public class MetricsResource implements KairosMetricReporter
 	public static final String INGEST_COUNT = "kairosdb.http.ingest_count";
 	public static final String INGEST_TIME = "kairosdb.http.ingest_time";
 
+	public static final String QUERY_METRIC_PARALLELISM = "kairosdb.queries.query_metric_parallelism";
+	public static final String QUERY_METRIC_THREADS = "kairosdb.queries.query_metric_threads";
+	public static final int DEFAULT_QUERY_METRIC_THREADS = 32;
+	public static final String STREAM_QUERY_RESPONSE = "kairosdb.queries.stream_response";
+
 	public static final String QUERY_URL = "/datapoints/query";
 
 	private final KairosDatastore datastore;
@@ -143,6 +160,55 @@ public class MetricsResource implements KairosMetricReporter
 	@Named("kairosdb.queries.return_query_in_response")
 	private boolean m_returnQueryInResponse = false;
 
+	//Write query results directly to the client instead of to a temp file first
+	private boolean m_streamQueryResponse = false;
+
+	//Number of query metrics from a single request that can run at the same time
+	@Inject(optional = true)
+	@Named(QUERY_METRIC_PARALLELISM)
+	private int m_queryMetricParallelism = 1;
+
+	private volatile ExecutorService m_queryMetricExecutor = createQueryMetricExecutor(DEFAULT_QUERY_METRIC_THREADS);
+
+	/**
+	 Threads are only started when a task is submitted and there is no queue,
+	 once maxThreads are busy submissions are rejected and the caller runs the
+	 work itself.  Queueing instead could leave every thread waiting on work
+	 sitting in the queue.
+	 */
+	private static ExecutorService createQueryMetricExecutor(int maxThreads)
+	{
+		return new ThreadPoolExecutor(0, maxThreads, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<>(), new ThreadFactory()
+		{
+			private final AtomicInteger m_count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "query_metric-"+m_count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	@Inject(optional = true)
+	void setStreamQueryResponse(@Named(STREAM_QUERY_RESPONSE) boolean streamQueryResponse)
+	{
+		m_streamQueryResponse = streamQueryResponse;
+	}
+
+	/**
+	 Max threads shared by all requests to run query metrics in parallel.
+	 */
+	@Inject(optional = true)
+	void setQueryMetricThreads(@Named(QUERY_METRIC_THREADS) int queryMetricThreads)
+	{
+		ExecutorService previous = m_queryMetricExecutor;
+		m_queryMetricExecutor = createQueryMetricExecutor(queryMetricThreads);
+		previous.shutdown();
+	}
+
 	//Used for setting which API methods are enabled
 	private EnumSet<ServerType> m_serverType = EnumSet.of(ServerType.INGEST, ServerType.QUERY, ServerType.DELETE);
 
@@ -489,6 +555,8 @@ public class MetricsResource implements KairosMetricReporter
 	{
 		logger.debug(json);
 		boolean queryFailed = false;
+		//When streaming the query runs and is reported when the response is written
+		boolean streamingResponse = false;
 
 		ThreadReporter.setReportTime(System.currentTimeMillis());
 		ThreadReporter.addTag("host", hostName);
@@ -498,57 +566,51 @@ public class MetricsResource implements KairosMetricReporter
 			if (json == null)
 				throw new BeanValidationException(new QueryParser.SimpleConstraintViolation("query json", "must not be null or empty"), "");
 
-			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), UTF_8));
-
-			JsonResponse jsonResponse = new JsonResponse(writer);
-
 			String originalQuery = null;
 			if (m_returnQueryInResponse)
 				originalQuery = json;
-			jsonResponse.begin(originalQuery);
 
 			Query mainQuery = queryParser.parseQueryMetric(json);
 			mainQuery = m_queryPreProcessor.preProcess(mainQuery);
 
 			List<QueryMetric> queries = mainQuery.getQueryMetrics();
 
-			int queryCount = 0;
-			for (QueryMetric query : queries)
+			List<QueryPostProcessingPlugin> postProcessingPlugins = new ArrayList<>();
+			for (QueryPlugin plugin : mainQuery.getPlugins())
 			{
-				queryCount++;
-				ThreadReporter.addTag("metric_name", query.getName());
-				ThreadReporter.addTag("query_index", String.valueOf(queryCount));
-
-				DatastoreQuery dq = datastore.createQuery(query);
-				long startQuery = System.currentTimeMillis();
+				if (plugin instanceof QueryPostProcessingPlugin)
+					postProcessingPlugins.add((QueryPostProcessingPlugin) plugin);
+			}
 
-				try
-				{
-					List<DataPointGroup> results = dq.execute();
-					jsonResponse.formatQuery(results, query.isExcludeTags(), dq.getSampleSize(), true);
+			//Post processing plugins need the whole response in a file
+			if (m_streamQueryResponse && postProcessingPlugins.isEmpty())
+			{
+				ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
+						new QueryStreamingOutput(queries, originalQuery, json, remoteAddr));
 
-					ThreadReporter.addDataPoint(QUERY_TIME, System.currentTimeMillis() - startQuery);
-				}
-				finally
-				{
-					dq.close();
-				}
+				setHeaders(responseBuilder);
+				streamingResponse = true;
+				return responseBuilder.build();
 			}
 
+			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), UTF_8));
+
+			JsonResponse jsonResponse = new JsonResponse(writer);
+
+			jsonResponse.begin(originalQuery);
+
+			formatQueryMetrics(queries, jsonResponse);
+
 			jsonResponse.end();
 			writer.flush();
 			writer.close();
 
 
 			//System.out.println("About to process plugins");
-			List<QueryPlugin> plugins = mainQuery.getPlugins();
-			for (QueryPlugin plugin : plugins)
+			for (QueryPostProcessingPlugin plugin : postProcessingPlugins)
 			{
-				if (plugin instanceof QueryPostProcessingPlugin)
-				{
-					respFile = ((QueryPostProcessingPlugin) plugin).processQueryResults(respFile);
-				}
+				respFile = plugin.processQueryResults(respFile);
 			}
 
 			ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
@@ -598,40 +660,282 @@ public class MetricsResource implements KairosMetricReporter
 		}
 		finally
 		{
-			ThreadReporter.clearTags();
-			ThreadReporter.addTag("host", hostName);
+			if (!streamingResponse)
+				reportQuery(json, remoteAddr, queryFailed);
+		}
+	}
 
-			if (queryFailed)
-				ThreadReporter.addTag("status", "failed");
-			else
-				ThreadReporter.addTag("status", "success");
+	private void reportQuery(String json, String remoteAddr, boolean queryFailed) throws DatastoreException
+	{
+		ThreadReporter.clearTags();
+		ThreadReporter.addTag("host", hostName);
 
-			//write metrics for query logging
-			long queryTime = System.currentTimeMillis() - ThreadReporter.getReportTime();
-			if (m_logQueries && ((queryTime / 1000) >= m_logQueriesLongerThan))
+		if (queryFailed)
+			ThreadReporter.addTag("status", "failed");
+		else
+			ThreadReporter.addTag("status", "success");
+
+		//write metrics for query logging
+		long queryTime = System.currentTimeMillis() - ThreadReporter.getReportTime();
+		if (m_logQueries && ((queryTime / 1000) >= m_logQueriesLongerThan))
+		{
+			ThreadReporter.addDataPoint("kairosdb.log.query.remote_address", remoteAddr, m_logQueriesTtl);
+			ThreadReporter.addDataPoint("kairosdb.log.query.json", json, m_logQueriesTtl);
+		}
+
+		ThreadReporter.addTag("request", QUERY_URL);
+		ThreadReporter.addDataPoint(REQUEST_TIME, queryTime);
+
+
+		if (m_aggregatedQueryMetrics)
+		{
+			ThreadReporter.gatherData(m_statsMap);
+		}
+		else
+		{
+			ThreadReporter.submitData(m_longDataPointFactory,
+					m_stringDataPointFactory, m_publisher);
+		}
+
+		ThreadReporter.clear();
+	}
+
+	/**
+	 Builds the error response for a query that fails while its results are
+	 being streamed.  Matches the responses returned by runQuery.
+	 */
+	private Response createQueryErrorResponse(Exception e)
+	{
+		if (e instanceof JsonSyntaxException || e instanceof QueryException)
+		{
+			JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+			return builder.addError(e.getMessage()).build();
+		}
+		else if (e instanceof BeanValidationException)
+		{
+			JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+			return builder.addErrors(((BeanValidationException) e).getErrorMessages()).build();
+		}
+		else
+		{
+			logger.error("Query failed.", e);
+			if (e instanceof MemoryMonitorException)
+			{
+				try
+				{
+					Thread.sleep(1000);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+				}
+				System.gc();
+			}
+
+			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+		}
+	}
+
+	private void formatQueryMetrics(List<QueryMetric> queries, JsonResponse jsonResponse) throws Exception
+	{
+		if (m_queryMetricParallelism > 1 && queries.size() > 1)
+		{
+			try
 			{
-				ThreadReporter.addDataPoint("kairosdb.log.query.remote_address", remoteAddr, m_logQueriesTtl);
-				ThreadReporter.addDataPoint("kairosdb.log.query.json", json, m_logQueriesTtl);
+				formatQueryMetricsInParallel(queries, jsonResponse);
+				return;
 			}
+			catch (QueryMetricPoolFullException e)
+			{
+				//Nothing has been written yet, run on the request thread
+				logger.debug("Query metric threads are all busy, running metrics in order");
+			}
+		}
+
+		formatQueryMetricsInOrder(queries, jsonResponse);
+	}
 
-			ThreadReporter.addTag("request", QUERY_URL);
-			ThreadReporter.addDataPoint(REQUEST_TIME, queryTime);
+	private void formatQueryMetricsInOrder(List<QueryMetric> queries, JsonResponse jsonResponse) throws Exception
+	{
+		int queryCount = 0;
+		for (QueryMetric query : queries)
+		{
+			queryCount++;
+			ThreadReporter.addTag("metric_name", query.getName());
+			ThreadReporter.addTag("query_index", String.valueOf(queryCount));
 
+			DatastoreQuery dq = datastore.createQuery(query);
+			long startQuery = System.currentTimeMillis();
 
-			if (m_aggregatedQueryMetrics)
+			try
 			{
-				ThreadReporter.gatherData(m_statsMap);
+				List<DataPointGroup> results = dq.execute();
+				jsonResponse.formatQuery(results, query.isExcludeTags(), dq.getSampleSize(), true);
+
+				ThreadReporter.addDataPoint(QUERY_TIME, System.currentTimeMillis() - startQuery);
 			}
-			else
+			finally
+			{
+				dq.close();
+			}
+		}
+	}
+
+	/**
+	 Executes up to m_queryMetricParallelism query metrics at the same time and
+	 writes the results in the order they appear in the request.  Queries are
+	 created one after the other on a single dispatching thread so permits from
+	 the QueryQueuingManager are always taken in request order, that way the
+	 result being written always holds its permit and requests cannot deadlock.
+	 */
+	private void formatQueryMetricsInParallel(List<QueryMetric> queries, JsonResponse jsonResponse) throws Exception
+	{
+		List<CompletableFuture<QueryMetricResult>> results = new ArrayList<>();
+		for (int i = 0; i < queries.size(); i++)
+			results.add(new CompletableFuture<>());
+
+		Semaphore window = new Semaphore(m_queryMetricParallelism);
+		SortedMap<String, String> tags = ThreadReporter.getTags();
+
+		Future<?> dispatcher;
+		try
+		{
+			dispatcher = m_queryMetricExecutor.submit(
+					() -> dispatchQueryMetrics(queries, results, window, tags));
+		}
+		catch (RejectedExecutionException e)
+		{
+			throw new QueryMetricPoolFullException();
+		}
+
+		int queryIndex = 0;
+		try
+		{
+			for (; queryIndex < results.size(); queryIndex++)
+			{
+				QueryMetricResult result = getQueryMetricResult(results.get(queryIndex));
+
+				try
+				{
+					ThreadReporter.addTag("metric_name", result.m_query.getName());
+					ThreadReporter.addTag("query_index", String.valueOf(queryIndex + 1));
+					ThreadReporter.addReportedData(result.m_reportedData);
+
+					jsonResponse.formatQuery(result.m_results, result.m_query.isExcludeTags(),
+							result.m_datastoreQuery.getSampleSize(), true);
+
+					ThreadReporter.addDataPoint(QUERY_TIME, System.currentTimeMillis() - result.m_startTime);
+				}
+				finally
+				{
+					result.m_datastoreQuery.close();
+					window.release();
+				}
+			}
+		}
+		finally
+		{
+			if (queryIndex < results.size())
 			{
-				ThreadReporter.submitData(m_longDataPointFactory,
-						m_stringDataPointFactory, m_publisher);
+				//Something failed, stop creating queries and close the ones already running
+				dispatcher.cancel(true);
+				for (int i = queryIndex + 1; i < results.size(); i++)
+				{
+					results.get(i).thenAccept(result -> result.m_datastoreQuery.close());
+				}
 			}
+		}
+	}
+
+	private void dispatchQueryMetrics(List<QueryMetric> queries,
+			List<CompletableFuture<QueryMetricResult>> results, Semaphore window,
+			SortedMap<String, String> tags)
+	{
+		int queryIndex = 0;
+		try
+		{
+			for (; queryIndex < queries.size(); queryIndex++)
+			{
+				window.acquire();
+
+				QueryMetric query = queries.get(queryIndex);
+				CompletableFuture<QueryMetricResult> result = results.get(queryIndex);
+				String indexTag = String.valueOf(queryIndex + 1);
+
+				//Blocks until the QueryQueuingManager lets this query run
+				DatastoreQuery dq = datastore.createQuery(query);
+				long startQuery = System.currentTimeMillis();
 
+				try
+				{
+					m_queryMetricExecutor.submit(() -> executeQueryMetric(query, dq, startQuery, tags, indexTag, result));
+				}
+				catch (RejectedExecutionException e)
+				{
+					//All threads are busy, run it on the dispatching thread
+					executeQueryMetric(query, dq, startQuery, tags, indexTag, result);
+				}
+			}
+		}
+		catch (Throwable e)
+		{
+			for (; queryIndex < results.size(); queryIndex++)
+			{
+				results.get(queryIndex).completeExceptionally(e);
+			}
+		}
+	}
+
+	private void executeQueryMetric(QueryMetric query, DatastoreQuery dq, long startQuery,
+			SortedMap<String, String> tags, String indexTag, CompletableFuture<QueryMetricResult> result)
+	{
+		//Datastore metrics are reported on this thread and handed back to the request thread
+		ThreadReporter.setTags(tags);
+		ThreadReporter.addTag("metric_name", query.getName());
+		ThreadReporter.addTag("query_index", indexTag);
+
+		try
+		{
+			List<DataPointGroup> groups = dq.execute();
+			result.complete(new QueryMetricResult(query, dq, groups, startQuery,
+					ThreadReporter.takeReportedData()));
+		}
+		catch (Throwable e)
+		{
+			dq.close();
+			result.completeExceptionally(e);
+		}
+		finally
+		{
 			ThreadReporter.clear();
+			ThreadReporter.clearTags();
 		}
 	}
 
+	private static QueryMetricResult getQueryMetricResult(CompletableFuture<QueryMetricResult> future) throws Exception
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			else if (cause instanceof Error)
+				throw (Error) cause;
+			else
+				throw e;
+		}
+	}
+
+	@Subscribe
+	public void shutdown(ShutdownEvent event)
+	{
+		m_queryMetricExecutor.shutdown();
+	}
+
 	@OPTIONS
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints/delete")
@@ -814,6 +1118,182 @@ public class MetricsResource implements KairosMetricReporter
 		return ret;
 	}
 
+	/**
+	 Runs the query while the response is being written so results are sent
+	 to the client as they are formatted instead of going through a temp file.
+	 Failures that happen before the first buffer is flushed to the client are
+	 returned as normal error responses, after that the response can only be
+	 cut short.
+	 */
+	private class QueryStreamingOutput implements StreamingOutput
+	{
+		private final List<QueryMetric> m_queries;
+		private final String m_originalQuery;
+		private final String m_json;
+		private final String m_remoteAddr;
+
+		private QueryStreamingOutput(List<QueryMetric> queries, String originalQuery,
+				String json, String remoteAddr)
+		{
+			m_queries = queries;
+			m_originalQuery = originalQuery;
+			m_json = json;
+			m_remoteAddr = remoteAddr;
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException, WebApplicationException
+		{
+			boolean queryFailed = false;
+			ClientOutputStream clientOutput = new ClientOutputStream(output);
+
+			try
+			{
+				Writer writer = new BufferedWriter(new OutputStreamWriter(clientOutput, UTF_8));
+				JsonResponse jsonResponse = new JsonResponse(writer);
+
+				jsonResponse.begin(m_originalQuery);
+
+				formatQueryMetrics(m_queries, jsonResponse);
+
+				jsonResponse.end();
+				writer.flush();
+			}
+			catch (IOException e)
+			{
+				queryFailed = true;
+				if (!clientOutput.isFailed())
+					throw queryError(e, clientOutput);
+
+				//Nothing more can be sent, let the container drop the connection
+				logger.info("Client {} closed the connection before the query response was sent: {}",
+						m_remoteAddr, e.getMessage());
+				throw e;
+			}
+			catch (Exception e)
+			{
+				queryFailed = true;
+				throw queryError(e, clientOutput);
+			}
+			catch (OutOfMemoryError e)
+			{
+				queryFailed = true;
+				logger.error("Out of memory error.", e);
+				throw new WebApplicationException(e, setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+						.entity(new ErrorResponse(e.getMessage()))).build());
+			}
+			finally
+			{
+				try
+				{
+					reportQuery(m_json, m_remoteAddr, queryFailed);
+				}
+				catch (DatastoreException e)
+				{
+					logger.error("Failed to report query metrics", e);
+				}
+			}
+		}
+
+		private WebApplicationException queryError(Exception e, ClientOutputStream clientOutput)
+		{
+			if (!clientOutput.isWritten())
+				return new WebApplicationException(e, createQueryErrorResponse(e));
+
+			//The status has already been sent, failing the write keeps the
+			//client from mistaking the partial response for a complete one
+			logger.error("Query failed after part of the response was sent.", e);
+			return new WebApplicationException(e);
+		}
+	}
+
+	/**
+	 Keeps track of whether anything has been passed on to the client and
+	 whether writing to the client failed.
+	 */
+	private static class ClientOutputStream extends FilterOutputStream
+	{
+		private boolean m_written;
+		private boolean m_failed;
+
+		private ClientOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		public boolean isWritten()
+		{
+			return m_written;
+		}
+
+		public boolean isFailed()
+		{
+			return m_failed;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			m_written = true;
+			try
+			{
+				out.write(b, off, len);
+			}
+			catch (IOException e)
+			{
+				m_failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			try
+			{
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				m_failed = true;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 Thrown when there is no thread to dispatch the query metrics of a request.
+	 */
+	private static class QueryMetricPoolFullException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class QueryMetricResult
+	{
+		private final QueryMetric m_query;
+		private final DatastoreQuery m_datastoreQuery;
+		private final List<DataPointGroup> m_results;
+		private final long m_startTime;
+		private final ThreadReporter.ReportedData m_reportedData;
+
+		private QueryMetricResult(QueryMetric query, DatastoreQuery datastoreQuery,
+				List<DataPointGroup> results, long startTime, ThreadReporter.ReportedData reportedData)
+		{
+			m_query = query;
+			m_datastoreQuery = datastoreQuery;
+			m_results = results;
+			m_startTime = startTime;
+			m_reportedData = reportedData;
+		}
+	}
+
 	public static class ValuesStreamingOutput implements StreamingOutput
 	{
 		private DataFormatter m_formatter;
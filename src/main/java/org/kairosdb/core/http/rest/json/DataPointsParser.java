@@ -19,11 +19,19 @@ package org.kairosdb.core.http.rest.json;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
+import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.DataPointEvent;
@@ -34,7 +42,11 @@ import org.kairosdb.util.Validator;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import static java.util.Objects.requireNonNull;
@@ -46,10 +58,17 @@ import static java.util.Objects.requireNonNull;
  */
 public class DataPointsParser
 {
+	private static final TypeToken<Map<String, String>> TAGS_TYPE = new TypeToken<Map<String, String>>(){};
+	private static final int PUBLISH_BATCH_SIZE = 500;
+
 	private final Publisher<DataPointEvent> m_publisher;
 	private final Reader inputStream;
 	private final Gson gson;
 	private final KairosDataPointFactory dataPointFactory;
+	private final TypeAdapter<JsonElement> m_elementAdapter;
+	private final TypeAdapter<Map<String, String>> m_tagsAdapter;
+	private final DataPointBuffer m_dataPoints = new DataPointBuffer();
+	private List<DataPointEvent> m_batch = new ArrayList<>();
 
 	public int getDataPointCount()
 	{
@@ -71,6 +90,8 @@ public class DataPointsParser
 		this.inputStream = requireNonNull(stream);
 		this.gson = gson;
 		this.dataPointFactory = dataPointFactory;
+		m_elementAdapter = gson.getAdapter(JsonElement.class);
+		m_tagsAdapter = gson.getAdapter(TAGS_TYPE);
 	}
 
 	public ValidationErrors parse() throws IOException, DatastoreException
@@ -121,21 +142,251 @@ public class DataPointsParser
 		return validationErrors;
 	}
 
-	private NewMetric parseMetric(JsonReader reader)
+	/**
+	 Reads one metric object token by token.  Data points are decoded into a
+	 compact buffer as they are read instead of going through a JsonElement
+	 tree, the rest of the object (tags may follow the data points) still has
+	 to be read before anything can be validated.  Error handling mirrors
+	 what Gson.fromJson did when this used reflection to read a NewMetric.
+	 */
+	private NewMetric parseMetric(JsonReader reader) throws IOException
 	{
-		NewMetric metric;
+		boolean oldLenient = reader.isLenient();
+		reader.setLenient(true);
+		boolean isEmpty = true;
 		try
 		{
-			metric = gson.fromJson(reader, NewMetric.class);
+			reader.peek();
+			isEmpty = false;
+			return readMetric(reader);
+		}
+		catch (EOFException e)
+		{
+			if (isEmpty)
+				throw e;
+			throw new JsonSyntaxException(e);
+		}
+		catch (NumberFormatException | IllegalStateException e)
+		{
+			throw new JsonSyntaxException(e);
 		}
 		catch (IllegalArgumentException e)
 		{
 			// Happens when parsing data points where one of the pair is missing (timestamp or value)
 			throw new JsonSyntaxException("Invalid JSON");
 		}
+		catch (IOException e)
+		{
+			throw new JsonSyntaxException(e);
+		}
+		finally
+		{
+			reader.setLenient(oldLenient);
+		}
+	}
+
+	private NewMetric readMetric(JsonReader reader) throws IOException
+	{
+		NewMetric metric = new NewMetric();
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return metric;
+		}
+
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			switch (reader.nextName())
+			{
+				case "name":
+					metric.name = readString(reader);
+					break;
+				case "timestamp":
+					metric.timestamp = readLong(reader);
+					break;
+				case "time":
+					metric.time = readLong(reader);
+					break;
+				case "value":
+					metric.value = m_elementAdapter.read(reader);
+					break;
+				case "tags":
+					metric.tags = m_tagsAdapter.read(reader);
+					break;
+				case "datapoints":
+					metric.datapoints = readDataPoints(reader);
+					break;
+				case "skip_validate":
+					metric.skip_validate = readBoolean(reader);
+					break;
+				case "type":
+					metric.type = readString(reader);
+					break;
+				case "ttl":
+					if (reader.peek() == JsonToken.NULL)
+						reader.nextNull();
+					else
+						metric.ttl = reader.nextInt();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+
 		return metric;
 	}
 
+	private DataPointBuffer readDataPoints(JsonReader reader) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+
+		DataPointBuffer dataPoints = m_dataPoints;
+		dataPoints.clear();
+
+		reader.beginArray();
+		while (reader.hasNext())
+		{
+			if (reader.peek() == JsonToken.NULL)
+			{
+				reader.nextNull();
+				dataPoints.add(0, false, 0L, null, null);
+				continue;
+			}
+
+			int length = 0;
+			boolean hasTimestamp = false;
+			long timestamp = 0L;
+			Object value = null;
+			String type = null;
+
+			reader.beginArray();
+			while (reader.hasNext())
+			{
+				if (length == 0 && reader.peek() != JsonToken.NULL)
+				{
+					timestamp = readTimestamp(reader);
+					hasTimestamp = true;
+				}
+				else if (length == 1)
+					value = readValue(reader);
+				else if (length == 2)
+					type = readString(reader);
+				else
+					reader.skipValue();
+
+				length++;
+			}
+			reader.endArray();
+
+			dataPoints.add(length, hasTimestamp, timestamp, value, type);
+		}
+		reader.endArray();
+
+		return dataPoints;
+	}
+
+	/**
+	 Same result as JsonElement.getAsLong() without creating the element.
+	 */
+	private static long readTimestamp(JsonReader reader) throws IOException
+	{
+		if (reader.peek() == JsonToken.NUMBER)
+		{
+			try
+			{
+				return reader.nextLong();
+			}
+			catch (NumberFormatException e)
+			{
+				//The reader keeps the literal so it can be read again as a string
+				return parseLong(reader.nextString());
+			}
+		}
+		else
+			return Long.parseLong(reader.nextString());
+	}
+
+	/**
+	 Numbers are returned as their literal text, everything else as the
+	 JsonElement Gson would have created for it.
+	 */
+	private Object readValue(JsonReader reader) throws IOException
+	{
+		switch (reader.peek())
+		{
+			case NUMBER:
+				return reader.nextString();
+			case STRING:
+				return new JsonPrimitive(reader.nextString());
+			case BOOLEAN:
+				return new JsonPrimitive(reader.nextBoolean());
+			case NULL:
+				reader.nextNull();
+				return JsonNull.INSTANCE;
+			default:
+				return m_elementAdapter.read(reader);
+		}
+	}
+
+	private static String readString(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+		else if (token == JsonToken.BOOLEAN)
+			return Boolean.toString(reader.nextBoolean());
+		else
+			return reader.nextString();
+	}
+
+	private static Long readLong(JsonReader reader) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+		return reader.nextLong();
+	}
+
+	private static boolean readBoolean(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return false;
+		}
+		else if (token == JsonToken.STRING)
+			return Boolean.parseBoolean(reader.nextString());
+		else
+			return reader.nextBoolean();
+	}
+
+	/**
+	 Parses a number literal the way Gson's LazilyParsedNumber.longValue() does.
+	 */
+	private static long parseLong(String number)
+	{
+		try
+		{
+			return Long.parseLong(number);
+		}
+		catch (NumberFormatException e)
+		{
+			return new BigDecimal(number).longValue();
+		}
+	}
+
 	private static class Context
 	{
 		private int m_count;
@@ -322,9 +573,8 @@ public class DataPointsParser
 				{
 					if (dataPointFactory.isRegisteredType(type))
 					{
-						m_publisher.post(new DataPointEvent(metric.getName(), tags, dataPointFactory.createDataPoint(
+						m_batch.add(new DataPointEvent(metric.getName(), tags, dataPointFactory.createDataPoint(
 								type, metric.getTimestamp(), metric.getValue()), metric.getTtl()));
-						dataPointCount++;
 					}
 					else
 					{
@@ -333,58 +583,73 @@ public class DataPointsParser
 				}
 			}
 
-			if (metric.getDatapoints() != null && metric.getDatapoints().length > 0)
+			DataPointBuffer dataPoints = metric.getDatapoints();
+			if (dataPoints != null && dataPoints.size() > 0)
 			{
 				int contextCount = 0;
 				SubContext dataPointContext = new SubContext(context, "datapoints");
-				for (JsonElement[] dataPoint : metric.getDatapoints())
+				for (int i = 0; i < dataPoints.size(); i++)
 				{
 					dataPointContext.setCount(contextCount);
-					if (dataPoint.length < 1)
+					int length = dataPoints.getLength(i);
+					if (length < 1)
 					{
 						validationErrors.addErrorMessage(dataPointContext.setAttribute("timestamp") + " cannot be null or empty.");
 						continue;
 					}
-					else if (dataPoint.length < 2)
+					else if (length < 2)
 					{
 						validationErrors.addErrorMessage(dataPointContext.setAttribute("value") + " cannot be null or empty.");
 						continue;
 					}
 					else
 					{
-						Long timestamp = null;
-						if (!dataPoint[0].isJsonNull())
-							timestamp = dataPoint[0].getAsLong();
-
-						if (metric.validate() && !Validator.isNotNull(validationErrors, dataPointContext.setAttribute("timestamp"), timestamp))
+						if (!dataPoints.hasTimestamp(i))
+						{
+							if (metric.validate())
+								Validator.isNotNull(validationErrors, dataPointContext.setAttribute("timestamp"), null);
 							continue;
+						}
+						long timestamp = dataPoints.getTimestamp(i);
 
 						String type = metric.getType();
-						if (dataPoint.length > 2)
-							type = dataPoint[2].getAsString();
+						if (dataPoints.getType(i) != null)
+							type = dataPoints.getType(i);
 
-						//String type data can be empty
-						if ("string".equals(type))
+						Object value = dataPoints.getValue(i);
+						if (value instanceof String)
 						{
-							if (!Validator.isNotNull(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
-								continue;
+							//Number literals are never null or empty
+							if (type == null)
+								type = ((String) value).contains(".") ? "double" : "long";
 						}
 						else
 						{
-							if (!Validator.isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
-								continue;
-						}
+							JsonElement element = (JsonElement) value;
 
-						if (type == null)
-						{
-							try
+							//String type data can be empty
+							if ("string".equals(type))
 							{
-								type = findType(dataPoint[1]);
+								if (!Validator.isNotNull(validationErrors, dataPointContext.setAttribute("value"), element))
+									continue;
 							}
-							catch (ValidationException e)
+							else
 							{
-								validationErrors.addErrorMessage(context + " " + e.getMessage());
-								continue;
+								if (!Validator.isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), element))
+									continue;
+							}
+
+							if (type == null)
+							{
+								try
+								{
+									type = findType(element);
+								}
+								catch (ValidationException e)
+								{
+									validationErrors.addErrorMessage(context + " " + e.getMessage());
+									continue;
+								}
 							}
 						}
 
@@ -394,13 +659,16 @@ public class DataPointsParser
 							continue;
 						}
 
-						m_publisher.post(new DataPointEvent(metric.getName(), tags,
-								dataPointFactory.createDataPoint(type, timestamp, dataPoint[1]), metric.getTtl()));
-						dataPointCount++;
+						m_batch.add(new DataPointEvent(metric.getName(), tags,
+								createDataPoint(type, timestamp, value), metric.getTtl()));
+						if (m_batch.size() >= PUBLISH_BATCH_SIZE)
+							publishBatch();
 					}
 					contextCount++;
 				}
 			}
+
+			publishBatch();
 		}
 
 		errors.add(validationErrors);
@@ -408,7 +676,117 @@ public class DataPointsParser
 		return !validationErrors.hasErrors();
 	}
 
-	@SuppressWarnings({"MismatchedReadAndWriteOfArray", "UnusedDeclaration"})
+	/**
+	 Creates the data point without wrapping number literals in a JsonElement
+	 when the registered factory can take the value directly.
+	 */
+	private DataPoint createDataPoint(String type, long timestamp, Object value) throws IOException
+	{
+		if (value instanceof String)
+		{
+			String number = (String) value;
+			DataPointFactory factory = dataPointFactory.getFactoryForType(type);
+			if (factory instanceof LongDataPointFactory)
+				return ((LongDataPointFactory) factory).createDataPoint(timestamp, parseLong(number));
+			else if (factory instanceof DoubleDataPointFactory)
+				return ((DoubleDataPointFactory) factory).createDataPoint(timestamp, Double.parseDouble(number));
+			else
+				return dataPointFactory.createDataPoint(type, timestamp, JsonParser.parseString(number));
+		}
+		else
+			return dataPointFactory.createDataPoint(type, timestamp, (JsonElement) value);
+	}
+
+	private void publishBatch()
+	{
+		if (m_batch.isEmpty())
+			return;
+
+		m_publisher.postBatch(m_batch);
+		dataPointCount += m_batch.size();
+		//Subscribers may still be handing the list off, start a new one
+		m_batch = new ArrayList<>();
+	}
+
+	/**
+	 Holds the data points of the metric being parsed in parallel arrays.
+	 One instance is reused for every metric in the request.
+	 */
+	private static class DataPointBuffer
+	{
+		private int m_size;
+		private byte[] m_lengths = new byte[16];
+		private boolean[] m_hasTimestamp = new boolean[16];
+		private long[] m_timestamps = new long[16];
+		private Object[] m_values = new Object[16];
+		private String[] m_types;
+
+		private void add(int length, boolean hasTimestamp, long timestamp, Object value, String type)
+		{
+			if (m_size == m_lengths.length)
+			{
+				int capacity = m_size * 2;
+				m_lengths = Arrays.copyOf(m_lengths, capacity);
+				m_hasTimestamp = Arrays.copyOf(m_hasTimestamp, capacity);
+				m_timestamps = Arrays.copyOf(m_timestamps, capacity);
+				m_values = Arrays.copyOf(m_values, capacity);
+				if (m_types != null)
+					m_types = Arrays.copyOf(m_types, capacity);
+			}
+
+			//Only the first three elements of a data point are used
+			m_lengths[m_size] = (byte) Math.min(length, 3);
+			m_hasTimestamp[m_size] = hasTimestamp;
+			m_timestamps[m_size] = timestamp;
+			m_values[m_size] = value;
+			if (type != null)
+			{
+				if (m_types == null)
+					m_types = new String[m_lengths.length];
+				m_types[m_size] = type;
+			}
+			m_size++;
+		}
+
+		private void clear()
+		{
+			Arrays.fill(m_values, 0, m_size, null);
+			if (m_types != null)
+				Arrays.fill(m_types, 0, m_size, null);
+			m_size = 0;
+		}
+
+		private int size()
+		{
+			return m_size;
+		}
+
+		private int getLength(int index)
+		{
+			return m_lengths[index];
+		}
+
+		private boolean hasTimestamp(int index)
+		{
+			return m_hasTimestamp[index];
+		}
+
+		private long getTimestamp(int index)
+		{
+			return m_timestamps[index];
+		}
+
+		private Object getValue(int index)
+		{
+			return m_values[index];
+		}
+
+		private String getType(int index)
+		{
+			return m_types != null ? m_types[index] : null;
+		}
+	}
+
 	private static class NewMetric
 	{
 		private String name;
@@ -416,7 +794,7 @@ public class DataPointsParser
 		private Long time = null;
 		private JsonElement value;
 		private Map<String, String> tags;
-		private JsonElement[][] datapoints;
+		private DataPointBuffer datapoints;
 		private boolean skip_validate = false;
 		private String type;
 		private int ttl = 0;
@@ -444,7 +822,7 @@ public class DataPointsParser
 			return tags != null ? tags : Collections.<String, String>emptyMap();
 		}
 
-		private JsonElement[][] getDatapoints()
+		private DataPointBuffer getDatapoints()
 		{
 			return datapoints;
 		}
@@ -464,4 +842,4 @@ public class DataPointsParser
 			return ttl;
 		}
 	}
-}
\ No newline at end of file
+}
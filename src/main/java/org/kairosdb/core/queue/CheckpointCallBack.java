@@ -0,0 +1,80 @@
+package org.kairosdb.core.queue;
+
+import org.kairosdb.bigqueue.IBigArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ The purpose of this class is to track all batches sent up to a certain point
+ and once they are finished (via a call to complete) this will move the
+ tail of the big array.
+ */
+class CheckpointCallBack implements EventCompletionCallBack
+{
+	public static final Logger logger = LoggerFactory.getLogger(CheckpointCallBack.class);
+
+	private final IBigArray m_bigArray;
+	private final DictionaryGenerationTracker m_generationTracker;
+	private long m_completionIndex = -1L;
+	private final AtomicInteger m_counter;
+	private volatile boolean m_finalized;
+	private CheckpointCallBack m_childCallBack;
+
+	CheckpointCallBack(IBigArray bigArray, DictionaryGenerationTracker generationTracker)
+	{
+		m_bigArray = bigArray;
+		m_generationTracker = generationTracker;
+		m_counter = new AtomicInteger(0);
+		m_finalized = false;
+	}
+
+	public void setChildCallBack(CheckpointCallBack childCallBack)
+	{
+		m_childCallBack = childCallBack;
+		m_childCallBack.increment();
+	}
+
+	public void setCompletionIndex(long completionIndex)
+	{
+		m_completionIndex = completionIndex;
+	}
+
+	public void increment()
+	{
+		m_counter.incrementAndGet();
+	}
+
+	/**
+	 The finalize method gets called always before the last call to complete
+	 No need for locking
+	 */
+	public void setFinalized()
+	{
+		m_finalized = true;
+	}
+
+	@Override
+	public void complete()
+	{
+		if (m_counter.decrementAndGet() == 0 && m_finalized)
+		{
+			m_childCallBack.complete();
+			//Checkpoint big queue, nothing to do if no batch was read from it
+			if (m_completionIndex < 0)
+				return;
+
+			try
+			{
+				m_bigArray.removeBeforeIndex(m_completionIndex);
+				m_generationTracker.release(m_completionIndex);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Unable to cleanup bigqueue", e);
+			}
+		}
+	}
+}
@@ -8,38 +8,58 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.util.KDataInput;
+import org.kairosdb.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Map;
 
 /**
  Created by bhawkins on 10/25/16.
+
+ Events are written with the metric name, data store type and tags replaced by
+ ids from an {@link EventDictionary}.  Events in the original format, which
+ wrote every string, can still be read.
  */
 public class DataPointEventSerializer
 {
 	public static final Logger logger = LoggerFactory.getLogger(DataPointEventSerializer.class);
 
+	/**
+	 Versioned events start with this byte.  In the original format the first
+	 byte is the high byte of the metric name length so it can never be 0xFF.
+	 */
+	private static final byte VERSION_MARKER = (byte) 0xFF;
+	private static final byte DICTIONARY_VERSION = 2;
+
 	private final KairosDataPointFactory m_kairosDataPointFactory;
+	private final EventDictionary m_dictionary;
 
-	@Inject
 	public DataPointEventSerializer(KairosDataPointFactory kairosDataPointFactory)
+	{
+		this(kairosDataPointFactory, new EventDictionary());
+	}
+
+	@Inject
+	public DataPointEventSerializer(KairosDataPointFactory kairosDataPointFactory, EventDictionary dictionary)
 	{
 		m_kairosDataPointFactory = kairosDataPointFactory;
+		m_dictionary = dictionary;
 	}
 
 	public byte[] serializeEvent(DataPointEvent dataPointEvent)
 	{
 		//Todo: Create some adaptive value here, keep stats on if the buffer increases and slowely increase it
-		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput(64);
-		dataOutput.writeUTF(dataPointEvent.getMetricName());
-		dataOutput.writeInt(dataPointEvent.getTtl());
-		dataOutput.writeLong(dataPointEvent.getDataPoint().getTimestamp());
-		dataOutput.writeUTF(dataPointEvent.getDataPoint().getDataStoreDataType());
+		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput(32);
+		dataOutput.writeByte(VERSION_MARKER);
+		dataOutput.writeByte(DICTIONARY_VERSION);
 		try
 		{
+			m_dictionary.writeReferences(dataPointEvent.getMetricName(),
+					dataPointEvent.getDataPoint().getDataStoreDataType(), dataPointEvent.getTags(), dataOutput);
+			Util.packLong(dataPointEvent.getTtl(), dataOutput);
+			dataOutput.writeLong(dataPointEvent.getDataPoint().getTimestamp());
 			dataPointEvent.getDataPoint().writeValueToBuffer(dataOutput);
 		}
 		catch (IOException e)
@@ -47,14 +67,31 @@ public class DataPointEventSerializer
 			logger.error("Error serializing DataPoint", e);
 		}
 
-		dataOutput.writeInt(dataPointEvent.getTags().size());
-		for (Map.Entry<String, String> entry : dataPointEvent.getTags().entrySet())
+		return dataOutput.toByteArray();
+	}
+
+	/**
+	 @return the dictionary generation the event refers to or -1 if it does
+	 not use the dictionary
+	 */
+	int getDictionaryGeneration(byte[] bytes)
+	{
+		if (bytes.length < 3 || bytes[0] != VERSION_MARKER)
+			return -1;
+
+		try
 		{
-			dataOutput.writeUTF(entry.getKey());
-			dataOutput.writeUTF(entry.getValue());
+			return (int) Util.unpackUnsignedLong(ByteStreams.newDataInput(bytes, 2));
 		}
+		catch (IOException | IllegalStateException | IllegalArgumentException e)
+		{
+			return -1;
+		}
+	}
 
-		return dataOutput.toByteArray();
+	public EventDictionary getDictionary()
+	{
+		return m_dictionary;
 	}
 
 	DataPointEvent deserializeEvent(byte[] bytes)
@@ -63,28 +100,57 @@ public class DataPointEventSerializer
 		try
 		{
 			KDataInput dataInput = KDataInput.createInput(bytes);
-			String metricName = dataInput.readUTF();
-			int ttl = dataInput.readInt();
-			long timestamp = dataInput.readLong();
-			String storeType = dataInput.readUTF();
 
-			DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp, dataInput);
-
-			int tagCount = dataInput.readInt();
-			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
-			for (int I = 0; I < tagCount; I++)
+			if (bytes.length > 0 && bytes[0] == VERSION_MARKER)
 			{
-				builder.put(dataInput.readUTF(), dataInput.readUTF());
-			}
-
-			ret = new DataPointEvent(metricName, builder.build(), dataPoint, ttl);
+				dataInput.readByte();
+				byte version = dataInput.readByte();
+				if (version != DICTIONARY_VERSION)
+					throw new IOException("Unknown event version " + version);
 
+				ret = deserializeDictionaryEvent(dataInput);
+			}
+			else
+				ret = deserializeLegacyEvent(dataInput);
 		}
-		catch (IOException | IllegalStateException e)
+		catch (IOException | IllegalStateException | IllegalArgumentException e)
 		{
 			logger.error("Unable to deserialize event", e);
 		}
 
 		return ret;
 	}
+
+	private DataPointEvent deserializeDictionaryEvent(KDataInput dataInput) throws IOException
+	{
+		EventDictionary.Generation generation = m_dictionary.getGeneration((int) Util.unpackUnsignedLong(dataInput));
+		String metricName = generation.getString((int) Util.unpackUnsignedLong(dataInput));
+		String storeType = generation.getString((int) Util.unpackUnsignedLong(dataInput));
+		ImmutableSortedMap<String, String> tags = generation.getTags((int) Util.unpackUnsignedLong(dataInput));
+		int ttl = (int) Util.unpackLong(dataInput);
+		long timestamp = dataInput.readLong();
+
+		DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp, dataInput);
+
+		return new DataPointEvent(metricName, tags, dataPoint, ttl);
+	}
+
+	private DataPointEvent deserializeLegacyEvent(KDataInput dataInput) throws IOException
+	{
+		String metricName = dataInput.readUTF();
+		int ttl = dataInput.readInt();
+		long timestamp = dataInput.readLong();
+		String storeType = dataInput.readUTF();
+
+		DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp, dataInput);
+
+		int tagCount = dataInput.readInt();
+		ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+		for (int I = 0; I < tagCount; I++)
+		{
+			builder.put(dataInput.readUTF(), dataInput.readUTF());
+		}
+
+		return new DataPointEvent(metricName, builder.build(), dataPoint, ttl);
+	}
 }
@@ -0,0 +1,93 @@
+package org.kairosdb.core.queue;
+
+import org.kairosdb.bigqueue.IBigArray;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ Keeps the last big array index holding an event for each dictionary
+ generation so generations can be removed once the queue is checkpointed
+ past them.  Events that are serialized before they are appended reserve
+ their generation so it is kept until they are in the big array.
+ */
+class DictionaryGenerationTracker
+{
+	private final DataPointEventSerializer m_eventSerializer;
+	private final ConcurrentSkipListMap<Integer, Long> m_dictionaryGenerations = new ConcurrentSkipListMap<>();
+	//Reservation counts by generation, guarded by this
+	private final TreeMap<Integer, Integer> m_reservedGenerations = new TreeMap<>();
+	private volatile int m_appendGeneration = -1;
+
+	DictionaryGenerationTracker(DataPointEventSerializer eventSerializer, IBigArray bigArray)
+	{
+		m_eventSerializer = eventSerializer;
+
+		//Generations left from a previous run are needed until what is queued has been processed
+		EventDictionary dictionary = m_eventSerializer.getDictionary();
+		for (int generation : dictionary.getStoredGenerations())
+		{
+			if (bigArray.getHeadIndex() == bigArray.getTailIndex())
+				dictionary.removeGeneration(generation);
+			else
+				m_dictionaryGenerations.put(generation, bigArray.getHeadIndex() - 1);
+		}
+	}
+
+	/**
+	 Keeps the current generation, and every generation after it, from being
+	 removed until {@link #unreserve(int)} is called.  Called before events are
+	 serialized, as the events can be appended after the dictionary has rolled
+	 over and other events have been appended.
+	 @return the reserved generation to pass to unreserve
+	 */
+	synchronized int reserve()
+	{
+		int generation = m_eventSerializer.getDictionary().getCurrentGeneration();
+		m_reservedGenerations.merge(generation, 1, Integer::sum);
+		return generation;
+	}
+
+	synchronized void unreserve(int generation)
+	{
+		m_reservedGenerations.computeIfPresent(generation, (g, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 Must be called with the appending lock held.  Events can be appended in a
+	 different generation order than they were serialized in so the index is
+	 recorded for every event.
+	 */
+	void track(byte[] eventBytes, long index)
+	{
+		int generation = m_eventSerializer.getDictionaryGeneration(eventBytes);
+		if (generation == -1)
+			return;
+
+		m_dictionaryGenerations.merge(generation, index, Math::max);
+		m_appendGeneration = generation;
+	}
+
+	/**
+	 Removes dictionary generations that no event before index refers to.
+	 Generations that are current, reserved or being appended are kept.
+	 */
+	synchronized void release(long index)
+	{
+		EventDictionary dictionary = m_eventSerializer.getDictionary();
+		int keepFrom = dictionary.getCurrentGeneration();
+		if (!m_reservedGenerations.isEmpty())
+			keepFrom = Math.min(keepFrom, m_reservedGenerations.firstKey());
+
+		for (Map.Entry<Integer, Long> entry : m_dictionaryGenerations.entrySet())
+		{
+			int generation = entry.getKey();
+			if (entry.getValue() < index && generation < keepFrom && generation != m_appendGeneration)
+			{
+				dictionary.removeGeneration(generation);
+				m_dictionaryGenerations.remove(generation, entry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.inject.Inject;
+import org.kairosdb.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.kairosdb.core.CoreModule.QUEUE_PATH;
+
+/**
+ Interns the metric names, data store types and tag sets of queued events so
+ the file queue stores small ids instead of repeating the strings in every
+ event.  Ids are handed out in generations, each generation is written to its
+ own file next to the queue so events can be read back after a restart.  A new
+ generation is started once the current one holds dictionary_size values, old
+ generations are removed by the queue once it no longer holds events that refer
+ to them.
+ */
+public class EventDictionary
+{
+	public static final Logger logger = LoggerFactory.getLogger(EventDictionary.class);
+
+	public static final String DICTIONARY_SIZE = "kairosdb.queue_processor.dictionary_size";
+
+	private static final String DICTIONARY_DIRECTORY = "event_dictionary";
+	private static final String FILE_SUFFIX = ".dict";
+	private static final byte STRING_ENTRY = 0;
+	private static final byte TAGS_ENTRY = 1;
+
+	/**
+	 Directory the generations are written to, null keeps them in memory only.
+	 */
+	private final File m_directory;
+	private final ConcurrentMap<Integer, Generation> m_generations = new ConcurrentHashMap<>();
+	private volatile Generation m_current;
+
+	@Inject(optional = true)
+	@Named(DICTIONARY_SIZE)
+	private volatile int m_maxEntries = 100000;
+
+	/**
+	 Creates a dictionary that is only kept in memory.
+	 */
+	public EventDictionary()
+	{
+		m_directory = null;
+		m_current = new Generation(0, null);
+		m_generations.put(0, m_current);
+	}
+
+	@Inject
+	public EventDictionary(@Named(QUEUE_PATH) String queuePath) throws IOException
+	{
+		m_directory = new File(queuePath, DICTIONARY_DIRECTORY);
+		if (!m_directory.isDirectory() && !m_directory.mkdirs())
+			throw new IOException("Unable to create directory " + m_directory);
+
+		//Existing generations are loaded when an event refers to them
+		SortedSet<Integer> stored = getStoredGenerations();
+		int next = stored.isEmpty() ? 0 : stored.last() + 1;
+
+		m_current = openGeneration(next);
+		m_generations.put(next, m_current);
+	}
+
+	public void setMaxEntries(int maxEntries)
+	{
+		m_maxEntries = maxEntries;
+	}
+
+	private File getFile(int generation)
+	{
+		return new File(m_directory, generation + FILE_SUFFIX);
+	}
+
+	private Generation openGeneration(int id) throws IOException
+	{
+		if (m_directory == null)
+			return new Generation(id, null);
+
+		return new Generation(id, new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(getFile(id)))));
+	}
+
+	/**
+	 Writes the generation and ids for the event values to output, interning
+	 any value that has not been seen before.
+	 */
+	public void writeReferences(String metricName, String dataStoreType,
+			ImmutableSortedMap<String, String> tags, DataOutput output) throws IOException
+	{
+		while (true)
+		{
+			Generation generation = m_current;
+			int nameId = generation.intern(metricName);
+			int typeId = generation.intern(dataStoreType);
+			int tagsId = generation.intern(tags);
+
+			if (nameId != -1 && typeId != -1 && tagsId != -1)
+			{
+				Util.packUnsignedLong(generation.getId(), output);
+				Util.packUnsignedLong(nameId, output);
+				Util.packUnsignedLong(typeId, output);
+				Util.packUnsignedLong(tagsId, output);
+				return;
+			}
+
+			rollover(generation);
+		}
+	}
+
+	private synchronized void rollover(Generation full) throws IOException
+	{
+		if (m_current != full)
+			return; //Another thread already started the next generation
+
+		int next = full.getId() + 1;
+		m_current = openGeneration(next);
+		m_generations.put(next, m_current);
+		full.close();
+
+		logger.info("Started event dictionary generation " + next);
+	}
+
+	/**
+	 Returns the generation with the id, loading it from disk if needed.
+	 */
+	public Generation getGeneration(int id) throws IOException
+	{
+		Generation generation = m_generations.get(id);
+		if (generation == null)
+		{
+			synchronized (this)
+			{
+				generation = m_generations.get(id);
+				if (generation == null)
+				{
+					File file = m_directory != null ? getFile(id) : null;
+					if (file == null || !file.exists())
+						throw new IOException("Unknown event dictionary generation " + id);
+
+					generation = loadGeneration(id, file);
+					m_generations.put(id, generation);
+				}
+			}
+		}
+
+		return generation;
+	}
+
+	public int getCurrentGeneration()
+	{
+		return m_current.getId();
+	}
+
+	/**
+	 @return generations written to disk other than the current one
+	 */
+	public SortedSet<Integer> getStoredGenerations()
+	{
+		SortedSet<Integer> ret = new TreeSet<>();
+		File[] files = m_directory != null ? m_directory.listFiles() : null;
+		if (files == null)
+			return ret;
+
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (name.endsWith(FILE_SUFFIX))
+			{
+				try
+				{
+					int id = Integer.parseInt(name.substring(0, name.length() - FILE_SUFFIX.length()));
+					if (m_current == null || id != m_current.getId())
+						ret.add(id);
+				}
+				catch (NumberFormatException e)
+				{
+					logger.warn("Ignoring unknown file in event dictionary: " + file);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private Generation loadGeneration(int id, File file) throws IOException
+	{
+		Object[] entries = new Object[64];
+		int size = 0;
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			while (true)
+			{
+				Object entry;
+				try
+				{
+					byte type = input.readByte();
+					if (type == STRING_ENTRY)
+						entry = input.readUTF();
+					else if (type == TAGS_ENTRY)
+					{
+						long count = Util.unpackUnsignedLong(input);
+						ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+						for (long i = 0; i < count; i++)
+							builder.put(input.readUTF(), input.readUTF());
+						entry = builder.build();
+					}
+					else
+						throw new IOException("Corrupt event dictionary file " + file);
+				}
+				catch (EOFException e)
+				{
+					//Anything after the last complete entry was never referenced
+					break;
+				}
+
+				if (size == entries.length)
+					entries = Arrays.copyOf(entries, size * 2);
+				entries[size++] = entry;
+			}
+		}
+
+		return new Generation(id, entries, size);
+	}
+
+	/**
+	 Drops a generation that no queued event refers to anymore.  The current
+	 generation is never removed.
+	 */
+	public synchronized void removeGeneration(int id)
+	{
+		if (id == m_current.getId())
+			return;
+
+		m_generations.remove(id);
+		if (m_directory != null)
+		{
+			File file = getFile(id);
+			if (file.exists() && !file.delete())
+				logger.warn("Unable to delete event dictionary file " + file);
+		}
+	}
+
+
+	/**
+	 One set of interned values.  Reads can happen from any thread while the
+	 generation is still being added to.
+	 */
+	public class Generation
+	{
+		private final int m_id;
+		private final ConcurrentMap<Object, Integer> m_ids = new ConcurrentHashMap<>();
+		private volatile Object[] m_entries = new Object[64];
+		private int m_size;
+		private DataOutputStream m_output;
+		private boolean m_closed;
+
+		private Generation(int id, DataOutputStream output)
+		{
+			m_id = id;
+			m_output = output;
+		}
+
+		private Generation(int id, Object[] entries, int size)
+		{
+			m_id = id;
+			m_entries = entries;
+			m_size = size;
+			m_closed = true;
+		}
+
+		public int getId()
+		{
+			return m_id;
+		}
+
+		/**
+		 @return id of the value or -1 if this generation is full
+		 */
+		private int intern(Object value) throws IOException
+		{
+			Integer id = m_ids.get(value);
+			if (id != null)
+				return id;
+
+			synchronized (this)
+			{
+				id = m_ids.get(value);
+				if (id != null)
+					return id;
+
+				if (m_closed || m_size >= m_maxEntries)
+					return -1;
+
+				//The entry has to be on disk before any event that uses it
+				if (m_output != null)
+				{
+					writeEntry(value, m_output);
+					m_output.flush();
+				}
+
+				if (m_size == m_entries.length)
+					m_entries = Arrays.copyOf(m_entries, m_size * 2);
+				m_entries[m_size] = value;
+				m_ids.put(value, m_size);
+
+				return m_size++;
+			}
+		}
+
+		private Object get(int id) throws IOException
+		{
+			Object[] entries = m_entries;
+			if (id < entries.length && entries[id] != null)
+				return entries[id];
+
+			synchronized (this)
+			{
+				if (id < 0 || id >= m_size)
+					throw new IOException("Unknown id " + id + " in event dictionary generation " + m_id);
+				return m_entries[id];
+			}
+		}
+
+		public String getString(int id) throws IOException
+		{
+			Object entry = get(id);
+			if (!(entry instanceof String))
+				throw new IOException("Id " + id + " in event dictionary generation " + m_id + " is not a string");
+			return (String) entry;
+		}
+
+		@SuppressWarnings("unchecked")
+		public ImmutableSortedMap<String, String> getTags(int id) throws IOException
+		{
+			Object entry = get(id);
+			if (!(entry instanceof ImmutableSortedMap))
+				throw new IOException("Id " + id + " in event dictionary generation " + m_id + " is not a tag set");
+			return (ImmutableSortedMap<String, String>) entry;
+		}
+
+		/**
+		 Stops adding to this generation, the values stay readable.
+		 */
+		private synchronized void close()
+		{
+			m_closed = true;
+			m_ids.clear();
+			if (m_output != null)
+			{
+				try
+				{
+					m_output.close();
+				}
+				catch (IOException e)
+				{
+					logger.warn("Error closing event dictionary generation " + m_id, e);
+				}
+				m_output = null;
+			}
+		}
+
+		private void writeEntry(Object value, DataOutput output) throws IOException
+		{
+			if (value instanceof String)
+			{
+				output.writeByte(STRING_ENTRY);
+				output.writeUTF((String) value);
+			}
+			else
+			{
+				@SuppressWarnings("unchecked")
+				Map<String, String> tags = (Map<String, String>) value;
+				output.writeByte(TAGS_ENTRY);
+				Util.packUnsignedLong(tags.size(), output);
+				for (Map.Entry<String, String> entry : tags.entrySet())
+				{
+					output.writeUTF(entry.getKey());
+					output.writeUTF(entry.getValue());
+				}
+			}
+		}
+	}
+}
@@ -12,10 +12,14 @@ import org.kairosdb.bigqueue.IBigArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.inject.Inject;
+import com.google.inject.Inject;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
+
 import javax.inject.Named;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +32,9 @@ public class FileQueueProcessor extends QueueProcessor
 {
 	public static final Logger logger = LoggerFactory.getLogger(FileQueueProcessor.class);
 	public static final String SECONDS_TILL_CHECKPOINT = "kairosdb.queue_processor.seconds_till_checkpoint";
+	public static final String GROUP_COMMIT = "kairosdb.queue_processor.group_commit";
+	public static final String GROUP_COMMIT_SIZE = "kairosdb.queue_processor.group_commit_size";
+	public static final String GROUP_COMMIT_WAIT = "kairosdb.queue_processor.group_commit_wait";
 
 	private final Object m_lock = new Object();
 	private final IBigArray m_bigArray;
@@ -37,10 +44,16 @@ public class FileQueueProcessor extends QueueProcessor
 	private AtomicInteger m_readFromFileCount = new AtomicInteger();
 	private AtomicInteger m_readFromQueueCount = new AtomicInteger();
 	private Stopwatch m_stopwatch = Stopwatch.createStarted();
-	private CompletionCallBack m_lastCallback = new CompletionCallBack();
+	private final DictionaryGenerationTracker m_generationTracker;
+	private CheckpointCallBack m_lastCallback;
 	private final int m_secondsTillCheckpoint;
 	private ImmutableSortedMap<String, String> m_reportTags = ImmutableSortedMap.of();
 	private volatile boolean m_shuttingDown;
+	private volatile GroupAppender m_groupAppender;
+	private volatile int m_groupCommitSize = 1000;
+	private volatile long m_groupCommitWait = 0L;
+	private final SimpleStats m_appendBatchStats = new SimpleStats();
+	private final SimpleStats m_appendTimeStats = new SimpleStats();
 
 	private long m_nextIndex = -1L;
 
@@ -49,6 +62,9 @@ public class FileQueueProcessor extends QueueProcessor
 	@Inject
 	private LongDataPointFactory m_dataPointFactory = new LongDataPointFactoryImpl();
 
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
 	@Inject
 	public FileQueueProcessor(
 			DataPointEventSerializer eventSerializer,
@@ -67,6 +83,8 @@ public class FileQueueProcessor extends QueueProcessor
 		m_nextIndex = m_bigArray.getTailIndex();
 		m_secondsTillCheckpoint = secondsTillCheckpoint;
 		m_shuttingDown = false;
+		m_generationTracker = new DictionaryGenerationTracker(m_eventSerializer, m_bigArray);
+		m_lastCallback = new CheckpointCallBack(m_bigArray, m_generationTracker);
 	}
 
 	@Inject
@@ -76,12 +94,64 @@ public class FileQueueProcessor extends QueueProcessor
 		m_reportTags = ImmutableSortedMap.of("host", m_hostName);
 	}
 
+	/**
+	 When enabled producers hand their serialized events to a single appender
+	 thread that writes everything queued since its last write as one batch.
+	 */
+	@Inject(optional = true)
+	public synchronized void setGroupCommit(@Named(GROUP_COMMIT) boolean groupCommit)
+	{
+		if (groupCommit && m_groupAppender == null)
+		{
+			GroupAppender appender = new GroupAppender();
+			appender.start();
+			m_groupAppender = appender;
+		}
+		else if (!groupCommit && m_groupAppender != null)
+		{
+			stopGroupAppender();
+		}
+	}
+
+	/**
+	 @param groupCommitSize number of queued events that ends the wait for a
+	 group commit batch early
+	 */
+	@Inject(optional = true)
+	public void setGroupCommitSize(@Named(GROUP_COMMIT_SIZE) int groupCommitSize)
+	{
+		m_groupCommitSize = groupCommitSize;
+	}
+
+	/**
+	 @param groupCommitWait milliseconds the appender waits for more events
+	 before writing a group commit batch, 0 writes as soon as the previous
+	 batch is done
+	 */
+	@Inject(optional = true)
+	public void setGroupCommitWait(@Named(GROUP_COMMIT_WAIT) long groupCommitWait)
+	{
+		m_groupCommitWait = groupCommitWait;
+	}
+
+	private synchronized void stopGroupAppender()
+	{
+		if (m_groupAppender != null)
+		{
+			m_groupAppender.shutdown();
+			m_groupAppender = null;
+		}
+	}
+
 	@Override
 	public void shutdown()
 	{
 		//todo: would like to drain the queue before shutting down.
 		m_shuttingDown = true;
 
+		//Writes out anything producers have already queued
+		stopGroupAppender();
+
 		m_bigArray.flush();
 		try
 		{
@@ -141,35 +211,90 @@ public class FileQueueProcessor extends QueueProcessor
 	}
 
 
+	@Override
 	public void put(DataPointEvent dataPointEvent) throws DatastoreException
+	{
+		putAll(Collections.singletonList(dataPointEvent));
+	}
+
+	@Override
+	public void putAll(List<DataPointEvent> dataPointEvents) throws DatastoreException
 	{
 		if (m_shuttingDown)
 		{
 			throw new DatastoreException("File Queue shutting down");
 		}
 
-		byte[] eventBytes = m_eventSerializer.serializeEvent(dataPointEvent);
-
+		//Events are serialized outside of m_lock, the dictionary generation
+		//they use has to be kept until they are appended
+		int reservedGeneration = m_generationTracker.reserve();
 		try
 		{
-			synchronized (m_lock)
-			{
-				long index = -1L;
-				//Add data to bigArray first
-				index = m_bigArray.append(eventBytes);
-				//Then stick it into the in memory queue
-				m_memoryQueue.add(new IndexedEvent(dataPointEvent, index));
+			byte[][] eventBytes = new byte[dataPointEvents.size()][];
+			for (int i = 0; i < eventBytes.length; i++)
+				eventBytes[i] = m_eventSerializer.serializeEvent(dataPointEvents.get(i));
 
-				//Notify the reader thread if it is waiting for data
-				m_lock.notify();
+			GroupAppender groupAppender = m_groupAppender;
+			if (groupAppender != null)
+			{
+				groupAppender.append(new PendingAppend(dataPointEvents, eventBytes));
+			}
+			else
+			{
+				try
+				{
+					appendEvents(Collections.singletonList(new PendingAppend(dataPointEvents, eventBytes)));
+				}
+				catch (IOException ioe)
+				{
+					throw new DatastoreException("Failure to write data to bigqueue", ioe);
+				}
 			}
 		}
-		catch (IOException ioe)
+		finally
 		{
-			throw new DatastoreException("Failure to write data to bigqueue", ioe);
+			m_generationTracker.unreserve(reservedGeneration);
 		}
 	}
 
+	/**
+	 Appends the events to the big array as one contiguous run and adds them to
+	 the in memory queue.
+	 */
+	private void appendEvents(List<PendingAppend> pendingAppends) throws IOException
+	{
+		long start = System.nanoTime();
+		int count = 0;
+
+		synchronized (m_lock)
+		{
+			try
+			{
+				for (PendingAppend pendingAppend : pendingAppends)
+				{
+					for (int i = 0; i < pendingAppend.m_eventBytes.length; i++)
+					{
+						//Add data to bigArray first
+						long index = m_bigArray.append(pendingAppend.m_eventBytes[i]);
+						m_generationTracker.track(pendingAppend.m_eventBytes[i], index);
+						//Then stick it into the in memory queue
+						m_memoryQueue.add(new IndexedEvent(pendingAppend.m_events.get(i), index));
+						count++;
+					}
+				}
+			}
+			finally
+			{
+				//Notify the reader thread if it is waiting for data
+				if (count != 0)
+					m_lock.notify();
+			}
+		}
+
+		m_appendBatchStats.addValue(count);
+		m_appendTimeStats.addValue((System.nanoTime() - start) / 1000);
+	}
+
 	@Override
 	protected int getAvailableDataPointEvents()
 	{
@@ -242,13 +367,13 @@ public class FileQueueProcessor extends QueueProcessor
 	@Override
 	protected EventCompletionCallBack getCompletionCallBack()
 	{
-		CompletionCallBack callbackToReturn = m_lastCallback;
+		CheckpointCallBack callbackToReturn = m_lastCallback;
 
 		if (m_stopwatch.elapsed(TimeUnit.SECONDS) > m_secondsTillCheckpoint)
 		{
 			//System.out.println("Checkpoint");
 			callbackToReturn.setFinalized();
-			m_lastCallback = new CompletionCallBack();
+			m_lastCallback = new CheckpointCallBack(m_bigArray, m_generationTracker);
 			callbackToReturn.setChildCallBack(m_lastCallback);
 			m_stopwatch.reset();
 			m_stopwatch.start();
@@ -303,68 +428,177 @@ public class FileQueueProcessor extends QueueProcessor
 		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, readFromQueue));
 
 		metrics.add(dps);
+
+		m_simpleStatsReporter.reportStats(m_appendBatchStats.getAndClear(), now,
+				"kairosdb.queue.file_queue.append_batch_size", metrics);
+		m_simpleStatsReporter.reportStats(m_appendTimeStats.getAndClear(), now,
+				"kairosdb.queue.file_queue.append_time_micro", metrics);
 	}
 
 
 
 	/**
-	 The purpose of this class is to track all batches sent up to a certain point
-	 and once they are finished (via a call to complete) this will move the
-	 tail of the big array.
+	 Events from one producer call waiting to be written by the GroupAppender.
 	 */
-	private class CompletionCallBack implements EventCompletionCallBack
+	private static class PendingAppend
 	{
-		private long m_completionIndex;
-		private final AtomicInteger m_counter;
-		private volatile boolean m_finalized;
-		private CompletionCallBack m_childCallBack;
+		private final List<DataPointEvent> m_events;
+		private final byte[][] m_eventBytes;
+		private boolean m_done;
+		private Exception m_error;
 
-		private CompletionCallBack()
+		private PendingAppend(List<DataPointEvent> events, byte[][] eventBytes)
 		{
-			m_counter = new AtomicInteger(0);
-			m_finalized = false;
+			m_events = events;
+			m_eventBytes = eventBytes;
 		}
 
-		public void setChildCallBack(CompletionCallBack childCallBack)
+		private synchronized void complete(Exception error)
 		{
-			m_childCallBack = childCallBack;
-			m_childCallBack.increment();
+			m_error = error;
+			m_done = true;
+			notifyAll();
 		}
 
-		public void setCompletionIndex(long completionIndex)
+		private synchronized void await() throws DatastoreException
 		{
-			m_completionIndex = completionIndex;
+			boolean interrupted = false;
+			while (!m_done)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					//The events are already queued, we have to wait for the outcome
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+
+			if (m_error != null)
+				throw new DatastoreException("Failure to write data to bigqueue", m_error);
+		}
+	}
+
+	/**
+	 Single thread that writes the events producers queue up.  Everything queued
+	 while a batch is being written goes out together in the next batch, so
+	 producers do not contend on m_lock and the file sees contiguous writes.
+	 Producers block until their events have been written.
+	 */
+	private class GroupAppender implements Runnable
+	{
+		private final Object m_pendingLock = new Object();
+		private final Thread m_thread;
+		private List<PendingAppend> m_pending = new ArrayList<>();
+		private int m_pendingCount = 0;
+		private boolean m_running = true;
+
+		private GroupAppender()
+		{
+			m_thread = new Thread(this, "FileQueueAppender");
 		}
 
-		public void increment()
+		private void start()
 		{
-			m_counter.incrementAndGet();
+			m_thread.start();
+		}
+
+		private void append(PendingAppend pendingAppend) throws DatastoreException
+		{
+			synchronized (m_pendingLock)
+			{
+				if (!m_running)
+					throw new DatastoreException("File Queue shutting down");
+
+				m_pending.add(pendingAppend);
+				m_pendingCount += pendingAppend.m_eventBytes.length;
+				m_pendingLock.notify();
+			}
+
+			pendingAppend.await();
 		}
 
 		/**
-		 The finalize method gets called always before the last call to complete
-		 No need for locking
+		 Stops the appender once everything already queued has been written.
 		 */
-		public void setFinalized()
+		private void shutdown()
 		{
-			m_finalized = true;
+			synchronized (m_pendingLock)
+			{
+				m_running = false;
+				m_pendingLock.notify();
+			}
+
+			try
+			{
+				m_thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				logger.warn("Interrupted waiting for file queue appender to finish");
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private List<PendingAppend> takeBatch() throws InterruptedException
+		{
+			synchronized (m_pendingLock)
+			{
+				while (m_running && m_pending.isEmpty())
+					m_pendingLock.wait();
+
+				//Give other producers a chance to add to the batch
+				long waitUntil = System.currentTimeMillis() + m_groupCommitWait;
+				long remaining = m_groupCommitWait;
+				while (m_running && remaining > 0 && m_pendingCount < m_groupCommitSize)
+				{
+					m_pendingLock.wait(remaining);
+					remaining = waitUntil - System.currentTimeMillis();
+				}
+
+				List<PendingAppend> batch = m_pending;
+				m_pending = new ArrayList<>();
+				m_pendingCount = 0;
+				return batch;
+			}
 		}
 
 		@Override
-		public void complete()
+		public void run()
 		{
-			if (m_counter.decrementAndGet() == 0 && m_finalized)
+			while (true)
 			{
-				m_childCallBack.complete();
-				//Checkpoint big queue
+				List<PendingAppend> batch;
+				try
+				{
+					batch = takeBatch();
+				}
+				catch (InterruptedException e)
+				{
+					logger.info("File queue appender interrupted");
+					continue;
+				}
+
+				if (batch.isEmpty())
+					break; //Shut down and nothing left to write
+
+				Exception error = null;
 				try
 				{
-					m_bigArray.removeBeforeIndex(m_completionIndex);
+					appendEvents(batch);
 				}
-				catch (IOException e)
+				catch (IOException | RuntimeException e)
 				{
-					logger.warn("Unable to cleanup bigqueue", e);
+					error = e;
 				}
+
+				for (PendingAppend pendingAppend : batch)
+					pendingAppend.complete(error);
 			}
 		}
 	}
@@ -0,0 +1,326 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.base.Stopwatch;
+import com.google.inject.Inject;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.events.DataPointEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.kairosdb.core.queue.FileQueueProcessor.SECONDS_TILL_CHECKPOINT;
+
+/**
+ Keeps events in memory as long as the delivery thread keeps up and only
+ writes them to the file queue when it falls behind.  Once the memory backlog
+ reaches memory_queue_size events, or the delivery thread has not taken a batch
+ for spill_age milliseconds, the backlog is written to the file queue followed
+ by new events.  Events keep going to the file queue until it has been drained
+ so they are delivered in the order they arrived, on startup anything left in
+ the file queue is delivered before new events.
+
+ Events held in memory are lost if the process dies, on a clean shutdown they
+ are written to the file queue.
+ */
+public class HybridQueueProcessor extends QueueProcessor
+{
+	public static final Logger logger = LoggerFactory.getLogger(HybridQueueProcessor.class);
+	public static final String SPILL_AGE = "kairosdb.queue_processor.spill_age";
+
+	private final Object m_lock = new Object();
+	private final IBigArray m_bigArray;
+	private final DataPointEventSerializer m_eventSerializer;
+	private final ArrayDeque<DataPointEvent> m_memoryQueue = new ArrayDeque<>();
+	private final int m_memoryQueueSize;
+	private final int m_secondsTillCheckpoint;
+	private final DictionaryGenerationTracker m_generationTracker;
+	private final AtomicInteger m_readFromFileCount = new AtomicInteger();
+	private final AtomicInteger m_readFromQueueCount = new AtomicInteger();
+	private final AtomicInteger m_spilledCount = new AtomicInteger();
+	private final Stopwatch m_stopwatch = Stopwatch.createStarted();
+	private CheckpointCallBack m_lastCallback;
+
+	/**
+	 Set while new events are written to the file queue, only cleared once
+	 the memory queue and file queue are both drained.  Guarded by m_lock.
+	 */
+	private boolean m_spilling;
+	private volatile boolean m_shuttingDown;
+
+	/**
+	 When events last started waiting in the memory queue, either because it
+	 was empty or the delivery thread took a batch.  Guarded by m_lock.
+	 */
+	private long m_waitingSince;
+
+	//Only touched by the delivery thread
+	private long m_nextIndex;
+	private long m_completionIndex = -1L;
+
+	@Inject(optional = true)
+	@Named(SPILL_AGE)
+	private long m_spillAge = 5000L;
+
+	@Inject @Named("HOSTNAME")
+	private String m_hostName = "none";
+
+	@Inject
+	private LongDataPointFactory m_dataPointFactory = new LongDataPointFactoryImpl();
+
+	@Inject
+	public HybridQueueProcessor(
+			DataPointEventSerializer eventSerializer,
+			IBigArray bigArray,
+			@Named(QUEUE_PROCESSOR) ExecutorService executor,
+			@Named(BATCH_SIZE) int batchSize,
+			@Named(MEMORY_QUEUE_SIZE) int memoryQueueSize,
+			@Named(SECONDS_TILL_CHECKPOINT) int secondsTillCheckpoint,
+			@Named(MINIMUM_BATCH_SIZE) int minimumBatchSize,
+			@Named(MINIMUM_BATCH_WAIT) int minBatchWait)
+	{
+		super(executor, batchSize, minimumBatchSize, minBatchWait);
+		m_bigArray = bigArray;
+		m_eventSerializer = eventSerializer;
+		m_memoryQueueSize = memoryQueueSize;
+		m_secondsTillCheckpoint = secondsTillCheckpoint;
+		m_nextIndex = m_bigArray.getTailIndex();
+		m_generationTracker = new DictionaryGenerationTracker(m_eventSerializer, m_bigArray);
+		m_lastCallback = new CheckpointCallBack(m_bigArray, m_generationTracker);
+
+		//Whatever a previous run left behind goes out before new events
+		m_spilling = m_bigArray.getHeadIndex() != m_nextIndex;
+		if (m_spilling)
+			logger.info("Draining " + (m_bigArray.getHeadIndex() - m_nextIndex) + " events from the file queue");
+	}
+
+	/**
+	 @param spillAge milliseconds the delivery thread can go without taking a
+	 batch before new events are written to the file queue
+	 */
+	public void setSpillAge(long spillAge)
+	{
+		m_spillAge = spillAge;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		m_shuttingDown = true;
+		super.shutdown();
+
+		//Keep what has not been delivered yet for the next start
+		synchronized (m_lock)
+		{
+			try
+			{
+				while (!m_memoryQueue.isEmpty())
+					spill(m_memoryQueue.poll());
+			}
+			catch (IOException e)
+			{
+				logger.error("Unable to write " + m_memoryQueue.size() + " events to bigqueue on shutdown", e);
+			}
+		}
+
+		m_bigArray.flush();
+		try
+		{
+			m_bigArray.close();
+		}
+		catch (IOException e)
+		{
+			logger.warn("Error while shutting down bigqueue", e);
+		}
+	}
+
+	private long incrementIndex(long index)
+	{
+		if (index == Long.MAX_VALUE)
+			return 0;
+
+		return index + 1;
+	}
+
+	/**
+	 Called with m_lock held.
+	 */
+	private boolean isBackedUp()
+	{
+		if (m_memoryQueue.size() >= m_memoryQueueSize)
+			return true;
+
+		return !m_memoryQueue.isEmpty() &&
+				(System.currentTimeMillis() - m_waitingSince) > m_spillAge;
+	}
+
+	/**
+	 Called with m_lock held so appends stay in the order the dictionary
+	 generations are tracked in.
+	 */
+	private void spill(DataPointEvent dataPointEvent) throws IOException
+	{
+		byte[] eventBytes = m_eventSerializer.serializeEvent(dataPointEvent);
+		long index = m_bigArray.append(eventBytes);
+		m_generationTracker.track(eventBytes, index);
+		m_spilledCount.incrementAndGet();
+	}
+
+	@Override
+	public void put(DataPointEvent dataPointEvent) throws DatastoreException
+	{
+		if (m_shuttingDown)
+		{
+			throw new DatastoreException("Hybrid Queue shutting down");
+		}
+
+		synchronized (m_lock)
+		{
+			if (!m_spilling && isBackedUp())
+			{
+				m_spilling = true;
+				logger.info("Queue processor is behind, writing events to the file queue");
+			}
+
+			if (!m_spilling)
+			{
+				if (m_memoryQueue.isEmpty())
+					m_waitingSince = System.currentTimeMillis();
+				m_memoryQueue.add(dataPointEvent);
+				return;
+			}
+
+			try
+			{
+				//The backlog arrived first so it goes to disk ahead of the new event
+				while (!m_memoryQueue.isEmpty())
+				{
+					spill(m_memoryQueue.peek());
+					m_memoryQueue.remove();
+				}
+
+				spill(dataPointEvent);
+			}
+			catch (IOException ioe)
+			{
+				throw new DatastoreException("Failure to write data to bigqueue", ioe);
+			}
+		}
+	}
+
+	@Override
+	protected int getAvailableDataPointEvents()
+	{
+		synchronized (m_lock)
+		{
+			return m_memoryQueue.size() + (int) Math.min(Integer.MAX_VALUE, m_bigArray.getHeadIndex() - m_nextIndex);
+		}
+	}
+
+	@Override
+	protected List<DataPointEvent> get(int batchSize)
+	{
+		List<DataPointEvent> ret = new ArrayList<>();
+		long headIndex;
+
+		//Events in memory arrived before any that have been spilled
+		synchronized (m_lock)
+		{
+			m_waitingSince = System.currentTimeMillis();
+			while (ret.size() < batchSize && !m_memoryQueue.isEmpty())
+				ret.add(m_memoryQueue.poll());
+
+			headIndex = m_bigArray.getHeadIndex();
+		}
+
+		//Spilled events are only read by this thread so the lock is not needed
+		while (ret.size() < batchSize && m_nextIndex != headIndex)
+		{
+			try
+			{
+				DataPointEvent dataPointEvent = m_eventSerializer.deserializeEvent(m_bigArray.get(m_nextIndex));
+				if (dataPointEvent != null)
+					ret.add(dataPointEvent);
+				m_readFromFileCount.incrementAndGet();
+			}
+			catch (IOException ioe)
+			{
+				logger.error("Unable to read from bigqueue", ioe);
+				break;
+			}
+
+			m_completionIndex = m_nextIndex;
+			m_nextIndex = incrementIndex(m_nextIndex);
+		}
+
+		synchronized (m_lock)
+		{
+			if (m_spilling && m_memoryQueue.isEmpty() && m_nextIndex == m_bigArray.getHeadIndex())
+			{
+				m_spilling = false;
+				logger.info("Queue processor caught up, keeping events in memory");
+			}
+		}
+
+		m_readFromQueueCount.getAndAdd(ret.size());
+
+		m_lastCallback.increment();
+		m_lastCallback.setCompletionIndex(m_completionIndex);
+		return ret;
+	}
+
+	@Override
+	protected EventCompletionCallBack getCompletionCallBack()
+	{
+		CheckpointCallBack callbackToReturn = m_lastCallback;
+
+		if (m_stopwatch.elapsed(TimeUnit.SECONDS) > m_secondsTillCheckpoint)
+		{
+			callbackToReturn.setFinalized();
+			m_lastCallback = new CheckpointCallBack(m_bigArray, m_generationTracker);
+			callbackToReturn.setChildCallBack(m_lastCallback);
+			m_stopwatch.reset();
+			m_stopwatch.start();
+		}
+
+		return callbackToReturn;
+	}
+
+	@Override
+	public void addReportedMetrics(ArrayList<DataPointSet> metrics, long now)
+	{
+		long memorySize;
+		long fileSize;
+		synchronized (m_lock)
+		{
+			memorySize = m_memoryQueue.size();
+			fileSize = m_bigArray.getHeadIndex() - m_nextIndex;
+		}
+
+		addMetric(metrics, "kairosdb.queue.process_count", now, m_readFromQueueCount.getAndSet(0));
+		addMetric(metrics, "kairosdb.queue.memory_queue.size", now, memorySize);
+		addMetric(metrics, "kairosdb.queue.file_queue.size", now, fileSize);
+		addMetric(metrics, "kairosdb.queue.read_from_file", now, m_readFromFileCount.getAndSet(0));
+		addMetric(metrics, "kairosdb.queue.spill_count", now, m_spilledCount.getAndSet(0));
+	}
+
+	private void addMetric(ArrayList<DataPointSet> metrics, String name, long now, long value)
+	{
+		DataPointSet dps = new DataPointSet(name);
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, value));
+
+		metrics.add(dps);
+	}
+}
@@ -1,19 +1,19 @@
 package org.kairosdb.core.queue;
 
+import com.google.inject.Inject;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.reporting.KairosMetricReporter;
 import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.SimpleStatsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -23,10 +23,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class MemoryQueueProcessor extends QueueProcessor implements KairosMetricReporter
 {
 	public static final Logger logger = LoggerFactory.getLogger(MemoryQueueProcessor.class);
+	public static final String WAIT_STRATEGY = "kairosdb.queue_processor.wait_strategy";
 	private static final EventCompletionCallBack CALL_BACK = new VoidCompletionCallBack();
 
 	private AtomicInteger m_readFromQueueCount = new AtomicInteger();
-	private final BlockingQueue<DataPointEvent> m_queue;
+	private final RingBuffer<DataPointEvent> m_queue;
 
 	@Inject @Named("HOSTNAME")
 	private String m_hostName = "none";
@@ -34,6 +35,9 @@ public class MemoryQueueProcessor extends QueueProcessor implements KairosMetric
 	@Inject
 	private LongDataPointFactory m_dataPointFactory = new LongDataPointFactoryImpl();
 
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
 	@Inject
 	public MemoryQueueProcessor(
 			@Named(QUEUE_PROCESSOR) ExecutorService executor,
@@ -45,7 +49,16 @@ public class MemoryQueueProcessor extends QueueProcessor implements KairosMetric
 	{
 		super(executor, batchSize, minimumBatchSize, minBatchWait);
 
-		m_queue = new ArrayBlockingQueue<>(memoryQueueSize, true);
+		m_queue = new RingBuffer<>(memoryQueueSize, RingBuffer.WaitStrategy.PARK);
+	}
+
+	/**
+	 @param waitStrategy how threads wait on the queue, one of spin, yield or park
+	 */
+	@Inject(optional = true)
+	public void setWaitStrategy(@Named(WAIT_STRATEGY) String waitStrategy)
+	{
+		m_queue.setWaitStrategy(RingBuffer.WaitStrategy.valueOf(waitStrategy.toUpperCase(Locale.ENGLISH)));
 	}
 
 	@Override
@@ -65,6 +78,17 @@ public class MemoryQueueProcessor extends QueueProcessor implements KairosMetric
 		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, arraySize));
 
 		metrics.add(dps);
+
+		dps = new DataPointSet("kairosdb.queue.memory_queue.fill_percent");
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, arraySize * 100 / m_queue.getCapacity()));
+
+		metrics.add(dps);
+
+		m_simpleStatsReporter.reportStats(m_queue.getProducerWaitStats().getAndClear(), now,
+				"kairosdb.queue.memory_queue.producer_wait_micro", metrics);
+		m_simpleStatsReporter.reportStats(m_queue.getConsumerWaitStats().getAndClear(), now,
+				"kairosdb.queue.memory_queue.consumer_wait_micro", metrics);
 	}
 
 	@Override
@@ -80,26 +104,43 @@ public class MemoryQueueProcessor extends QueueProcessor implements KairosMetric
 		}
 	}
 
+	@Override
+	public void putAll(List<DataPointEvent> dataPointEvents)
+	{
+		try
+		{
+			m_queue.putAll(dataPointEvents);
+		}
+		catch (InterruptedException e)
+		{
+			logger.error("Error putting data", e);
+		}
+	}
+
 	@Override
 	protected int getAvailableDataPointEvents()
 	{
 		return m_queue.size();
 	}
 
+	@Override
+	protected void waitForEvents(int minimum, int maxWait) throws InterruptedException
+	{
+		m_queue.await(minimum, maxWait);
+	}
+
 	@Override
 	protected List<DataPointEvent> get(int batchSize)
 	{
 		List<DataPointEvent> ret = new ArrayList<>(batchSize/4);
-		try
-		{
-			ret.add(m_queue.take());
-			//Thread.sleep(50);
-		}
-		catch (InterruptedException e)
+		m_queue.drainTo(ret, batchSize);
+
+		//Available events may be claimed but not yet published
+		while (ret.isEmpty() && m_queue.size() != 0)
 		{
-			logger.error("Error taking from queue", e);
+			Thread.yield();
+			m_queue.drainTo(ret, batchSize);
 		}
-		m_queue.drainTo(ret, batchSize -1);
 
 		//System.out.println(ret.size());
 		m_readFromQueueCount.getAndAdd(ret.size());
@@ -1,5 +1,6 @@
 package org.kairosdb.core.queue;
 
+import com.google.inject.Inject;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.reporting.KairosMetricReporter;
@@ -11,10 +12,13 @@ import org.kairosdb.util.SimpleStatsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.inject.Inject;
+import javax.inject.Named;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  Created by bhawkins on 10/12/16.
@@ -29,6 +33,13 @@ public abstract class QueueProcessor implements KairosMetricReporter
 	public static final String MEMORY_QUEUE_SIZE = "kairosdb.queue_processor.memory_queue_size";
 	public static final String MINIMUM_BATCH_SIZE = "kairosdb.queue_processor.min_batch_size";
 	public static final String MINIMUM_BATCH_WAIT = "kairosdb.queue_processor.min_batch_wait";
+	public static final String DELIVERY_THREADS = "kairosdb.queue_processor.delivery_threads";
+
+	/**
+	 Number of split batches a shard can have waiting before the delivery
+	 thread blocks on it.
+	 */
+	private static final int SHARD_QUEUE_SIZE = 16;
 
 
 	private final DeliveryThread m_deliveryThread;
@@ -40,6 +51,7 @@ public abstract class QueueProcessor implements KairosMetricReporter
 	private final SimpleStats m_batchStats = new SimpleStats();
 
 	private volatile ProcessorHandler m_processorHandler;
+	private volatile DeliveryShard[] m_shards;
 
 	@Inject
 	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
@@ -58,11 +70,54 @@ public abstract class QueueProcessor implements KairosMetricReporter
 		logger.info("Starting QueueProcessor "+this.getClass().getName());
 	}
 
+	/**
+	 With more than one delivery thread the events taken from the queue are
+	 split by series between that many shards, each handing its own batches to
+	 the processor handler.  Events for a series always go to the same shard so
+	 they are handed to the processor handler in the order they were queued.
+	 That does not order the writes, the handler can run batches concurrently
+	 (CassandraDatastore writes them on the IngestExecutorService).
+	 */
+	@Inject(optional = true)
+	public synchronized void setDeliveryThreads(@Named(DELIVERY_THREADS) int deliveryThreads)
+	{
+		stopShards();
+
+		if (deliveryThreads > 1)
+		{
+			DeliveryShard[] shards = new DeliveryShard[deliveryThreads];
+			for (int i = 0; i < deliveryThreads; i++)
+			{
+				shards[i] = new DeliveryShard(i);
+				shards[i].start();
+			}
+			m_shards = shards;
+		}
+	}
+
+	private synchronized void stopShards()
+	{
+		DeliveryShard[] shards = m_shards;
+		if (shards != null)
+		{
+			m_shards = null;
+			for (DeliveryShard shard : shards)
+				shard.shutdown();
+		}
+	}
+
 	@Subscribe
 	public void reduceBatch(BatchReductionEvent reductionEvent)
 	{
 		m_batchSize = Math.min(m_batchSize, reductionEvent.getBatchSize());
 
+		DeliveryShard[] shards = m_shards;
+		if (shards != null)
+		{
+			for (DeliveryShard shard : shards)
+				shard.reduceBatch(reductionEvent.getBatchSize());
+		}
+
 		logger.info("Reducing queue batch size to "+m_batchSize);
 	}
 
@@ -76,11 +131,23 @@ public abstract class QueueProcessor implements KairosMetricReporter
 	{
 		m_deliveryThread.shutdown();
 		m_executor.shutdown();
+		stopShards();
 	}
 
 
 	public abstract void put(DataPointEvent dataPointEvent) throws DatastoreException;
 
+	/**
+	 Adds a batch of events to the queue.  Processors that can write a batch
+	 more cheaply than one event at a time should override this.  The list
+	 must not be held on to after this returns.
+	 */
+	public void putAll(List<DataPointEvent> dataPointEvents) throws DatastoreException
+	{
+		for (DataPointEvent dataPointEvent : dataPointEvents)
+			put(dataPointEvent);
+	}
+
 	/**
 	 @return Returns a Pair containing the latest index
 	 and a list of events from the queue, maybe empty
@@ -89,6 +156,17 @@ public abstract class QueueProcessor implements KairosMetricReporter
 
 	protected abstract int getAvailableDataPointEvents();
 
+	/**
+	 Called by the delivery thread when fewer than minimum events are
+	 available.  Returns once minimum events are available or maxWait
+	 milliseconds have passed, processors that cannot tell when events arrive
+	 just sleep for maxWait.
+	 */
+	protected void waitForEvents(int minimum, int maxWait) throws InterruptedException
+	{
+		Thread.sleep(maxWait);
+	}
+
 	protected abstract EventCompletionCallBack getCompletionCallBack();
 
 	protected abstract void addReportedMetrics(ArrayList<DataPointSet> metrics, long now);
@@ -164,12 +242,19 @@ public abstract class QueueProcessor implements KairosMetricReporter
 				{
 					if (getAvailableDataPointEvents() < m_minimumBatchSize)
 					{
-						Thread.sleep(m_minBatchWait);
+						waitForEvents(m_minimumBatchSize, m_minBatchWait);
 					}
 
 					if (getAvailableDataPointEvents() == 0)
 						continue;
 
+					DeliveryShard[] shards = m_shards;
+					if (shards != null)
+					{
+						deliverToShards(shards);
+						continue;
+					}
+
 					List<DataPointEvent> results = get(m_batchSize);
 					//getCompletionCallBack must be called after get()
 					EventCompletionCallBack callbackToPass = getCompletionCallBack();
@@ -193,6 +278,229 @@ public abstract class QueueProcessor implements KairosMetricReporter
 				}
 			}
 		}
+
+		/**
+		 Takes enough events to fill a batch on every shard and splits them by
+		 series.  The queue's callback is completed once every shard has
+		 completed its part so checkpoints still only move past handled events.
+		 */
+		private void deliverToShards(DeliveryShard[] shards)
+		{
+			List<DataPointEvent> results = get(m_initialBatchSize * shards.length);
+			//getCompletionCallBack must be called after get()
+			EventCompletionCallBack callback = getCompletionCallBack();
+
+			m_batchStats.addValue(results.size());
+
+			List<List<DataPointEvent>> split = new ArrayList<>(shards.length);
+			for (int i = 0; i < shards.length; i++)
+				split.add(new ArrayList<>());
+
+			for (DataPointEvent event : results)
+				split.get(getShard(event, shards.length)).add(event);
+
+			int parts = 0;
+			for (List<DataPointEvent> events : split)
+			{
+				if (!events.isEmpty())
+					parts++;
+			}
+
+			if (parts == 0)
+			{
+				callback.complete();
+				return;
+			}
+
+			EventCompletionCallBack partCallback = splitCallBack(callback, parts);
+			for (int i = 0; i < shards.length; i++)
+			{
+				if (!split.get(i).isEmpty())
+					shards[i].add(new ShardBatch(split.get(i), partCallback));
+			}
+		}
+	}
+
+	private static int getShard(DataPointEvent event, int shardCount)
+	{
+		int hash = event.getMetricName().hashCode() * 31 + event.getTags().hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+	}
+
+	/**
+	 @return callback to pass to each of parts batches, callback is completed
+	 when all of them have been
+	 */
+	private static EventCompletionCallBack splitCallBack(EventCompletionCallBack callback, int parts)
+	{
+		if (parts == 1)
+			return callback;
+
+		AtomicInteger remaining = new AtomicInteger(parts);
+		return () ->
+		{
+			if (remaining.decrementAndGet() == 0)
+				callback.complete();
+		};
+	}
+
+	/**
+	 Events for one shard from a single get along with the callback to complete
+	 once they are handled.
+	 */
+	private static class ShardBatch
+	{
+		private static final ShardBatch STOP = new ShardBatch(new ArrayList<>(), null);
+
+		private final List<DataPointEvent> m_events;
+		private final EventCompletionCallBack m_callBack;
+
+		private ShardBatch(List<DataPointEvent> events, EventCompletionCallBack callBack)
+		{
+			m_events = events;
+			m_callBack = callBack;
+		}
+	}
+
+	/**
+	 Hands the events for its series to the processor handler.  Split batches
+	 that queue up while the handler is busy are combined up to the shard's
+	 batch size, which grows and shrinks on its own like the delivery thread's.
+	 */
+	private class DeliveryShard implements Runnable
+	{
+		private final BlockingQueue<ShardBatch> m_input = new ArrayBlockingQueue<>(SHARD_QUEUE_SIZE);
+		private final Thread m_thread;
+		private volatile int m_shardBatchSize = m_initialBatchSize;
+
+		private DeliveryShard(int id)
+		{
+			m_thread = new Thread(this, "QueueDeliveryShard-" + id);
+		}
+
+		private void start()
+		{
+			m_thread.start();
+		}
+
+		private void add(ShardBatch batch)
+		{
+			boolean interrupted = false;
+			while (true)
+			{
+				try
+				{
+					//The events are already taken from the queue so they have to be handed off
+					m_input.put(batch);
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		private void reduceBatch(int batchSize)
+		{
+			m_shardBatchSize = Math.max(1, Math.min(m_shardBatchSize, batchSize));
+		}
+
+		/**
+		 Stops the shard once the batches already given to it are handled.
+		 */
+		private void shutdown()
+		{
+			try
+			{
+				m_input.put(ShardBatch.STOP);
+				m_thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				logger.warn("Interrupted waiting for " + m_thread.getName() + " to finish");
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				ShardBatch batch;
+				try
+				{
+					batch = m_input.take();
+				}
+				catch (InterruptedException e)
+				{
+					logger.info(m_thread.getName() + " interrupted");
+					continue;
+				}
+
+				if (batch == ShardBatch.STOP)
+					break;
+
+				int batchSize = m_shardBatchSize;
+				List<DataPointEvent> events = new ArrayList<>(batch.m_events);
+				List<EventCompletionCallBack> callBacks = new ArrayList<>();
+				callBacks.add(batch.m_callBack);
+
+				ShardBatch next;
+				while ((next = m_input.peek()) != null && next != ShardBatch.STOP &&
+						events.size() + next.m_events.size() <= batchSize)
+				{
+					m_input.poll();
+					events.addAll(next.m_events);
+					callBacks.add(next.m_callBack);
+				}
+
+				try
+				{
+					handleShardEvents(events, callBacks, batchSize);
+				}
+				catch (Exception e)
+				{
+					logger.error("DeliveryShard Exception", e);
+				}
+			}
+		}
+
+		private void handleShardEvents(List<DataPointEvent> events,
+				List<EventCompletionCallBack> callBacks, int batchSize)
+		{
+			EventCompletionCallBack callBack;
+			if (callBacks.size() == 1)
+				callBack = callBacks.get(0);
+			else
+				callBack = () ->
+				{
+					for (EventCompletionCallBack completionCallBack : callBacks)
+						completionCallBack.complete();
+				};
+
+			//A single split batch can still be bigger than this shard's batch size
+			int chunks = (events.size() + batchSize - 1) / batchSize;
+			EventCompletionCallBack chunkCallBack = splitCallBack(callBack, chunks);
+			for (int start = 0; start < events.size(); start += batchSize)
+			{
+				List<DataPointEvent> chunk = events.subList(start, Math.min(events.size(), start + batchSize));
+
+				boolean fullBatch = false;
+				if (chunk.size() == batchSize)
+				{
+					fullBatch = true;
+					if (m_shardBatchSize < m_initialBatchSize)
+						m_shardBatchSize += 5;
+				}
+
+				m_processorHandler.handleEvents(chunk, chunkCallBack, fullBatch);
+			}
+		}
 	}
 
 
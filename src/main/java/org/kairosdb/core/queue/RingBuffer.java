@@ -0,0 +1,254 @@
+package org.kairosdb.core.queue;
+
+import org.kairosdb.util.SimpleStats;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ Bounded multi producer single consumer queue backed by a preallocated array.
+ Producers claim slots by moving the tail with a compare and set and then
+ publish into the claimed slots, the consumer treats a slot as published once
+ it is no longer null.  Nothing takes a lock, producers only wait when the
+ buffer is full and the consumer only waits when it asks to.
+
+ The capacity is rounded up to a power of two.
+ */
+public class RingBuffer<T>
+{
+	public enum WaitStrategy
+	{
+		/**
+		 Busy spins, lowest latency but burns a core per waiting thread.
+		 */
+		SPIN,
+		/**
+		 Yields the processor between checks.
+		 */
+		YIELD,
+		/**
+		 Parks the thread between checks, producers wake a parked consumer.
+		 */
+		PARK
+	}
+
+	private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final AtomicReferenceArray<T> m_slots;
+	private final int m_mask;
+	private final int m_capacity;
+
+	/**
+	 Next sequence to claim.
+	 */
+	private final AtomicLong m_tail = new AtomicLong();
+
+	/**
+	 Next sequence to read, only written by the consumer.
+	 */
+	private volatile long m_head;
+
+	private volatile WaitStrategy m_waitStrategy;
+	private volatile Thread m_waitingConsumer;
+	private volatile int m_wakeupSize;
+
+	private final SimpleStats m_producerWaitStats = new SimpleStats();
+	private final SimpleStats m_consumerWaitStats = new SimpleStats();
+
+	public RingBuffer(int capacity, WaitStrategy waitStrategy)
+	{
+		if (capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("Invalid ring buffer capacity " + capacity);
+
+		m_capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		m_mask = m_capacity - 1;
+		m_slots = new AtomicReferenceArray<>(m_capacity);
+		m_waitStrategy = waitStrategy;
+	}
+
+	public void setWaitStrategy(WaitStrategy waitStrategy)
+	{
+		m_waitStrategy = waitStrategy;
+	}
+
+	public int getCapacity()
+	{
+		return m_capacity;
+	}
+
+	/**
+	 @return number of claimed slots not yet taken by the consumer, some of
+	 them may still be being published
+	 */
+	public int size()
+	{
+		return (int) (m_tail.get() - m_head);
+	}
+
+	/**
+	 Time producers spent waiting for space, only puts that had to wait are
+	 recorded.
+	 */
+	public SimpleStats getProducerWaitStats()
+	{
+		return m_producerWaitStats;
+	}
+
+	/**
+	 Time the consumer spent in {@link #await(int, long)}.
+	 */
+	public SimpleStats getConsumerWaitStats()
+	{
+		return m_consumerWaitStats;
+	}
+
+	/**
+	 Adds value, waiting for space if the buffer is full.
+	 */
+	public void put(T value) throws InterruptedException
+	{
+		long sequence = claim(1);
+		m_slots.lazySet((int) sequence & m_mask, value);
+		signalConsumer();
+	}
+
+	/**
+	 Adds values claiming slots for as many of them at once as the buffer
+	 allows, so producers contend once per batch instead of once per value.
+	 */
+	public void putAll(List<? extends T> values) throws InterruptedException
+	{
+		int offset = 0;
+		while (offset < values.size())
+		{
+			int count = Math.min(values.size() - offset, m_capacity);
+			long sequence = claim(count);
+			for (int i = 0; i < count; i++)
+				m_slots.lazySet((int) (sequence + i) & m_mask, values.get(offset + i));
+
+			offset += count;
+			signalConsumer();
+		}
+	}
+
+	private long claim(int count) throws InterruptedException
+	{
+		long waitStart = 0L;
+		int spins = 0;
+
+		while (true)
+		{
+			long tail = m_tail.get();
+			if (tail + count - m_head <= m_capacity)
+			{
+				if (m_tail.compareAndSet(tail, tail + count))
+				{
+					if (waitStart != 0L)
+						m_producerWaitStats.addValue((System.nanoTime() - waitStart) / 1000);
+					return tail;
+				}
+			}
+			else
+			{
+				if (waitStart == 0L)
+					waitStart = System.nanoTime();
+
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				idle(spins++, PRODUCER_PARK_NANOS);
+			}
+		}
+	}
+
+	private void idle(int spins, long parkNanos)
+	{
+		switch (m_waitStrategy)
+		{
+			case SPIN:
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			case PARK:
+				//Spin briefly as space or data usually shows up right away
+				if (spins > 100)
+					LockSupport.parkNanos(this, parkNanos);
+				break;
+		}
+	}
+
+	private void signalConsumer()
+	{
+		Thread consumer = m_waitingConsumer;
+		if (consumer != null && size() >= m_wakeupSize)
+			LockSupport.unpark(consumer);
+	}
+
+	/**
+	 Consumer only.  Waits until at least minimum values are in the buffer or
+	 timeoutMillis has passed.
+	 */
+	public void await(int minimum, long timeoutMillis) throws InterruptedException
+	{
+		if (size() >= minimum)
+			return;
+
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		int spins = 0;
+
+		m_wakeupSize = minimum;
+		m_waitingConsumer = Thread.currentThread();
+		try
+		{
+			while (size() < minimum)
+			{
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					break;
+
+				if (Thread.interrupted())
+					throw new InterruptedException();
+
+				idle(spins++, remaining);
+			}
+		}
+		finally
+		{
+			m_waitingConsumer = null;
+			m_consumerWaitStats.addValue((System.nanoTime() - start) / 1000);
+		}
+	}
+
+	/**
+	 Consumer only.  Moves up to max published values into target.
+	 @return number of values moved
+	 */
+	public int drainTo(Collection<? super T> target, int max)
+	{
+		long head = m_head;
+		int count = 0;
+
+		while (count < max)
+		{
+			int index = (int) head & m_mask;
+			T value = m_slots.get(index);
+			if (value == null)
+				break; //Empty or the producer has not published yet
+
+			m_slots.lazySet(index, null);
+			target.add(value);
+			head++;
+			count++;
+		}
+
+		//Releases the slots to producers
+		m_head = head;
+		return count;
+	}
+}
@@ -89,14 +89,28 @@ public class DataPointsMonitor implements KairosMetricReporter, KairosDBService
 	}
 
 	@Subscribe
-	public void dataPoint(DataPointEvent event)
+	public void dataPoints(List<DataPointEvent> events)
 	{
-		String metricName = event.getMetricName();
-
-		if (metricName.startsWith("kairosdb"))
-			return; //Skip our own metrics.
+		//Batches usually hold runs of the same metric, count each run once
+		String runName = null;
+		int runCount = 0;
+		for (DataPointEvent event : events)
+		{
+			String metricName = event.getMetricName();
+			if (!metricName.equals(runName))
+			{
+				if (runCount != 0)
+					addCounter(runName, runCount);
+				runName = metricName;
+				runCount = 0;
+			}
+
+			if (!metricName.startsWith("kairosdb")) //Skip our own metrics.
+				runCount++;
+		}
 
-		addCounter(metricName, 1);
+		if (runCount != 0)
+			addCounter(runName, runCount);
 	}
 
 	@Override
@@ -35,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
@@ -102,29 +103,33 @@ public class MetricReporterService implements KairosDBJob
 		{
 			for (KairosMetricReporter reporter : m_reporterProvider.get())
 			{
+				List<DataPointEvent> events = new ArrayList<>();
 				List<DataPointSet> dpList = reporter.getMetrics(timestamp);
 				for (DataPointSet dataPointSet : dpList)
 				{
 					dataPointSet.addTags(m_processTags.getTags());
 					for (DataPoint dataPoint : dataPointSet.getDataPoints())
 					{
-						m_publisher.post(new DataPointEvent(dataPointSet.getName(),
+						events.add(new DataPointEvent(dataPointSet.getName(),
 								dataPointSet.getTags(), dataPoint, m_ttl));
 					}
 				}
+				m_publisher.postBatch(events);
 			}
 
 			Runtime runtime = Runtime.getRuntime();
 			ImmutableSortedMap<String, String> tags = Tags.create()
 					.put("host", m_hostname).putAll(m_processTags.getTags()).build();
-			m_publisher.post(new DataPointEvent("kairosdb.jvm.free_memory",
+			List<DataPointEvent> jvmEvents = new ArrayList<>();
+			jvmEvents.add(new DataPointEvent("kairosdb.jvm.free_memory",
 					tags, m_dataPointFactory.createDataPoint(timestamp, runtime.freeMemory()), m_ttl));
-			m_publisher.post(new DataPointEvent("kairosdb.jvm.total_memory",
+			jvmEvents.add(new DataPointEvent("kairosdb.jvm.total_memory",
 					tags, m_dataPointFactory.createDataPoint(timestamp, runtime.totalMemory()), m_ttl));
-			m_publisher.post(new DataPointEvent("kairosdb.jvm.max_memory",
+			jvmEvents.add(new DataPointEvent("kairosdb.jvm.max_memory",
 					tags, m_dataPointFactory.createDataPoint(timestamp, runtime.maxMemory()), m_ttl));
-			m_publisher.post(new DataPointEvent("kairosdb.jvm.thread_count",
+			jvmEvents.add(new DataPointEvent("kairosdb.jvm.thread_count",
 					tags, m_dataPointFactory.createDataPoint(timestamp, getThreadCount()), m_ttl));
+			m_publisher.postBatch(jvmEvents);
 		}
 		catch (Throwable e)
 		{
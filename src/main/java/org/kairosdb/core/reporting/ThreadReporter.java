@@ -17,7 +17,9 @@
 package org.kairosdb.core.reporting;
 
 import com.google.common.collect.ImmutableSortedMap;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import javax.inject.Inject;
@@ -87,6 +89,18 @@ public class ThreadReporter
 		}
 	}
 
+	/**
+	 Data points taken from one thread to be handed to another.
+	 */
+	public static class ReportedData
+	{
+		private final LinkedList<ReporterDataPoint> m_dataPoints = new LinkedList<ReporterDataPoint>();
+
+		private ReportedData()
+		{
+		}
+	}
+
 	private static class CurrentTags extends ThreadLocal<SortedMap<String, String>>
 	{
 		@Override
@@ -165,6 +179,44 @@ public class ThreadReporter
 		s_currentTags.get().clear();
 	}
 
+	/**
+	 Returns a copy of the tags currently set on this thread.
+	 */
+	public static SortedMap<String, String> getTags()
+	{
+		return new TreeMap<String, String>(s_currentTags.get());
+	}
+
+	/**
+	 Replaces the tags on this thread.  Used when work for a request is done
+	 on a thread other than the request thread.
+	 */
+	public static void setTags(SortedMap<String, String> tags)
+	{
+		SortedMap<String, String> currentTags = s_currentTags.get();
+		currentTags.clear();
+		currentTags.putAll(tags);
+	}
+
+	/**
+	 Removes the data points reported on this thread so they can be added
+	 to another thread by calling {@link #addReportedData(ReportedData)}.
+	 */
+	public static ReportedData takeReportedData()
+	{
+		ReportedData ret = new ReportedData();
+		while (s_reporterData.getListSize() != 0)
+			ret.m_dataPoints.add(s_reporterData.getNextDataPoint());
+
+		return ret;
+	}
+
+	public static void addReportedData(ReportedData data)
+	{
+		for (ReporterDataPoint dataPoint : data.m_dataPoints)
+			s_reporterData.addDataPoint(dataPoint);
+	}
+
 	public static ReporterDataPoint addDataPoint(String metric, long value)
 	{
 		return addDataPoint(metric, value, 0);
@@ -197,6 +249,7 @@ public class ThreadReporter
 			StringDataPointFactory stringDataPointFactory,
 			Publisher<DataPointEvent> publisher) throws DatastoreException
 	{
+		List<DataPointEvent> events = new ArrayList<>();
 		while (s_reporterData.getListSize() != 0)
 		{
 			ReporterDataPoint dp = s_reporterData.getNextDataPoint();
@@ -214,8 +267,11 @@ public class ThreadReporter
 						longDataPointFactory.createDataPoint(s_reportTime.get(), dp.getValue()),
 						dp.getTtl());
 			}
-			publisher.post(dataPointEvent);
+			events.add(dataPointEvent);
 		}
+
+		if (!events.isEmpty())
+			publisher.postBatch(events);
 	}
 
 
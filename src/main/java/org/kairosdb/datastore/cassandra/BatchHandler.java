@@ -75,6 +75,10 @@ public class BatchHandler extends RetryCallable
 	private void loadBatch(int limit, CQLBatch batch, Iterator<DataPointEvent> events) throws Exception
 	{
 		int count = 0;
+		//Consecutive events for the same series and row reuse the last row key
+		//instead of building and hashing a new key to probe the cache
+		DataPointsRowKey lastRowKey = null;
+		ImmutableSortedMap<String, String> lastTags = null;
 		while (events.hasNext() && count < limit)
 		{
 			DataPointEvent event = events.next();
@@ -95,7 +99,6 @@ public class BatchHandler extends RetryCallable
 			int ttl = m_forceDefaultDatapointTtl ? m_defaultTtl : event.getTtl();
 			logger.trace("ttl (seconds): {}", ttl);
 
-			DataPointsRowKey rowKey = null;
 			//time the data is written.
 			long writeTime = System.currentTimeMillis();
 			
@@ -124,38 +127,55 @@ public class BatchHandler extends RetryCallable
 
 			long rowTime = m_rowSpec.calculateRowTime(dataPoint.getTimestamp());
 
-			rowKey = new DataPointsRowKey(metricName, m_clusterName, rowTime, dataPoint.getDataStoreDataType(),
-					tags);
+			String dataType = dataPoint.getDataStoreDataType();
+			DataPointsRowKey cachedRowKey;
 
-			//Write out the row key if it is not cached
-			DataPointsRowKey cachedRowKey = m_rowKeyCache.cacheItem(rowKey);
-			if (cachedRowKey == null)
+			if (lastRowKey != null && lastRowKey.getTimestamp() == rowTime &&
+					lastRowKey.getMetricName().equals(metricName) &&
+					lastRowKey.getDataType().equals(dataType) &&
+					(lastTags == tags || lastTags.equals(tags)))
 			{
-				cachedRowKey = rowKey;
+				cachedRowKey = lastRowKey;
+			}
+			else
+			{
+				DataPointsRowKey rowKey = new DataPointsRowKey(metricName, m_clusterName, rowTime, dataType,
+						tags);
 
-				//Row key will expire using the ttl plus the width of the row (typically 3 weeks)
-				int rowKeyTtl = (ttl == 0) ? 0 : ttl + ((int) (m_rowSpec.getRowWidthInMillis() / 1000));
+				//Write out the row key if it is not cached
+				cachedRowKey = m_rowKeyCache.cacheItem(rowKey);
+				if (cachedRowKey == null)
+				{
+					cachedRowKey = rowKey;
 
-				batch.addRowKey(cachedRowKey, rowKeyTtl);
+					//Row key will expire using the ttl plus the width of the row (typically 3 weeks)
+					int rowKeyTtl = (ttl == 0) ? 0 : ttl + ((int) (m_rowSpec.getRowWidthInMillis() / 1000));
 
-				String cachedName = cachedRowKey.getMetricName();
+					batch.addRowKey(cachedRowKey, rowKeyTtl);
 
+					String cachedName = cachedRowKey.getMetricName();
 
-				m_rowKeyPublisher.post(new RowKeyEvent(cachedName, cachedRowKey, rowKeyTtl));
 
-				TimedString metricNameTime = new TimedString(cachedName, rowTime);
+					m_rowKeyPublisher.post(new RowKeyEvent(cachedName, cachedRowKey, rowKeyTtl));
 
-				TimedString cacheName = m_metricNameCache.cacheItem(metricNameTime);
-				if (cacheName == null)
-				{
-					batch.addMetricName(metricNameTime);
-					batch.addTimeIndex(metricNameTime.getString(), cachedRowKey.getTimestamp(), rowKeyTtl);
+					TimedString metricNameTime = new TimedString(cachedName, rowTime);
+
+					TimedString cacheName = m_metricNameCache.cacheItem(metricNameTime);
+					if (cacheName == null)
+					{
+						batch.addMetricName(metricNameTime);
+						batch.addTimeIndex(metricNameTime.getString(), cachedRowKey.getTimestamp(), rowKeyTtl);
+					}
 				}
+
+				lastRowKey = cachedRowKey;
+				lastTags = tags;
 			}
 
 			int columnTime = m_rowSpec.getColumnName(rowTime, dataPoint.getTimestamp());
 
-			batch.addDataPoint(rowKey, columnTime, dataPoint, ttl);
+			//The cached key keeps its serialized form so it is not rebuilt for every point
+			batch.addDataPoint(cachedRowKey, columnTime, dataPoint, ttl);
 		}
 	}
 
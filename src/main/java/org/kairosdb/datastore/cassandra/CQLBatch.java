@@ -4,8 +4,10 @@ import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.InjectProperty;
 import org.kairosdb.util.KDataOutput;
@@ -36,6 +38,11 @@ public class CQLBatch
 	public static final Logger logger = LoggerFactory.getLogger(CQLBatch.class);
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
 	public static final String METRIC_INDEX_FILTER_PREFIX = "kairosdb.metric_index_filter.prefix";
+	//Column names and values for a batch are sliced out of slabs that start
+	//small and double up to the max size so small batches stay small
+	private static final int MIN_SLAB_SIZE = 1024;
+	private static final int MAX_SLAB_SIZE = 64 * 1024;
+	private static final HostBatchLimiter UNLIMITED = new HostBatchLimiter(0);
 
 	private final ClusterConnection m_clusterConnection;
 	private final BatchStats m_batchStats;
@@ -58,6 +65,18 @@ public class CQLBatch
 
 	private List<String> m_prefixFilterList = new ArrayList<>();
 
+	private HostBatchLimiter m_batchLimiter = UNLIMITED;
+
+	//Reused to serialize each data point value
+	private final KDataOutput m_valueOutput = new KDataOutput();
+	private ByteBuffer m_slab;
+	private int m_slabSize = MIN_SLAB_SIZE;
+	//The write time and usually the ttl are the same for every data point in the
+	//batch so their serialized values are shared by the statements
+	private ByteBuffer m_nowBuffer;
+	private ByteBuffer m_ttlBuffer;
+	private int m_ttl;
+
 
 	@Inject
 	public CQLBatch(
@@ -83,6 +102,12 @@ public class CQLBatch
 		m_prefixFilterList = list;
 	}
 
+	@Inject
+	public void setBatchLimiter(HostBatchLimiter batchLimiter)
+	{
+		m_batchLimiter = batchLimiter;
+	}
+
 	public void addTimeIndex(String metricName, long rowKeyTime, int rowKeyTtl)
 	{
 		Statement bs = m_clusterConnection.psRowKeyTimeInsert.bind()
@@ -178,10 +203,9 @@ public class CQLBatch
 	{
 		BoundStatement boundStatement = new BoundStatement(m_clusterConnection.psDataPointsDelete);
 		boundStatement.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
-		ByteBuffer b = ByteBuffer.allocate(4);
-		b.putInt(columnTime);
-		b.rewind();
-		boundStatement.setBytesUnsafe(1, b);
+		ByteBuffer columnName = allocate(4);
+		columnName.putInt(0, columnTime);
+		boundStatement.setBytesUnsafe(1, columnName);
 
 		boundStatement.setConsistencyLevel(m_consistencyLevel);
 		boundStatement.setIdempotent(true);
@@ -189,27 +213,74 @@ public class CQLBatch
 		addBoundStatement(boundStatement);
 	}
 
+	/**
+	 Returns a buffer of size bytes sliced from the current slab.  The bound
+	 statements hold on to the slices until the batch is sent so slabs are
+	 never reused, a new one is started once the current one is full.
+	 */
+	private ByteBuffer allocate(int size)
+	{
+		if (m_slab == null || m_slab.remaining() < size)
+		{
+			m_slab = ByteBuffer.allocate(Math.max(m_slabSize, size));
+			m_slabSize = Math.min(m_slabSize * 2, MAX_SLAB_SIZE);
+		}
+
+		ByteBuffer ret = m_slab.slice();
+		ret.limit(size);
+		m_slab.position(m_slab.position() + size);
+
+		return ret;
+	}
+
 	public void addDataPoint(DataPointsRowKey rowKey, int columnTime,
 			DataPoint dataPoint, int ttl) throws IOException
 	{
-		KDataOutput kDataOutput = new KDataOutput();
-		dataPoint.writeValueToBuffer(kDataOutput);
+		m_valueOutput.reset();
+		dataPoint.writeValueToBuffer(m_valueOutput);
+
+		ByteBuffer columnName = allocate(4);
+		columnName.putInt(0, columnTime);
+
+		ByteBuffer value = allocate(m_valueOutput.size());
+		m_valueOutput.writeTo(value);
+		value.flip();
 
 		BoundStatement boundStatement = new BoundStatement(m_clusterConnection.psDataPointsInsert);
 		boundStatement.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey));
-		ByteBuffer b = ByteBuffer.allocate(4);
-		b.putInt(columnTime);
-		b.rewind();
-		boundStatement.setBytesUnsafe(1, b);
-		boundStatement.setBytesUnsafe(2, ByteBuffer.wrap(kDataOutput.getBytes()));
-		boundStatement.setInt(3, ttl);
-		boundStatement.setLong(4, m_now);
+		boundStatement.setBytesUnsafe(1, columnName);
+		boundStatement.setBytesUnsafe(2, value);
+		boundStatement.setBytesUnsafe(3, getTtlBuffer(ttl));
+		boundStatement.setBytesUnsafe(4, getNowBuffer());
 		boundStatement.setConsistencyLevel(m_consistencyLevel);
 		boundStatement.setIdempotent(true);
 
 		addBoundStatement(boundStatement);
 	}
 
+	private ByteBuffer getTtlBuffer(int ttl)
+	{
+		if (m_ttlBuffer == null || m_ttl != ttl)
+		{
+			m_ttlBuffer = allocate(4);
+			m_ttlBuffer.putInt(0, ttl);
+			m_ttl = ttl;
+		}
+
+		return m_ttlBuffer;
+	}
+
+	private ByteBuffer getNowBuffer()
+	{
+		if (m_nowBuffer == null)
+		{
+			m_nowBuffer = allocate(8);
+			m_nowBuffer.putLong(0, m_now);
+		}
+
+		return m_nowBuffer;
+	}
+
 	public void submitBatch()
 	{
 		if (m_metricNamesBatch.size() != 0)
@@ -227,23 +298,81 @@ public class CQLBatch
 			m_batchStats.addTagIndexedBatch(m_tagIndexedRowKeysCount);
 		}
 
-		for (BatchStatement batchStatement : m_batchMap.values())
+		//Data point batches for all hosts go out in parallel, we then wait for
+		//all of them so the caller only completes once every batch succeeded
+		List<ResultSetFuture> pending = new ArrayList<>(m_batchMap.size() + 1);
+		try
+		{
+			for (Map.Entry<Host, BatchStatement> entry : m_batchMap.entrySet())
+			{
+				Host host = entry.getKey();
+				BatchStatement batchStatement = entry.getValue();
+				if (batchStatement.size() != 0)
+				{
+					m_batchLimiter.acquire(host);
+					ResultSetFuture future;
+					try
+					{
+						future = m_clusterConnection.executeAsync(batchStatement);
+					}
+					catch (RuntimeException e)
+					{
+						m_batchLimiter.release(host);
+						throw e;
+					}
+					future.addListener(() -> m_batchLimiter.release(host), MoreExecutors.directExecutor());
+					pending.add(future);
+					m_batchStats.addDatapointsBatch(batchStatement.size());
+				}
+			}
+
+			//Catch all in case of a load balancing problem
+			if (m_dataPointBatch.size() != 0)
+			{
+				pending.add(m_clusterConnection.executeAsync(m_dataPointBatch));
+				m_batchStats.addDatapointsBatch(m_dataPointBatch.size());
+			}
+		}
+		catch (RuntimeException e)
 		{
-			//batchStatement.enableTracing();
-			if (batchStatement.size() != 0)
+			//Batches already sent must finish before the caller can retry
+			try
+			{
+				waitForBatches(pending);
+			}
+			catch (RuntimeException batchFailure)
 			{
-				m_clusterConnection.execute(batchStatement);
-				//System.out.println(resultSet.getExecutionInfo().getQueryTrace().getTraceId());
-				m_batchStats.addDatapointsBatch(batchStatement.size());
+				e.addSuppressed(batchFailure);
 			}
+			throw e;
 		}
 
-		//Catch all in case of a load balancing problem
-		if (m_dataPointBatch.size() != 0)
+		waitForBatches(pending);
+	}
+
+	/**
+	 Waits for every batch to finish, even after one fails, so a retry never
+	 overlaps batches that are still in flight.  The first failure is thrown
+	 the same way a blocking execute would throw it.
+	 */
+	private void waitForBatches(List<ResultSetFuture> pending)
+	{
+		RuntimeException failure = null;
+		for (ResultSetFuture future : pending)
 		{
-			m_clusterConnection.execute(m_dataPointBatch);
-			m_batchStats.addDatapointsBatch(m_dataPointBatch.size());
+			try
+			{
+				future.getUninterruptibly();
+			}
+			catch (RuntimeException e)
+			{
+				if (failure == null)
+					failure = e;
+			}
 		}
+
+		if (failure != null)
+			throw failure;
 	}
 
 	public List<DataPointsRowKey> getNewRowKeys()
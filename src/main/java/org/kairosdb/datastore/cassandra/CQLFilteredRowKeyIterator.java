@@ -2,12 +2,10 @@ package org.kairosdb.datastore.cassandra;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Statement;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -17,6 +15,7 @@ import org.kairosdb.core.reporting.ThreadReporter;
 
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import static org.kairosdb.core.KairosConfigProperties.QUERIES_REGEX_PREFIX;
@@ -27,14 +26,26 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 	private final SetMultimap<String, String> m_filterTags;
 	private final Set<String> m_filterTagNames;
 	private DataPointsRowKey m_nextKey;
-	private final Iterator<ResultSet> m_resultSets;
+	//Index queries in the order their keys are returned, more are added once
+	//the time tiers are known
+	private final Deque<ListenableFuture<ResultSet>> m_pendingResults = new ArrayDeque<>();
+	//Query for the time tiers of the new index, null once the tier queries are sent
+	private ListenableFuture<ResultSet> m_keyTimeFuture;
 	private ResultSet m_currentResultSet;
+	private final ClusterConnection m_cluster;
 	private final String m_metricName;
 	private final String m_clusterName;
 	private final RowSpec m_rowSpec;
 	private int m_rawRowKeyCount = 0;
+	private long m_keyQueryWaitTime = 0;
+	private boolean m_reported = false;
 	private Map<String, Pattern> m_patternFilter;
-	private Set<DataPointsRowKey> m_returnedKeys;  //keep from returning duplicates, querying old and new indexes
+	//Keys can be in both the old and new indexes.  Keys from the old index are
+	//kept by row time until the tiers pass them, keys from the new index only
+	//need to be kept for the tier being read.
+	private final TreeMap<Long, Set<DataPointsRowKey>> m_legacyKeys = new TreeMap<>();
+	private final Set<DataPointsRowKey> m_tierKeys = new HashSet<>();
+	private long m_currentTierTime = Long.MIN_VALUE;
 
 
 	@Inject
@@ -76,11 +87,9 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 		}
 
 
+		m_cluster = cluster;
 		m_metricName = metricName;
 		m_clusterName = cluster.getClusterName();
-		List<ListenableFuture<ResultSet>> futures = new ArrayList<>();
-		m_returnedKeys = new HashSet<>();
-		long timerStart = System.currentTimeMillis();
 
 		//Legacy key index - index is all in one row
 		if ((startTime < 0) && (endTime >= 0))
@@ -90,19 +99,14 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 			setStartEndKeys(negStatement, metricName, startTime, -1L);
 			negStatement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			ResultSetFuture future = cluster.executeAsync(negStatement);
-
-			futures.add(future);
+			m_pendingResults.add(cluster.executeAsync(negStatement));
 
 			BoundStatement posStatement = new BoundStatement(cluster.psRowKeyIndexQuery);
 			posStatement.setBytesUnsafe(0, CassandraDatastore.serializeString(metricName));
 			setStartEndKeys(posStatement, metricName, 0L, endTime);
 			posStatement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			future = cluster.executeAsync(posStatement);
-
-			futures.add(future);
-
+			m_pendingResults.add(cluster.executeAsync(posStatement));
 		}
 		else
 		{
@@ -111,38 +115,12 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 			setStartEndKeys(statement, metricName, startTime, endTime);
 			statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			ResultSetFuture future = cluster.executeAsync(statement);
-
-			futures.add(future);
+			m_pendingResults.add(cluster.executeAsync(statement));
 		}
 
-		//System.out.println();
-		//New index query index is broken up by time tier
-		RowKeyLookup rowKeyLookup = cluster.getRowKeyLookupForMetric(metricName);
-		List<Long> queryKeyList = createQueryKeyList(cluster, metricName, startTime, endTime);
-		for (Long keyTime : queryKeyList)
-		{
-			futures.add(rowKeyLookup.queryRowKeys(metricName, keyTime, m_filterTags));
-		}
-
-		ListenableFuture<List<ResultSet>> listListenableFuture = Futures.allAsList(futures);
-
-		try
-		{
-			m_resultSets = listListenableFuture.get().iterator();
-			if (m_resultSets.hasNext())
-				m_currentResultSet = m_resultSets.next();
-
-			ThreadReporter.addDataPoint(CassandraDatastore.KEY_QUERY_TIME, System.currentTimeMillis() - timerStart);
-		}
-		catch (InterruptedException e)
-		{
-			throw new DatastoreException("Index query interrupted", e);
-		}
-		catch (ExecutionException e)
-		{
-			throw new DatastoreException("Failed to read key index", e);
-		}
+		//New index query index is broken up by time tier, the tiers are
+		//queried as soon as we know what they are
+		m_keyTimeFuture = queryKeyTimes(cluster, metricName, startTime, endTime);
 	}
 
 	private boolean matchRegexFilter(String tag, String value)
@@ -194,10 +172,26 @@ outer:
 			}
 
 			/* We can get duplicate keys from querying old and new indexes */
-			if (m_returnedKeys.contains(rowKey))
-				continue;
+			if (!newIndex)
+			{
+				if (!m_legacyKeys.computeIfAbsent(rowKey.getTimestamp(), t -> new HashSet<>()).add(rowKey))
+					continue;
+			}
+			else
+			{
+				long tierTime = rowKey.getTimestamp();
+				if (tierTime != m_currentTierTime)
+				{
+					//Tiers are read in time order so older legacy keys can't match anymore
+					m_legacyKeys.headMap(tierTime).clear();
+					m_currentTierTime = tierTime;
+				}
+
+				Set<DataPointsRowKey> legacyKeys = m_legacyKeys.get(tierTime);
+				if ((legacyKeys != null && legacyKeys.contains(rowKey)) || !m_tierKeys.add(rowKey))
+					continue;
+			}
 
-			m_returnedKeys.add(rowKey);
 			next = rowKey;
 			break;
 		}
@@ -205,31 +199,63 @@ outer:
 		return (next);
 	}
 
-	private List<Long> createQueryKeyList(ClusterConnection cluster, String metricName,
+	private ListenableFuture<ResultSet> queryKeyTimes(ClusterConnection cluster, String metricName,
 			long startTime, long endTime)
 	{
-		List<Long> ret = new ArrayList<>();
+		if (cluster.psRowKeyTimeQuery == null) //cluster may be old
+			return null;
 
-		if (cluster.psRowKeyTimeQuery != null) //cluster may be old
-		{
-			BoundStatement statement = new BoundStatement(cluster.psRowKeyTimeQuery);
-			statement.setString(0, metricName);
-			statement.setString(1, DATA_POINTS_TABLE_NAME);
-			statement.setTimestamp(2, new Date(m_rowSpec.calculateRowTime(startTime)));
-			statement.setTimestamp(3, new Date(endTime));
-			statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
+		BoundStatement statement = new BoundStatement(cluster.psRowKeyTimeQuery);
+		statement.setString(0, metricName);
+		statement.setString(1, DATA_POINTS_TABLE_NAME);
+		statement.setTimestamp(2, new Date(m_rowSpec.calculateRowTime(startTime)));
+		statement.setTimestamp(3, new Date(endTime));
+		statement.setConsistencyLevel(cluster.getReadConsistencyLevel());
 
-			//printHosts(m_loadBalancingPolicy.newQueryPlan(m_keyspace, statement));
+		return cluster.executeAsync(statement);
+	}
 
-			ResultSet rows = cluster.execute(statement);
+	/**
+	 Sends the row key queries for every time tier once the tiers are known.
+	 @param wait if false the queries are only sent if the tier query is
+	 already done
+	 */
+	private void queryTiers(boolean wait)
+	{
+		if (m_keyTimeFuture == null || (!wait && !m_keyTimeFuture.isDone()))
+			return;
 
-			while (!rows.isExhausted())
-			{
-				ret.add(rows.one().getTimestamp(0).getTime());
-			}
+		ResultSet rows = getResult(m_keyTimeFuture);
+		m_keyTimeFuture = null;
+
+		RowKeyLookup rowKeyLookup = m_cluster.getRowKeyLookupForMetric(m_metricName);
+		while (!rows.isExhausted())
+		{
+			long keyTime = rows.one().getTimestamp(0).getTime();
+			m_pendingResults.add(rowKeyLookup.queryRowKeys(m_metricName, keyTime, m_filterTags));
 		}
+	}
 
-		return ret;
+	private ResultSet getResult(ListenableFuture<ResultSet> future)
+	{
+		long waitStart = System.nanoTime();
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IndexQueryException(new DatastoreException("Index query interrupted", e));
+		}
+		catch (ExecutionException e)
+		{
+			throw new IndexQueryException(new DatastoreException("Failed to read key index", e));
+		}
+		finally
+		{
+			m_keyQueryWaitTime += System.nanoTime() - waitStart;
+		}
 	}
 
 	private void setStartEndKeys(
@@ -247,27 +273,51 @@ outer:
 		boundStatement.setBytesUnsafe(2, CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(endKey));
 	}
 
+	/**
+	 Keys are returned as each index query completes so data queries for the
+	 first keys can start while later index partitions are still being read.
+	 @throws IndexQueryException if an index query fails
+	 */
 	@Override
 	public boolean hasNext()
 	{
 		if (m_nextKey != null)
 			return true;
 
-		while (m_currentResultSet != null && (!m_currentResultSet.isExhausted() || m_resultSets.hasNext()))
+		while (m_nextKey == null)
 		{
-			m_nextKey = nextKeyFromIterator(m_currentResultSet);
+			if (m_currentResultSet != null)
+			{
+				m_nextKey = nextKeyFromIterator(m_currentResultSet);
+				if (m_nextKey != null)
+					break;
+
+				m_currentResultSet = null;
+			}
 
-			if (m_nextKey != null)
-				break;
+			queryTiers(false);
 
-			if (m_resultSets.hasNext())
-				m_currentResultSet = m_resultSets.next();
+			ListenableFuture<ResultSet> next = m_pendingResults.poll();
+			if (next == null)
+			{
+				if (m_keyTimeFuture == null)
+					break; //No more index queries
+
+				queryTiers(true);
+				continue;
+			}
+
+			m_currentResultSet = getResult(next);
+			m_tierKeys.clear();
 		}
 
-		if (m_nextKey == null)
+		if (m_nextKey == null && !m_reported)
 		{
+			m_reported = true;
 			//todo make this a common atomic value
 			ThreadReporter.addDataPoint(CassandraDatastore.RAW_ROW_KEY_COUNT, m_rawRowKeyCount);
+			ThreadReporter.addDataPoint(CassandraDatastore.KEY_QUERY_TIME,
+					TimeUnit.NANOSECONDS.toMillis(m_keyQueryWaitTime));
 		}
 
 		return (m_nextKey != null);
@@ -285,4 +335,18 @@ outer:
 	public void remove()
 	{
 	}
+
+	/**
+	 Thrown from hasNext when reading the index fails, the cause is the
+	 DatastoreException describing the failure.
+	 */
+	public static class IndexQueryException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public IndexQueryException(DatastoreException cause)
+		{
+			super(cause.getMessage(), cause);
+		}
+	}
 }
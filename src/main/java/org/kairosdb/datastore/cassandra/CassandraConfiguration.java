@@ -26,12 +26,16 @@ public class CassandraConfiguration
 
 	public static final String ROW_KEY_CACHE_SIZE_PROPERTY = "kairosdb.datastore.cassandra.row_key_cache_size";
 	public static final String STRING_CACHE_SIZE_PROPERTY = "kairosdb.datastore.cassandra.string_cache_size";
+	public static final String ROW_KEY_CACHE_MAX_BYTES_PROPERTY = "kairosdb.datastore.cassandra.row_key_cache_max_bytes";
+	public static final String STRING_CACHE_MAX_BYTES_PROPERTY = "kairosdb.datastore.cassandra.string_cache_max_bytes";
 
 	public static final String HOST_LIST_PROPERTY = "kairosdb.datastore.cassandra.cql_host_list";
 	public static final String SIMULTANEOUS_QUERIES = "kairosdb.datastore.cassandra.simultaneous_cql_queries";
 	public static final String QUERY_LIMIT = "kairosdb.datastore.cassandra.query_limit";
 	public static final String QUERY_TIME_LIMIT = "kairosdb.datastore.cassandra.query_time_limit_sec";
 	public static final String QUERY_READER_THREADS = "kairosdb.datastore.cassandra.query_reader_threads";
+	public static final String QUERY_READER_THREADS_PER_QUERY = "kairosdb.datastore.cassandra.query_reader_threads_per_query";
+	public static final String MAX_IN_FLIGHT_BATCHES_PER_HOST = "kairosdb.datastore.cassandra.max_in_flight_batches_per_host";
 
 	public static final String AUTH_USER_NAME = "kairosdb.datastore.cassandra.auth.user_name";
 	public static final String AUTH_PASSWORD = "kairosdb.datastore.cassandra.auth.password";
@@ -73,6 +77,14 @@ public class CassandraConfiguration
 	@Named(STRING_CACHE_SIZE_PROPERTY)
 	private int m_stringCacheSize = 1024;
 
+	@Inject(optional = true)
+	@Named(ROW_KEY_CACHE_MAX_BYTES_PROPERTY)
+	private long m_rowKeyCacheMaxBytes = 0L; //Zero only limits the number of entries
+
+	@Inject(optional = true)
+	@Named(STRING_CACHE_MAX_BYTES_PROPERTY)
+	private long m_stringCacheMaxBytes = 0L;
+
 	@Inject
 	@Named(CassandraModule.CASSANDRA_AUTH_MAP)
 	private Map<String, String> m_cassandraAuthentication;
@@ -83,7 +95,15 @@ public class CassandraConfiguration
 
 	@Inject
 	@Named(QUERY_READER_THREADS)
-	private int m_queryReaderThreads = 6;
+	private int m_queryReaderThreads = 16;
+
+	@Inject(optional = true)
+	@Named(QUERY_READER_THREADS_PER_QUERY)
+	private int m_queryReaderThreadsPerQuery = 0; //Zero lets a query use all reader threads
+
+	@Inject(optional = true)
+	@Named(MAX_IN_FLIGHT_BATCHES_PER_HOST)
+	private int m_maxInFlightBatchesPerHost = 0; //Zero does not limit batches sent to a host
 
 	@Inject(optional = true)
 	@Named(QUERY_LIMIT)
@@ -179,6 +199,16 @@ public class CassandraConfiguration
 		return m_stringCacheSize;
 	}
 
+	public long getRowKeyCacheMaxBytes()
+	{
+		return m_rowKeyCacheMaxBytes;
+	}
+
+	public long getStringCacheMaxBytes()
+	{
+		return m_stringCacheMaxBytes;
+	}
+
 	public int getSimultaneousQueries()
 	{
 		return m_simultaneousQueries;
@@ -189,6 +219,16 @@ public class CassandraConfiguration
 		return m_queryReaderThreads;
 	}
 
+	public int getQueryReaderThreadsPerQuery()
+	{
+		return m_queryReaderThreadsPerQuery;
+	}
+
+	public int getMaxInFlightBatchesPerHost()
+	{
+		return m_maxInFlightBatchesPerHost;
+	}
+
 	public long getQueryLimit()
 	{
 		return m_queryLimit;
@@ -77,10 +77,8 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
 
 import static java.util.Objects.requireNonNull;
 import static org.kairosdb.datastore.cassandra.ClusterConnection.DATA_POINTS_TABLE_NAME;
@@ -124,12 +122,17 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 	@Inject
 	private DataCache<TimedString> m_metricNameCache = new DataCache<>(1024);
 
+	@Inject
+	@Named("HOSTNAME")
+	private String m_hostName = "localhost";
+
 	private final KairosDataPointFactory m_kairosDataPointFactory;
 	private final QueueProcessor m_queueProcessor;
 	private final IngestExecutorService m_congestionExecutor;
 	private final CassandraModule.BatchHandlerFactory m_batchHandlerFactory;
 	private final CassandraModule.DeleteBatchHandlerFactory m_deleteBatchHandlerFactory;
 	private final CassandraModule.CQLFilteredRowKeyIteratorFactory m_rowKeyFilterFactory;
+	private final QueryReaderExecutor m_queryReaderExecutor;
 
 	private CassandraConfiguration m_cassandraConfiguration;
 
@@ -153,7 +156,8 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 			CassandraModule.BatchHandlerFactory batchHandlerFactory,
 			CassandraModule.DeleteBatchHandlerFactory deleteBatchHandlerFactory,
 			CassandraModule.CQLFilteredRowKeyIteratorFactory rowKeyFilterFactory,
-			CassandraModule.CQLBatchFactory cqlBatchFactory
+			CassandraModule.CQLBatchFactory cqlBatchFactory,
+			QueryReaderExecutor queryReaderExecutor
 			) throws DatastoreException
 	{
 		//m_astyanaxClient = astyanaxClient;
@@ -164,6 +168,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		m_batchHandlerFactory = batchHandlerFactory;
 		m_deleteBatchHandlerFactory = deleteBatchHandlerFactory;
 		m_rowKeyFilterFactory = rowKeyFilterFactory;
+		m_queryReaderExecutor = queryReaderExecutor;
 
 		m_writeCluster = writeCluster;
 		m_metaCluster = metaCluster;
@@ -229,11 +234,13 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 	}
 
 	@Subscribe
-	public void putDataPoint(DataPointEvent dataPointEvent) throws DatastoreException
+	public void putDataPoints(List<DataPointEvent> dataPointEvents) throws DatastoreException
 	{
 		//Todo make sure when shutting down this throws an exception
-		requireNonNull(dataPointEvent.getDataPoint().getDataStoreDataType());
-		m_queueProcessor.put(dataPointEvent);
+		for (DataPointEvent dataPointEvent : dataPointEvents)
+			requireNonNull(dataPointEvent.getDataPoint().getDataStoreDataType());
+
+		m_queueProcessor.putAll(dataPointEvents);
 	}
 
 	@Override
@@ -393,15 +400,22 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		Iterator<DataPointsRowKey> rowKeys = getKeysForQueryIterator(query);
 
 		MemoryMonitor mm = new MemoryMonitor(20);
-		while (rowKeys.hasNext())
+		try
 		{
-			DataPointsRowKey dataPointsRowKey = rowKeys.next();
-			for (Map.Entry<String, String> tag : dataPointsRowKey.getTags().entrySet())
+			while (rowKeys.hasNext())
 			{
-				tagSet.addTag(tag.getKey(), tag.getValue());
-				mm.checkMemoryAndThrowException();
+				DataPointsRowKey dataPointsRowKey = rowKeys.next();
+				for (Map.Entry<String, String> tag : dataPointsRowKey.getTags().entrySet())
+				{
+					tagSet.addTag(tag.getKey(), tag.getValue());
+					mm.checkMemoryAndThrowException();
+				}
 			}
 		}
+		catch (CQLFilteredRowKeyIterator.IndexQueryException e)
+		{
+			throw (DatastoreException)e.getCause();
+		}
 
 		return (tagSet);
 	}
@@ -414,17 +428,24 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 		MemoryMonitor mm = new MemoryMonitor(20);
 		long indexStatementCount = 0;
-		while (rowKeys.hasNext())
+		try
 		{
-			DataPointsRowKey dataPointsRowKey = rowKeys.next();
-			batch.indexRowKey(dataPointsRowKey, dataPointsRowKey.getTtl());
-			mm.checkMemoryAndThrowException();
-			indexStatementCount++;
-			if (indexStatementCount % MAX_CQL_BATCH_SIZE == 0) {
-				batch.submitBatch();
-				batch = m_cqlBatchFactory.create();
+			while (rowKeys.hasNext())
+			{
+				DataPointsRowKey dataPointsRowKey = rowKeys.next();
+				batch.indexRowKey(dataPointsRowKey, dataPointsRowKey.getTtl());
+				mm.checkMemoryAndThrowException();
+				indexStatementCount++;
+				if (indexStatementCount % MAX_CQL_BATCH_SIZE == 0) {
+					batch.submitBatch();
+					batch = m_cqlBatchFactory.create();
+				}
 			}
 		}
+		catch (CQLFilteredRowKeyIterator.IndexQueryException e)
+		{
+			throw (DatastoreException)e.getCause();
+		}
 		batch.submitBatch();
 	}
 
@@ -607,6 +628,9 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 				"kairosdb.datastore.cassandra.write_batch_size",
 				"table", "tag_indexed_row_keys", ret);
 
+		m_rowKeyCache.reportMetrics(now, m_hostName, "row_key", ret);
+		m_metricNameCache.reportMetrics(now, m_hostName, "metric_name", ret);
+
 		return ret;
 	}
 
@@ -712,21 +736,12 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		QueryMonitor queryMonitor = new QueryMonitor(m_cassandraConfiguration.getQueryLimit(),
 				m_cassandraConfiguration.getQueryTimeLimit());
 
-		ExecutorService resultsExecutor = Executors.newFixedThreadPool(m_cassandraConfiguration.getQueryReaderThreads(),
-				new ThreadFactory()
-				{
-					private int m_count = 0;
-					@Override
-					public Thread newThread(Runnable r)
-					{
-						m_count ++;
-						return new Thread(r, "query_"+query.getName()+"-"+m_count);
-					}
-				});
+		//Result callbacks for this query run on the shared query reader threads
+		Executor resultsExecutor = m_queryReaderExecutor.newQueryReader();
 		//Controls the number of queries sent out at the same time.
 		Semaphore querySemaphore = new Semaphore(m_cassandraConfiguration.getSimultaneousQueries());
 
-		while (rowKeys.hasNext())
+		while (hasNextRowKey(rowKeys, queryMonitor, queryResults))
 		{
 			rowCount ++;
 			DataPointsRowKey rowKey = rowKeys.next();
@@ -815,7 +830,6 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		{
 			if (queryMonitor.getException() == null)
 				querySemaphore.acquire(m_cassandraConfiguration.getSimultaneousQueries());
-			resultsExecutor.shutdown();
 		}
 		catch (InterruptedException e)
 		{
@@ -826,6 +840,29 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 			throw new DatastoreException(queryMonitor.getException());
 	}
 
+	/**
+	 Row keys are read from the index while the data queries run, if reading
+	 the index fails the query is failed and the outstanding queries cancelled.
+	 */
+	private boolean hasNextRowKey(Iterator<DataPointsRowKey> rowKeys, QueryMonitor queryMonitor,
+			List<ResultSetFuture> queryResults)
+	{
+		try
+		{
+			return rowKeys.hasNext();
+		}
+		catch (CQLFilteredRowKeyIterator.IndexQueryException e)
+		{
+			queryMonitor.failQuery(e.getCause());
+			for (ResultSetFuture queryResult : queryResults)
+			{
+				queryResult.cancel(true);
+			}
+
+			return false;
+		}
+	}
+
 	private void deletePartialRow(DataPointsRowKey rowKey, long start, long end, ClusterConnection cluster) throws DatastoreException
 	{
 		RowSpec rowSpec = cluster.getRowSpec();
@@ -871,77 +908,84 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 		Iterator<DataPointsRowKey> rowKeyIterator = getKeysForQueryIterator(deleteQuery);
 
-		while (rowKeyIterator.hasNext())
+		try
 		{
-			DataPointsRowKey rowKey = rowKeyIterator.next();
-			ClusterConnection cluster = m_clusterMap.get(rowKey.getClusterName());
-			long rowWidth = cluster.getRowSpec().getRowWidthInMillis();
-
-			//System.out.println("Deleting from row "+rowKey);
-			long rowKeyTimestamp = rowKey.getTimestamp();
-			if (deleteQuery.getStartTime() <= rowKeyTimestamp && (deleteQuery.getEndTime() >= rowKeyTimestamp + rowWidth - 1))
+			while (rowKeyIterator.hasNext())
 			{
+				DataPointsRowKey rowKey = rowKeyIterator.next();
+				ClusterConnection cluster = m_clusterMap.get(rowKey.getClusterName());
+				long rowWidth = cluster.getRowSpec().getRowWidthInMillis();
 
-				//System.out.println("Delete entire row");
-				Statement statement = new BoundStatement(cluster.psDataPointsDeleteRow)
-						.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey))
-						.setConsistencyLevel(cluster.getReadConsistencyLevel());
-				cluster.execute(statement);
-
-				//Delete from old row keys
-				statement = new BoundStatement(cluster.psRowKeyIndexDelete)
-						.setBytesUnsafe(0, serializeString(rowKey.getMetricName()))
-						.setBytesUnsafe(1, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey))
-						.setConsistencyLevel(cluster.getReadConsistencyLevel());
-				cluster.execute(statement);
-
-				RowKeyLookup rowKeyLookup = cluster.getRowKeyLookupForMetric(rowKey.getMetricName());
-				for (Statement rowKeyDeleteStmt : rowKeyLookup.createDeleteStatements(rowKey))
+				//System.out.println("Deleting from row "+rowKey);
+				long rowKeyTimestamp = rowKey.getTimestamp();
+				if (deleteQuery.getStartTime() <= rowKeyTimestamp && (deleteQuery.getEndTime() >= rowKeyTimestamp + rowWidth - 1))
 				{
-					rowKeyDeleteStmt.setConsistencyLevel(cluster.getReadConsistencyLevel());
-					cluster.execute(rowKeyDeleteStmt);
-				}
 
-				//Should only remove if the entire time window goes away and no tags are specified in query
-				//todo if we allow deletes for specific types this needs to change
-				if (deleteQuery.getTags().isEmpty())
-				{
-					statement = new BoundStatement(cluster.psRowKeyTimeDelete)
-							.setString(0, rowKey.getMetricName())
-							.setString(1, DATA_POINTS_TABLE_NAME)
-							.setTimestamp(2, new Date(rowKey.getTimestamp()))
+					//System.out.println("Delete entire row");
+					Statement statement = new BoundStatement(cluster.psDataPointsDeleteRow)
+							.setBytesUnsafe(0, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey))
 							.setConsistencyLevel(cluster.getReadConsistencyLevel());
 					cluster.execute(statement);
-				}
 
-				clearCache = true;
-			}
-			else if (deleteQuery.getStartTime() <= rowKeyTimestamp)
-			{
-				//System.out.println("Delete first of row");
-				//Delete first portion of row
-				//deletePartialRow(rowKey, 0, getColumnName(rowKeyTimestamp, deleteQuery.getEndTime()));
-				deletePartialRow(rowKey, rowKeyTimestamp, deleteQuery.getEndTime(), cluster);
-			}
-			else if (deleteQuery.getEndTime() >= rowKeyTimestamp + rowWidth -1)
-			{
-				//System.out.println("Delete last of row");
-				//Delete last portion of row
-				//deletePartialRow(rowKey, getColumnName(rowKeyTimestamp, deleteQuery.getStartTime()),
-				//		getColumnName(rowKeyTimestamp, rowKeyTimestamp + ROW_WIDTH - 1));
-				deletePartialRow(rowKey, deleteQuery.getStartTime(),
-						rowKeyTimestamp + rowWidth - 1, cluster);
-			}
-			else
-			{
-				//System.out.println("Delete within a row");
-				//Delete within a row
-				/*deletePartialRow(rowKey, getColumnName(rowKeyTimestamp, deleteQuery.getStartTime()),
-						getColumnName(rowKeyTimestamp, deleteQuery.getEndTime()));*/
-				deletePartialRow(rowKey, deleteQuery.getStartTime(),
-						deleteQuery.getEndTime(), cluster);
+					//Delete from old row keys
+					statement = new BoundStatement(cluster.psRowKeyIndexDelete)
+							.setBytesUnsafe(0, serializeString(rowKey.getMetricName()))
+							.setBytesUnsafe(1, DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey))
+							.setConsistencyLevel(cluster.getReadConsistencyLevel());
+					cluster.execute(statement);
+
+					RowKeyLookup rowKeyLookup = cluster.getRowKeyLookupForMetric(rowKey.getMetricName());
+					for (Statement rowKeyDeleteStmt : rowKeyLookup.createDeleteStatements(rowKey))
+					{
+						rowKeyDeleteStmt.setConsistencyLevel(cluster.getReadConsistencyLevel());
+						cluster.execute(rowKeyDeleteStmt);
+					}
+
+					//Should only remove if the entire time window goes away and no tags are specified in query
+					//todo if we allow deletes for specific types this needs to change
+					if (deleteQuery.getTags().isEmpty())
+					{
+						statement = new BoundStatement(cluster.psRowKeyTimeDelete)
+								.setString(0, rowKey.getMetricName())
+								.setString(1, DATA_POINTS_TABLE_NAME)
+								.setTimestamp(2, new Date(rowKey.getTimestamp()))
+								.setConsistencyLevel(cluster.getReadConsistencyLevel());
+						cluster.execute(statement);
+					}
+
+					clearCache = true;
+				}
+				else if (deleteQuery.getStartTime() <= rowKeyTimestamp)
+				{
+					//System.out.println("Delete first of row");
+					//Delete first portion of row
+					//deletePartialRow(rowKey, 0, getColumnName(rowKeyTimestamp, deleteQuery.getEndTime()));
+					deletePartialRow(rowKey, rowKeyTimestamp, deleteQuery.getEndTime(), cluster);
+				}
+				else if (deleteQuery.getEndTime() >= rowKeyTimestamp + rowWidth -1)
+				{
+					//System.out.println("Delete last of row");
+					//Delete last portion of row
+					//deletePartialRow(rowKey, getColumnName(rowKeyTimestamp, deleteQuery.getStartTime()),
+					//		getColumnName(rowKeyTimestamp, rowKeyTimestamp + ROW_WIDTH - 1));
+					deletePartialRow(rowKey, deleteQuery.getStartTime(),
+							rowKeyTimestamp + rowWidth - 1, cluster);
+				}
+				else
+				{
+					//System.out.println("Delete within a row");
+					//Delete within a row
+					/*deletePartialRow(rowKey, getColumnName(rowKeyTimestamp, deleteQuery.getStartTime()),
+							getColumnName(rowKeyTimestamp, deleteQuery.getEndTime()));*/
+					deletePartialRow(rowKey, deleteQuery.getStartTime(),
+							deleteQuery.getEndTime(), cluster);
+				}
 			}
 		}
+		catch (CQLFilteredRowKeyIterator.IndexQueryException e)
+		{
+			throw (DatastoreException)e.getCause();
+		}
 
 		// If index is gone, delete metric name from Strings column family
 		if (deleteAll)
@@ -1016,9 +1060,8 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 			//todo use Iterable.concat to query multiple metrics at the same time.
 			//each filtered iterator will be combined into one and returned.
-			//one issue is that the queries are done in the constructor
-			//would like to do them lazily but would have to throw an exception through
-			//hasNext call, ick
+			//The index is read lazily so failures come out of hasNext as an
+			//IndexQueryException
 			if (m_writeCluster.containRange(query.getStartTime(), query.getEndTime()))
 			{
 				retList.add(m_rowKeyFilterFactory.create(m_writeCluster, query.getName(), query.getStartTime(),
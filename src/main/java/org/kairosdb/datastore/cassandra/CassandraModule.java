@@ -88,6 +88,8 @@ public class CassandraModule extends AbstractModule
 		//bind(CassandraClient.class).to(CassandraClientImpl.class);
 		//bind(CassandraClientImpl.class).in(Scopes.SINGLETON);
 		bind(BatchStats.class).in(Scopes.SINGLETON);
+		bind(QueryReaderExecutor.class).in(Scopes.SINGLETON);
+		bind(HostBatchLimiter.class).in(Scopes.SINGLETON);
 
 		bind(new TypeLiteral<Map<String, String>>(){}).annotatedWith(Names.named(CASSANDRA_AUTH_MAP))
 				.toInstance(m_authMap);
@@ -255,14 +257,36 @@ public class CassandraModule extends AbstractModule
 	@Singleton
 	DataCache<DataPointsRowKey> getRowKeyCache(CassandraConfiguration configuration)
 	{
-		return new DataCache<>(configuration.getRowKeyCacheSize());
+		return new DataCache<>(configuration.getRowKeyCacheSize(),
+				configuration.getRowKeyCacheMaxBytes(), CassandraModule::estimateRowKeySize);
 	}
 
 	@Provides
 	@Singleton
 	DataCache<TimedString> getMetricNameCache(CassandraConfiguration configuration)
 	{
-		return new DataCache<>(configuration.getStringCacheSize());
+		return new DataCache<>(configuration.getStringCacheSize(),
+				configuration.getStringCacheMaxBytes(), CassandraModule::estimateTimedStringSize);
+	}
+
+	/**
+	 Rough heap size of a cached row key, used to bound the row key cache in bytes
+	 */
+	private static int estimateRowKeySize(DataPointsRowKey rowKey)
+	{
+		int size = 64 + (rowKey.getMetricName().length() * 2) + (rowKey.getDataType().length() * 2);
+		for (Map.Entry<String, String> tag : rowKey.getTags().entrySet())
+			size += 64 + ((tag.getKey().length() + tag.getValue().length()) * 2);
+
+		if (rowKey.getSerializedBuffer() != null)
+			size += rowKey.getSerializedBuffer().capacity();
+
+		return size;
+	}
+
+	private static int estimateTimedStringSize(TimedString timedString)
+	{
+		return 48 + (timedString.getString().length() * 2);
 	}
 
 	public interface BatchHandlerFactory
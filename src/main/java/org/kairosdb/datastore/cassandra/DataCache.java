@@ -17,11 +17,17 @@
 package org.kairosdb.datastore.cassandra;
 
 import com.google.common.collect.ImmutableSet;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.LongDataPoint;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  This cache serves two purposes.
@@ -33,21 +39,67 @@ import java.util.Set;
  can use the same row key object over and over.  With row keys we store the
  serialized form of the key so we only have to serialize a row key once.
 
+ The cache is split into segments that each evict with the clock algorithm,
+ an approximation of least recently used.  Lookups of cached items do not
+ lock, adding an item only locks the segment it goes in.
+
  The data type must implement hashcode and equal methods.
  */
 public class DataCache<T>
 {
-	private Map<T, T> m_internalMap;
+	private static final int MIN_SEGMENT_SIZE = 256;
+	private static final int MAX_SEGMENTS = 64;
+
+	public static final String HIT_METRIC = "kairosdb.datastore.cassandra.cache.hit";
+	public static final String MISS_METRIC = "kairosdb.datastore.cassandra.cache.miss";
+	public static final String EVICTION_METRIC = "kairosdb.datastore.cassandra.cache.eviction";
+	public static final String SIZE_METRIC = "kairosdb.datastore.cassandra.cache.size";
+	public static final String BYTES_METRIC = "kairosdb.datastore.cassandra.cache.bytes";
+
+	private final Segment<T>[] m_segments;
+	private final ToIntFunction<T> m_weigher;
+	private final LongAdder m_hits = new LongAdder();
+	private final LongAdder m_misses = new LongAdder();
+	private final LongAdder m_evictions = new LongAdder();
 
 	public DataCache(final int cacheSize)
 	{
-		m_internalMap = Collections.synchronizedMap(new LinkedHashMap<T, T>(cacheSize, 1f, true) {
-					@Override
-					protected boolean removeEldestEntry(Map.Entry<T, T> eldest)
-					{
-						return size() > cacheSize;
-					}
-				});
+		this(cacheSize, 0L, item -> 0);
+	}
+
+	/**
+	 @param cacheSize max number of items in the cache
+	 @param maxBytes max estimated size of the items in the cache, 0 for no limit
+	 @param weigher estimates the size in bytes of an item
+	 */
+	@SuppressWarnings("unchecked")
+	public DataCache(final int cacheSize, long maxBytes, ToIntFunction<T> weigher)
+	{
+		checkArgument(cacheSize > 0, "Cache size must be greater than 0");
+		m_weigher = weigher;
+
+		//Small caches use one segment so eviction is as close to LRU as possible
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENTS && (segmentCount * 2 * MIN_SEGMENT_SIZE) <= cacheSize)
+			segmentCount *= 2;
+
+		//Every segment needs a share of the byte limit, 0 would mean no limit
+		while (maxBytes > 0 && segmentCount > 1 && maxBytes / segmentCount == 0)
+			segmentCount /= 2;
+
+		m_segments = (Segment<T>[]) new Segment<?>[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			int segmentSize = cacheSize / segmentCount + (i < (cacheSize % segmentCount) ? 1 : 0);
+			m_segments[i] = new Segment<>(this, segmentSize, maxBytes / segmentCount);
+		}
+	}
+
+	private Segment<T> getSegment(Object item)
+	{
+		int hash = item.hashCode();
+		hash ^= (hash >>> 16);
+		return m_segments[hash & (m_segments.length - 1)];
 	}
 
 	/**
@@ -65,25 +117,208 @@ public class DataCache<T>
 	 */
 	public T cacheItem(T cacheData)
 	{
-		return m_internalMap.putIfAbsent(cacheData, cacheData);
+		return getSegment(cacheData).cacheItem(cacheData);
 	}
 
 
 	public Set<T> getCachedKeys()
 	{
-		synchronized (m_internalMap)
-		{
-			return ImmutableSet.copyOf(m_internalMap.keySet());
-		}
+		ImmutableSet.Builder<T> keys = ImmutableSet.builder();
+		for (Segment<T> segment : m_segments)
+			keys.addAll(segment.m_map.keySet());
+
+		return keys.build();
 	}
 
 	public void removeKey(T key)
 	{
-		m_internalMap.remove(key);
+		getSegment(key).removeKey(key);
 	}
 
 	public void clear()
 	{
-		m_internalMap.clear();
+		for (Segment<T> segment : m_segments)
+			segment.clear();
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for (Segment<T> segment : m_segments)
+			size += segment.m_map.size();
+
+		return size;
+	}
+
+	public long getEstimatedBytes()
+	{
+		long bytes = 0;
+		for (Segment<T> segment : m_segments)
+			bytes += segment.m_bytes;
+
+		return bytes;
+	}
+
+	/**
+	 Adds hit, miss, eviction and size metrics for this cache to dataPointSets.
+	 Counts are reset each time this is called.
+	 @param cacheName value of the cache tag
+	 */
+	public void reportMetrics(long now, String hostName, String cacheName, List<DataPointSet> dataPointSets)
+	{
+		dataPointSets.add(newDataPointSet(HIT_METRIC, now, hostName, cacheName, m_hits.sumThenReset()));
+		dataPointSets.add(newDataPointSet(MISS_METRIC, now, hostName, cacheName, m_misses.sumThenReset()));
+		dataPointSets.add(newDataPointSet(EVICTION_METRIC, now, hostName, cacheName, m_evictions.sumThenReset()));
+		dataPointSets.add(newDataPointSet(SIZE_METRIC, now, hostName, cacheName, size()));
+		dataPointSets.add(newDataPointSet(BYTES_METRIC, now, hostName, cacheName, getEstimatedBytes()));
+	}
+
+	private static DataPointSet newDataPointSet(String metricName, long now, String hostName,
+			String cacheName, long value)
+	{
+		DataPointSet dps = new DataPointSet(metricName);
+		dps.addTag("host", hostName);
+		dps.addTag("cache", cacheName);
+		dps.addDataPoint(new LongDataPoint(now, value));
+		return dps;
+	}
+
+	private static class Entry<T>
+	{
+		private final T m_item;
+		private final int m_weight;
+		private int m_slot;
+		private volatile boolean m_referenced;
+
+		private Entry(T item, int weight)
+		{
+			m_item = item;
+			m_weight = weight;
+		}
+	}
+
+	/**
+	 Items are held in a ring of slots.  On a hit the item is marked as
+	 referenced.  When room is needed the clock hand sweeps the ring clearing
+	 the referenced mark until it finds an item that has not been used since the
+	 last sweep and evicts it.
+	 */
+	private static class Segment<T>
+	{
+		private final DataCache<T> m_cache;
+		private final ConcurrentHashMap<T, Entry<T>> m_map;
+		private final Entry<T>[] m_ring;
+		private final int[] m_freeSlots;
+		private final long m_maxBytes;
+		private int m_freeCount;
+		private int m_hand;
+		private volatile long m_bytes;
+
+		@SuppressWarnings("unchecked")
+		private Segment(DataCache<T> cache, int maxEntries, long maxBytes)
+		{
+			m_cache = cache;
+			m_map = new ConcurrentHashMap<>(Math.max(16, (int)(maxEntries / 0.75f) + 1));
+			m_ring = (Entry<T>[]) new Entry<?>[Math.max(1, maxEntries)];
+			m_freeSlots = new int[m_ring.length];
+			m_maxBytes = maxBytes;
+			resetSlots();
+		}
+
+		private void resetSlots()
+		{
+			//Slots are handed out in ring order
+			m_freeCount = m_ring.length;
+			for (int i = 0; i < m_ring.length; i++)
+				m_freeSlots[i] = m_ring.length - 1 - i;
+			m_hand = 0;
+		}
+
+		private T cacheItem(T item)
+		{
+			Entry<T> entry = m_map.get(item);
+			if (entry == null)
+			{
+				synchronized (this)
+				{
+					entry = m_map.get(item);
+					if (entry == null)
+					{
+						m_cache.m_misses.increment();
+						addEntry(new Entry<>(item, m_cache.m_weigher.applyAsInt(item)));
+						return null;
+					}
+				}
+			}
+
+			m_cache.m_hits.increment();
+			//Avoid writing to the shared entry when it is already marked
+			if (!entry.m_referenced)
+				entry.m_referenced = true;
+
+			return entry.m_item;
+		}
+
+		private void addEntry(Entry<T> entry)
+		{
+			while (m_maxBytes > 0 && m_map.size() > 0 && (m_bytes + entry.m_weight) > m_maxBytes)
+				evict(findVictim());
+
+			if (m_freeCount == 0)
+				evict(findVictim());
+
+			int slot = m_freeSlots[--m_freeCount];
+			entry.m_slot = slot;
+			m_ring[slot] = entry;
+			m_map.put(entry.m_item, entry);
+			m_bytes += entry.m_weight;
+		}
+
+		private int findVictim()
+		{
+			while (true)
+			{
+				int slot = m_hand;
+				m_hand = (m_hand + 1) % m_ring.length;
+
+				Entry<T> entry = m_ring[slot];
+				if (entry == null)
+					continue;
+
+				if (entry.m_referenced)
+					entry.m_referenced = false;
+				else
+					return slot;
+			}
+		}
+
+		private void evict(int slot)
+		{
+			m_cache.m_evictions.increment();
+			removeSlot(m_ring[slot]);
+		}
+
+		private void removeSlot(Entry<T> entry)
+		{
+			m_map.remove(entry.m_item);
+			m_ring[entry.m_slot] = null;
+			m_freeSlots[m_freeCount++] = entry.m_slot;
+			m_bytes -= entry.m_weight;
+		}
+
+		private synchronized void removeKey(T key)
+		{
+			Entry<T> entry = m_map.get(key);
+			if (entry != null)
+				removeSlot(entry);
+		}
+
+		private synchronized void clear()
+		{
+			m_map.clear();
+			Arrays.fill(m_ring, null);
+			m_bytes = 0L;
+			resetSlots();
+		}
 	}
 }
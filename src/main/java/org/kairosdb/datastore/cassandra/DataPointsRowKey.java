@@ -34,6 +34,7 @@ public class DataPointsRowKey
 	private int m_ttl = 0;
 
 	private ByteBuffer m_serializedBuffer;
+	private int m_hashCode; //Lazily computed, 0 means not yet computed
 
 	public DataPointsRowKey(String metricName, String clusterName, long timestamp, String dataType)
 	{
@@ -54,6 +55,7 @@ public class DataPointsRowKey
 	public void addTag(String name, String value)
 	{
 		m_tags.put(name, value);
+		m_hashCode = 0;
 	}
 
 	public String getMetricName()
@@ -126,10 +128,15 @@ public class DataPointsRowKey
 	@Override
 	public int hashCode()
 	{
-		int result = m_metricName.hashCode();
-		result = 31 * result + (int) (m_timestamp ^ (m_timestamp >>> 32));
-		result = 31 * result + (m_dataType != null ? m_dataType.hashCode() : 0);
-		result = 31 * result + m_tags.hashCode();
+		int result = m_hashCode;
+		if (result == 0)
+		{
+			result = m_metricName.hashCode();
+			result = 31 * result + (int) (m_timestamp ^ (m_timestamp >>> 32));
+			result = 31 * result + (m_dataType != null ? m_dataType.hashCode() : 0);
+			result = 31 * result + m_tags.hashCode();
+			m_hashCode = result;
+		}
 		return result;
 	}
 
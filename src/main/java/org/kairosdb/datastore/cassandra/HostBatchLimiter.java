@@ -0,0 +1,66 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.Host;
+import com.google.inject.Inject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ Limits the number of data point batches that are in flight to a single
+ cassandra host.  Shared by all batches so concurrent ingest threads cannot
+ pile more than maxInFlightPerHost batches onto one replica.
+ */
+public class HostBatchLimiter
+{
+	private final int m_maxInFlightPerHost;
+	private final ConcurrentMap<Host, Semaphore> m_hostPermits = new ConcurrentHashMap<>();
+
+	@Inject
+	public HostBatchLimiter(CassandraConfiguration configuration)
+	{
+		this(configuration.getMaxInFlightBatchesPerHost());
+	}
+
+	/**
+	 @param maxInFlightPerHost max batches outstanding against a host, 0 or
+	 less does not limit them.
+	 */
+	public HostBatchLimiter(int maxInFlightPerHost)
+	{
+		m_maxInFlightPerHost = maxInFlightPerHost;
+	}
+
+	private Semaphore getPermits(Host host)
+	{
+		return m_hostPermits.computeIfAbsent(host, h -> new Semaphore(m_maxInFlightPerHost));
+	}
+
+	/**
+	 Blocks until another batch can be sent to host.  Every call must be
+	 followed by a call to {@link #release(Host)} once the batch completes.
+	 */
+	public void acquire(Host host)
+	{
+		if (m_maxInFlightPerHost > 0)
+			getPermits(host).acquireUninterruptibly();
+	}
+
+	public void release(Host host)
+	{
+		if (m_maxInFlightPerHost > 0)
+			getPermits(host).release();
+	}
+
+	/**
+	 @return number of batches currently in flight to host
+	 */
+	public int getInFlight(Host host)
+	{
+		if (m_maxInFlightPerHost > 0)
+			return m_maxInFlightPerHost - getPermits(host).availablePermits();
+		else
+			return 0;
+	}
+}
@@ -0,0 +1,254 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.base.Stopwatch;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.ShutdownEvent;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Process wide pool of threads used to read the results of cql queries.
+
+ Each query gets its own {@link QueryReader} to submit result callbacks to.
+ Readers with pending work take turns on the shared threads in round robin
+ order so one query with thousands of partitions cannot starve the others.
+ A reader is never given more than maxThreadsPerQuery threads at once.
+ */
+public class QueryReaderExecutor implements KairosMetricReporter
+{
+	public static final Logger logger = LoggerFactory.getLogger(QueryReaderExecutor.class);
+
+	public static final String QUEUE_SIZE_METRIC = "kairosdb.datastore.cassandra.query_reader.queue_size";
+	public static final String CALLBACK_TIME_METRIC = "kairosdb.datastore.cassandra.query_reader.callback_time_micro";
+	public static final String QUEUE_WAIT_TIME_METRIC = "kairosdb.datastore.cassandra.query_reader.queue_wait_micro";
+
+	private final ExecutorService m_workerExecutor;
+	private final BlockingQueue<QueryReader> m_readyQueue = new LinkedBlockingQueue<>();
+	private final int m_maxThreadsPerQuery;
+	private final AtomicInteger m_queueSize = new AtomicInteger();
+	private final SimpleStats m_callbackTimeStats = new SimpleStats();
+	private final SimpleStats m_queueWaitStats = new SimpleStats();
+	private volatile boolean m_running = true;
+
+	@Inject
+	@Named("HOSTNAME")
+	private String m_hostName = "localhost";
+
+	@Inject
+	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
+
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
+	@Inject
+	public QueryReaderExecutor(CassandraConfiguration configuration)
+	{
+		this(configuration.getQueryReaderThreads(), configuration.getQueryReaderThreadsPerQuery());
+	}
+
+	/**
+	 @param threadCount number of threads shared by all queries
+	 @param maxThreadsPerQuery max threads a single query can use at once,
+	 0 or less means a query can use the whole pool.
+	 */
+	public QueryReaderExecutor(int threadCount, int maxThreadsPerQuery)
+	{
+		checkArgument(threadCount > 0, "Query reader thread count must be greater than 0");
+
+		if (maxThreadsPerQuery <= 0 || maxThreadsPerQuery > threadCount)
+			m_maxThreadsPerQuery = threadCount;
+		else
+			m_maxThreadsPerQuery = maxThreadsPerQuery;
+
+		m_workerExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory()
+		{
+			private int m_count = 0;
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				m_count ++;
+				Thread t = new Thread(r, "query_reader-"+m_count);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		for (int i = 0; i < threadCount; i++)
+			m_workerExecutor.submit(this::runWorker);
+	}
+
+	/**
+	 Creates a new reader to be used for a single query.  Callbacks submitted
+	 to the returned executor run on the shared query reader threads.
+	 @return executor for the query's result callbacks
+	 */
+	public QueryReader newQueryReader()
+	{
+		return new QueryReader();
+	}
+
+	public int getQueueSize()
+	{
+		return m_queueSize.get();
+	}
+
+	@Subscribe
+	public void shutdown(ShutdownEvent event)
+	{
+		shutdown();
+	}
+
+	public void shutdown()
+	{
+		m_running = false;
+		m_workerExecutor.shutdownNow();
+	}
+
+	private void runWorker()
+	{
+		try
+		{
+			while (m_running)
+			{
+				m_readyQueue.take().runNext();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			//Shutting down
+		}
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+
+		DataPointSet queueSize = new DataPointSet(QUEUE_SIZE_METRIC);
+		queueSize.addTag("host", m_hostName);
+		queueSize.addDataPoint(m_longDataPointFactory.createDataPoint(now, m_queueSize.get()));
+		ret.add(queueSize);
+
+		m_simpleStatsReporter.reportStats(m_callbackTimeStats.getAndClear(), now,
+				CALLBACK_TIME_METRIC, ret);
+		m_simpleStatsReporter.reportStats(m_queueWaitStats.getAndClear(), now,
+				QUEUE_WAIT_TIME_METRIC, ret);
+
+		return ret;
+	}
+
+	/**
+	 Executor for the callbacks of a single query.  The reader is placed on the
+	 shared ready queue once for every thread it is allowed to use, after running
+	 a task it goes to the back of the ready queue so other queries get a turn.
+	 */
+	public class QueryReader implements Executor
+	{
+		private final Queue<TimedTask> m_tasks = new ConcurrentLinkedQueue<>();
+		//Number of times this reader is on the ready queue or running
+		private final AtomicInteger m_scheduled = new AtomicInteger();
+
+		private QueryReader()
+		{
+		}
+
+		@Override
+		public void execute(Runnable command)
+		{
+			if (!m_running)
+				throw new RejectedExecutionException("Query reader executor has been shut down");
+
+			m_tasks.add(new TimedTask(command));
+			m_queueSize.incrementAndGet();
+			schedule();
+		}
+
+		private void schedule()
+		{
+			int scheduled;
+			while ((scheduled = m_scheduled.get()) < m_maxThreadsPerQuery)
+			{
+				if (m_scheduled.compareAndSet(scheduled, scheduled + 1))
+				{
+					m_readyQueue.add(this);
+					return;
+				}
+			}
+		}
+
+		private void runNext()
+		{
+			TimedTask task = m_tasks.poll();
+			if (task != null)
+			{
+				m_queueSize.decrementAndGet();
+				task.run();
+			}
+
+			if (!m_tasks.isEmpty())
+				m_readyQueue.add(this);  //Keep our slot but go to the back of the line
+			else
+			{
+				m_scheduled.decrementAndGet();
+				//A task may have been added after we checked
+				if (!m_tasks.isEmpty())
+					schedule();
+			}
+		}
+	}
+
+	private class TimedTask implements Runnable
+	{
+		private final Runnable m_runnable;
+		private final Stopwatch m_stopwatch;
+
+		private TimedTask(Runnable runnable)
+		{
+			m_runnable = runnable;
+			m_stopwatch = Stopwatch.createStarted();
+		}
+
+		@Override
+		public void run()
+		{
+			m_queueWaitStats.addValue(m_stopwatch.elapsed(TimeUnit.MICROSECONDS));
+			m_stopwatch.reset().start();
+			try
+			{
+				m_runnable.run();
+			}
+			catch (Throwable t)
+			{
+				logger.error("Query reader callback failed", t);
+			}
+			finally
+			{
+				m_callbackTimeStats.addValue(m_stopwatch.elapsed(TimeUnit.MICROSECONDS));
+			}
+		}
+	}
+}
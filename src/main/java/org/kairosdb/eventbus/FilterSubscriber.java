@@ -20,6 +20,9 @@ import com.google.common.util.concurrent.MoreExecutors;
 import javax.annotation.Nullable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -38,6 +41,9 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 	 */
 	static FilterSubscriber create(FilterEventBus bus, Object listener, Method method, int priority)
 	{
+		if (List.class.equals(method.getParameterTypes()[0]))
+			return new BatchSubscriber(bus, listener, method, priority);
+
 		return method.getReturnType().getName().equals("void")
 				? new NonFilterSubscriber(bus, listener, method, priority)
 				: new FilterSubscriber(bus, listener, method, priority);
@@ -87,29 +93,63 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 		{
 			return invokeSubscriberMethod(event);
 		}
-		catch (IllegalArgumentException e)
+		catch (IllegalArgumentException | IllegalAccessException | InvocationTargetException e)
+		{
+			handleException(e, event);
+			return null;
+		}
+	}
+
+	/**
+	 Passes a batch of events through this subscriber.  Subscribers that take a
+	 single event are called once for each event in the batch, events they filter
+	 out are left out of the returned list.  The list passed in is never modified.
+	 */
+	List<Object> dispatchBatch(List<Object> events)
+	{
+		List<Object> results = events;
+		for (int i = 0; i < events.size(); i++)
+		{
+			Object event = events.get(i);
+			Object result = dispatchEvent(event);
+
+			if (results == events)
+			{
+				if (result == event)
+					continue;
+
+				//First event this subscriber changed, copy what has passed so far
+				results = new ArrayList<>(events.size());
+				results.addAll(events.subList(0, i));
+			}
+
+			if (result != null)
+				results.add(result);
+		}
+
+		return results;
+	}
+
+	final void handleException(Exception e, Object event)
+	{
+		if (e instanceof IllegalArgumentException)
 		{
 			throw new Error("Method rejected target/argument: " + event, e);
 		}
-		catch (IllegalAccessException e)
+		else if (e instanceof IllegalAccessException)
 		{
 			throw new Error("Method became inaccessible: " + event, e);
 		}
-		catch (InvocationTargetException e)
+		else
 		{
-			if (e.getCause() instanceof Error)
+			Throwable cause = e.getCause();
+			if (cause instanceof Error)
 			{
-				throw (Error) e.getCause();
+				throw (Error) cause;
 			}
 
-			bus.handleSubscriberException(e.getCause(), context(event));
-			return null;
+			bus.handleSubscriberException(cause, context(event));
 		}
-		/*catch (InvocationTargetException e)
-		{
-			bus.handleSubscriberException(e.getCause(), context(event));
-			return null;
-		}*/
 	}
 
 	/**
@@ -181,4 +221,50 @@ class FilterSubscriber implements Comparable<FilterSubscriber>
 		}
 	}
 
+	/**
+	 Subscriber method that takes a List of events.  Single events posted to
+	 the pipeline are handed to it as a list of one.
+	 */
+	private static class BatchSubscriber extends FilterSubscriber
+	{
+		private final boolean m_returnsList;
+
+		private BatchSubscriber(FilterEventBus bus, Object target, Method method, int priority)
+		{
+			super(bus, target, method, priority);
+			m_returnsList = !method.getReturnType().getName().equals("void");
+		}
+
+		@Override
+		Object invokeSubscriberMethod(Object event) throws InvocationTargetException, IllegalAccessException
+		{
+			List<Object> results = invokeBatchMethod(Collections.singletonList(requireNonNull(event)));
+			return results.isEmpty() ? null : results.get(0);
+		}
+
+		@Override
+		List<Object> dispatchBatch(List<Object> events)
+		{
+			try
+			{
+				return invokeBatchMethod(events);
+			}
+			catch (IllegalArgumentException | IllegalAccessException | InvocationTargetException e)
+			{
+				handleException(e, events);
+				return Collections.emptyList();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<Object> invokeBatchMethod(List<Object> events) throws InvocationTargetException, IllegalAccessException
+		{
+			Object results = method.invoke(target, requireNonNull(events));
+			if (!m_returnsList)
+				return events;
+
+			return results != null ? (List<Object>) results : Collections.emptyList();
+		}
+	}
+
 }
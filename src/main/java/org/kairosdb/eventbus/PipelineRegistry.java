@@ -27,6 +27,8 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import javax.annotation.Nullable;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -196,14 +198,31 @@ public class PipelineRegistry
 		Class<?> clazz = listener.getClass();
 		for (Method method : getAnnotatedMethods(clazz))
 		{
-			Class<?>[] parameterTypes = method.getParameterTypes();
-			Class<?> eventType = parameterTypes[0];
-			Class<?> returnType = method.getReturnType();
-			methodsInListener.put(eventType, FilterSubscriber.create(bus, listener, method, priority));
+			methodsInListener.put(getEventType(method), FilterSubscriber.create(bus, listener, method, priority));
 		}
 		return methodsInListener;
 	}
 
+	/**
+	 Event type a subscriber method is registered for.  Methods that take a
+	 List of events are registered for the element type of the list.
+	 */
+	private static Class<?> getEventType(Method method)
+	{
+		Class<?> eventType = method.getParameterTypes()[0];
+		if (List.class.equals(eventType))
+		{
+			Type listType = method.getGenericParameterTypes()[0];
+			checkArgument(listType instanceof ParameterizedType
+							&& ((ParameterizedType) listType).getActualTypeArguments()[0] instanceof Class,
+					"Method %s takes a List but does not declare the event type it contains.", method);
+
+			eventType = (Class<?>) ((ParameterizedType) listType).getActualTypeArguments()[0];
+		}
+
+		return eventType;
+	}
+
 	private static ImmutableList<Method> getAnnotatedMethods(Class<?> clazz)
 	{
 		return subscriberMethodsCache.getUnchecked(clazz);
@@ -232,6 +251,8 @@ public class PipelineRegistry
 									"Method %s must have return type of %s or void",
 									method, parameterTypes[0].getName());
 
+					getEventType(method);
+
 					MethodIdentifier ident = new MethodIdentifier(method);
 					if (!identifiers.containsKey(ident))
 					{
@@ -1,5 +1,6 @@
 package org.kairosdb.eventbus;
 
+import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 
@@ -25,4 +26,25 @@ public class Publisher<T>
 			}
 		}
 	}
+
+	/**
+	 Posts a batch of events through the pipeline.  Each filter and subscriber
+	 is handed the whole batch before it moves on to the next one, those that
+	 only take single events have them delivered one at a time.  Subscribers
+	 must not modify or hold on to the list they are given.
+	 */
+	@SuppressWarnings("unchecked")
+	public void postBatch(List<T> events)
+	{
+		List<Object> batch = (List<Object>) events;
+		for (FilterSubscriber filterSubscriber : m_pipeline)
+		{
+			if (batch.isEmpty())
+			{
+				//Every event was filtered no need to continue
+				break;
+			}
+			batch = filterSubscriber.dispatchBatch(batch);
+		}
+	}
 }
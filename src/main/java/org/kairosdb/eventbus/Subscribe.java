@@ -7,6 +7,8 @@ import java.lang.annotation.Target;
 
 /**
  * Annotation used to identify a filter method in a class. A filter can modify an event.
+ * A method can take a List of events to receive batches from {@link Publisher#postBatch(java.util.List)},
+ * a filter taking a List returns a new List of the events to pass on.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
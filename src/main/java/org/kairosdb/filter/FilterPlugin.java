@@ -13,6 +13,7 @@ import org.kairosdb.events.DataPointEvent;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -85,12 +86,25 @@ public class FilterPlugin implements KairosDBService, KairosMetricReporter
 		}
 	}
 
-	@Subscribe
 	public DataPointEvent filterDataPoint(DataPointEvent event)
 	{
 		return m_filterChain.filter(event);
 	}
 
+	@Subscribe
+	public List<DataPointEvent> filterDataPoints(List<DataPointEvent> events)
+	{
+		List<DataPointEvent> filtered = new ArrayList<>(events.size());
+		for (DataPointEvent event : events)
+		{
+			DataPointEvent result = filterDataPoint(event);
+			if (result != null)
+				filtered.add(result);
+		}
+
+		return filtered;
+	}
+
 	@Override
 	public void start() throws KairosDBException
 	{
@@ -6,15 +6,19 @@ import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.WaitStrategies;
 import com.google.common.base.Stopwatch;
+import com.google.inject.Inject;
+import org.kairosdb.congestion.AdaptiveCongestionController;
+import org.kairosdb.congestion.ProcessTracker;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.reporting.KairosMetricReporter;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.eventbus.Subscribe;
 import org.kairosdb.events.ShutdownEvent;
 
-import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,7 +26,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -32,28 +35,39 @@ import java.util.concurrent.TimeUnit;
 public class IngestExecutorService implements KairosMetricReporter
 {
 	public static final String PERMIT_COUNT = "kairosdb.ingest_executor.thread_count";
+	public static final String MIN_PERMIT_COUNT = "kairosdb.ingest_executor.min_thread_count";
+	public static final String MAX_PERMIT_COUNT = "kairosdb.ingest_executor.max_thread_count";
+	public static final String LATENCY_TOLERANCE = "kairosdb.ingest_executor.latency_tolerance";
 
 	private final ExecutorService m_internalExecutor;
 	private final ThreadGroup m_threadGroup;
-	//Original idea behind this is that the number of threads could
-	//adjust via incrementing or decrementing the semaphore count.
-	private final CongestionSemaphore m_semaphore;
+	//Grows and shrinks the number of concurrent writes from how long they take
+	private final AdaptiveCongestionController m_congestionController;
 	private final SimpleStats m_ingestTimeStats = new SimpleStats();
 	private int m_permitCount = 10;
+	private int m_minPermitCount;
+	private int m_maxPermitCount;
 	private final Retryer<Integer> m_retryer;
 
 	@Inject
 	private DoubleDataPointFactory m_dataPointFactory = new DoubleDataPointFactoryImpl();
 
+	@Inject
+	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
+
 	@Inject
 	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
 
+	@Inject @Named("HOSTNAME")
+	private String m_hostName = "localhost";
+
 	@Inject
 	public IngestExecutorService(@Named(PERMIT_COUNT) int permitCount)
 	{
 		m_permitCount = permitCount;
-		//m_congestionTimer = new CongestionTimer(m_permitCount);
-		m_semaphore = new CongestionSemaphore(m_permitCount);
+		m_minPermitCount = m_maxPermitCount = m_permitCount;
+		//The limit stays fixed at permitCount unless a min and max are configured
+		m_congestionController = new AdaptiveCongestionController(m_permitCount, m_permitCount, m_permitCount);
 		m_threadGroup = new ThreadGroup("KairosDynamic");
 		m_internalExecutor = Executors.newCachedThreadPool(new ThreadFactory()
 		{
@@ -74,12 +88,29 @@ public class IngestExecutorService implements KairosMetricReporter
 				.build();
 	}
 
-	/*private void increasePermitCount()
+	@Inject(optional = true)
+	public void setMinPermitCount(@Named(MIN_PERMIT_COUNT) int minPermitCount)
+	{
+		m_minPermitCount = minPermitCount;
+		m_congestionController.setLimits(m_minPermitCount, Math.max(m_minPermitCount, m_maxPermitCount));
+	}
+
+	@Inject(optional = true)
+	public void setMaxPermitCount(@Named(MAX_PERMIT_COUNT) int maxPermitCount)
+	{
+		m_maxPermitCount = maxPermitCount;
+		m_congestionController.setLimits(Math.min(m_minPermitCount, m_maxPermitCount), m_maxPermitCount);
+	}
+
+	/**
+	 @param latencyTolerance how many times the baseline write time the current
+	 write time can reach before fewer concurrent writes are allowed
+	 */
+	@Inject(optional = true)
+	public void setLatencyTolerance(@Named(LATENCY_TOLERANCE) double latencyTolerance)
 	{
-		m_permitCount ++;
-		//m_congestionTimer.setTaskPerBatch(m_permitCount);
-		m_semaphore.release();
-	}*/
+		m_congestionController.setTolerance(latencyTolerance);
+	}
 
 	@Subscribe
 	public void shutdown(ShutdownEvent event)
@@ -89,6 +120,7 @@ public class IngestExecutorService implements KairosMetricReporter
 
 	public void shutdown()
 	{
+		m_congestionController.shutdown();
 		m_internalExecutor.shutdown();
 	}
 
@@ -101,20 +133,12 @@ public class IngestExecutorService implements KairosMetricReporter
 	 */
 	public void submit(Callable<Integer> callable)
 	{
-		try
-		{
-			//System.out.println("Execute called");
-			m_semaphore.acquire();
-			//System.out.println("Submitting");
-			m_internalExecutor.submit(
-					new IngestFutureTask(m_retryer.wrap(callable)));
-			//System.out.println("Done submitting");
-		}
-		//Potentially thrown by acquire
-		catch (InterruptedException e)
-		{
-			e.printStackTrace();
-		}
+		ProcessTracker tracker = m_congestionController.getProcessTracker();
+		if (tracker == null)
+			return; //Shutting down or interrupted
+
+		m_internalExecutor.submit(
+				new IngestFutureTask(m_retryer.wrap(callable), tracker));
 	}
 
 	@Override
@@ -125,18 +149,34 @@ public class IngestExecutorService implements KairosMetricReporter
 		m_simpleStatsReporter.reportStats(m_ingestTimeStats.getAndClear(), now,
 				"kairosdb.ingest_executor.write_time_micro", ret);
 
+		addMetric(ret, "kairosdb.ingest_executor.limit", now, m_congestionController.getLimit());
+		addMetric(ret, "kairosdb.ingest_executor.in_flight", now, m_congestionController.getInFlight());
+		addMetric(ret, "kairosdb.ingest_executor.latency_micro", now, m_congestionController.getLatency());
+		addMetric(ret, "kairosdb.ingest_executor.latency_target_micro", now, m_congestionController.getTargetLatency());
+
 		return ret;
 	}
 
+	private void addMetric(List<DataPointSet> metrics, String name, long now, long value)
+	{
+		DataPointSet dps = new DataPointSet(name);
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_longDataPointFactory.createDataPoint(now, value));
+		metrics.add(dps);
+	}
+
 
 	private class IngestFutureTask extends FutureTask<Integer>
 	{
 		private final Stopwatch m_stopwatch;
+		private final ProcessTracker m_tracker;
+		private boolean m_failed;
 
-		public IngestFutureTask(Callable<Integer> callable)
+		public IngestFutureTask(Callable<Integer> callable, ProcessTracker tracker)
 		{
 			super(callable);
 			m_stopwatch = Stopwatch.createUnstarted();
+			m_tracker = tracker;
 		}
 
 		@Override
@@ -153,32 +193,28 @@ public class IngestExecutorService implements KairosMetricReporter
 			}
 			finally
 			{
-				m_semaphore.release();
+				if (m_failed)
+					m_tracker.failed();
+				else
+					m_tracker.finished();
 			}
 		}
 
 		@Override
 		public void set(Integer retries)
 		{
-			//Todo Calculate time to run and adjust number of threads
-			/*if (full)
-			{
-			}*/
+			//Having to retry means cassandra could not keep up
+			if (retries != null && retries > 0)
+				m_failed = true;
 
 			super.set(retries);
 		}
-	}
 
-	private static class CongestionSemaphore extends Semaphore
-	{
-		public CongestionSemaphore(int permits)
-		{
-			super(permits);
-		}
-
-		public void reducePermits(int reduction)
+		@Override
+		protected void setException(Throwable t)
 		{
-			super.reducePermits(reduction);
+			m_failed = true;
+			super.setException(t);
 		}
 	}
 }
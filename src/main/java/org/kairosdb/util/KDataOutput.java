@@ -4,18 +4,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  Created by bhawkins on 12/10/13.
  */
 public class KDataOutput implements DataOutput
 {
-	private ByteArrayOutputStream m_arrayOutputStream;
+	private ExposedByteArrayOutputStream m_arrayOutputStream;
 	private DataOutputStream m_dataOutputStream;
 
 	public KDataOutput()
 	{
-		m_arrayOutputStream = new ByteArrayOutputStream();
+		m_arrayOutputStream = new ExposedByteArrayOutputStream();
 		m_dataOutputStream = new DataOutputStream(m_arrayOutputStream);
 	}
 
@@ -25,6 +26,32 @@ public class KDataOutput implements DataOutput
 		return m_arrayOutputStream.toByteArray();
 	}
 
+	/**
+	 Discards everything written so far so the output can be reused without
+	 allocating a new buffer.
+	 */
+	public void reset()
+	{
+		m_arrayOutputStream.reset();
+	}
+
+	/**
+	 @return number of bytes written since creation or the last reset
+	 */
+	public int size()
+	{
+		return m_arrayOutputStream.size();
+	}
+
+	/**
+	 Copies the bytes written so far into buffer without creating an
+	 intermediate array.
+	 */
+	public void writeTo(ByteBuffer buffer)
+	{
+		buffer.put(m_arrayOutputStream.getBuffer(), 0, m_arrayOutputStream.size());
+	}
+
 	@Override
 	public void write(int b) throws IOException
 	{
@@ -108,4 +135,12 @@ public class KDataOutput implements DataOutput
 	{
 		m_dataOutputStream.writeUTF(s);
 	}
+
+	private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream
+	{
+		private byte[] getBuffer()
+		{
+			return buf;
+		}
+	}
 }
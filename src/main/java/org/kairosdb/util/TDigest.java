@@ -0,0 +1,324 @@
+package org.kairosdb.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ Merging t-digest for estimating quantiles of a stream of doubles in bounded
+ memory.  Values are buffered and periodically merged into at most about
+ compression centroids, centroids near the tails are kept small so extreme
+ quantiles stay accurate.  Higher compression is more accurate and uses more
+ memory, 100 gives errors well under 1% for p99.
+
+ Digests can be merged with each other and written out so partial results,
+ for example from separate groups, can be combined later.
+
+ Based on "Computing Extremely Accurate Quantiles Using t-Digests" by Ted
+ Dunning and Otmar Ertl.  Not thread safe.
+ */
+public class TDigest
+{
+	public static final double DEFAULT_COMPRESSION = 100.0;
+
+	private final double m_compression;
+
+	private double[] m_means;
+	private double[] m_weights;
+	private int m_centroidCount;
+	private double m_totalWeight;
+
+	private final double[] m_buffer;
+	private int m_bufferCount;
+
+	//Reused by merges
+	private double[] m_mergeMeans;
+	private double[] m_mergeWeights;
+
+	private double m_min = Double.POSITIVE_INFINITY;
+	private double m_max = Double.NEGATIVE_INFINITY;
+
+	public TDigest()
+	{
+		this(DEFAULT_COMPRESSION);
+	}
+
+	public TDigest(double compression)
+	{
+		if (compression < 10)
+			throw new IllegalArgumentException("Compression must be at least 10");
+
+		m_compression = compression;
+		int capacity = (int) Math.ceil(compression) + 10;
+		m_means = new double[capacity];
+		m_weights = new double[capacity];
+		m_mergeMeans = new double[capacity];
+		m_mergeWeights = new double[capacity];
+		m_buffer = new double[capacity * 5];
+	}
+
+	public double getCompression()
+	{
+		return m_compression;
+	}
+
+	/**
+	 Empties the digest so it can be reused.
+	 */
+	public void reset()
+	{
+		m_centroidCount = 0;
+		m_totalWeight = 0;
+		m_bufferCount = 0;
+		m_min = Double.POSITIVE_INFINITY;
+		m_max = Double.NEGATIVE_INFINITY;
+	}
+
+	public void add(double value)
+	{
+		if (Double.isNaN(value))
+			return;
+
+		if (m_bufferCount == m_buffer.length)
+			compress();
+
+		m_buffer[m_bufferCount++] = value;
+		m_min = Math.min(m_min, value);
+		m_max = Math.max(m_max, value);
+	}
+
+	/**
+	 Adds everything in other to this digest, other is left unchanged apart from
+	 being compressed.
+	 */
+	public void add(TDigest other)
+	{
+		if (other.size() == 0)
+			return;
+
+		compress();
+		other.compress();
+
+		merge(m_means, m_weights, m_centroidCount,
+				other.m_means, other.m_weights, other.m_centroidCount);
+
+		m_min = Math.min(m_min, other.m_min);
+		m_max = Math.max(m_max, other.m_max);
+	}
+
+	/**
+	 @return number of values added
+	 */
+	public long size()
+	{
+		return (long) m_totalWeight + m_bufferCount;
+	}
+
+	public int getCentroidCount()
+	{
+		compress();
+		return m_centroidCount;
+	}
+
+	/**
+	 Merges buffered values into the centroids.
+	 */
+	private void compress()
+	{
+		if (m_bufferCount == 0)
+			return;
+
+		Arrays.sort(m_buffer, 0, m_bufferCount);
+		merge(m_means, m_weights, m_centroidCount, m_buffer, null, m_bufferCount);
+		m_bufferCount = 0;
+	}
+
+	/**
+	 Merges two runs of centroids sorted by mean into this digest's centroids.
+	 A null weights array means every weight is 1.
+	 */
+	private void merge(double[] aMeans, double[] aWeights, int aCount,
+			double[] bMeans, double[] bWeights, int bCount)
+	{
+		double totalWeight = 0;
+		for (int i = 0; i < aCount; i++)
+			totalWeight += aWeights[i];
+		for (int i = 0; i < bCount; i++)
+			totalWeight += bWeights == null ? 1 : bWeights[i];
+
+		int outCount = 0;
+		double weightSoFar = 0;
+		double weightLimit = 0;
+		double mean = 0;
+		double weight = 0;
+
+		int a = 0;
+		int b = 0;
+		while (a < aCount || b < bCount)
+		{
+			double nextMean;
+			double nextWeight;
+			if (b == bCount || (a < aCount && aMeans[a] <= bMeans[b]))
+			{
+				nextMean = aMeans[a];
+				nextWeight = aWeights[a];
+				a++;
+			}
+			else
+			{
+				nextMean = bMeans[b];
+				nextWeight = bWeights == null ? 1 : bWeights[b];
+				b++;
+			}
+
+			if (weight == 0)
+			{
+				mean = nextMean;
+				weight = nextWeight;
+				weightLimit = totalWeight * quantileLimit(weightSoFar / totalWeight);
+			}
+			else if (weightSoFar + weight + nextWeight <= weightLimit)
+			{
+				weight += nextWeight;
+				mean += (nextMean - mean) * nextWeight / weight;
+			}
+			else
+			{
+				outCount = addMerged(outCount, mean, weight);
+				weightSoFar += weight;
+				mean = nextMean;
+				weight = nextWeight;
+				weightLimit = totalWeight * quantileLimit(weightSoFar / totalWeight);
+			}
+		}
+
+		if (weight != 0)
+			outCount = addMerged(outCount, mean, weight);
+
+		double[] swap = m_means;
+		m_means = m_mergeMeans;
+		m_mergeMeans = swap;
+		swap = m_weights;
+		m_weights = m_mergeWeights;
+		m_mergeWeights = swap;
+
+		m_centroidCount = outCount;
+		m_totalWeight = totalWeight;
+	}
+
+	private int addMerged(int index, double mean, double weight)
+	{
+		if (index == m_mergeMeans.length)
+		{
+			m_mergeMeans = Arrays.copyOf(m_mergeMeans, index * 2);
+			m_mergeWeights = Arrays.copyOf(m_mergeWeights, index * 2);
+		}
+
+		m_mergeMeans[index] = mean;
+		m_mergeWeights[index] = weight;
+		return index + 1;
+	}
+
+	/**
+	 Uses the k1 scale function k(q) = compression / 2pi * asin(2q - 1), a
+	 centroid starting at quantile q can grow until k increases by one.
+	 @return quantile a centroid starting at q can extend to
+	 */
+	private double quantileLimit(double q)
+	{
+		double k = m_compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+		double angle = (k + 1) * 2 * Math.PI / m_compression;
+		if (angle >= Math.PI / 2)
+			return 1.0;
+
+		return (Math.sin(angle) + 1) / 2;
+	}
+
+	/**
+	 @param quantile value in [0..1]
+	 @return estimated value at the quantile, NaN if nothing has been added
+	 */
+	public double quantile(double quantile)
+	{
+		if (quantile < 0.0 || quantile > 1.0)
+			throw new IllegalArgumentException(quantile + " is not in [0..1]");
+
+		compress();
+
+		if (m_centroidCount == 0)
+			return Double.NaN;
+
+		if (m_centroidCount == 1)
+			return m_means[0];
+
+		double index = quantile * m_totalWeight;
+
+		//Between the min and the center of the first centroid
+		double firstHalf = m_weights[0] / 2;
+		if (index < firstHalf)
+			return m_min + (m_means[0] - m_min) * (index / firstHalf);
+
+		double weightSoFar = firstHalf;
+		for (int i = 0; i < m_centroidCount - 1; i++)
+		{
+			double delta = (m_weights[i] + m_weights[i + 1]) / 2;
+			if (weightSoFar + delta > index)
+			{
+				double fraction = (index - weightSoFar) / delta;
+				return m_means[i] + (m_means[i + 1] - m_means[i]) * fraction;
+			}
+			weightSoFar += delta;
+		}
+
+		//Between the center of the last centroid and the max
+		int last = m_centroidCount - 1;
+		double lastHalf = m_weights[last] / 2;
+		double fraction = Math.min(1.0, (index - weightSoFar) / lastHalf);
+		return m_means[last] + (m_max - m_means[last]) * fraction;
+	}
+
+	public void writeTo(DataOutput output) throws IOException
+	{
+		compress();
+
+		output.writeDouble(m_compression);
+		output.writeDouble(m_min);
+		output.writeDouble(m_max);
+		output.writeInt(m_centroidCount);
+		for (int i = 0; i < m_centroidCount; i++)
+		{
+			output.writeDouble(m_means[i]);
+			output.writeDouble(m_weights[i]);
+		}
+	}
+
+	public static TDigest readFrom(DataInput input) throws IOException
+	{
+		TDigest digest = new TDigest(input.readDouble());
+		digest.m_min = input.readDouble();
+		digest.m_max = input.readDouble();
+
+		int count = input.readInt();
+		if (count < 0)
+			throw new IOException("Invalid centroid count " + count);
+
+		if (count > digest.m_means.length)
+		{
+			digest.m_means = new double[count];
+			digest.m_weights = new double[count];
+			digest.m_mergeMeans = new double[count];
+			digest.m_mergeWeights = new double[count];
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			digest.m_means[i] = input.readDouble();
+			digest.m_weights[i] = input.readDouble();
+			digest.m_totalWeight += digest.m_weights[i];
+		}
+		digest.m_centroidCount = count;
+
+		return digest;
+	}
+}
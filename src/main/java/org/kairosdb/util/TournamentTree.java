@@ -19,92 +19,216 @@ package org.kairosdb.util;
 
 import org.kairosdb.core.datastore.Order;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.function.ToLongFunction;
 
-public class TournamentTree<T>
-	{
-	private static class TreeValue<T>
-		{
-		private int m_iteratorNum;
-		private T m_value;
-		private Iterator<T> m_iterator;
-
-		public TreeValue(Iterator<T> iterator, T value, int iteratorNum)
-			{
-			m_iterator = iterator;
-			m_value = value;
-			m_iteratorNum = iteratorNum;
-			}
-
-		public int getIteratorNum() { return (m_iteratorNum); }
-		public void setValue(T value) { m_value = value; }
-		public T getValue() { return (m_value); }
-		public Iterator<T> getIterator() { return (m_iterator); }
-		}
-
-	private class TreeComparator implements Comparator<TreeValue<T>>
-		{
-		public int compare(TreeValue<T> tv1, TreeValue<T> tv2)
-			{
-			int resp = m_comparator.compare(tv1.getValue(), tv2.getValue());
+/**
+ Merges sorted iterators with a loser tree.  Each leaf is the current head of
+ an iterator and each inner node holds the loser of the match played there so
+ taking the next element replays a single path of log2(n) matches without
+ allocating anything.
 
-			if (resp == 0)
-				return (tv1.getIteratorNum() - tv2.getIteratorNum());
-			else
-				return (resp);
-			}
-		}
-
-	//===========================================================================
-	private TreeSet<TreeValue<T>> m_treeSet;
-	private Comparator<T> m_comparator;
-	private int m_iteratorIndex = 0;
-	private Order m_order;
+ When created with a key function the heads are ordered by a primitive long
+ key, the comparator is then only used to break ties.  Ties that remain go to
+ the iterator added first, or last for Order.DESC.
+ */
+public class TournamentTree<T>
+{
+	private final ToLongFunction<T> m_keyFunction;
+	private final Comparator<T> m_comparator;
+	private final Order m_order;
+
+	private Iterator<T>[] m_iterators;
+	private Object[] m_heads;
+	private long[] m_keys;
+	private boolean[] m_exhausted;
+	private int m_iteratorCount = 0;
+	private int m_remaining = 0;
+
+	//m_tree[0] is the winner, the rest are the losers of each inner node
+	private int[] m_tree;
+	private boolean m_rebuild = false;
 
 	public TournamentTree(Comparator<T> comparator, Order order)
 	{
+		this(null, comparator, order);
+	}
+
+	/**
+	 @param keyFunction primitive key the iterators are sorted by, null to
+	 order by comparator only
+	 @param comparator breaks ties between equal keys, may be null when a key
+	 function is given
+	 */
+	@SuppressWarnings("unchecked")
+	public TournamentTree(ToLongFunction<T> keyFunction, Comparator<T> comparator, Order order)
+	{
+		if (keyFunction == null && comparator == null)
+			throw new IllegalArgumentException("A key function or comparator is required");
+
+		m_keyFunction = keyFunction;
 		m_comparator = comparator;
-		m_treeSet = new TreeSet<TreeValue<T>>(new TreeComparator());
 		m_order = order;
+
+		m_iterators = (Iterator<T>[]) new Iterator<?>[4];
+		m_heads = new Object[4];
+		m_keys = new long[4];
+		m_exhausted = new boolean[4];
 	}
 
 	//---------------------------------------------------------------------------
 	public void addIterator(Iterator<T> iterator)
 	{
-		if (iterator.hasNext())
-			m_treeSet.add(new TreeValue<T>(iterator, iterator.next(), m_iteratorIndex ++));
+		if (!iterator.hasNext())
+			return;
+
+		if (m_iteratorCount == m_iterators.length)
+		{
+			int capacity = m_iteratorCount * 2;
+			m_iterators = Arrays.copyOf(m_iterators, capacity);
+			m_heads = Arrays.copyOf(m_heads, capacity);
+			m_keys = Arrays.copyOf(m_keys, capacity);
+			m_exhausted = Arrays.copyOf(m_exhausted, capacity);
+		}
+
+		int index = m_iteratorCount ++;
+		m_iterators[index] = iterator;
+		setHead(index, iterator.next());
+		m_remaining ++;
+		m_rebuild = true;
+	}
+
+	private void setHead(int index, T value)
+	{
+		m_heads[index] = value;
+		if (m_keyFunction != null)
+		{
+			long key = m_keyFunction.applyAsLong(value);
+			//Flipping the bits reverses the order without overflowing
+			m_keys[index] = m_order == Order.DESC ? ~key : key;
+		}
 	}
 
 	//---------------------------------------------------------------------------
 	public boolean hasNext()
 	{
-		return !m_treeSet.isEmpty();
+		return m_remaining != 0;
 	}
 
 	//---------------------------------------------------------------------------
+	@SuppressWarnings("unchecked")
 	public T nextElement()
 	{
-		TreeValue<T> value;
-		if (m_order == Order.ASC)
-			value = m_treeSet.pollFirst();
-		else
-			value = m_treeSet.pollLast();
-
-		if (value == null)
+		if (m_remaining == 0)
 			return (null);
 
-		T ret = value.getValue();
+		if (m_rebuild)
+			rebuild();
 
-		if (value.getIterator().hasNext())
+		int winner = m_tree[0];
+		T ret = (T) m_heads[winner];
+
+		Iterator<T> iterator = m_iterators[winner];
+		if (iterator.hasNext())
+			setHead(winner, iterator.next());
+		else
 		{
-			value.setValue(value.getIterator().next());
-			m_treeSet.add(value);
+			m_heads[winner] = null;
+			m_iterators[winner] = null;
+			m_exhausted[winner] = true;
+			m_remaining --;
 		}
 
+		replay(winner);
+
 		//todo notify the iterator that we actually returned a value from it, use for returning tags.
 
 		return (ret);
 	}
+
+	/**
+	 Leaves are nodes m_iteratorCount to 2 * m_iteratorCount - 1 of an implicit
+	 binary tree, inner nodes are 1 to m_iteratorCount - 1.
+	 */
+	private void rebuild()
+	{
+		int count = m_iteratorCount;
+		m_tree = new int[count];
+		int[] winners = new int[count];
+
+		for (int node = count - 1; node >= 1; node--)
+		{
+			int left = winnerOf(2 * node, winners);
+			int right = winnerOf(2 * node + 1, winners);
+
+			if (beats(left, right))
+			{
+				winners[node] = left;
+				m_tree[node] = right;
+			}
+			else
+			{
+				winners[node] = right;
+				m_tree[node] = left;
+			}
+		}
+
+		m_tree[0] = count == 1 ? 0 : winners[1];
+		m_rebuild = false;
+	}
+
+	private int winnerOf(int node, int[] winners)
+	{
+		return node >= m_iteratorCount ? node - m_iteratorCount : winners[node];
+	}
+
+	/**
+	 Plays the path from the leaf back up to the root after its head changed.
+	 */
+	private void replay(int leaf)
+	{
+		int winner = leaf;
+		for (int node = (leaf + m_iteratorCount) >> 1; node >= 1; node >>= 1)
+		{
+			int loser = m_tree[node];
+			if (beats(loser, winner))
+			{
+				m_tree[node] = winner;
+				winner = loser;
+			}
+		}
+
+		m_tree[0] = winner;
+	}
+
+	/**
+	 @return true if the head of iterator a comes before the head of b
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean beats(int a, int b)
+	{
+		if (m_exhausted[a])
+			return false;
+		if (m_exhausted[b])
+			return true;
+
+		if (m_keyFunction != null)
+		{
+			long keyA = m_keys[a];
+			long keyB = m_keys[b];
+			if (keyA != keyB)
+				return keyA < keyB;
+		}
+
+		if (m_comparator != null)
+		{
+			int resp = m_comparator.compare((T) m_heads[a], (T) m_heads[b]);
+			if (resp != 0)
+				return m_order == Order.DESC ? resp > 0 : resp < 0;
+		}
+
+		return m_order == Order.DESC ? a > b : a < b;
+	}
 }
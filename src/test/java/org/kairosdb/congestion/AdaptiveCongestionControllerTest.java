@@ -0,0 +1,140 @@
+package org.kairosdb.congestion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveCongestionControllerTest
+{
+	/**
+	 Runs limit processes at once and finishes them all with the latency.
+	 */
+	private void runRound(AdaptiveCongestionController controller, long latency)
+	{
+		List<ProcessTracker> trackers = new ArrayList<>();
+		int limit = controller.getLimit();
+		for (int i = 0; i < limit; i++)
+			trackers.add(controller.getProcessTracker());
+
+		for (ProcessTracker tracker : trackers)
+			controller.finishedProcess(latency, ((ProcessTimer) tracker).getVersion());
+	}
+
+	@Test
+	public void test_slowStartGrowsToMax()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(2, 1, 20);
+
+		runRound(controller, 1000);
+		assertThat(controller.getLimit()).isEqualTo(4);
+
+		for (int i = 0; i < 5; i++)
+			runRound(controller, 1000);
+
+		assertThat(controller.getLimit()).isEqualTo(20);
+		assertThat(controller.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_latencyIncreaseShrinksLimit()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(10, 1, 10);
+
+		for (int i = 0; i < 10; i++)
+			runRound(controller, 1000);
+		assertThat(controller.getLimit()).isEqualTo(10);
+		assertThat(controller.getTargetLatency()).isEqualTo(2000);
+
+		runRound(controller, 10000);
+		assertThat(controller.getLimit()).isEqualTo(9);
+
+		//Recovers slowly once latency is back to normal
+		for (int i = 0; i < 20; i++)
+			runRound(controller, 1000);
+		assertThat(controller.getLimit()).isEqualTo(10);
+	}
+
+	@Test
+	public void test_failureHalvesLimitOncePerWindow()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(16, 2, 16);
+
+		List<ProcessTracker> trackers = new ArrayList<>();
+		for (int i = 0; i < 16; i++)
+			trackers.add(controller.getProcessTracker());
+
+		for (ProcessTracker tracker : trackers)
+			tracker.failed();
+
+		assertThat(controller.getLimit()).isEqualTo(8);
+
+		for (int i = 0; i < 5; i++)
+		{
+			List<ProcessTracker> round = new ArrayList<>();
+			for (int j = controller.getLimit(); j > 0; j--)
+				round.add(controller.getProcessTracker());
+			for (ProcessTracker tracker : round)
+				tracker.failed();
+		}
+
+		assertThat(controller.getLimit()).isEqualTo(2);
+	}
+
+	@Test
+	public void test_fixedLimit()
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(5, 5, 5);
+
+		for (int i = 0; i < 5; i++)
+			runRound(controller, 1000);
+		assertThat(controller.getLimit()).isEqualTo(5);
+
+		controller.getProcessTracker().failed();
+		assertThat(controller.getLimit()).isEqualTo(5);
+	}
+
+	@Test
+	public void test_blocksAtLimit() throws InterruptedException
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(1, 1, 1);
+		ProcessTracker first = controller.getProcessTracker();
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() ->
+		{
+			controller.getProcessTracker();
+			acquired.countDown();
+		});
+		thread.start();
+
+		assertThat(acquired.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+		first.finished();
+		assertThat(acquired.await(10, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void test_shutdownReleasesWaiters() throws InterruptedException
+	{
+		AdaptiveCongestionController controller = new AdaptiveCongestionController(1, 1, 1);
+		controller.getProcessTracker();
+
+		List<ProcessTracker> result = new ArrayList<>();
+		CountDownLatch returned = new CountDownLatch(1);
+		Thread thread = new Thread(() ->
+		{
+			result.add(controller.getProcessTracker());
+			returned.countDown();
+		});
+		thread.start();
+
+		controller.shutdown();
+		assertThat(returned.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(result).containsNull();
+	}
+}
@@ -0,0 +1,235 @@
+package org.kairosdb.core.aggregator;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.DataPointGroupBlockAdapter;
+import org.kairosdb.core.datastore.TimeUnit;
+import org.kairosdb.core.exception.KairosDBException;
+import org.kairosdb.plugin.Aggregator;
+import org.kairosdb.testing.ListDataPointGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlockAggregatedDataPointGroupTest
+{
+	private static final long START_TIME = 1_500_000_000_000L;
+
+	/**
+	 Several thousand increasing data points, a mix of longs and doubles, so
+	 ranges and pairs cross block boundaries.
+	 */
+	private static List<DataPoint> createDataPoints(long seed)
+	{
+		Random random = new Random(seed);
+		List<DataPoint> dataPoints = new ArrayList<>();
+		long timestamp = START_TIME + random.nextInt(1000);
+		for (int i = 0; i < 5000; i++)
+		{
+			if (random.nextBoolean())
+				dataPoints.add(new LongDataPoint(timestamp, random.nextInt(1000) - 500));
+			else
+				dataPoints.add(new DoubleDataPoint(timestamp, random.nextGaussian() * 1000));
+
+			//Mostly small steps with the occasional gap of empty ranges
+			timestamp += random.nextInt(10) == 0 ? random.nextInt(20000) + 1 : random.nextInt(30) + 1;
+		}
+
+		return dataPoints;
+	}
+
+	private static ListDataPointGroup createGroup(List<DataPoint> dataPoints)
+	{
+		ListDataPointGroup group = new ListDataPointGroup("block");
+		group.addTag("host", "a");
+		for (DataPoint dataPoint : dataPoints)
+			group.addDataPoint(dataPoint);
+
+		return group;
+	}
+
+	private static List<DataPoint> toList(DataPointGroup group)
+	{
+		List<DataPoint> dataPoints = new ArrayList<>();
+		while (group.hasNext())
+			dataPoints.add(group.next());
+
+		return dataPoints;
+	}
+
+	/**
+	 Runs the chain of aggregators over the data points read as objects and
+	 read in blocks, both must produce exactly the same data points.
+	 */
+	@SafeVarargs
+	private static void assertSameResults(List<DataPoint> dataPoints, Supplier<Aggregator>... chain)
+	{
+		DataPointGroup objectGroup = createGroup(dataPoints);
+		DataPointGroup blockGroup = DataPointGroupBlockAdapter.wrap(createGroup(dataPoints));
+		for (Supplier<Aggregator> supplier : chain)
+		{
+			objectGroup = supplier.get().aggregate(objectGroup);
+			blockGroup = supplier.get().aggregate(blockGroup);
+		}
+
+		assertThat(blockGroup).isInstanceOf(BlockAggregatedDataPointGroup.class);
+		assertThat(blockGroup.getName()).isEqualTo("block");
+		assertThat(blockGroup.getTagValues("host")).containsExactly("a");
+
+		List<DataPoint> expected = toList(objectGroup);
+		List<DataPoint> actual = toList(blockGroup);
+
+		assertThat(actual).hasSize(expected.size());
+		assertThat(expected).isNotEmpty();
+		for (int i = 0; i < expected.size(); i++)
+		{
+			DataPoint expectedPoint = expected.get(i);
+			DataPoint actualPoint = actual.get(i);
+			assertThat(actualPoint.getTimestamp()).as("timestamp %d", i).isEqualTo(expectedPoint.getTimestamp());
+			assertThat(actualPoint.getApiDataType()).as("type %d", i).isEqualTo(expectedPoint.getApiDataType());
+			assertThat(Double.doubleToLongBits(actualPoint.getDoubleValue())).as("value %d", i)
+					.isEqualTo(Double.doubleToLongBits(expectedPoint.getDoubleValue()));
+		}
+	}
+
+	private static <T extends RangeAggregator> Supplier<Aggregator> range(Supplier<T> constructor,
+			Sampling sampling, boolean alignStart, boolean alignEnd)
+	{
+		return () ->
+		{
+			T aggregator = constructor.get();
+			aggregator.setSampling(sampling);
+			aggregator.setStartTime(START_TIME);
+			aggregator.setAlignStartTime(alignStart);
+			aggregator.setAlignEndTime(alignEnd);
+			aggregator.init();
+			return aggregator;
+		};
+	}
+
+	private static AvgAggregator createAvgAggregator()
+	{
+		try
+		{
+			return new AvgAggregator(new DoubleDataPointFactoryImpl());
+		}
+		catch (KairosDBException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static List<Supplier<? extends RangeAggregator>> rangeAggregators()
+	{
+		return Arrays.asList(
+				() -> new SumAggregator(new DoubleDataPointFactoryImpl()),
+				BlockAggregatedDataPointGroupTest::createAvgAggregator,
+				() -> new MinAggregator(new DoubleDataPointFactoryImpl()),
+				() -> new MaxAggregator(new DoubleDataPointFactoryImpl()),
+				() -> new CountAggregator(new LongDataPointFactoryImpl()),
+				() ->
+				{
+					StdAggregator aggregator = new StdAggregator(new DoubleDataPointFactoryImpl());
+					aggregator.setReturnType(StdAggregator.Dev.POS_SD);
+					aggregator.setDevCount(2);
+					return aggregator;
+				},
+				() -> new StdAggregator(new DoubleDataPointFactoryImpl()));
+	}
+
+	@Test
+	public void test_rangeAggregators_matchObjectResults()
+	{
+		List<DataPoint> dataPoints = createDataPoints(System.nanoTime());
+
+		for (Supplier<? extends RangeAggregator> constructor : rangeAggregators())
+		{
+			for (Sampling sampling : Arrays.asList(new Sampling(1, TimeUnit.MILLISECONDS),
+					new Sampling(100, TimeUnit.MILLISECONDS), new Sampling(1, TimeUnit.MINUTES)))
+			{
+				assertSameResults(dataPoints, range(constructor, sampling, false, false));
+				assertSameResults(dataPoints, range(constructor, sampling, true, false));
+				assertSameResults(dataPoints, range(constructor, sampling, false, true));
+			}
+		}
+	}
+
+	@Test
+	public void test_rateAndDiff_matchObjectResults()
+	{
+		List<DataPoint> dataPoints = createDataPoints(System.nanoTime());
+
+		assertSameResults(dataPoints, () -> new DiffAggregator(new DoubleDataPointFactoryImpl()));
+		assertSameResults(dataPoints, () ->
+		{
+			RateAggregator aggregator = new RateAggregator(new DoubleDataPointFactoryImpl());
+			aggregator.setSampling(new Sampling(1, TimeUnit.SECONDS));
+			return aggregator;
+		});
+	}
+
+	@Test
+	public void test_chainedAggregators_matchObjectResults()
+	{
+		List<DataPoint> dataPoints = createDataPoints(System.nanoTime());
+
+		assertSameResults(dataPoints,
+				range(() -> new SumAggregator(new DoubleDataPointFactoryImpl()), new Sampling(10, TimeUnit.SECONDS), true, false),
+				() -> new RateAggregator(new DoubleDataPointFactoryImpl()),
+				() -> new DiffAggregator(new DoubleDataPointFactoryImpl()),
+				range(() -> new MaxAggregator(new DoubleDataPointFactoryImpl()), new Sampling(1, TimeUnit.MINUTES), false, false));
+	}
+
+	@Test
+	public void test_nextBlock()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("block");
+		for (int i = 0; i < 2500; i++)
+			group.addDataPoint(new LongDataPoint(i * 10, i));
+
+		CountAggregator aggregator = new CountAggregator(new LongDataPointFactoryImpl());
+		aggregator.setSampling(new Sampling(20, TimeUnit.MILLISECONDS));
+		aggregator.init();
+		BlockDataPointGroup counts = (BlockDataPointGroup) aggregator.aggregate(DataPointGroupBlockAdapter.wrap(group));
+
+		DataPointBlock block = new DataPointBlock();
+		int total = 0;
+		while (counts.nextBlock(block))
+		{
+			assertThat(block.hasLongValues()).isTrue();
+			for (int i = 0; i < block.size(); i++)
+			{
+				assertThat(block.getTimestamps()[i]).isEqualTo((total + i) * 20L);
+				assertThat(block.getLongValues()[i]).isEqualTo(2L);
+			}
+			total += block.size();
+		}
+
+		assertThat(total).isEqualTo(1250);
+		assertThat(block.size()).isEqualTo(0);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void test_rate_sameTimestamp()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("block");
+		group.addDataPoint(new LongDataPoint(1, 10));
+		group.addDataPoint(new LongDataPoint(1, 20));
+
+		DataPointGroup results = new RateAggregator(new DoubleDataPointFactoryImpl())
+				.aggregate(DataPointGroupBlockAdapter.wrap(group));
+		results.hasNext();
+	}
+}
@@ -0,0 +1,104 @@
+package org.kairosdb.core.aggregator;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeField;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.GregorianChronology;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BucketCalculatorTest
+{
+	private static final long START_TIME = 1_420_070_400_123L; //2015-01-01T00:00:00.123Z
+	private static final long YEAR = 365L * DateTimeConstants.MILLIS_PER_DAY;
+
+	private static final DateTimeZone PARIS = DateTimeZone.forID("Europe/Paris");
+	private static final DateTimeZone KOLKATA = DateTimeZone.forOffsetHoursMinutes(5, 30);
+
+	/**
+	 Compares the fixed width ranges with the calendar ranges for timestamps
+	 on both sides of the start time.
+	 */
+	private void assertSameRanges(DateTimeZone zone, long unitMillis, int samplingValue)
+	{
+		Chronology chronology = GregorianChronology.getInstance(zone);
+		DateTimeField unitField;
+		if (unitMillis == DateTimeConstants.MILLIS_PER_WEEK)
+			unitField = chronology.weekOfWeekyear();
+		else if (unitMillis == DateTimeConstants.MILLIS_PER_DAY)
+			unitField = chronology.dayOfMonth();
+		else if (unitMillis == DateTimeConstants.MILLIS_PER_HOUR)
+			unitField = chronology.hourOfDay();
+		else if (unitMillis == DateTimeConstants.MILLIS_PER_MINUTE)
+			unitField = chronology.minuteOfHour();
+		else if (unitMillis == DateTimeConstants.MILLIS_PER_SECOND)
+			unitField = chronology.secondOfDay();
+		else
+			unitField = chronology.millisOfSecond();
+
+		BucketCalculator calendar = new CalendarBucketCalculator(START_TIME, unitField, samplingValue);
+		BucketCalculator fixed = new FixedWidthBucketCalculator(START_TIME, unitMillis * samplingValue);
+
+		Random random = new Random(unitMillis * 31 + samplingValue);
+		for (int i = 0; i < 10000; i++)
+		{
+			long timestamp = START_TIME + (long) ((random.nextDouble() * 2 - 1) * YEAR);
+			assertThat(fixed.getStartRange(timestamp)).as("start of %d", timestamp)
+					.isEqualTo(calendar.getStartRange(timestamp));
+			assertThat(fixed.getEndRange(timestamp)).as("end of %d", timestamp)
+					.isEqualTo(calendar.getEndRange(timestamp));
+		}
+	}
+
+	@Test
+	public void test_subDayUnits_matchCalendar()
+	{
+		for (DateTimeZone zone : new DateTimeZone[]{DateTimeZone.UTC, PARIS, KOLKATA})
+		{
+			for (int samplingValue : new int[]{1, 7, 90})
+			{
+				assertSameRanges(zone, 1, samplingValue);
+				assertSameRanges(zone, DateTimeConstants.MILLIS_PER_SECOND, samplingValue);
+				assertSameRanges(zone, DateTimeConstants.MILLIS_PER_MINUTE, samplingValue);
+				assertSameRanges(zone, DateTimeConstants.MILLIS_PER_HOUR, samplingValue);
+			}
+		}
+	}
+
+	@Test
+	public void test_daysAndWeeks_fixedOffset_matchCalendar()
+	{
+		for (DateTimeZone zone : new DateTimeZone[]{DateTimeZone.UTC, KOLKATA})
+		{
+			for (int samplingValue : new int[]{1, 3, 10})
+			{
+				assertSameRanges(zone, DateTimeConstants.MILLIS_PER_DAY, samplingValue);
+				assertSameRanges(zone, DateTimeConstants.MILLIS_PER_WEEK, samplingValue);
+			}
+		}
+	}
+
+	@Test
+	public void test_fixedWidth_rangeBoundaries()
+	{
+		BucketCalculator calculator = new FixedWidthBucketCalculator(1000, 100);
+
+		assertThat(calculator.getStartRange(1000)).isEqualTo(1000);
+		assertThat(calculator.getEndRange(1000)).isEqualTo(1100);
+		assertThat(calculator.getStartRange(1099)).isEqualTo(1000);
+		assertThat(calculator.getStartRange(1100)).isEqualTo(1100);
+		assertThat(calculator.getEndRange(1250)).isEqualTo(1300);
+	}
+
+	@Test
+	public void test_fixedWidth_invalidWidth()
+	{
+		assertThatThrownBy(() -> new FixedWidthBucketCalculator(0, 0))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -235,6 +235,27 @@ public class PercentileAggregatorTest
 		test_percentileValue_mixedTypeValues(0.999, 10000);
 	}
 
+	@Test
+	public void test_tdigest_values()
+	{
+		aggregator.setEstimator(PercentileAggregator.Estimator.TDIGEST);
+
+		test_percentileValue_double(0.75, 10);
+		test_percentileValue_double(0.999, 100);
+		test_percentileValue_long(0.5, 10000);
+		test_percentileValue_long(0.99, 100000);
+		test_percentileValue_mixedTypeValues(0.999, 100000);
+	}
+
+	@Test
+	public void test_tdigest_invalidPercentile()
+	{
+		aggregator.setEstimator(PercentileAggregator.Estimator.TDIGEST);
+
+		assertThrows(IllegalArgumentException.class, () ->
+				test_percentileValue_double(1.2, 10));
+	}
+
 	@Test
 	public void test_noValues()
 	{
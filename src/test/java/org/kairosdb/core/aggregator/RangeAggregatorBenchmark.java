@@ -0,0 +1,211 @@
+package org.kairosdb.core.aggregator;
+
+import org.joda.time.DateTimeZone;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.AbstractDataPointGroup;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.DataPointGroupBlockAdapter;
+import org.kairosdb.core.datastore.TimeUnit;
+import org.kairosdb.core.exception.KairosDBException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ Measures the per data point cost of every {@link RangeAggregator} over a
+ series with a point every 10 seconds for three days, for range sizes and
+ time zones that use both the fixed width and the calendar range math.
+
+ bucketRanges isolates finding the start and end of each range from the
+ aggregation itself.  Run the main method from the test classpath or pass
+ the class name to org.openjdk.jmh.Main.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeAggregatorBenchmark
+{
+	private static final long START_TIME = 1_420_070_400_000L; //2015-01-01T00:00:00Z
+	private static final long INTERVAL = 10_000L;
+	private static final int POINT_COUNT = 3 * 24 * 360;
+
+	@Param({"avg", "count", "gaps", "first", "last", "least_squares", "max", "min",
+			"percentile", "dev", "sum"})
+	public String m_aggregatorName;
+
+	@Param({"MINUTES", "HOURS", "DAYS"})
+	public TimeUnit m_unit;
+
+	@Param({"UTC", "Europe/Paris"})
+	public String m_timeZone;
+
+	private RangeAggregator m_aggregator;
+	private ArrayDataPointGroup m_group;
+	private final DataPointBlock m_block = new DataPointBlock();
+
+	@Setup
+	public void setup() throws KairosDBException
+	{
+		m_aggregator = newAggregator(m_aggregatorName);
+		m_aggregator.setSampling(new Sampling(1, m_unit));
+		m_aggregator.setTimeZone(DateTimeZone.forID(m_timeZone));
+		m_aggregator.setAlignSampling(true);
+		m_aggregator.setStartTime(START_TIME);
+		m_aggregator.setEndTime(START_TIME + POINT_COUNT * INTERVAL);
+		m_aggregator.init();
+
+		DoubleDataPointFactoryImpl dataPointFactory = new DoubleDataPointFactoryImpl();
+		DataPoint[] dataPoints = new DataPoint[POINT_COUNT];
+		for (int i = 0; i < POINT_COUNT; i++)
+			dataPoints[i] = dataPointFactory.createDataPoint(START_TIME + i * INTERVAL, i % 100);
+
+		m_group = new ArrayDataPointGroup(dataPoints);
+	}
+
+	private static RangeAggregator newAggregator(String name) throws KairosDBException
+	{
+		DoubleDataPointFactoryImpl doubleFactory = new DoubleDataPointFactoryImpl();
+		switch (name)
+		{
+			case "avg":
+				return new AvgAggregator(doubleFactory);
+			case "count":
+				return new CountAggregator(new LongDataPointFactoryImpl());
+			case "gaps":
+				return new DataGapsMarkingAggregator();
+			case "first":
+				return new FirstAggregator();
+			case "last":
+				return new LastAggregator();
+			case "least_squares":
+				return new LeastSquaresAggregator(doubleFactory);
+			case "max":
+				return new MaxAggregator(doubleFactory);
+			case "min":
+				return new MinAggregator(doubleFactory);
+			case "percentile":
+				PercentileAggregator percentile = new PercentileAggregator(doubleFactory);
+				percentile.setPercentile(0.99);
+				return percentile;
+			case "dev":
+				return new StdAggregator(doubleFactory);
+			case "sum":
+				return new SumAggregator(doubleFactory);
+			default:
+				throw new IllegalArgumentException("Unknown aggregator " + name);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINT_COUNT)
+	public void aggregate(Blackhole blackhole)
+	{
+		m_group.reset();
+		DataPointGroup aggregated = m_aggregator.aggregate(m_group);
+		while (aggregated.hasNext())
+			blackhole.consume(aggregated.next());
+	}
+
+	/**
+	 Same as aggregate but the input is read in blocks, aggregators with a
+	 block implementation are also read in blocks.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINT_COUNT)
+	public void aggregateBlocks(Blackhole blackhole)
+	{
+		m_group.reset();
+		DataPointGroup aggregated = m_aggregator.aggregate(DataPointGroupBlockAdapter.wrap(m_group));
+		if (aggregated instanceof BlockDataPointGroup)
+		{
+			while (((BlockDataPointGroup) aggregated).nextBlock(m_block))
+				blackhole.consume(m_block.getValues());
+		}
+		else
+		{
+			while (aggregated.hasNext())
+				blackhole.consume(aggregated.next());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINT_COUNT)
+	public void bucketRanges(Blackhole blackhole)
+	{
+		for (int i = 0; i < POINT_COUNT; i++)
+		{
+			long timestamp = START_TIME + i * INTERVAL;
+			blackhole.consume(m_aggregator.getStartRange(timestamp));
+			blackhole.consume(m_aggregator.getEndRange(timestamp));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(RangeAggregatorBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+
+	/**
+	 Replays the same data points on every invocation without copying them.
+	 */
+	private static class ArrayDataPointGroup extends AbstractDataPointGroup
+	{
+		private final DataPoint[] m_dataPoints;
+		private int m_position;
+
+		public ArrayDataPointGroup(DataPoint[] dataPoints)
+		{
+			super("benchmark.metric");
+			m_dataPoints = dataPoints;
+		}
+
+		public void reset()
+		{
+			m_position = 0;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return m_position < m_dataPoints.length;
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			return m_dataPoints[m_position++];
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -702,4 +702,53 @@ public class RangeAggregatorTest
 
 
 	}
+
+	/**
+	 Aligning in zones without daylight savings is done without the calendar,
+	 check it lands on the same boundaries.
+	 */
+	@Test
+	public void test_alignSampling_fixedOffsetZones()
+	{
+		DateTimeZone[] zones = new DateTimeZone[]{DateTimeZone.UTC,
+				DateTimeZone.forOffsetHoursMinutes(5, 30),
+				DateTimeZone.forOffsetHours(-8)};
+		long[] startTimes = new long[]{0L, 1_420_070_400_123L, 1_432_771_199_999L, -86_400_001L};
+
+		for (DateTimeZone zone : zones)
+		{
+			for (long startTime : startTimes)
+			{
+				DateTime start = new DateTime(startTime, zone);
+				assertThat(alignedStart(zone, new Sampling(1000, TimeUnit.MILLISECONDS), startTime),
+						equalTo(start.withMillisOfSecond(0).getMillis()));
+				assertThat(alignedStart(zone, new Sampling(100000, TimeUnit.SECONDS), startTime),
+						equalTo(start.withMillisOfDay(0).getMillis()));
+				assertThat(alignedStart(zone, new Sampling(100, TimeUnit.HOURS), startTime),
+						equalTo(start.withMillisOfDay(0).getMillis()));
+				assertThat(alignedStart(zone, new Sampling(100, TimeUnit.DAYS), startTime),
+						equalTo(start.withMillisOfDay(0).getMillis()));
+				assertThat(alignedStart(zone, new Sampling(100, TimeUnit.WEEKS), startTime),
+						equalTo(start.withDayOfWeek(1).withMillisOfDay(0).getMillis()));
+				assertThat(alignedStart(zone, new Sampling(100, TimeUnit.MONTHS), startTime),
+						equalTo(start.withDayOfMonth(1).withMillisOfDay(0).getMillis()));
+			}
+		}
+	}
+
+	/**
+	 The sampling must be wider than the alignment so the first range starts
+	 on the aligned time.
+	 */
+	private long alignedStart(DateTimeZone zone, Sampling sampling, long startTime)
+	{
+		SumAggregator aggregator = new SumAggregator(new DoubleDataPointFactoryImpl());
+		aggregator.setSampling(sampling);
+		aggregator.setTimeZone(zone);
+		aggregator.setAlignSampling(true);
+		aggregator.setStartTime(startTime);
+		aggregator.init();
+
+		return aggregator.getStartRange(startTime);
+	}
 }
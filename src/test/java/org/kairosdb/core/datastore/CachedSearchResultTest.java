@@ -20,15 +20,26 @@ import org.junit.Test;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LegacyDataPointFactory;
 import org.kairosdb.core.datapoints.LegacyDoubleDataPoint;
 import org.kairosdb.core.datapoints.LegacyLongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPoint;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
 
 import java.io.IOException;
 import java.util.*;
 
 import static junit.framework.TestCase.assertEquals;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class CachedSearchResultTest
@@ -184,6 +195,82 @@ public class CachedSearchResultTest
 
 	}
 
+	@Test
+	public void test_typedRowsReadFromCache() throws IOException
+	{
+		String tempFile = System.getProperty("java.io.tmpdir") + "/typedBaseFile";
+		CachedSearchResult csResult = CachedSearchResult.createCachedSearchResult(
+				"metric4", tempFile, dataPointFactory, true);
+
+		long now = System.currentTimeMillis();
+		SortedMap<String, String> tags = new TreeMap<>();
+		tags.put("host", "A");
+
+		QueryCallback.DataPointWriter dataPointWriter = csResult.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, tags);
+		dataPointWriter.addDataPoint(new LongDataPoint(now, -5));
+		dataPointWriter.addDataPoint(new LongDataPoint(now + 1000, Long.MAX_VALUE));
+		dataPointWriter.addDataPoint(new LongDataPoint(now + 1000, 7));
+		dataPointWriter.close();
+
+		dataPointWriter = csResult.startDataPointSet(DoubleDataPointFactoryImpl.DST_DOUBLE, tags);
+		dataPointWriter.addDataPoint(new DoubleDataPoint(now, 1.5));
+		dataPointWriter.addDataPoint(new DoubleDataPoint(now + 10, -2.25));
+		dataPointWriter.close();
+
+		dataPointWriter = csResult.startDataPointSet(StringDataPointFactory.DST_STRING, tags);
+		dataPointWriter.addDataPoint(new StringDataPoint(now, "hello"));
+		dataPointWriter.close();
+
+		for (DataPointRow row : csResult.getRows())
+			row.close();
+		csResult.close();
+
+		csResult = CachedSearchResult.openCachedSearchResult("metric4", tempFile, 100, dataPointFactory, true);
+		List<DataPointRow> rows = csResult.getRows();
+
+		assertEquals(3, rows.size());
+		assertThat(rows.get(0).getTagValue("host"), equalTo("A"));
+		assertThat(rows.get(0).getDatastoreType(), equalTo(LongDataPointFactoryImpl.DST_LONG));
+
+		DataPoint dataPoint = rows.get(0).next();
+		assertThat(dataPoint, instanceOf(LongDataPoint.class));
+		assertThat(dataPoint.getTimestamp(), equalTo(now));
+		assertThat(dataPoint.getLongValue(), equalTo(-5L));
+		dataPoint = rows.get(0).next();
+		assertThat(dataPoint.getTimestamp(), equalTo(now + 1000));
+		assertThat(dataPoint.getLongValue(), equalTo(Long.MAX_VALUE));
+		dataPoint = rows.get(0).next();
+		assertThat(dataPoint.getTimestamp(), equalTo(now + 1000));
+		assertThat(dataPoint.getLongValue(), equalTo(7L));
+
+		dataPoint = rows.get(1).next();
+		assertThat(dataPoint, instanceOf(DoubleDataPoint.class));
+		assertThat(dataPoint.getDoubleValue(), equalTo(1.5));
+		dataPoint = rows.get(1).next();
+		assertThat(dataPoint.getTimestamp(), equalTo(now + 10));
+		assertThat(dataPoint.getDoubleValue(), equalTo(-2.25));
+
+		dataPoint = rows.get(2).next();
+		assertThat(((StringDataPoint)dataPoint).getValue(), equalTo("hello"));
+
+		for (DataPointRow row : rows)
+			row.close();
+		csResult.close();
+	}
+
+	@Test
+	public void test_incompleteCacheFileIsIgnored() throws IOException
+	{
+		String tempFile = System.getProperty("java.io.tmpdir") + "/incompleteBaseFile";
+		try (FileOutputStream out = new FileOutputStream(new File(tempFile + ".data")))
+		{
+			out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+		}
+
+		assertThat(CachedSearchResult.openCachedSearchResult("metric5", tempFile, 100, dataPointFactory, true),
+				nullValue());
+	}
+
 	private void assertValues(DataPointRow dataPoints, Number... numbers)
 	{
 		int count = 0;
@@ -29,6 +29,7 @@ import org.kairosdb.core.exception.KairosDBException;
 import org.kairosdb.core.groupby.GroupByResult;
 import org.kairosdb.core.groupby.TagGroupBy;
 import org.kairosdb.core.groupby.TagGroupByResult;
+import org.kairosdb.core.groupby.ValueGroupBy;
 import org.kairosdb.core.processingstage.FeatureProcessingFactory;
 import org.kairosdb.plugin.Aggregator;
 
@@ -95,6 +96,169 @@ public class KairosDatastoreTest
 		dq.close();
 	}
 
+	/**
+	 Groups by value so there are several groups to hand to the compute pool.
+	 */
+	private List<List<DataPoint>> runGroupedSumQuery(int computeThreads) throws KairosDBException, InterruptedException
+	{
+		KairosDatastore datastore = new KairosDatastore(new TestDatastore(), new QueryQueuingManager(1, "hostname"),
+				new TestDataPointFactory(), false);
+		datastore.setQueryComputeThreads(computeThreads);
+		datastore.init();
+
+		try
+		{
+			QueryMetric metric = new QueryMetric(1L, 1, "metric1");
+			metric.addGroupBy(new ValueGroupBy(5));
+			Aggregator agg = aggFactory.createFeatureProcessor("sum");
+			((RangeAggregator)agg).init();
+			metric.addAggregator(agg);
+
+			DatastoreQuery dq = datastore.createQuery(metric);
+			List<List<DataPoint>> results = new ArrayList<>();
+			for (DataPointGroup group : dq.execute())
+			{
+				List<DataPoint> dataPoints = new ArrayList<>();
+				while (group.hasNext())
+					dataPoints.add(group.next());
+				results.add(dataPoints);
+			}
+			dq.close();
+
+			return results;
+		}
+		finally
+		{
+			datastore.close();
+		}
+	}
+
+	@Test
+	public void test_query_computeThreads_sameResults() throws KairosDBException, InterruptedException
+	{
+		List<List<DataPoint>> expected = runGroupedSumQuery(0);
+		List<List<DataPoint>> actual = runGroupedSumQuery(2);
+
+		assertThat(expected.size(), equalTo(5));
+		assertThat(actual.size(), equalTo(expected.size()));
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertThat(actual.get(i).size(), equalTo(expected.get(i).size()));
+			for (int j = 0; j < expected.get(i).size(); j++)
+			{
+				assertThat(actual.get(i).get(j).getTimestamp(), equalTo(expected.get(i).get(j).getTimestamp()));
+				assertThat(actual.get(i).get(j).getDoubleValue(), equalTo(expected.get(i).get(j).getDoubleValue()));
+			}
+		}
+	}
+
+	@Test
+	public void test_query_memoryCacheHit() throws KairosDBException
+	{
+		TestDatastore testds = new TestDatastore();
+		KairosDatastore datastore = new KairosDatastore(testds, new QueryQueuingManager(1, "hostname"),
+				new TestDataPointFactory(), false);
+		QueryMemoryCache memoryCache = new QueryMemoryCache(1024 * 1024, 0);
+		datastore.setMemoryCache(memoryCache);
+		datastore.init();
+
+		for (int i = 0; i < 2; i++)
+		{
+			QueryMetric metric = new QueryMetric(1L, 60, "metric1");
+			metric.setCacheString("metric1 cache string");
+			Aggregator agg = aggFactory.createFeatureProcessor("sum");
+			((RangeAggregator)agg).init();
+			metric.addAggregator(agg);
+
+			DatastoreQuery dq = datastore.createQuery(metric);
+			List<DataPointGroup> results = dq.execute();
+
+			DataPointGroup group = results.get(0);
+			DataPoint dataPoint = group.next();
+			assertThat(dataPoint.getTimestamp(), equalTo(1L));
+			assertThat(dataPoint.getLongValue(), equalTo(72L));
+
+			dq.close();
+		}
+
+		assertThat(testds.m_queryCount, equalTo(1));
+		assertThat(memoryCache.getEntryCount(), equalTo(1));
+	}
+
+	@Test
+	public void test_query_identicalQueryJoinsRunningQuery() throws KairosDBException
+	{
+		TestDatastore testds = new TestDatastore();
+		QueryQueuingManager queuingManager = new QueryQueuingManager(1, "hostname");
+		KairosDatastore datastore = new KairosDatastore(testds, queuingManager,
+				new TestDataPointFactory(), false);
+		datastore.init();
+
+		List<DatastoreQuery> queries = new ArrayList<>();
+		for (int i = 0; i < 2; i++)
+		{
+			QueryMetric metric = new QueryMetric(1L, 0, "metric1");
+			metric.setCacheString("metric1 cache string");
+			Aggregator agg = aggFactory.createFeatureProcessor("sum");
+			((RangeAggregator)agg).init();
+			metric.addAggregator(agg);
+
+			//Second query does not wait for the permit held by the first
+			queries.add(datastore.createQuery(metric));
+		}
+
+		for (DatastoreQuery dq : queries)
+		{
+			DataPointGroup group = dq.execute().get(0);
+			DataPoint dataPoint = group.next();
+			assertThat(dataPoint.getTimestamp(), equalTo(1L));
+			assertThat(dataPoint.getLongValue(), equalTo(72L));
+		}
+
+		for (DatastoreQuery dq : queries)
+			dq.close();
+
+		assertThat(testds.m_queryCount, equalTo(1));
+		assertThat(queuingManager.getAvailableThreads(), equalTo(1));
+		assertThat(queuingManager.getRunningQueries().size(), equalTo(0));
+	}
+
+	@Test
+	public void test_query_runningQueryClosedWithoutResult() throws KairosDBException
+	{
+		TestDatastore testds = new TestDatastore();
+		QueryQueuingManager queuingManager = new QueryQueuingManager(1, "hostname");
+		KairosDatastore datastore = new KairosDatastore(testds, queuingManager,
+				new TestDataPointFactory(), false);
+		datastore.init();
+
+		List<DatastoreQuery> queries = new ArrayList<>();
+		for (int i = 0; i < 2; i++)
+		{
+			QueryMetric metric = new QueryMetric(1L, 0, "metric1");
+			metric.setCacheString("metric1 cache string");
+			Aggregator agg = aggFactory.createFeatureProcessor("sum");
+			((RangeAggregator)agg).init();
+			metric.addAggregator(agg);
+
+			queries.add(datastore.createQuery(metric));
+		}
+
+		//First query goes away without running, the second has to run itself
+		queries.get(0).close();
+
+		DatastoreQuery dq = queries.get(1);
+		DataPointGroup group = dq.execute().get(0);
+		DataPoint dataPoint = group.next();
+		assertThat(dataPoint.getTimestamp(), equalTo(1L));
+		assertThat(dataPoint.getLongValue(), equalTo(72L));
+		dq.close();
+
+		assertThat(testds.m_queryCount, equalTo(1));
+		assertThat(queuingManager.getAvailableThreads(), equalTo(1));
+		assertThat(queuingManager.getRunningQueries().size(), equalTo(0));
+	}
+
 	@Test
 	public void test_query_noAggregator() throws KairosDBException
 	{
@@ -303,6 +467,75 @@ public class KairosDatastoreTest
 
 	}
 
+	@Test
+	public void test_groupByTypeAndTag_valuesThatConcatenateTheSame() throws DatastoreException
+	{
+		TestKairosDatastore datastore = new TestKairosDatastore(new TestDatastore(), new QueryQueuingManager(1, "hostname"),
+				new TestDataPointFactory());
+
+		TagGroupBy groupBy = new TagGroupBy("x", "y");
+		List<DataPointRow> rows = new ArrayList<>();
+
+		//x + "1y" + y + "" and x + "1" + y + "y" are both "x1yy"
+		DataPointRowImpl row1 = new DataPointRowImpl();
+		row1.addTag("x", "1y");
+		row1.addDataPoint(new LongDataPoint(1234, 1));
+
+		DataPointRowImpl row2 = new DataPointRowImpl();
+		row2.addTag("x", "1");
+		row2.addTag("y", "y");
+		row2.addDataPoint(new LongDataPoint(1235, 2));
+
+		rows.add(row1);
+		rows.add(row2);
+
+		List<DataPointGroup> dataPoints = datastore.groupByTypeAndTag("metricName", rows, groupBy, Order.ASC);
+
+		assertThat(dataPoints.size(), equalTo(2));
+
+		assertThat(getTagGroupMap(dataPoints.get(0)), hasEntry("x", "1"));
+		assertThat(getTagGroupMap(dataPoints.get(0)), hasEntry("y", "y"));
+
+		assertThat(getTagGroupMap(dataPoints.get(1)), hasEntry("x", "1y"));
+		assertThat(getTagGroupMap(dataPoints.get(1)), hasEntry("y", ""));
+	}
+
+	@Test
+	public void test_groupByTypeAndTag_rowsMergedIntoGroup() throws DatastoreException
+	{
+		TestKairosDatastore datastore = new TestKairosDatastore(new TestDatastore(), new QueryQueuingManager(1, "hostname"),
+				new TestDataPointFactory());
+
+		TagGroupBy groupBy = new TagGroupBy("host");
+		List<DataPointRow> rows = new ArrayList<>();
+
+		for (int i = 0; i < 100; i++)
+		{
+			DataPointRowImpl row = new DataPointRowImpl();
+			row.addTag("host", "server" + (i % 3));
+			row.addTag("instance", "instance" + i);
+			row.addDataPoint(new LongDataPoint(i, i));
+			rows.add(row);
+		}
+
+		List<DataPointGroup> dataPoints = datastore.groupByTypeAndTag("metricName", rows, groupBy, Order.ASC);
+
+		assertThat(dataPoints.size(), equalTo(3));
+		for (int group = 0; group < 3; group++)
+		{
+			DataPointGroup dataPointGroup = dataPoints.get(group);
+			assertThat(getTagGroupMap(dataPointGroup), hasEntry("host", "server" + group));
+
+			long expected = group;
+			while (dataPointGroup.hasNext())
+			{
+				assertThat(dataPointGroup.next().getTimestamp(), equalTo(expected));
+				expected += 3;
+			}
+			assertThat(expected, equalTo(group + 3L * (group == 0 ? 34 : 33)));
+		}
+	}
+
 	private Map<String, String> getTagGroupMap(DataPointGroup dataPointGroup)
 	{
 		for (GroupByResult groupByResult : dataPointGroup.getGroupByResult())
@@ -326,6 +559,8 @@ public class KairosDatastoreTest
 
 	private static class TestDatastore implements Datastore, ServiceKeyStore
 	{
+		private int m_queryCount = 0;
+
 		TestDatastore()
 		{
 		}
@@ -357,6 +592,7 @@ public class KairosDatastoreTest
 		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback)
 				throws DatastoreException
 		{
+			m_queryCount ++;
 			try
 			{
 				QueryCallback.DataPointWriter dataPointWriter = queryCallback.startDataPointSet(LegacyDataPointFactory.DATASTORE_TYPE, Collections.emptySortedMap());
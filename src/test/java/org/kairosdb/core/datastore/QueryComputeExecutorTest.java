@@ -0,0 +1,211 @@
+package org.kairosdb.core.datastore;
+
+import org.junit.After;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.testing.ListDataPointGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class QueryComputeExecutorTest
+{
+	private QueryComputeExecutor m_executor;
+
+	@After
+	public void tearDown()
+	{
+		if (m_executor != null)
+			m_executor.shutdown();
+	}
+
+	/**
+	 Records which threads read it and whether it was closed.
+	 */
+	private static class TrackingDataPointGroup extends ListDataPointGroup
+	{
+		private final Set<String> m_threads;
+		private volatile boolean m_read;
+		private volatile boolean m_closed;
+
+		TrackingDataPointGroup(String name, int count, Set<String> threads)
+		{
+			super(name);
+			m_threads = threads;
+			for (int i = 0; i < count; i++)
+				addDataPoint(new LongDataPoint(i, i));
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			m_read = true;
+			m_threads.add(Thread.currentThread().getName());
+			return super.hasNext();
+		}
+
+		@Override
+		public void close()
+		{
+			m_closed = true;
+		}
+	}
+
+	@Test
+	public void test_computeAhead_keepsOrder()
+	{
+		m_executor = new QueryComputeExecutor(4, 3);
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+
+		List<DataPointGroup> groups = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+			groups.add(new TrackingDataPointGroup("group" + i, i * 10, threads));
+
+		List<DataPointGroup> computed = m_executor.computeAhead(groups);
+		assertThat(computed).hasSize(50);
+
+		for (int i = 0; i < 50; i++)
+		{
+			DataPointGroup group = computed.get(i);
+			assertThat(group.getName()).isEqualTo("group" + i);
+
+			int count = 0;
+			while (group.hasNext())
+			{
+				DataPoint dataPoint = group.next();
+				assertThat(dataPoint.getTimestamp()).isEqualTo(count);
+				count++;
+			}
+			assertThat(count).isEqualTo(i * 10);
+			group.close();
+			assertThat(((TrackingDataPointGroup) groups.get(i)).m_closed).isTrue();
+		}
+
+		assertThat(threads).anyMatch(name -> name.startsWith("query_compute-"));
+	}
+
+	@Test
+	public void test_computeAhead_bufferLimitedPerGroup() throws InterruptedException
+	{
+		m_executor = new QueryComputeExecutor(1, 1, 10);
+		List<String> readers = new ArrayList<>();
+		CountDownLatch bufferFull = new CountDownLatch(10);
+		ListDataPointGroup large = new ListDataPointGroup("large")
+		{
+			@Override
+			public DataPoint next()
+			{
+				synchronized (readers)
+				{
+					readers.add(Thread.currentThread().getName());
+				}
+				bufferFull.countDown();
+				return super.next();
+			}
+		};
+		for (int i = 0; i < 100; i++)
+			large.addDataPoint(new LongDataPoint(i, i));
+
+		List<DataPointGroup> groups = new ArrayList<>();
+		groups.add(large);
+		groups.add(new ListDataPointGroup("other"));
+
+		List<DataPointGroup> computed = m_executor.computeAhead(groups);
+		assertThat(bufferFull.await(10, TimeUnit.SECONDS)).isTrue();
+
+		DataPointGroup group = computed.get(0);
+		int count = 0;
+		while (group.hasNext())
+		{
+			assertThat(group.next().getTimestamp()).isEqualTo(count);
+			count++;
+		}
+		assertThat(count).isEqualTo(100);
+
+		//The pool stops at the limit, the request thread reads the rest
+		synchronized (readers)
+		{
+			assertThat(readers.subList(0, 10)).allMatch(name -> name.startsWith("query_compute-"));
+			assertThat(readers.subList(10, 100)).allMatch(name -> name.equals(Thread.currentThread().getName()));
+		}
+	}
+
+	@Test
+	public void test_computeAhead_exceptionThrownOnRead()
+	{
+		m_executor = new QueryComputeExecutor(2, 2);
+		ListDataPointGroup failing = new ListDataPointGroup("failing")
+		{
+			@Override
+			public boolean hasNext()
+			{
+				throw new IllegalStateException("aggregation failed");
+			}
+		};
+
+		List<DataPointGroup> groups = new ArrayList<>();
+		groups.add(failing);
+		groups.add(new ListDataPointGroup("ok"));
+
+		List<DataPointGroup> computed = m_executor.computeAhead(groups);
+		assertThatThrownBy(() -> computed.get(0).hasNext())
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessage("aggregation failed");
+		assertThat(computed.get(1).hasNext()).isFalse();
+	}
+
+	@Test
+	public void test_close_skipsGroupsNotStarted() throws InterruptedException
+	{
+		//One thread held by a blocked group so the later groups never start
+		m_executor = new QueryComputeExecutor(1, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ListDataPointGroup blocked = new ListDataPointGroup("blocked")
+		{
+			@Override
+			public boolean hasNext()
+			{
+				started.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				return false;
+			}
+		};
+
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		List<DataPointGroup> groups = new ArrayList<>();
+		groups.add(blocked);
+		for (int i = 0; i < 5; i++)
+			groups.add(new TrackingDataPointGroup("group" + i, 10, threads));
+
+		List<DataPointGroup> computed = m_executor.computeAhead(groups);
+		assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+		for (int i = 1; i < computed.size(); i++)
+			computed.get(i).close();
+		release.countDown();
+		computed.get(0).close();
+
+		for (int i = 1; i < groups.size(); i++)
+		{
+			TrackingDataPointGroup group = (TrackingDataPointGroup) groups.get(i);
+			assertThat(group.m_read).isFalse();
+			assertThat(group.m_closed).isTrue();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.kairosdb.core.datastore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryMemoryCacheTest
+{
+	private File m_file;
+	private RandomAccessFile m_randomAccessFile;
+
+	@Before
+	public void setup() throws IOException
+	{
+		m_file = File.createTempFile("query_memory_cache", ".data");
+		m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		m_randomAccessFile.close();
+		m_file.delete();
+	}
+
+	private void putEntry(QueryMemoryCache cache, String key, int size, long createTime) throws IOException
+	{
+		m_randomAccessFile.setLength(0);
+		m_randomAccessFile.write(new byte[size]);
+		m_randomAccessFile.seek(0);
+		m_randomAccessFile.write(key.getBytes());
+		cache.put(key, 60, createTime, m_randomAccessFile.getChannel());
+	}
+
+	@Test
+	public void test_getReturnsCopyOfEntry() throws IOException
+	{
+		QueryMemoryCache cache = new QueryMemoryCache(1000, 0);
+		putEntry(cache, "abc", 100, System.currentTimeMillis());
+
+		ByteBuffer buffer = cache.get("abc", 60);
+		assertThat(buffer.isDirect()).isTrue();
+		assertThat(buffer.isReadOnly()).isTrue();
+		assertThat(buffer.capacity()).isEqualTo(100);
+		assertThat(buffer.get(0)).isEqualTo((byte)'a');
+		assertThat(cache.getSize()).isEqualTo(100);
+	}
+
+	@Test
+	public void test_leastRecentlyUsedEvicted() throws IOException
+	{
+		QueryMemoryCache cache = new QueryMemoryCache(300, 0);
+		long now = System.currentTimeMillis();
+		putEntry(cache, "a", 100, now);
+		putEntry(cache, "b", 100, now);
+		putEntry(cache, "c", 100, now);
+
+		//Touch a so b is the oldest
+		assertThat(cache.get("a", 60)).isNotNull();
+		putEntry(cache, "d", 100, now);
+
+		assertThat(cache.get("b", 60)).isNull();
+		assertThat(cache.get("a", 60)).isNotNull();
+		assertThat(cache.get("c", 60)).isNotNull();
+		assertThat(cache.get("d", 60)).isNotNull();
+		assertThat(cache.getSize()).isEqualTo(300);
+	}
+
+	@Test
+	public void test_expiredEntryNotReturned() throws IOException
+	{
+		QueryMemoryCache cache = new QueryMemoryCache(1000, 0);
+		putEntry(cache, "abc", 100, System.currentTimeMillis() - 30000);
+
+		assertThat(cache.get("abc", 10)).isNull();
+		assertThat(cache.getEntryCount()).isEqualTo(0);
+		assertThat(cache.getSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_largeEntryNotCached() throws IOException
+	{
+		QueryMemoryCache cache = new QueryMemoryCache(1000, 100);
+		putEntry(cache, "abc", 101, System.currentTimeMillis());
+
+		assertThat(cache.get("abc", 60)).isNull();
+		assertThat(cache.getSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_entryLargerThanBufferNotCached() throws IOException
+	{
+		//Budget over 2GB with no entry limit, the sparse file is never read
+		QueryMemoryCache cache = new QueryMemoryCache(4L * 1024 * 1024 * 1024, 0);
+		m_randomAccessFile.setLength(Integer.MAX_VALUE + 1L);
+		cache.put("abc", 60, System.currentTimeMillis(), m_randomAccessFile.getChannel());
+
+		assertThat(cache.get("abc", 60)).isNull();
+		assertThat(cache.getSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_disabled() throws IOException
+	{
+		QueryMemoryCache cache = new QueryMemoryCache();
+		putEntry(cache, "abc", 100, System.currentTimeMillis());
+
+		assertThat(cache.isEnabled()).isFalse();
+		assertThat(cache.get("abc", 60)).isNull();
+	}
+}
@@ -8,16 +8,22 @@ package org.kairosdb.core.datastore;
 import org.junit.Before;
 import org.junit.Test;
 import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.TestDataPointFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class QueryQueuingManagerTest
@@ -128,6 +134,100 @@ public class QueryQueuingManagerTest
 		assertThat(manager.getQueryWaitingCount(), equalTo(0));
 	}
 
+	@Test(timeout = 3000)
+	public void test_identicalQueryJoinsRunningQuery() throws Exception
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+		QueryMetric metric = new QueryMetric(1L, 0, "metric1");
+		metric.setCacheString("cache string");
+
+		assertThat(manager.joinOrWaitForTimeToRun("1", metric), nullValue());
+
+		//Does not need a permit to join
+		CompletableFuture<CachedSearchResult> running = manager.joinOrWaitForTimeToRun("1", metric);
+		assertThat(running.isDone(), equalTo(false));
+
+		String tempFile = System.getProperty("java.io.tmpdir") + "/queuingBaseFile";
+		CachedSearchResult result = CachedSearchResult.createCachedSearchResult("metric1", tempFile,
+				new TestDataPointFactory(), false);
+		manager.publishResult("1", result);
+		result.close();
+
+		assertThat(running.get(), sameInstance(result));
+		//Result is held open until the running query is done
+		assertThat(result.retain(), equalTo(true));
+		result.close();
+
+		manager.done("1");
+		assertThat(result.retain(), equalTo(false));
+		assertThat(manager.getAvailableThreads(), equalTo(1));
+		assertThat(manager.getMetrics(System.currentTimeMillis()).get(0).getDataPoints().get(0).getLongValue(), equalTo(1L));
+	}
+
+	@Test(timeout = 3000)
+	public void test_runningQueryDoneWithoutResult() throws Exception
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+		QueryMetric metric = new QueryMetric(1L, 0, "metric1");
+		metric.setCacheString("cache string");
+
+		assertThat(manager.joinOrWaitForTimeToRun("1", metric), nullValue());
+		CompletableFuture<CachedSearchResult> running = manager.joinOrWaitForTimeToRun("1", metric);
+
+		//Leader closes without publishing a result or a failure
+		manager.done("1");
+
+		assertThat(running.isCancelled(), equalTo(true));
+		try
+		{
+			running.get();
+			fail("Expected CancellationException");
+		}
+		catch (CancellationException e)
+		{
+			//Not wrapped in an ExecutionException
+		}
+
+		//Joining again makes the waiting query the one to run
+		assertThat(manager.joinOrWaitForTimeToRun("1", metric), nullValue());
+		assertThat(manager.getAvailableThreads(), equalTo(0));
+		manager.done("1");
+		assertThat(manager.getAvailableThreads(), equalTo(1));
+	}
+
+	@Test(timeout = 3000)
+	public void test_differentLimitWaitsForRunningQuery() throws Exception
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(2, "hostname");
+		QueryMetric metric = new QueryMetric(1L, 0, "metric1");
+		metric.setCacheString("cache string");
+		QueryMetric limitedMetric = new QueryMetric(1L, 0, "metric1");
+		limitedMetric.setCacheString("cache string");
+		limitedMetric.setLimit(10);
+
+		assertThat(manager.joinOrWaitForTimeToRun("1", metric), nullValue());
+
+		CompletableFuture<CompletableFuture<CachedSearchResult>> second = CompletableFuture.supplyAsync(() ->
+		{
+			try
+			{
+				return manager.joinOrWaitForTimeToRun("1", limitedMetric);
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+		});
+
+		Thread.sleep(100);
+		assertThat(second.isDone(), equalTo(false));
+
+		manager.done("1");
+		assertThat(second.get(), nullValue());
+		manager.done("1");
+		assertThat(manager.getAvailableThreads(), equalTo(2));
+	}
+
 	private class Query extends Thread
 	{
 		private QueryQueuingManager manager;
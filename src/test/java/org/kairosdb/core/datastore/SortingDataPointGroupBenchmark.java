@@ -0,0 +1,126 @@
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Measures the per data point cost of merging series in
+ {@link SortingDataPointGroup}.  The same number of data points is spread
+ over 1, 100 or 10,000 series, series report at the same times so there are
+ plenty of timestamp ties like when merging many hosts.
+
+ Run the main method from the test classpath or pass the class name to
+ org.openjdk.jmh.Main.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortingDataPointGroupBenchmark
+{
+	private static final int POINT_COUNT = 1_000_000;
+
+	@Param({"1", "100", "10000"})
+	public int m_seriesCount;
+
+	@Param({"ASC", "DESC"})
+	public Order m_order;
+
+	private DataPoint[][] m_series;
+
+	@Setup
+	public void setup()
+	{
+		DoubleDataPointFactoryImpl dataPointFactory = new DoubleDataPointFactoryImpl();
+		int pointsPerSeries = POINT_COUNT / m_seriesCount;
+
+		m_series = new DataPoint[m_seriesCount][];
+		for (int series = 0; series < m_seriesCount; series++)
+		{
+			m_series[series] = new DataPoint[pointsPerSeries];
+			for (int i = 0; i < pointsPerSeries; i++)
+			{
+				int index = m_order == Order.ASC ? i : pointsPerSeries - 1 - i;
+				m_series[series][index] = dataPointFactory.createDataPoint(i * 10_000L, series % 50);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINT_COUNT)
+	public void merge(Blackhole blackhole)
+	{
+		List<DataPointGroup> groups = new ArrayList<>(m_seriesCount);
+		for (DataPoint[] series : m_series)
+			groups.add(new ArrayDataPointGroup(series));
+
+		SortingDataPointGroup sortingGroup = new SortingDataPointGroup(groups, m_order);
+		while (sortingGroup.hasNext())
+			blackhole.consume(sortingGroup.next());
+
+		sortingGroup.close();
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(SortingDataPointGroupBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+
+	private static class ArrayDataPointGroup extends AbstractDataPointGroup
+	{
+		private final DataPoint[] m_dataPoints;
+		private int m_position;
+
+		public ArrayDataPointGroup(DataPoint[] dataPoints)
+		{
+			super("benchmark.metric");
+			m_dataPoints = dataPoints;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return m_position < m_dataPoints.length;
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			return m_dataPoints[m_position++];
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -8,7 +8,11 @@ package org.kairosdb.core.groupby;
 import org.junit.Test;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.StringDataPoint;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.formatter.FormatterException;
 import org.kairosdb.plugin.GroupBy;
@@ -16,6 +20,7 @@ import org.kairosdb.testing.ListDataPointGroup;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -110,6 +115,134 @@ public class GrouperTest
 		group5.close();  // cleans up temp files
 	}
 
+	@Test
+	public void test_inMemoryGroup_keepsTypes() throws IOException
+	{
+		Group group = Group.createGroup(new ListDataPointGroup("metric"), Collections.singletonList(1),
+				new ArrayList<GroupByResult>(), new TestDataPointFactory(), new GroupMemoryBudget(1024 * 1024));
+
+		group.addDataPoint(new LongDataPoint(1, 10));
+		group.addDataPoint(new DoubleDataPoint(2, 2.5));
+		group.addDataPoint(new LongDataPoint(3, Long.MIN_VALUE));
+
+		assertThat(group.isSpilled(), equalTo(false));
+
+		DataPointGroup dataPointGroup = group.getDataPointGroup();
+		DataPoint dataPoint = dataPointGroup.next();
+		assertThat(dataPoint.isLong(), equalTo(true));
+		assertDataPoint(dataPoint, 1, 10);
+
+		dataPoint = dataPointGroup.next();
+		assertThat(dataPoint.isDouble(), equalTo(true));
+		assertThat(dataPoint.getTimestamp(), equalTo(2L));
+		assertThat(dataPoint.getDoubleValue(), equalTo(2.5));
+
+		assertDataPoint(dataPointGroup.next(), 3, Long.MIN_VALUE);
+		assertThat(dataPointGroup.hasNext(), equalTo(false));
+		dataPointGroup.close();
+	}
+
+	@Test
+	public void test_inMemoryGroup_readInBlocks() throws IOException
+	{
+		Group group = Group.createGroup(new ListDataPointGroup("metric"), Collections.singletonList(1),
+				new ArrayList<GroupByResult>(), new TestDataPointFactory(), new GroupMemoryBudget(1024 * 1024));
+
+		for (int i = 0; i < 10; i++)
+			group.addDataPoint(new LongDataPoint(i, i * 10));
+		group.addDataPoint(new DoubleDataPoint(10, 2.5));
+
+		BlockDataPointGroup dataPointGroup = (BlockDataPointGroup) group.getDataPointGroup();
+		DataPointBlock block = new DataPointBlock(8);
+
+		assertThat(dataPointGroup.nextBlock(block), equalTo(true));
+		assertThat(block.size(), equalTo(8));
+		assertThat(block.hasLongValues(), equalTo(true));
+		assertThat(block.getTimestamps()[7], equalTo(7L));
+		assertThat(block.getLongValues()[7], equalTo(70L));
+
+		assertThat(dataPointGroup.nextBlock(block), equalTo(true));
+		assertThat(block.size(), equalTo(3));
+		assertThat(block.hasLongValues(), equalTo(false));
+		assertThat(block.getValues()[1], equalTo(90.0));
+		assertThat(block.getValues()[2], equalTo(2.5));
+
+		assertThat(dataPointGroup.nextBlock(block), equalTo(false));
+		assertThat(dataPointGroup.hasNext(), equalTo(false));
+		dataPointGroup.close();
+	}
+
+	@Test
+	public void test_groupSpillsWhenBudgetUsedUp() throws IOException
+	{
+		GroupMemoryBudget budget = new GroupMemoryBudget(Group.DATA_POINT_SIZE * 16);
+		Group group = Group.createGroup(new ListDataPointGroup("metric"), Collections.singletonList(1),
+				new ArrayList<GroupByResult>(), new TestDataPointFactory(), budget);
+
+		for (int i = 0; i < 16; i++)
+			group.addDataPoint(new LongDataPoint(i, i));
+		assertThat(group.isSpilled(), equalTo(false));
+		assertThat(budget.getUsed(), equalTo((long) Group.DATA_POINT_SIZE * 16));
+
+		for (int i = 16; i < 40; i++)
+			group.addDataPoint(new LongDataPoint(i, i));
+		assertThat(group.isSpilled(), equalTo(true));
+		assertThat(budget.getUsed(), equalTo(0L));
+
+		DataPointGroup dataPointGroup = group.getDataPointGroup();
+		for (int i = 0; i < 40; i++)
+			assertDataPoint(dataPointGroup.next(), i, i);
+		assertThat(dataPointGroup.hasNext(), equalTo(false));
+		dataPointGroup.close();
+	}
+
+	@Test
+	public void test_groupSpillsOnOtherTypes() throws IOException
+	{
+		Group group = Group.createGroup(new ListDataPointGroup("metric"), Collections.singletonList(1),
+				new ArrayList<GroupByResult>(), new TestDataPointFactory(), new GroupMemoryBudget(1024 * 1024));
+
+		group.addDataPoint(new LongDataPoint(1, 10));
+		group.addDataPoint(new StringDataPoint(2, "value"));
+		group.addDataPoint(new LongDataPoint(3, 30));
+		assertThat(group.isSpilled(), equalTo(true));
+
+		DataPointGroup dataPointGroup = group.getDataPointGroup();
+		assertDataPoint(dataPointGroup.next(), 1, 10);
+		assertThat(((StringDataPoint) dataPointGroup.next()).getValue(), equalTo("value"));
+		assertDataPoint(dataPointGroup.next(), 3, 30);
+		assertThat(dataPointGroup.hasNext(), equalTo(false));
+		dataPointGroup.close();
+	}
+
+	@Test
+	public void test_noMemoryLimit_writesToDisk() throws IOException
+	{
+		Grouper grouper = new Grouper(new TestDataPointFactory(), 0);
+
+		ListDataPointGroup dataPointGroup = new ListDataPointGroup("dataPointGroup");
+		dataPointGroup.addDataPoint(new LongDataPoint(1, 1));
+		dataPointGroup.addDataPoint(new LongDataPoint(2, 5));
+		dataPointGroup.addDataPoint(new LongDataPoint(3, 2));
+
+		List<GroupBy> groupBys = new ArrayList<GroupBy>();
+		groupBys.add(new ValueGroupBy(3));
+
+		List<DataPointGroup> groups = grouper.group(groupBys, Collections.<DataPointGroup>singletonList(dataPointGroup));
+
+		assertThat(groups.size(), equalTo(2));
+		DataPointGroup group1 = groups.get(0);
+		assertDataPoint(group1.next(), 1, 1);
+		assertDataPoint(group1.next(), 3, 2);
+		assertThat(group1.hasNext(), equalTo(false));
+		group1.close();
+
+		DataPointGroup group2 = groups.get(1);
+		assertDataPoint(group2.next(), 2, 5);
+		assertThat(group2.hasNext(), equalTo(false));
+		group2.close();
+	}
+
 	public static void assertDataPoint(DataPoint dataPoint, long expectedTimestamp, long expectedValue)
 	{
 		assertThat(dataPoint.getTimestamp(), equalTo(expectedTimestamp));
@@ -28,13 +28,22 @@ import org.kairosdb.testing.Client;
 import org.kairosdb.testing.JsonResponse;
 import org.kairosdb.util.LoggingUtils;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.EnumSet;
 import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -42,6 +51,15 @@ import static org.junit.Assert.assertThrows;
 
 public class MetricsResourceTest extends ResourceBase
 {
+	private static final String MULTIPLE_METRICS_RESPONSE =
+			"{\"queries\":" +
+					"[{\"sample_size\":10,\"results\":" +
+					"[{\"name\":\"abc.1\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}," +
+					"{\"sample_size\":10,\"results\":" +
+					"[{\"name\":\"abc.2\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}," +
+					"{\"sample_size\":10,\"results\":" +
+					"[{\"name\":\"abc.3\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}]}";
+
 	private static final String ADD_METRIC_URL = "http://localhost:9001/api/v1/datapoints";
 	private static final String GET_METRIC_URL = "http://localhost:9001/api/v1/datapoints/query";
 	private static final String METRIC_NAMES_URL = "http://localhost:9001/api/v1/metricnames";
@@ -130,6 +148,37 @@ public class MetricsResourceTest extends ResourceBase
 						"[{\"name\":\"abc.123\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}]}");
 	}
 
+	@Test
+	public void testQueryMultipleMetricsReturnedInRequestOrder() throws IOException
+	{
+		String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+
+		JsonResponse response = client.post(json, GET_METRIC_URL);
+
+		assertResponse(response, 200, MULTIPLE_METRICS_RESPONSE);
+		assertEquals(3, queuingManager.getAvailableThreads());
+	}
+
+	@Test
+	public void testQueryMultipleMetricsQueryMetricThreadsBusy() throws IOException
+	{
+		//The dispatcher takes the only thread so each metric runs on it in turn
+		resource.setQueryMetricThreads(1);
+		try
+		{
+			String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			assertResponse(response, 200, MULTIPLE_METRICS_RESPONSE);
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			resource.setQueryMetricThreads(MetricsResource.DEFAULT_QUERY_METRIC_THREADS);
+		}
+	}
+
 	@Test
 	public void testQueryWithBeanValidationException() throws IOException
 	{
@@ -198,6 +247,145 @@ public class MetricsResourceTest extends ResourceBase
 		}
 	}
 
+	@Test
+	public void test_datastoreThrowsExceptionMultipleMetrics() throws DatastoreException, IOException
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+
+		try
+		{
+			datastore.throwException(new DatastoreException("bogus"));
+
+			String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			datastore.throwException(null);
+
+			assertThat(response.getStatusCode(), equalTo(500));
+			assertThat(response.getJson(), equalTo("{\"errors\":[\"org.kairosdb.core.exception.DatastoreException: bogus\"]}"));
+		}
+		finally
+		{
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
+
+	@Test
+	public void test_streamQueryResponse() throws IOException
+	{
+		resource.setStreamQueryResponse(true);
+		try
+		{
+			String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			assertResponse(response, 200, MULTIPLE_METRICS_RESPONSE);
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			resource.setStreamQueryResponse(false);
+		}
+	}
+
+	@Test
+	public void test_streamQueryResponse_errorBeforeFirstFlush() throws IOException
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+		resource.setStreamQueryResponse(true);
+
+		try
+		{
+			datastore.throwException(new DatastoreException("bogus"), "abc.2");
+
+			String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			assertThat(response.getStatusCode(), equalTo(500));
+			assertThat(response.getJson(), equalTo("{\"errors\":[\"org.kairosdb.core.exception.DatastoreException: bogus\"]}"));
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			datastore.throwException(null);
+			resource.setStreamQueryResponse(false);
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
+	@Test
+	public void test_streamQueryResponse_errorAfterFirstFlush() throws Exception
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+		resource.setStreamQueryResponse(true);
+
+		try
+		{
+			//Enough results from the first metric to fill the write buffer
+			datastore.setExtraDataPoints(5000);
+			datastore.throwException(new DatastoreException("bogus"), "abc.2");
+
+			String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+			Response response = resource.runQuery(json, "127.0.0.1");
+			assertThat(response.getStatus(), equalTo(200));
+
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			WebApplicationException e = assertThrows(WebApplicationException.class,
+					() -> ((StreamingOutput) response.getEntity()).write(output));
+
+			//The error can no longer be sent so the write fails without an entity
+			assertThat(e.getResponse().getStatus(), equalTo(500));
+			assertThat(e.getResponse().getEntity(), nullValue());
+			assertThat(e.getCause(), instanceOf(DatastoreException.class));
+
+			String partial = output.toString("UTF-8");
+			assertThat(partial, startsWith("{\"queries\":[{\"sample_size\":5010,\"results\":[{\"name\":\"abc.1\""));
+			assertThat(partial, not(containsString("abc.2")));
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			datastore.setExtraDataPoints(0);
+			datastore.throwException(null);
+			resource.setStreamQueryResponse(false);
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
+	@Test
+	public void test_streamQueryResponse_clientClosedConnection() throws Exception
+	{
+		resource.setStreamQueryResponse(true);
+
+		try
+		{
+			String json = Resources.toString(Resources.getResource("query-metric-multiple-metrics.json"), Charsets.UTF_8);
+			Response response = resource.runQuery(json, "127.0.0.1");
+
+			OutputStream closedOutput = new OutputStream()
+			{
+				@Override
+				public void write(int b) throws IOException
+				{
+					throw new IOException("Broken pipe");
+				}
+			};
+
+			//Passed on as is instead of being turned into a query error
+			IOException e = assertThrows(IOException.class,
+					() -> ((StreamingOutput) response.getEntity()).write(closedOutput));
+			assertThat(e.getMessage(), equalTo("Broken pipe"));
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			resource.setStreamQueryResponse(false);
+		}
+	}
 
 	@Test
 	public void test_checkServerTypeStaticIngestDisabled() throws InvalidServerTypeException
@@ -104,6 +104,8 @@ public abstract class ResourceBase
                 testProperties.put("kairosdb.datastore.concurrentQueryThreads", "1");
                 testProperties.put("kairosdb.query_cache.keep_cache_files", "false");
                 testProperties.put("kairosdb.server.type", "ALL");
+                //Exercise the parallel query metric path, the shipped default is 1
+                testProperties.put("kairosdb.queries.query_metric_parallelism", "4");
 
                 props.load(testProperties);
                 bindConfiguration(props, binder());
@@ -159,6 +161,8 @@ public abstract class ResourceBase
     public static class TestDatastore implements Datastore, ServiceKeyStore
     {
         private DatastoreException m_toThrow = null;
+        private String m_throwForMetric = null;
+        private int m_extraDataPoints = 0;
         private Map<String, String> metadata = new TreeMap<>();
 
         TestDatastore()
@@ -168,6 +172,24 @@ public abstract class ResourceBase
         void throwException(DatastoreException toThrow)
         {
             m_toThrow = toThrow;
+            m_throwForMetric = null;
+        }
+
+        /**
+         Only queries for the given metric throw
+         */
+        void throwException(DatastoreException toThrow, String metricName)
+        {
+            m_toThrow = toThrow;
+            m_throwForMetric = metricName;
+        }
+
+        /**
+         Adds data points with increasing timestamps to the server1 results
+         */
+        void setExtraDataPoints(int extraDataPoints)
+        {
+            m_extraDataPoints = extraDataPoints;
         }
 
         @Override
@@ -196,7 +218,7 @@ public abstract class ResourceBase
         @Override
         public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback) throws DatastoreException
         {
-            if (m_toThrow != null)
+            if (m_toThrow != null && (m_throwForMetric == null || m_throwForMetric.equals(query.getName())))
                 throw m_toThrow;
 
             try
@@ -210,6 +232,8 @@ public abstract class ResourceBase
                 dataPointWriter.addDataPoint(new LongDataPoint(2, 10));
                 dataPointWriter.addDataPoint(new LongDataPoint(2, 5));
                 dataPointWriter.addDataPoint(new LongDataPoint(3, 10));
+                for (int i = 0; i < m_extraDataPoints; i++)
+                    dataPointWriter.addDataPoint(new LongDataPoint(100 + i, 10));
                 dataPointWriter.close();
 
                 tags = new TreeMap<>();
@@ -715,6 +715,56 @@ public class DataPointsParserTest
 		assertThat(validationErrors.getErrors().get(0), equalTo("metric[0](name=metric1) value is an invalid type"));
 	}
 
+	@Test
+	public void test_tagsAfterDatapoints_valid() throws DatastoreException, IOException
+	{
+		String json = "[{\"datapoints\": [[1234, 10], [\"1235\", 1.5], [1.236e3, \"7\"], [1237, 8, \"double\"]], \"type\": \"long\", \"tags\":{\"foo\":\"bar\"}, \"name\": \"metric1\"}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		eventBus.register(fakeds);
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+
+		List<DataPointSet> dataPointSetList = fakeds.getDataPointSetList();
+		assertThat(dataPointSetList.size(), equalTo(1));
+		assertThat(dataPointSetList.get(0).getName(), equalTo("metric1"));
+		assertThat(dataPointSetList.get(0).getTags().get("foo"), equalTo("bar"));
+
+		List<DataPoint> dataPoints = dataPointSetList.get(0).getDataPoints();
+		assertThat(dataPoints.size(), equalTo(4));
+		assertThat(dataPoints.get(0).getTimestamp(), equalTo(1234L));
+		assertThat(dataPoints.get(0).getLongValue(), equalTo(10L));
+		assertThat(dataPoints.get(1).getTimestamp(), equalTo(1235L));
+		assertThat(dataPoints.get(1).getLongValue(), equalTo(1L));
+		assertThat(dataPoints.get(2).getTimestamp(), equalTo(1236L));
+		assertThat(dataPoints.get(2).getLongValue(), equalTo(7L));
+		assertThat(dataPoints.get(3).getTimestamp(), equalTo(1237L));
+		assertThat(dataPoints.get(3).isDouble(), equalTo(true));
+		assertThat(dataPoints.get(3).getDoubleValue(), equalTo(8.0));
+
+		assertThat(parser.getDataPointCount(), equalTo(4));
+	}
+
+	@Test
+	public void test_datapoints_nullTimestamp_Invalid() throws DatastoreException, IOException
+	{
+		String json = "[{\"name\": \"metric1\", \"tags\":{\"foo\":\"bar\"}, \"datapoints\": [[1, 2], [null, 3], [4, null]]}]";
+
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.size(), equalTo(2));
+		assertThat(validationErrors.getErrors().get(0), equalTo("metric[0](name=metric1).datapoints[1].timestamp may not be null."));
+		assertThat(validationErrors.getErrors().get(1), equalTo("metric[0](name=metric1).datapoints[1].value may not be empty."));
+		assertThat(parser.getDataPointCount(), equalTo(1));
+	}
+
 	@Test
 	public void test_parserSpeed() throws DatastoreException, IOException
 	{
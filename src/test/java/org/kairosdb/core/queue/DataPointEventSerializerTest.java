@@ -1,6 +1,9 @@
 package org.kairosdb.core.queue;
 
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
@@ -9,6 +12,12 @@ import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.events.DataPointEvent;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.TreeSet;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -40,4 +49,84 @@ public class DataPointEventSerializerTest
 
 		assertThat(original, equalTo(processedEvent));
 	}
+
+	private DataPointEvent createEvent(String metricName, String tagValue, long timestamp)
+	{
+		ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of("host", tagValue);
+		return new DataPointEvent(metricName, tags, m_longDataPointFactory.createDataPoint(timestamp, 42), 0);
+	}
+
+	@Test
+	public void test_deserializeLegacyFormat() throws IOException
+	{
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		DataPointEvent original = createEvent("legacy_metric", "server1", 123L);
+
+		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput();
+		dataOutput.writeUTF("legacy_metric");
+		dataOutput.writeInt(0);
+		dataOutput.writeLong(123L);
+		dataOutput.writeUTF(original.getDataPoint().getDataStoreDataType());
+		original.getDataPoint().writeValueToBuffer(dataOutput);
+		dataOutput.writeInt(1);
+		dataOutput.writeUTF("host");
+		dataOutput.writeUTF("server1");
+
+		assertThat(serializer.deserializeEvent(dataOutput.toByteArray()), equalTo(original));
+	}
+
+	@Test
+	public void test_dictionaryReadAfterRestart() throws IOException
+	{
+		File tempDir = Files.createTempDirectory("kairos").toFile();
+		try
+		{
+			DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory(),
+					new EventDictionary(tempDir.getAbsolutePath()));
+
+			DataPointEvent event1 = createEvent("metric1", "server1", 1L);
+			DataPointEvent event2 = createEvent("metric1", "server1", 2L);
+			byte[] bytes1 = serializer.serializeEvent(event1);
+			byte[] bytes2 = serializer.serializeEvent(event2);
+
+			//A new dictionary on the same directory reads what the first one wrote
+			DataPointEventSerializer restarted = new DataPointEventSerializer(new TestDataPointFactory(),
+					new EventDictionary(tempDir.getAbsolutePath()));
+
+			DataPointEvent read1 = restarted.deserializeEvent(bytes1);
+			DataPointEvent read2 = restarted.deserializeEvent(bytes2);
+			assertThat(read1, equalTo(event1));
+			assertThat(read2, equalTo(event2));
+			assertThat(read1.getTags() == read2.getTags(), equalTo(true));
+
+			assertThat(restarted.getDictionary().getStoredGenerations(), equalTo(new TreeSet<>(Collections.singleton(0))));
+			assertThat(restarted.getDictionary().getCurrentGeneration(), equalTo(1));
+		}
+		finally
+		{
+			FileUtils.deleteDirectory(tempDir);
+		}
+	}
+
+	@Test
+	public void test_dictionaryRollover()
+	{
+		EventDictionary dictionary = new EventDictionary();
+		dictionary.setMaxEntries(3);
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory(), dictionary);
+
+		DataPointEvent event1 = createEvent("metric1", "server1", 1L);
+		DataPointEvent event2 = createEvent("metric1", "server2", 1L);
+		byte[] bytes1 = serializer.serializeEvent(event1);
+		byte[] bytes2 = serializer.serializeEvent(event2);
+
+		assertThat(serializer.getDictionaryGeneration(bytes1), equalTo(0));
+		assertThat(serializer.getDictionaryGeneration(bytes2), equalTo(1));
+		assertThat(serializer.deserializeEvent(bytes1), equalTo(event1));
+		assertThat(serializer.deserializeEvent(bytes2), equalTo(event2));
+
+		dictionary.removeGeneration(0);
+		assertThat(serializer.deserializeEvent(bytes1), equalTo(null));
+		assertThat(serializer.deserializeEvent(bytes2), equalTo(event2));
+	}
 }
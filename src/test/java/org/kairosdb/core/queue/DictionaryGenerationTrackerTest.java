@@ -0,0 +1,66 @@
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.events.DataPointEvent;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class DictionaryGenerationTrackerTest
+{
+	private DataPointEvent createEvent(String tagValue)
+	{
+		return new DataPointEvent("metric1", ImmutableSortedMap.of("host", tagValue),
+				new LongDataPointFactoryImpl().createDataPoint(1L, 42), 0);
+	}
+
+	@Test
+	public void test_rolloverBetweenSerializeAndAppend()
+	{
+		EventDictionary dictionary = new EventDictionary();
+		dictionary.setMaxEntries(3);
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory(), dictionary);
+		DictionaryGenerationTracker tracker = new DictionaryGenerationTracker(serializer, mock(IBigArray.class));
+
+		tracker.track(serializer.serializeEvent(createEvent("server1")), 9);
+
+		//First producer serializes with generation 0 but appends last
+		int reserved1 = tracker.reserve();
+		DataPointEvent event1 = createEvent("server1");
+		byte[] bytes1 = serializer.serializeEvent(event1);
+
+		//Second producer rolls the dictionary over and appends first
+		int reserved2 = tracker.reserve();
+		byte[] bytes2 = serializer.serializeEvent(createEvent("server2"));
+		assertThat(serializer.getDictionaryGeneration(bytes1), equalTo(0));
+		assertThat(serializer.getDictionaryGeneration(bytes2), equalTo(1));
+		tracker.track(bytes2, 10);
+		tracker.unreserve(reserved2);
+
+		//Checkpoint past everything appended for generation 0 so far
+		tracker.release(10);
+		assertThat(serializer.deserializeEvent(bytes1), equalTo(event1));
+
+		tracker.track(bytes1, 11);
+		tracker.unreserve(reserved1);
+
+		//Index 11 still refers to generation 0
+		tracker.release(11);
+		assertThat(serializer.deserializeEvent(bytes1), equalTo(event1));
+
+		//Generation 0 is kept while it is the one being appended
+		tracker.release(12);
+		assertThat(serializer.deserializeEvent(bytes1), equalTo(event1));
+
+		tracker.track(serializer.serializeEvent(createEvent("server2")), 12);
+		tracker.release(13);
+		assertThat(serializer.deserializeEvent(bytes1), nullValue());
+		assertThat(serializer.deserializeEvent(bytes2), equalTo(createEvent("server2")));
+	}
+}
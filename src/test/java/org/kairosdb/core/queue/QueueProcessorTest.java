@@ -13,20 +13,30 @@ import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.bigqueue.BigArrayImpl;
 import org.kairosdb.bigqueue.IBigArray;
+import org.mockito.ArgumentCaptor;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.eq;
@@ -284,4 +294,264 @@ public class QueueProcessorTest
 		//verify(bigArray, times(1)).get(anyLong()); //Item taken from memory
 		verify(bigArray, times(1)).removeBeforeIndex(eq(1l));
 	}
+
+	@Test
+	public void test_groupCommit_concurrentPuts() throws Exception
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+		AtomicLong nextIndex = new AtomicLong();
+
+		when(bigArray.append(any())).then(invocation -> nextIndex.getAndIncrement());
+		when(bigArray.getTailIndex()).thenReturn(0L);
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+
+		FileQueueProcessor queueProcessor = new FileQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 1000, 1000, 500, 1, 500);
+		queueProcessor.setGroupCommitWait(10);
+		queueProcessor.setGroupCommit(true);
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		DataPointEvent event = createDataPointEvent();
+		ExecutorService producers = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++)
+		{
+			futures.add(producers.submit(() ->
+			{
+				for (int j = 0; j < 25; j++)
+					queueProcessor.put(event);
+				return null;
+			}));
+		}
+
+		for (Future<?> future : futures)
+			future.get(10, TimeUnit.SECONDS);
+		producers.shutdown();
+
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.run();
+
+		ArgumentCaptor<List<DataPointEvent>> captor = ArgumentCaptor.forClass(List.class);
+		verify(bigArray, times(100)).append(eq(serializer.serializeEvent(event)));
+		verify(processorHandler, times(1)).handleEvents(captor.capture(), any(), eq(false));
+		assertThat(captor.getValue()).hasSize(100);
+
+		queueProcessor.shutdown();
+	}
+
+	private DataPointEvent createDataPointEvent(long timestamp)
+	{
+		DataPoint dataPoint = m_longDataPointFactory.createDataPoint(timestamp, 43);
+		return new DataPointEvent("new_metric", ImmutableSortedMap.of("tag1", "val1"), dataPoint, 500);
+	}
+
+	@Test
+	public void test_hybrid_eventsStayInMemory() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+
+		QueueProcessor queueProcessor = new HybridQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 2, 10, 500, 1, 500);
+
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		DataPointEvent event = createDataPointEvent();
+
+		queueProcessor.put(event);
+
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.run();
+
+		verify(bigArray, times(0)).append(any());
+		verify(processorHandler, times(1)).handleEvents(eq(Arrays.asList(event)), any(), eq(false));
+	}
+
+	@Test
+	public void test_hybrid_spillsWhenMemoryQueueIsFull() throws DatastoreException, IOException
+	{
+		File tempDir = Files.createTempDirectory("kairos").toFile();
+		IBigArray bigArray = new BigArrayImpl(tempDir.getAbsolutePath(), "kairos_queue", 32 * 1024 * 1024);
+		try
+		{
+			DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+			ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+
+			QueueProcessor queueProcessor = new HybridQueueProcessor(serializer,
+					bigArray, new TestExecutor(), 10, 2, 500, 1, 500);
+			queueProcessor.setProcessorHandler(processorHandler);
+
+			List<DataPointEvent> events = new ArrayList<>();
+			for (int i = 0; i < 4; i++)
+			{
+				events.add(createDataPointEvent(i));
+				queueProcessor.put(events.get(i));
+			}
+
+			//The backlog is written ahead of the event that filled the queue
+			assertThat(bigArray.getHeadIndex()).isEqualTo(4);
+
+			m_deliveryThread.setRunOnce(true);
+			m_deliveryThread.run();
+
+			verify(processorHandler, times(1)).handleEvents(eq(events), any(), eq(false));
+
+			//Caught up so new events are kept in memory again
+			queueProcessor.put(createDataPointEvent(4));
+			assertThat(bigArray.getHeadIndex()).isEqualTo(4);
+		}
+		finally
+		{
+			bigArray.close();
+			FileUtils.deleteDirectory(tempDir);
+		}
+	}
+
+	@Test
+	public void test_hybrid_drainsFileQueueFirstAfterRestart() throws DatastoreException, IOException
+	{
+		File tempDir = Files.createTempDirectory("kairos").toFile();
+		try
+		{
+			DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+			List<DataPointEvent> events = new ArrayList<>();
+
+			IBigArray bigArray = new BigArrayImpl(tempDir.getAbsolutePath(), "kairos_queue", 32 * 1024 * 1024);
+			QueueProcessor queueProcessor = new HybridQueueProcessor(serializer,
+					bigArray, new TestExecutor(), 10, 1, 500, 1, 500);
+			for (int i = 0; i < 3; i++)
+			{
+				events.add(createDataPointEvent(i));
+				queueProcessor.put(events.get(i));
+			}
+
+			//Writes anything still in memory to disk
+			queueProcessor.shutdown();
+
+			bigArray = new BigArrayImpl(tempDir.getAbsolutePath(), "kairos_queue", 32 * 1024 * 1024);
+			ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+			queueProcessor = new HybridQueueProcessor(serializer,
+					bigArray, new TestExecutor(), 10, 100, 500, 1, 500);
+			queueProcessor.setProcessorHandler(processorHandler);
+
+			DataPointEvent newEvent = createDataPointEvent(3);
+			queueProcessor.put(newEvent);
+
+			m_deliveryThread.setRunOnce(true);
+			m_deliveryThread.run();
+
+			ArgumentCaptor<List<DataPointEvent>> captor = ArgumentCaptor.forClass(List.class);
+			verify(processorHandler, times(1)).handleEvents(captor.capture(), any(), eq(false));
+			events.add(newEvent);
+			assertThat(captor.getValue()).containsExactlyElementsOf(events);
+
+			queueProcessor.shutdown();
+		}
+		finally
+		{
+			FileUtils.deleteDirectory(tempDir);
+		}
+	}
+
+	@Test
+	public void test_deliveryShards_keepSeriesOrder() throws Exception
+	{
+		Map<String, List<Long>> received = new HashMap<>();
+		Map<String, Set<String>> threads = new HashMap<>();
+		CountDownLatch done = new CountDownLatch(200);
+		ProcessorHandler processorHandler = (events, eventCompletionCallBack, fullBatch) ->
+		{
+			synchronized (received)
+			{
+				for (DataPointEvent event : events)
+				{
+					String series = event.getTags().get("series");
+					received.computeIfAbsent(series, k -> new ArrayList<>()).add(event.getDataPoint().getTimestamp());
+					threads.computeIfAbsent(series, k -> new HashSet<>()).add(Thread.currentThread().getName());
+					done.countDown();
+				}
+			}
+			eventCompletionCallBack.complete();
+		};
+
+		MemoryQueueProcessor queueProcessor = new MemoryQueueProcessor(new TestExecutor(), 50, 1000, 1, 500);
+		queueProcessor.setDeliveryThreads(4);
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		for (int i = 0; i < 200; i++)
+		{
+			DataPoint dataPoint = m_longDataPointFactory.createDataPoint(i, 43);
+			queueProcessor.put(new DataPointEvent("new_metric",
+					ImmutableSortedMap.of("series", String.valueOf(i % 10)), dataPoint, 500));
+		}
+
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.run();
+
+		assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		queueProcessor.shutdown();
+
+		assertThat(received).hasSize(10);
+		for (Map.Entry<String, List<Long>> entry : received.entrySet())
+		{
+			assertThat(entry.getValue()).hasSize(20).isSorted();
+			assertThat(threads.get(entry.getKey())).hasSize(1);
+		}
+	}
+
+	@Test
+	public void test_deliveryShards_checkpointAfterAllShardsComplete() throws Exception
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+		AtomicLong nextIndex = new AtomicLong();
+
+		when(bigArray.append(any())).then(invocation -> nextIndex.getAndIncrement());
+		when(bigArray.getTailIndex()).thenReturn(0L);
+		when(bigArray.getHeadIndex()).then(invocation -> nextIndex.get());
+
+		List<EventCompletionCallBack> callBacks = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(40);
+		ProcessorHandler processorHandler = (events, eventCompletionCallBack, fullBatch) ->
+		{
+			synchronized (callBacks)
+			{
+				callBacks.add(eventCompletionCallBack);
+				for (DataPointEvent event : events)
+					done.countDown();
+			}
+		};
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		FileQueueProcessor queueProcessor = new FileQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 100, 1000, -1, 1, 500);
+		queueProcessor.setDeliveryThreads(4);
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		for (int i = 0; i < 40; i++)
+		{
+			DataPoint dataPoint = m_longDataPointFactory.createDataPoint(i, 43);
+			queueProcessor.put(new DataPointEvent("new_metric",
+					ImmutableSortedMap.of("series", String.valueOf(i)), dataPoint, 500));
+		}
+
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.run();
+
+		assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		queueProcessor.setDeliveryThreads(1);
+
+		assertThat(callBacks.size()).isGreaterThan(1);
+		for (int i = 1; i < callBacks.size(); i++)
+			callBacks.get(i).complete();
+
+		verify(bigArray, times(0)).removeBeforeIndex(anyLong());
+
+		callBacks.get(0).complete();
+
+		verify(bigArray, times(1)).removeBeforeIndex(eq(39L));
+	}
 }
@@ -0,0 +1,127 @@
+package org.kairosdb.core.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RingBufferTest
+{
+	@Test
+	public void test_capacityRoundedUpToPowerOfTwo()
+	{
+		assertThat(new RingBuffer<>(1, RingBuffer.WaitStrategy.PARK).getCapacity()).isEqualTo(1);
+		assertThat(new RingBuffer<>(8, RingBuffer.WaitStrategy.PARK).getCapacity()).isEqualTo(8);
+		assertThat(new RingBuffer<>(100000, RingBuffer.WaitStrategy.PARK).getCapacity()).isEqualTo(131072);
+	}
+
+	@Test
+	public void test_drainTo_respectsMax() throws InterruptedException
+	{
+		RingBuffer<Integer> buffer = new RingBuffer<>(8, RingBuffer.WaitStrategy.PARK);
+		buffer.putAll(Arrays.asList(1, 2, 3, 4, 5));
+
+		List<Integer> drained = new ArrayList<>();
+		assertThat(buffer.drainTo(drained, 3)).isEqualTo(3);
+		assertThat(drained).containsExactly(1, 2, 3);
+		assertThat(buffer.size()).isEqualTo(2);
+
+		assertThat(buffer.drainTo(drained, 10)).isEqualTo(2);
+		assertThat(drained).containsExactly(1, 2, 3, 4, 5);
+		assertThat(buffer.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_await_timesOut() throws InterruptedException
+	{
+		RingBuffer<Integer> buffer = new RingBuffer<>(8, RingBuffer.WaitStrategy.PARK);
+		buffer.put(1);
+
+		long start = System.nanoTime();
+		buffer.await(2, 50);
+
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(49);
+		assertThat(buffer.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void test_concurrentProducers_park() throws Exception
+	{
+		runProducers(RingBuffer.WaitStrategy.PARK);
+	}
+
+	@Test
+	public void test_concurrentProducers_yield() throws Exception
+	{
+		runProducers(RingBuffer.WaitStrategy.YIELD);
+	}
+
+	@Test
+	public void test_concurrentProducers_spin() throws Exception
+	{
+		runProducers(RingBuffer.WaitStrategy.SPIN);
+	}
+
+	/**
+	 Producers overrun a small buffer, every value must come out once and in
+	 the order each producer put them.
+	 */
+	private void runProducers(RingBuffer.WaitStrategy waitStrategy) throws Exception
+	{
+		final int producerCount = 4;
+		final int valuesPerProducer = 20000;
+		RingBuffer<long[]> buffer = new RingBuffer<>(64, waitStrategy);
+
+		ExecutorService producers = Executors.newFixedThreadPool(producerCount);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int p = 0; p < producerCount; p++)
+		{
+			final int producer = p;
+			futures.add(producers.submit(() ->
+			{
+				for (int i = 0; i < valuesPerProducer; i += 2)
+				{
+					if (i % 4 == 0)
+						buffer.putAll(Arrays.asList(new long[]{producer, i}, new long[]{producer, i + 1}));
+					else
+					{
+						buffer.put(new long[]{producer, i});
+						buffer.put(new long[]{producer, i + 1});
+					}
+				}
+				return null;
+			}));
+		}
+
+		long[] nextExpected = new long[producerCount];
+		List<long[]> drained = new ArrayList<>();
+		int received = 0;
+		while (received < producerCount * valuesPerProducer)
+		{
+			buffer.await(1, 100);
+			drained.clear();
+			buffer.drainTo(drained, 50);
+			for (long[] value : drained)
+			{
+				assertThat(value[1]).isEqualTo(nextExpected[(int) value[0]]);
+				nextExpected[(int) value[0]]++;
+			}
+			received += drained.size();
+		}
+
+		for (Future<?> future : futures)
+			future.get(10, TimeUnit.SECONDS);
+		producers.shutdown();
+
+		assertThat(buffer.size()).isEqualTo(0);
+		for (long next : nextExpected)
+			assertThat(next).isEqualTo(valuesPerProducer);
+	}
+}
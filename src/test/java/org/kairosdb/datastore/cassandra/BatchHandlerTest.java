@@ -4,6 +4,7 @@ import com.datastax.driver.core.exceptions.NoHostAvailableException;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosRootConfig;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
@@ -231,5 +232,35 @@ public class BatchHandlerTest
 		verify(batch, times(2)).addRowKey(any(), anyInt());
 	}
 
+	@Test
+	public void test_dataPoints_use_cached_rowKey() throws Exception
+	{
+		CQLBatch batch = mock(CQLBatch.class);
+		LongDataPointFactory dataPointFactory = new LongDataPointFactoryImpl();
+		long now = System.currentTimeMillis();
+
+		ImmutableSortedMap<String, String> tags1 = ImmutableSortedMap.of("host", "bob");
+		ImmutableSortedMap<String, String> tags2 = ImmutableSortedMap.of("host", "sam");
+		List<DataPointEvent> events = Arrays.asList(
+				new DataPointEvent("metric_name", tags1, dataPointFactory.createDataPoint(now, 42L)),
+				new DataPointEvent("metric_name", tags1, dataPointFactory.createDataPoint(now+1, 42L)),
+				new DataPointEvent("metric_name", tags2, dataPointFactory.createDataPoint(now+2, 42L)),
+				new DataPointEvent("metric_name", ImmutableSortedMap.of("host", "bob"), dataPointFactory.createDataPoint(now+3, 42L)));
 
-}
\ No newline at end of file
+		setup(events);
+
+		when(m_cqlBatchFactory.create()).thenReturn(batch);
+
+		m_batchHandler.retryCall();
+
+		ArgumentCaptor<DataPointsRowKey> rowKeys = ArgumentCaptor.forClass(DataPointsRowKey.class);
+		verify(batch, times(4)).addDataPoint(rowKeys.capture(), anyInt(), any(), anyInt());
+		verify(batch, times(2)).addRowKey(any(), anyInt());
+
+		List<DataPointsRowKey> keys = rowKeys.getAllValues();
+		assertThat(keys.get(1)).isSameAs(keys.get(0));
+		assertThat(keys.get(3)).isSameAs(keys.get(0));
+		assertThat(keys.get(2)).isNotSameAs(keys.get(0));
+		assertThat(keys.get(2).getTags()).isEqualTo(tags2);
+	}
+}
@@ -0,0 +1,420 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.RetryPolicy;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.KairosRootConfig;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.queue.EventCompletionCallBack;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ Measures the per data point cost of the cassandra write path, from resolving
+ the row key in {@link BatchHandler} through binding the insert statement in
+ {@link CQLBatch}.  Nothing is sent to cassandra.
+
+ The number to watch is gc.alloc.rate.norm which is the bytes allocated per
+ data point.  Run the main method from the test classpath or pass the class
+ name to org.openjdk.jmh.Main.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CQLBatchBenchmark
+{
+	private static final int SERIES_COUNT = 10;
+	private static final int POINTS_PER_SERIES = 100;
+	private static final int POINT_COUNT = SERIES_COUNT * POINTS_PER_SERIES;
+
+	private BatchHandler m_batchHandler;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws Exception
+	{
+		CassandraClient cassandraClient = mock(CassandraClient.class, withSettings().stubOnly());
+		when(cassandraClient.getClusterConfiguration()).thenReturn(mock(ClusterConfiguration.class, withSettings().stubOnly()));
+		when(cassandraClient.getKeyspace()).thenReturn("kairosdb");
+
+		ClusterConnection clusterConnection = new ClusterConnection(null, cassandraClient,
+				EnumSet.of(ClusterConnection.Type.WRITE), HashMultimap.create());
+		clusterConnection.psDataPointsInsert = new BenchmarkPreparedStatement(newColumnDefinitions(),
+				newPreparedId());
+
+		LoadBalancingPolicy loadBalancingPolicy = new EmptyLoadBalancingPolicy();
+		BatchStats batchStats = new BatchStats();
+
+		FilterEventBus eventBus = mock(FilterEventBus.class, withSettings().stubOnly());
+		when(eventBus.createPublisher(any())).thenReturn(mock(Publisher.class, withSettings().stubOnly()));
+
+		KairosRootConfig rootConfig = new KairosRootConfig();
+		rootConfig.load(ImmutableMap.of("kairosdb.datastore.cassandra.write_cluster", new HashMap()));
+
+		DoubleDataPointFactoryImpl dataPointFactory = new DoubleDataPointFactoryImpl();
+		long now = System.currentTimeMillis();
+		List<DataPointEvent> events = new ArrayList<>();
+		for (int series = 0; series < SERIES_COUNT; series++)
+		{
+			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of(
+					"host", "server" + series,
+					"datacenter", "dc1",
+					"customer", "acme");
+
+			for (int i = 0; i < POINTS_PER_SERIES; i++)
+				events.add(new DataPointEvent("benchmark.metric", tags,
+						dataPointFactory.createDataPoint(now + i, i * 1.5)));
+		}
+
+		m_batchHandler = new BatchHandler(events,
+				mock(EventCompletionCallBack.class, withSettings().stubOnly()),
+				new CassandraConfiguration(rootConfig),
+				new DataCache<>(1024),
+				new DataCache<>(1024),
+				eventBus,
+				() -> new BenchmarkCQLBatch(clusterConnection, batchStats, loadBalancingPolicy),
+				new RowSpec());
+
+		//Prime the row key caches so the benchmark measures the steady state
+		m_batchHandler.retryCall();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINT_COUNT)
+	public void writeDataPoints() throws Exception
+	{
+		m_batchHandler.retryCall();
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(CQLBatchBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+
+	/**
+	 Column definitions matching ClusterConnection.DATA_POINTS_INSERT, the
+	 driver only creates these and the prepared id when preparing against a
+	 live cluster.
+	 */
+	private static ColumnDefinitions newColumnDefinitions() throws Exception
+	{
+		Constructor<ColumnDefinitions.Definition> defConstructor = ColumnDefinitions.Definition.class
+				.getDeclaredConstructor(String.class, String.class, String.class, DataType.class);
+		defConstructor.setAccessible(true);
+
+		ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[]{
+				defConstructor.newInstance("kairosdb", "data_points", "key", DataType.blob()),
+				defConstructor.newInstance("kairosdb", "data_points", "column1", DataType.blob()),
+				defConstructor.newInstance("kairosdb", "data_points", "value", DataType.blob()),
+				defConstructor.newInstance("kairosdb", "data_points", "[ttl]", DataType.cint()),
+				defConstructor.newInstance("kairosdb", "data_points", "[timestamp]", DataType.bigint())
+		};
+
+		Constructor<ColumnDefinitions> constructor = ColumnDefinitions.class
+				.getDeclaredConstructor(ColumnDefinitions.Definition[].class, CodecRegistry.class);
+		constructor.setAccessible(true);
+
+		return constructor.newInstance(definitions, CodecRegistry.DEFAULT_INSTANCE);
+	}
+
+	private static PreparedId newPreparedId() throws Exception
+	{
+		Class<?> metadataClass = Class.forName("com.datastax.driver.core.PreparedId$PreparedMetadata");
+		Constructor<PreparedId> constructor = PreparedId.class.getDeclaredConstructor(metadataClass,
+				metadataClass, int[].class, ProtocolVersion.class);
+		constructor.setAccessible(true);
+
+		return constructor.newInstance(null, null, new int[]{0}, ProtocolVersion.V4);
+	}
+
+	/**
+	 Binds data point statements like the real batch but drops them instead of
+	 sending them to cassandra.  Index writes only happen while priming the
+	 caches so they are skipped.
+	 */
+	private static class BenchmarkCQLBatch extends CQLBatch
+	{
+		public BenchmarkCQLBatch(ClusterConnection clusterConnection, BatchStats batchStats,
+				LoadBalancingPolicy loadBalancingPolicy)
+		{
+			super(ConsistencyLevel.ONE, clusterConnection, batchStats, loadBalancingPolicy);
+		}
+
+		@Override
+		public void addTimeIndex(String metricName, long rowKeyTime, int rowKeyTtl)
+		{
+		}
+
+		@Override
+		public void addRowKey(DataPointsRowKey rowKey, int rowKeyTtl)
+		{
+		}
+
+		@Override
+		public void addMetricName(TimedString metricName)
+		{
+		}
+
+		@Override
+		public void submitBatch()
+		{
+		}
+	}
+
+	private static class EmptyLoadBalancingPolicy implements LoadBalancingPolicy
+	{
+		@Override
+		public void init(Cluster cluster, Collection<Host> hosts)
+		{
+		}
+
+		@Override
+		public HostDistance distance(Host host)
+		{
+			return HostDistance.LOCAL;
+		}
+
+		@Override
+		public Iterator<Host> newQueryPlan(String loggedKeyspace, Statement statement)
+		{
+			return Collections.emptyIterator();
+		}
+
+		@Override
+		public void onAdd(Host host)
+		{
+		}
+
+		@Override
+		public void onUp(Host host)
+		{
+		}
+
+		@Override
+		public void onDown(Host host)
+		{
+		}
+
+		@Override
+		public void onRemove(Host host)
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	private static class BenchmarkPreparedStatement implements PreparedStatement
+	{
+		private final ColumnDefinitions m_variables;
+		private final PreparedId m_preparedId;
+
+		private BenchmarkPreparedStatement(ColumnDefinitions variables, PreparedId preparedId)
+		{
+			m_variables = variables;
+			m_preparedId = preparedId;
+		}
+
+		@Override
+		public ColumnDefinitions getVariables()
+		{
+			return m_variables;
+		}
+
+		@Override
+		public BoundStatement bind(Object... values)
+		{
+			return new BoundStatement(this).bind(values);
+		}
+
+		@Override
+		public BoundStatement bind()
+		{
+			return new BoundStatement(this);
+		}
+
+		@Override
+		public PreparedStatement setRoutingKey(ByteBuffer routingKey)
+		{
+			return this;
+		}
+
+		@Override
+		public PreparedStatement setRoutingKey(ByteBuffer... routingKeyComponents)
+		{
+			return this;
+		}
+
+		@Override
+		public ByteBuffer getRoutingKey()
+		{
+			return null;
+		}
+
+		@Override
+		public PreparedStatement setConsistencyLevel(ConsistencyLevel consistency)
+		{
+			return this;
+		}
+
+		@Override
+		public ConsistencyLevel getConsistencyLevel()
+		{
+			return null;
+		}
+
+		@Override
+		public PreparedStatement setSerialConsistencyLevel(ConsistencyLevel serialConsistency)
+		{
+			return this;
+		}
+
+		@Override
+		public ConsistencyLevel getSerialConsistencyLevel()
+		{
+			return null;
+		}
+
+		@Override
+		public String getQueryString()
+		{
+			return ClusterConnection.DATA_POINTS_INSERT;
+		}
+
+		@Override
+		public String getQueryKeyspace()
+		{
+			return "kairosdb";
+		}
+
+		@Override
+		public PreparedStatement enableTracing()
+		{
+			return this;
+		}
+
+		@Override
+		public PreparedStatement disableTracing()
+		{
+			return this;
+		}
+
+		@Override
+		public boolean isTracing()
+		{
+			return false;
+		}
+
+		@Override
+		public PreparedStatement setRetryPolicy(RetryPolicy policy)
+		{
+			return this;
+		}
+
+		@Override
+		public RetryPolicy getRetryPolicy()
+		{
+			return null;
+		}
+
+		@Override
+		public PreparedId getPreparedId()
+		{
+			return m_preparedId;
+		}
+
+		@Override
+		public Map<String, ByteBuffer> getIncomingPayload()
+		{
+			return null;
+		}
+
+		@Override
+		public Map<String, ByteBuffer> getOutgoingPayload()
+		{
+			return null;
+		}
+
+		@Override
+		public PreparedStatement setOutgoingPayload(Map<String, ByteBuffer> payload)
+		{
+			return this;
+		}
+
+		@Override
+		public CodecRegistry getCodecRegistry()
+		{
+			return CodecRegistry.DEFAULT_INSTANCE;
+		}
+
+		@Override
+		public PreparedStatement setIdempotent(Boolean idempotent)
+		{
+			return this;
+		}
+
+		@Override
+		public Boolean isIdempotent()
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CQLBatchTest
+{
+	private ClusterConnection m_cluster;
+	private LoadBalancingPolicy m_loadBalancingPolicy;
+	private HostBatchLimiter m_limiter;
+	private Host m_host1;
+	private Host m_host2;
+	private CQLBatch m_batch;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		m_cluster = mock(ClusterConnection.class);
+		m_cluster.psDataPointsDelete = createPreparedStatement(DataType.blob(), DataType.blob());
+		when(m_cluster.getKeyspace()).thenReturn("kairosdb");
+
+		m_loadBalancingPolicy = mock(LoadBalancingPolicy.class);
+		m_limiter = new HostBatchLimiter(1);
+		m_host1 = mock(Host.class);
+		m_host2 = mock(Host.class);
+
+		m_batch = new CQLBatch(ConsistencyLevel.ONE, m_cluster, new BatchStats(), m_loadBalancingPolicy);
+		m_batch.setBatchLimiter(m_limiter);
+
+		addStatement(m_host1);
+		addStatement(m_host2);
+	}
+
+	private static PreparedStatement createPreparedStatement(DataType... types)
+	{
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		when(variables.size()).thenReturn(types.length);
+		when(variables.getType(anyInt())).thenAnswer(invocation -> types[(Integer) invocation.getArgument(0)]);
+
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(statement.getVariables()).thenReturn(variables);
+		when(statement.getPreparedId()).thenReturn(mock(PreparedId.class));
+		when(statement.getCodecRegistry()).thenReturn(CodecRegistry.DEFAULT_INSTANCE);
+		return statement;
+	}
+
+	/**
+	 Adds a statement to the batch that the load balancing policy routes to host
+	 */
+	private void addStatement(Host host) throws IOException
+	{
+		when(m_loadBalancingPolicy.newQueryPlan(any(), any()))
+				.thenAnswer(invocation -> Collections.singletonList(host).iterator());
+
+		DataPointsRowKey rowKey = new DataPointsRowKey("metric1", "cluster", 0L, "kairos_long",
+				new TreeMap<>(ImmutableMap.of("host", "a")));
+		m_batch.deleteDataPoint(rowKey, 1);
+	}
+
+	private void assertNoBatchesInFlight()
+	{
+		assertThat(m_limiter.getInFlight(m_host1)).isEqualTo(0);
+		assertThat(m_limiter.getInFlight(m_host2)).isEqualTo(0);
+	}
+
+	private static void assertStillRunning(CompletableFuture<?> submit) throws Exception
+	{
+		assertThatThrownBy(() -> submit.get(100, TimeUnit.MILLISECONDS))
+				.isInstanceOf(TimeoutException.class);
+	}
+
+	@Test(timeout = 10000)
+	public void test_waitsForAllHosts() throws Exception
+	{
+		TestResultSetFuture future1 = new TestResultSetFuture();
+		TestResultSetFuture future2 = new TestResultSetFuture();
+		when(m_cluster.executeAsync(any())).thenReturn(future1, future2);
+
+		CompletableFuture<Void> submit = CompletableFuture.runAsync(m_batch::submitBatch);
+
+		//Both batches are sent before waiting on either of them
+		assertStillRunning(submit);
+		verify(m_cluster, times(2)).executeAsync(any());
+
+		future1.set(mock(ResultSet.class));
+		assertStillRunning(submit);
+
+		future2.set(mock(ResultSet.class));
+		submit.get();
+		assertNoBatchesInFlight();
+	}
+
+	@Test(timeout = 10000)
+	public void test_failedBatchThrown() throws Exception
+	{
+		TestResultSetFuture future1 = new TestResultSetFuture();
+		TestResultSetFuture future2 = new TestResultSetFuture();
+		when(m_cluster.executeAsync(any())).thenReturn(future1, future2);
+
+		CompletableFuture<Void> submit = CompletableFuture.runAsync(m_batch::submitBatch);
+
+		//A failure does not return before the other batch is done
+		future1.setException(new IllegalStateException("write timeout"));
+		assertStillRunning(submit);
+
+		future2.set(mock(ResultSet.class));
+		assertThatThrownBy(submit::get)
+				.isInstanceOf(ExecutionException.class)
+				.hasRootCauseInstanceOf(IllegalStateException.class)
+				.hasRootCauseMessage("write timeout");
+		assertNoBatchesInFlight();
+	}
+
+	@Test(timeout = 10000)
+	public void test_sendFailureWaitsForSentBatches() throws Exception
+	{
+		TestResultSetFuture future1 = new TestResultSetFuture();
+		IllegalStateException sendFailure = new IllegalStateException("no host available");
+		when(m_cluster.executeAsync(any())).thenReturn(future1).thenThrow(sendFailure);
+
+		CompletableFuture<Void> submit = CompletableFuture.runAsync(m_batch::submitBatch);
+
+		//The batch that went out has to finish before the failure is thrown
+		assertStillRunning(submit);
+
+		IllegalStateException batchFailure = new IllegalStateException("write timeout");
+		future1.setException(batchFailure);
+
+		assertThatThrownBy(submit::get)
+				.isInstanceOf(ExecutionException.class)
+				.hasCause(sendFailure);
+		assertThat(sendFailure.getSuppressed()).containsExactly(batchFailure);
+		assertNoBatchesInFlight();
+	}
+
+	private static class TestResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture
+	{
+		@Override
+		public boolean set(ResultSet value)
+		{
+			return super.set(value);
+		}
+
+		@Override
+		public boolean setException(Throwable throwable)
+		{
+			return super.setException(throwable);
+		}
+
+		/**
+		 Throws the cause of a failure the same way the driver does
+		 */
+		@Override
+		public ResultSet getUninterruptibly()
+		{
+			try
+			{
+				return Uninterruptibles.getUninterruptibly(this);
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.exception.DatastoreException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CQLFilteredRowKeyIteratorTest
+{
+	private static final String METRIC = "metric1";
+	private static final String CLUSTER = "cluster";
+	private static final long TIER_1 = 0L;
+	private static final long TIER_2 = RowSpec.DEFAULT_ROW_WIDTH;
+
+	private ClusterConnection m_cluster;
+	private RowKeyLookup m_rowKeyLookup;
+	private TestResultSetFuture m_legacyIndex;
+	private TestResultSetFuture m_tierTimes;
+
+	@Before
+	public void setUp()
+	{
+		m_cluster = mock(ClusterConnection.class);
+		m_cluster.psRowKeyIndexQuery = createPreparedStatement(DataType.text(), DataType.blob(), DataType.blob());
+		m_cluster.psRowKeyTimeQuery = createPreparedStatement(DataType.text(), DataType.text(),
+				DataType.timestamp(), DataType.timestamp());
+		when(m_cluster.getRowSpec()).thenReturn(new RowSpec());
+		when(m_cluster.getClusterName()).thenReturn(CLUSTER);
+		when(m_cluster.getReadConsistencyLevel()).thenReturn(ConsistencyLevel.ONE);
+
+		m_legacyIndex = new TestResultSetFuture();
+		m_tierTimes = new TestResultSetFuture();
+		//Legacy index query is sent before the query for the tier times
+		when(m_cluster.executeAsync(any())).thenReturn(m_legacyIndex, m_tierTimes);
+
+		m_rowKeyLookup = mock(RowKeyLookup.class);
+		when(m_cluster.getRowKeyLookupForMetric(METRIC)).thenReturn(m_rowKeyLookup);
+	}
+
+	private static PreparedStatement createPreparedStatement(DataType... types)
+	{
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		when(variables.size()).thenReturn(types.length);
+		when(variables.getType(anyInt())).thenAnswer(invocation -> types[(Integer) invocation.getArgument(0)]);
+
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(statement.getVariables()).thenReturn(variables);
+		when(statement.getPreparedId()).thenReturn(mock(PreparedId.class));
+		when(statement.getCodecRegistry()).thenReturn(CodecRegistry.DEFAULT_INSTANCE);
+		return statement;
+	}
+
+	private CQLFilteredRowKeyIterator createIterator() throws DatastoreException
+	{
+		return new CQLFilteredRowKeyIterator(m_cluster, METRIC, 1L, TIER_2 + 1000L,
+				HashMultimap.create(), "");
+	}
+
+	private static DataPointsRowKey rowKey(long tierTime, String host)
+	{
+		return new DataPointsRowKey(METRIC, CLUSTER, tierTime, "kairos_long",
+				new TreeMap<>(ImmutableMap.of("host", host)));
+	}
+
+	private static ResultSet resultSet(ColumnDefinitions columns, List<Row> rows)
+	{
+		Iterator<Row> iterator = rows.iterator();
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.getColumnDefinitions()).thenReturn(columns);
+		when(resultSet.isExhausted()).thenAnswer(invocation -> !iterator.hasNext());
+		when(resultSet.one()).thenAnswer(invocation -> iterator.next());
+		return resultSet;
+	}
+
+	/**
+	 Rows of the single row legacy index
+	 */
+	private static ResultSet legacyIndex(DataPointsRowKey... keys)
+	{
+		List<Row> rows = new ArrayList<>();
+		for (DataPointsRowKey key : keys)
+		{
+			Row row = mock(Row.class);
+			when(row.getBytes(0)).thenReturn(CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(key));
+			rows.add(row);
+		}
+
+		return resultSet(mock(ColumnDefinitions.class), rows);
+	}
+
+	/**
+	 Rows of the time tiered index
+	 */
+	private static ResultSet tierIndex(DataPointsRowKey... keys)
+	{
+		List<Row> rows = new ArrayList<>();
+		for (DataPointsRowKey key : keys)
+		{
+			Row row = mock(Row.class);
+			when(row.getTimestamp(0)).thenReturn(new Date(key.getTimestamp()));
+			when(row.getString(1)).thenReturn(key.getDataType());
+			when(row.getMap(2, String.class, String.class)).thenReturn((Map<String, String>) key.getTags());
+			when(row.getInt(3)).thenReturn(0);
+			rows.add(row);
+		}
+
+		ColumnDefinitions columns = mock(ColumnDefinitions.class);
+		when(columns.contains("row_time")).thenReturn(true);
+		return resultSet(columns, rows);
+	}
+
+	private static ResultSet tierTimes(long... times)
+	{
+		List<Row> rows = new ArrayList<>();
+		for (long time : times)
+		{
+			Row row = mock(Row.class);
+			when(row.getTimestamp(0)).thenReturn(new Date(time));
+			rows.add(row);
+		}
+
+		return resultSet(mock(ColumnDefinitions.class), rows);
+	}
+
+	private static List<DataPointsRowKey> readAll(Iterator<DataPointsRowKey> iterator)
+	{
+		List<DataPointsRowKey> keys = new ArrayList<>();
+		while (iterator.hasNext())
+			keys.add(iterator.next());
+
+		return keys;
+	}
+
+	@Test
+	public void test_keysInBothIndexesReturnedOnce() throws DatastoreException
+	{
+		SettableFuture<ResultSet> tier1 = SettableFuture.create();
+		SettableFuture<ResultSet> tier2 = SettableFuture.create();
+		when(m_rowKeyLookup.queryRowKeys(eq(METRIC), eq(TIER_1), any())).thenReturn(tier1);
+		when(m_rowKeyLookup.queryRowKeys(eq(METRIC), eq(TIER_2), any())).thenReturn(tier2);
+
+		m_legacyIndex.set(legacyIndex(rowKey(TIER_1, "a"), rowKey(TIER_1, "b"), rowKey(TIER_2, "a")));
+		m_tierTimes.set(tierTimes(TIER_1, TIER_2));
+		tier1.set(tierIndex(rowKey(TIER_1, "a"), rowKey(TIER_1, "c"), rowKey(TIER_1, "c")));
+		tier2.set(tierIndex(rowKey(TIER_2, "a"), rowKey(TIER_2, "b")));
+
+		List<DataPointsRowKey> keys = readAll(createIterator());
+
+		assertThat(keys).containsExactly(
+				rowKey(TIER_1, "a"), rowKey(TIER_1, "b"), rowKey(TIER_2, "a"),
+				rowKey(TIER_1, "c"),
+				rowKey(TIER_2, "b"));
+		//Same tags in different tiers are different rows
+		assertThat(keys).filteredOn(key -> key.getTimestamp() == TIER_2).hasSize(2);
+	}
+
+	@Test(timeout = 10000)
+	public void test_indexQueriesCompleteOutOfOrder() throws Exception
+	{
+		SettableFuture<ResultSet> tier1 = SettableFuture.create();
+		SettableFuture<ResultSet> tier2 = SettableFuture.create();
+		when(m_rowKeyLookup.queryRowKeys(eq(METRIC), eq(TIER_1), any())).thenReturn(tier1);
+		when(m_rowKeyLookup.queryRowKeys(eq(METRIC), eq(TIER_2), any())).thenReturn(tier2);
+
+		m_legacyIndex.set(legacyIndex());
+		m_tierTimes.set(tierTimes(TIER_1, TIER_2));
+
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		//The second tier finishes first, keys still come back in tier order
+		tier2.set(tierIndex(rowKey(TIER_2, "a"), rowKey(TIER_2, "b")));
+		CompletableFuture<Void> completeTier1 = CompletableFuture.runAsync(() ->
+		{
+			sleep(100);
+			tier1.set(tierIndex(rowKey(TIER_1, "a"), rowKey(TIER_1, "b")));
+		});
+
+		assertThat(readAll(iterator)).containsExactly(
+				rowKey(TIER_1, "a"), rowKey(TIER_1, "b"),
+				rowKey(TIER_2, "a"), rowKey(TIER_2, "b"));
+		completeTier1.get();
+	}
+
+	@Test
+	public void test_indexQueryFailure() throws DatastoreException
+	{
+		SettableFuture<ResultSet> tier1 = SettableFuture.create();
+		when(m_rowKeyLookup.queryRowKeys(eq(METRIC), eq(TIER_1), any())).thenReturn(tier1);
+
+		m_legacyIndex.set(legacyIndex(rowKey(TIER_1, "a")));
+		m_tierTimes.set(tierTimes(TIER_1));
+		tier1.setException(new IllegalStateException("read timeout"));
+
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		//Keys read before the failure are still returned
+		assertThat(iterator.hasNext()).isTrue();
+		assertThat(iterator.next()).isEqualTo(rowKey(TIER_1, "a"));
+
+		assertThatThrownBy(iterator::hasNext)
+				.isInstanceOf(CQLFilteredRowKeyIterator.IndexQueryException.class)
+				.hasCauseInstanceOf(DatastoreException.class)
+				.hasRootCauseMessage("read timeout");
+	}
+
+	@Test
+	public void test_tierTimeQueryFailure() throws DatastoreException
+	{
+		m_legacyIndex.set(legacyIndex());
+		m_tierTimes.setException(new IllegalStateException("unavailable"));
+
+		CQLFilteredRowKeyIterator iterator = createIterator();
+
+		assertThatThrownBy(iterator::hasNext)
+				.isInstanceOf(CQLFilteredRowKeyIterator.IndexQueryException.class)
+				.hasCauseInstanceOf(DatastoreException.class)
+				.hasRootCauseMessage("unavailable");
+	}
+
+	private static void sleep(long millis)
+	{
+		try
+		{
+			TimeUnit.MILLISECONDS.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class TestResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture
+	{
+		@Override
+		public boolean set(ResultSet value)
+		{
+			return super.set(value);
+		}
+
+		@Override
+		public boolean setException(Throwable throwable)
+		{
+			return super.setException(throwable);
+		}
+
+		@Override
+		public ResultSet getUninterruptibly()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
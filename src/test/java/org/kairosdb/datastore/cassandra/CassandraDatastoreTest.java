@@ -346,7 +346,8 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 					public CQLBatch create() {
 						return null;
 					}
-				});
+				},
+				new QueryReaderExecutor(configuration));
 
 		DatastoreTestHelper.s_datastore = new KairosDatastore(s_datastore,
 				new QueryQueuingManager(1, "hostname"),
@@ -17,8 +17,15 @@
 package org.kairosdb.datastore.cassandra;
 
 import org.junit.Test;
+import org.kairosdb.core.DataPointSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -101,4 +108,130 @@ public class DataCacheTest
 		ret = cache.cacheItem(new TestObject("td3"));
 		assertTrue(td3 == ret);
 	}
+
+	@Test
+	public void test_removeKey()
+	{
+		DataCache<String> cache = new DataCache<String>(2);
+
+		assertNull(cache.cacheItem("one"));
+		assertNull(cache.cacheItem("two"));
+		cache.removeKey("one");
+
+		assertNull(cache.cacheItem("three")); //Uses the slot freed by 'one'
+		assertNotNull(cache.cacheItem("two"));
+		assertNotNull(cache.cacheItem("three"));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void test_maxBytes()
+	{
+		DataCache<String> cache = new DataCache<String>(100, 10, String::length);
+
+		assertNull(cache.cacheItem("aaaa"));
+		assertNull(cache.cacheItem("bbbb"));
+		assertNull(cache.cacheItem("cccc")); //Boots 'aaaa' to stay under 10 bytes
+
+		assertEquals(2, cache.size());
+		assertEquals(8, cache.getEstimatedBytes());
+		assertNull(cache.cacheItem("aaaa"));
+	}
+
+	@Test
+	public void test_maxBytesSmallerThanSegmentCount()
+	{
+		DataCache<Integer> cache = new DataCache<Integer>(10000, 8, item -> 1);
+
+		for (int i = 0; i < 1000; i++)
+			cache.cacheItem(i);
+
+		assertEquals(8, cache.size());
+		assertEquals(8, cache.getEstimatedBytes());
+	}
+
+	@Test
+	public void test_segmentedCacheHoldsCacheSize()
+	{
+		DataCache<Integer> cache = new DataCache<Integer>(10000);
+
+		for (int i = 0; i < 10000; i++)
+			assertNull(cache.cacheItem(i));
+
+		assertEquals(10000, cache.size());
+		assertEquals(10000, cache.getCachedKeys().size());
+
+		for (int i = 0; i < 20000; i++)
+			cache.cacheItem(i);
+
+		assertEquals(10000, cache.size());
+	}
+
+	@Test
+	public void test_concurrentCacheItemReturnsOneInstance() throws InterruptedException
+	{
+		DataCache<TestObject> cache = new DataCache<TestObject>(1000);
+		ConcurrentHashMap<String, TestObject> firstIn = new ConcurrentHashMap<>();
+		AtomicInteger failures = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++)
+		{
+			threads.add(new Thread(() ->
+			{
+				for (int i = 0; i < 500; i++)
+				{
+					TestObject obj = new TestObject("obj" + i);
+					TestObject ret = cache.cacheItem(obj);
+					if (ret == null)
+					{
+						if (firstIn.putIfAbsent("obj" + i, obj) != null)
+							failures.incrementAndGet(); //Two threads both added the item
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(0, failures.get());
+		assertEquals(500, cache.size());
+	}
+
+	@Test
+	public void test_reportMetrics()
+	{
+		DataCache<String> cache = new DataCache<String>(1);
+
+		cache.cacheItem("one");
+		cache.cacheItem("one");
+		cache.cacheItem("two");
+
+		List<DataPointSet> metrics = new ArrayList<>();
+		cache.reportMetrics(0L, "host", "test", metrics);
+
+		assertEquals(1L, getValue(metrics, DataCache.HIT_METRIC));
+		assertEquals(2L, getValue(metrics, DataCache.MISS_METRIC));
+		assertEquals(1L, getValue(metrics, DataCache.EVICTION_METRIC));
+		assertEquals(1L, getValue(metrics, DataCache.SIZE_METRIC));
+		assertEquals("test", metrics.get(0).getTags().get("cache"));
+
+		metrics.clear();
+		cache.reportMetrics(0L, "host", "test", metrics);
+		assertEquals(0L, getValue(metrics, DataCache.HIT_METRIC));
+	}
+
+	private long getValue(List<DataPointSet> metrics, String name)
+	{
+		for (DataPointSet metric : metrics)
+		{
+			if (metric.getName().equals(name))
+				return metric.getDataPoints().get(0).getLongValue();
+		}
+
+		throw new AssertionError("Metric "+name+" not found");
+	}
 }
@@ -0,0 +1,56 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.Host;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class HostBatchLimiterTest
+{
+	@Test
+	public void test_blocksWhenHostIsFull() throws InterruptedException
+	{
+		HostBatchLimiter limiter = new HostBatchLimiter(2);
+		Host host1 = mock(Host.class);
+		Host host2 = mock(Host.class);
+
+		limiter.acquire(host1);
+		limiter.acquire(host1);
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() ->
+		{
+			limiter.acquire(host1);
+			acquired.countDown();
+		});
+		thread.start();
+
+		assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+		//Other hosts are not held up by a full host
+		limiter.acquire(host2);
+		assertThat(limiter.getInFlight(host2)).isEqualTo(1);
+
+		limiter.release(host1);
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		assertThat(limiter.getInFlight(host1)).isEqualTo(2);
+	}
+
+	@Test
+	public void test_zeroDoesNotLimit()
+	{
+		HostBatchLimiter limiter = new HostBatchLimiter(0);
+		Host host = mock(Host.class);
+
+		for (int i = 0; i < 100; i++)
+			limiter.acquire(host);
+
+		assertThat(limiter.getInFlight(host)).isEqualTo(0);
+	}
+}
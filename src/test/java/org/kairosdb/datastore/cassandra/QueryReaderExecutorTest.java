@@ -0,0 +1,112 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class QueryReaderExecutorTest
+{
+	private QueryReaderExecutor m_executor;
+
+	@After
+	public void tearDown()
+	{
+		if (m_executor != null)
+			m_executor.shutdown();
+	}
+
+	@Test
+	public void test_allTasksRun() throws InterruptedException
+	{
+		m_executor = new QueryReaderExecutor(4, 2);
+		CountDownLatch latch = new CountDownLatch(1000);
+
+		for (int i = 0; i < 10; i++)
+		{
+			Executor reader = m_executor.newQueryReader();
+			for (int j = 0; j < 100; j++)
+				reader.execute(latch::countDown);
+		}
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertThat(m_executor.getQueueSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_queryLimitedToThreadsPerQuery() throws InterruptedException
+	{
+		m_executor = new QueryReaderExecutor(4, 2);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch(50);
+
+		Executor reader = m_executor.newQueryReader();
+		for (int i = 0; i < 50; i++)
+		{
+			reader.execute(() ->
+			{
+				int current = running.incrementAndGet();
+				maxRunning.accumulateAndGet(current, Math::max);
+				try
+				{
+					Thread.sleep(2);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				latch.countDown();
+			});
+		}
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+	}
+
+	@Test
+	public void test_largeQueryDoesNotStarveSmallQuery() throws InterruptedException
+	{
+		m_executor = new QueryReaderExecutor(1, 0);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch blocker = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(102);
+
+		Executor largeQuery = m_executor.newQueryReader();
+		Executor smallQuery = m_executor.newQueryReader();
+
+		//Hold the only thread until both queries have work queued
+		largeQuery.execute(() ->
+		{
+			try
+			{
+				blocker.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			done.countDown();
+		});
+
+		for (int i = 0; i < 100; i++)
+			largeQuery.execute(() -> { order.add("large"); done.countDown(); });
+
+		smallQuery.execute(() -> { order.add("small"); done.countDown(); });
+
+		blocker.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		assertThat(order.indexOf("small")).isLessThanOrEqualTo(1);
+	}
+}
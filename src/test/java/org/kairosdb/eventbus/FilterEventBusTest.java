@@ -3,6 +3,11 @@ package org.kairosdb.eventbus;
 import org.kairosdb.core.KairosRootConfig;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -81,6 +86,94 @@ public class FilterEventBusTest
 		assertThat(subscriber3.isWasCalled()).isFalse();
 	}
 
+	@Test
+	public void test_postBatch_singleEventSubscribers()
+	{
+		Subscriber subscriber1 = new Subscriber();
+		Subscriber subscriber2 = new Subscriber();
+		FilterSubscriber filter = new FilterSubscriber("Bye");
+		EventBusConfiguration config = new EventBusConfiguration(new KairosRootConfig());
+		FilterEventBus eventBus = new FilterEventBus(config);
+
+		eventBus.register(subscriber1, 1);
+		eventBus.register(filter, 5);
+		eventBus.register(subscriber2, 10);
+
+		List<String> batch = Arrays.asList("Hi", "There");
+		eventBus.createPublisher(String.class).postBatch(batch);
+
+		assertEquals("There", subscriber1.what());
+		assertEquals("There", filter.what());
+		assertEquals("Bye", subscriber2.what());
+		assertEquals(Arrays.asList("Hi", "There"), batch);
+	}
+
+	@Test
+	public void test_postBatch_batchSubscribers()
+	{
+		BatchSubscriber subscriber1 = new BatchSubscriber();
+		BatchSubscriber subscriber2 = new BatchSubscriber();
+		BatchFilter filter = new BatchFilter("Drop");
+		EventBusConfiguration config = new EventBusConfiguration(new KairosRootConfig());
+		FilterEventBus eventBus = new FilterEventBus(config);
+
+		eventBus.register(subscriber1, 1);
+		eventBus.register(filter, 5);
+		eventBus.register(subscriber2, 10);
+
+		Publisher<String> publisher = eventBus.createPublisher(String.class);
+		publisher.postBatch(Arrays.asList("Hi", "Drop", "There"));
+
+		assertThat(subscriber1.getBatches()).containsExactly(Arrays.asList("Hi", "Drop", "There"));
+		assertThat(subscriber2.getBatches()).containsExactly(Arrays.asList("Hi", "There"));
+
+		//Single events are handed to batch subscribers as a list of one
+		publisher.post("Single");
+		publisher.post("Drop");
+
+		assertThat(subscriber1.getBatches()).hasSize(3);
+		assertThat(subscriber2.getBatches()).containsExactly(Arrays.asList("Hi", "There"),
+				Collections.singletonList("Single"));
+	}
+
+	public class BatchSubscriber
+	{
+		private final List<List<String>> m_batches = new ArrayList<>();
+
+		@Subscribe
+		public void consume(List<String> data)
+		{
+			m_batches.add(new ArrayList<>(data));
+		}
+
+		public List<List<String>> getBatches()
+		{
+			return m_batches;
+		}
+	}
+
+	public class BatchFilter
+	{
+		private final String m_drop;
+
+		public BatchFilter(String drop)
+		{
+			m_drop = drop;
+		}
+
+		@Subscribe
+		public List<String> consume(List<String> data)
+		{
+			List<String> ret = new ArrayList<>();
+			for (String s : data)
+			{
+				if (!m_drop.equals(s))
+					ret.add(s);
+			}
+			return ret;
+		}
+	}
+
 	public class Subscriber
 	{
 		private String m_what;
@@ -0,0 +1,112 @@
+package org.kairosdb.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TDigestTest
+{
+	private static double exactQuantile(double[] sorted, double quantile)
+	{
+		return sorted[(int) Math.min(sorted.length - 1, Math.floor(quantile * sorted.length))];
+	}
+
+	@Test
+	public void test_empty()
+	{
+		TDigest digest = new TDigest();
+
+		assertThat(digest.size()).isEqualTo(0);
+		assertThat(digest.quantile(0.5)).isNaN();
+	}
+
+	@Test
+	public void test_smallSetIsExact()
+	{
+		TDigest digest = new TDigest();
+		for (int i = 1; i <= 5; i++)
+			digest.add(i);
+
+		assertThat(digest.quantile(0.0)).isEqualTo(1.0);
+		assertThat(digest.quantile(0.5)).isEqualTo(3.0);
+		assertThat(digest.quantile(1.0)).isEqualTo(5.0);
+	}
+
+	@Test
+	public void test_accuracyWithBoundedCentroids()
+	{
+		Random random = new Random(42);
+		TDigest digest = new TDigest(100);
+		double[] values = new double[1000000];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = random.nextGaussian() * 1000;
+			digest.add(values[i]);
+		}
+		Arrays.sort(values);
+
+		assertThat(digest.size()).isEqualTo(values.length);
+		assertThat(digest.getCentroidCount()).isLessThanOrEqualTo(110);
+
+		//Compare by rank so the error does not depend on the value scale
+		for (double quantile : new double[]{0.001, 0.01, 0.5, 0.9, 0.99, 0.999})
+		{
+			double estimate = digest.quantile(quantile);
+			int rank = Arrays.binarySearch(values, estimate);
+			if (rank < 0)
+				rank = -rank - 1;
+			assertThat((double) rank / values.length).as("quantile " + quantile)
+					.isCloseTo(quantile, within(Math.max(0.0005, quantile * (1 - quantile) * 0.02)));
+		}
+	}
+
+	@Test
+	public void test_mergePartialDigests() throws IOException
+	{
+		Random random = new Random(7);
+		TDigest combined = new TDigest();
+		TDigest[] parts = new TDigest[]{new TDigest(), new TDigest(), new TDigest()};
+		double[] values = new double[300000];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = random.nextDouble() * (i % 3 + 1);
+			parts[i % 3].add(values[i]);
+		}
+		Arrays.sort(values);
+
+		for (TDigest part : parts)
+		{
+			//Round trip each part as if it had been stored
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			part.writeTo(new DataOutputStream(bytes));
+			combined.add(TDigest.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+		}
+
+		assertThat(combined.size()).isEqualTo(values.length);
+		for (double quantile : new double[]{0.01, 0.5, 0.99})
+			assertThat(combined.quantile(quantile)).isCloseTo(exactQuantile(values, quantile), within(0.02));
+	}
+
+	@Test
+	public void test_resetForReuse()
+	{
+		TDigest digest = new TDigest();
+		for (int i = 0; i < 10000; i++)
+			digest.add(i);
+
+		digest.reset();
+		digest.add(42);
+
+		assertThat(digest.size()).isEqualTo(1);
+		assertThat(digest.quantile(0.99)).isEqualTo(42.0);
+	}
+}
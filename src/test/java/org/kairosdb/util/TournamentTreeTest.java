@@ -22,6 +22,7 @@ import org.kairosdb.core.datastore.Order;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -176,4 +177,116 @@ public class TournamentTreeTest
 		assertFalse(tt.hasNext());
 		assertNull(tt.nextElement());
 	}
+
+	@Test
+	public void testDescending()
+	{
+		TournamentTree<RowData> tt = new TournamentTree<>(RowData::getTimeStamp, null, Order.DESC);
+
+		List<RowData> list1 = new ArrayList<>();
+		list1.add(new RowData(7, 1));
+		list1.add(new RowData(3, 1));
+		list1.add(new RowData(Long.MIN_VALUE, 1));
+
+		List<RowData> list2 = new ArrayList<>();
+		list2.add(new RowData(Long.MAX_VALUE, 2));
+		list2.add(new RowData(3, 2));
+		list2.add(new RowData(2, 2));
+
+		tt.addIterator(list1.iterator());
+		tt.addIterator(list2.iterator());
+
+		assertEquals(Long.MAX_VALUE, tt.nextElement().getTimeStamp());
+		assertEquals(7, tt.nextElement().getTimeStamp());
+		//Ties go to the iterator added last when descending
+		assertEquals(2, tt.nextElement().getValue());
+		assertEquals(1, tt.nextElement().getValue());
+		assertEquals(2, tt.nextElement().getTimeStamp());
+		assertEquals(Long.MIN_VALUE, tt.nextElement().getTimeStamp());
+		assertFalse(tt.hasNext());
+		assertNull(tt.nextElement());
+	}
+
+	@Test
+	public void testKeyTiesUseComparator()
+	{
+		Comparator<RowData> byValue = Comparator.comparingInt(RowData::getValue);
+		TournamentTree<RowData> tt = new TournamentTree<>(RowData::getTimeStamp, byValue, Order.ASC);
+
+		List<RowData> list1 = new ArrayList<>();
+		list1.add(new RowData(1, 5));
+		list1.add(new RowData(2, 1));
+
+		List<RowData> list2 = new ArrayList<>();
+		list2.add(new RowData(1, 3));
+		list2.add(new RowData(2, 9));
+
+		tt.addIterator(list1.iterator());
+		tt.addIterator(list2.iterator());
+
+		assertEquals(3, tt.nextElement().getValue());
+		assertEquals(5, tt.nextElement().getValue());
+		assertEquals(1, tt.nextElement().getValue());
+		assertEquals(9, tt.nextElement().getValue());
+		assertFalse(tt.hasNext());
+	}
+
+	@Test
+	public void testAddIteratorWhileMerging()
+	{
+		TournamentTree<RowData> tt = new TournamentTree<>(RowData::getTimeStamp, null, Order.ASC);
+
+		List<RowData> list1 = new ArrayList<>();
+		list1.add(new RowData(1, 0));
+		list1.add(new RowData(4, 0));
+
+		List<RowData> list2 = new ArrayList<>();
+		list2.add(new RowData(2, 0));
+		list2.add(new RowData(3, 0));
+
+		tt.addIterator(list1.iterator());
+		tt.addIterator(new ArrayList<RowData>().iterator());
+		assertEquals(1, tt.nextElement().getTimeStamp());
+
+		tt.addIterator(list2.iterator());
+		assertEquals(2, tt.nextElement().getTimeStamp());
+		assertEquals(3, tt.nextElement().getTimeStamp());
+		assertEquals(4, tt.nextElement().getTimeStamp());
+		assertFalse(tt.hasNext());
+	}
+
+	@Test
+	public void testManyIterators()
+	{
+		for (Order order : Order.values())
+		{
+			TournamentTree<RowData> tt = new TournamentTree<>(RowData::getTimeStamp, null, order);
+			Random random = new Random(37);
+			List<Long> expected = new ArrayList<>();
+
+			for (int i = 0; i < 1000; i++)
+			{
+				List<RowData> list = new ArrayList<>();
+				int size = random.nextInt(20);
+				for (int j = 0; j < size; j++)
+				{
+					long ts = random.nextInt(500);
+					list.add(new RowData(ts, i));
+					expected.add(ts);
+				}
+
+				list.sort(order == Order.ASC ? Comparator.comparingLong(RowData::getTimeStamp)
+						: Comparator.comparingLong(RowData::getTimeStamp).reversed());
+				tt.addIterator(list.iterator());
+			}
+
+			expected.sort(order == Order.ASC ? Comparator.<Long>naturalOrder() : Comparator.<Long>reverseOrder());
+
+			List<Long> actual = new ArrayList<>();
+			while (tt.hasNext())
+				actual.add(tt.nextElement().getTimeStamp());
+
+			assertEquals(expected, actual);
+		}
+	}
 }